@@ -61,6 +61,10 @@ android {
         compose = true
         buildConfig = true
     }
+    // 本地单元测试中 android.util.Log 等桩方法返回默认值，而不是抛出 "Stub!"
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 // 【关键】全局强制排除冲突的 XML 库，解决你最后的报错
@@ -6,6 +6,9 @@ import android.util.Log;
 import android.content.SharedPreferences;
 import androidx.appcompat.app.AppCompatDelegate;
 
+import com.example.facecheck.utils.ModelRegistry;
+import com.example.facecheck.utils.ModelWarmup;
+
 public class FaceCheckApp extends Application {
     @Override
     public void onCreate() {
@@ -30,6 +33,8 @@ public class FaceCheckApp extends Application {
                 Log.w("FaceCheckApp", "修复学生sid唯一性失败: " + t.getMessage());
             }
         }).start();
+        // 后台低优先级预热 MobileFaceNet / YuNet，缩短首次识别等待
+        ModelWarmup.schedule(this);
         if (BuildConfig.DEBUG) {
             try {
                 StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
@@ -58,4 +63,17 @@ public class FaceCheckApp extends Application {
             } catch (Throwable ignore) {}
         }
     }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // 内存紧张时关闭共享模型（使用中的在归还后关闭），下次使用时重新加载
+        ModelRegistry.get().trimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        ModelRegistry.get().evictAll();
+    }
 }
@@ -0,0 +1,171 @@
+package com.example.facecheck.database;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import java.util.EnumSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 数据库变更通知总线（进程内单例）
+ * - DatabaseHelper 在人脸特征/学生写入后发布带类型的变更事件
+ * - 每张表维护单调递增的版本号（存于 SharedPreferences，进程重启后保留），
+ *   缓存只需比较版本号即可判断是否过期，无需查询 SQLite
+ * - WebDAV 下载覆盖整个数据库后发布 REPLACED，所有表版本号同时前进
+ * 监听器在发布事件的线程上同步回调，涉及 UI 的监听器需自行切回主线程。
+ */
+public final class DatabaseChangeBus {
+
+    private static final String TAG = "DatabaseChangeBus";
+    private static final String PREFS_TABLE_VERSIONS = "db_table_versions";
+
+    public enum Table {
+        FACE_EMBEDDING("FaceEmbedding"), STUDENT("Student");
+
+        private final String tableName;
+
+        Table(String tableName) {
+            this.tableName = tableName;
+        }
+
+        public String getTableName() {
+            return tableName;
+        }
+    }
+
+    public enum ChangeType {
+        INSERT, UPDATE, DELETE, REPLACED
+    }
+
+    /**
+     * 单次变更：rowId 为受影响行的主键（REPLACED 或批量删除时为 -1），version 为变更后该表的版本号
+     */
+    public static final class ChangeEvent {
+        private final Table table;
+        private final ChangeType type;
+        private final long rowId;
+        private final long version;
+
+        ChangeEvent(Table table, ChangeType type, long rowId, long version) {
+            this.table = table;
+            this.type = type;
+            this.rowId = rowId;
+            this.version = version;
+        }
+
+        public Table getTable() {
+            return table;
+        }
+
+        public ChangeType getType() {
+            return type;
+        }
+
+        public long getRowId() {
+            return rowId;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+    }
+
+    public interface Listener {
+        void onDatabaseChanged(ChangeEvent event);
+    }
+
+    private static volatile DatabaseChangeBus instance;
+
+    private final SharedPreferences prefs;
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+
+    private DatabaseChangeBus(Context context) {
+        this(context.getApplicationContext().getSharedPreferences(PREFS_TABLE_VERSIONS, Context.MODE_PRIVATE));
+    }
+
+    DatabaseChangeBus(SharedPreferences prefs) {
+        this.prefs = prefs;
+    }
+
+    public static DatabaseChangeBus get(Context context) {
+        if (instance == null) {
+            synchronized (DatabaseChangeBus.class) {
+                if (instance == null)
+                    instance = new DatabaseChangeBus(context);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 订阅指定表的变更；不传表时订阅全部表
+     */
+    public void addListener(Listener listener, Table... tables) {
+        EnumSet<Table> set = tables == null || tables.length == 0 ? EnumSet.allOf(Table.class)
+                : EnumSet.noneOf(Table.class);
+        if (tables != null) {
+            for (Table t : tables)
+                set.add(t);
+        }
+        registrations.add(new Registration(listener, set));
+    }
+
+    public void removeListener(Listener listener) {
+        for (Registration r : registrations) {
+            if (r.listener == listener)
+                registrations.remove(r);
+        }
+    }
+
+    /**
+     * 指定表的当前版本号（读取内存中的 SharedPreferences，不访问数据库）
+     */
+    public long getVersion(Table table) {
+        return prefs.getLong(table.getTableName(), 0L);
+    }
+
+    /**
+     * 版本号前进并通知订阅者
+     */
+    public void publish(Table table, ChangeType type, long rowId) {
+        long version;
+        synchronized (this) {
+            version = prefs.getLong(table.getTableName(), 0L) + 1;
+            // 同步提交：版本号必须在进程被杀前落盘，否则下次冷启动会误用过期快照
+            prefs.edit().putLong(table.getTableName(), version).commit();
+        }
+        dispatch(new ChangeEvent(table, type, rowId, version));
+    }
+
+    /**
+     * 数据库文件被整体覆盖（如 WebDAV 下载）：所有表版本号前进，并逐表发布 REPLACED
+     */
+    public void publishDatabaseReplaced() {
+        for (Table table : Table.values()) {
+            publish(table, ChangeType.REPLACED, -1);
+        }
+    }
+
+    private void dispatch(ChangeEvent event) {
+        for (Registration r : registrations) {
+            if (!r.tables.contains(event.getTable()))
+                continue;
+            try {
+                r.listener.onDatabaseChanged(event);
+            } catch (Throwable t) {
+                Log.w(TAG, "listener failed: " + t.getMessage(), t);
+            }
+        }
+    }
+
+    private static final class Registration {
+        final Listener listener;
+        final EnumSet<Table> tables;
+
+        Registration(Listener listener, EnumSet<Table> tables) {
+            this.listener = listener;
+            this.tables = tables;
+        }
+    }
+}
@@ -40,6 +40,20 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         insertDefaultTeacher(db); // 插入默认教师数据用于测试
     }
 
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // 兼容旧版或同步下载的数据库：补齐 FaceEmbedding.isNormalized 列（不重建表、不丢数据）
+        if (!db.isReadOnly() && !hasColumn(db, "FaceEmbedding", "isNormalized")) {
+            try {
+                db.execSQL("ALTER TABLE FaceEmbedding ADD COLUMN isNormalized INTEGER DEFAULT 0");
+                Log.d(TAG, "FaceEmbedding 表已补齐 isNormalized 列");
+            } catch (Exception e) {
+                Log.w(TAG, "补齐 isNormalized 列失败: " + e.getMessage());
+            }
+        }
+    }
+
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
         Log.d(TAG, "数据库升级: " + oldVersion + " -> " + newVersion);
@@ -158,6 +172,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 "quality REAL CHECK(quality >= 0 AND quality <= 1), " +
                 "faceImageUri TEXT, " +
                 "isActive INTEGER DEFAULT 1, " +
+                "isNormalized INTEGER DEFAULT 0, " +
                 "createdAt TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
                 "FOREIGN KEY (studentId) REFERENCES Student(id) ON DELETE CASCADE" +
                 ")";
@@ -482,6 +497,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     Log.e(TAG, "插入学生失败: " + baseName);
                     continue;
                 }
+                notifyChange(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.INSERT, studentId);
 
                 // 复制头像到内部存储 avatars 目录，以 studentId 命名
                 try (java.io.InputStream is = am.open(assetFolder + "/" + fileName);
@@ -678,7 +694,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         values.put("gender", gender);
         values.put("avatarUri", avatarUri);
         values.put("createdAt", System.currentTimeMillis());
-        return db.insert("Student", null, values);
+        long id = db.insert("Student", null, values);
+        if (id != -1)
+            notifyChange(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.INSERT, id);
+        return id;
     }
 
     public Cursor getStudentsByClass(long classId) {
@@ -720,6 +739,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
         int result = db.update("Student", values, "id = ?",
                 new String[] { String.valueOf(studentId) });
+        if (result > 0)
+            notifyChange(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.UPDATE, studentId);
         return result > 0;
     }
 
@@ -734,8 +755,10 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 new String[] { String.valueOf(studentId) });
 
         // 删除相关的人脸特征数据
-        db.delete("FaceEmbedding", "studentId = ?",
+        int embeddings = db.delete("FaceEmbedding", "studentId = ?",
                 new String[] { String.valueOf(studentId) });
+        if (embeddings > 0)
+            notifyChange(DatabaseChangeBus.Table.FACE_EMBEDDING, DatabaseChangeBus.ChangeType.DELETE, -1);
 
         // 删除相关的照片资源
         db.delete("PhotoAsset", "studentId = ?",
@@ -744,6 +767,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         // 最后删除学生记录
         int result = db.delete("Student", "id = ?",
                 new String[] { String.valueOf(studentId) });
+        if (result > 0)
+            notifyChange(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.DELETE, studentId);
 
         return result > 0;
     }
@@ -831,6 +856,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                             v.put("sid", newSid);
                             v.put("updatedAt", System.currentTimeMillis());
                             db.update("Student", v, "id = ?", new String[] { String.valueOf(id) });
+                            notifyChange(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.UPDATE, id);
                             rows.moveToNext();
                         }
                         rows.close();
@@ -894,14 +920,26 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     // ============= 人脸特征相关操作 =============
 
     public long insertFaceEmbedding(long studentId, String modelVer, byte[] vector, float quality) {
+        return insertFaceEmbedding(studentId, modelVer, vector, quality, false);
+    }
+
+    /**
+     * 插入人脸特征；normalized 表示 vector 已是单位向量，读取时可跳过再次归一化
+     */
+    public long insertFaceEmbedding(long studentId, String modelVer, byte[] vector, float quality,
+            boolean normalized) {
         SQLiteDatabase db = this.getWritableDatabase();
         ContentValues values = new ContentValues();
         values.put("studentId", studentId);
         values.put("modelVer", modelVer);
         values.put("vector", vector);
         values.put("quality", quality);
+        values.put("isNormalized", normalized ? 1 : 0);
         values.put("createdAt", System.currentTimeMillis());
-        return db.insert("FaceEmbedding", null, values);
+        long id = db.insert("FaceEmbedding", null, values);
+        if (id != -1)
+            notifyChange(DatabaseChangeBus.Table.FACE_EMBEDDING, DatabaseChangeBus.ChangeType.INSERT, id);
+        return id;
     }
 
     public Cursor getFaceEmbeddingsByStudent(long studentId) {
@@ -932,6 +970,59 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
     }
 
+    /**
+     * 获取指定班级、指定模型版本的全部人脸嵌入（id、studentId、vector、quality、isNormalized 五列，按质量降序）
+     */
+    public Cursor getFaceEmbeddingsByClassAndModel(long classId, String modelVer) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        String base = "SELECT e.id AS id, e.studentId AS studentId, e.vector AS vector, e.quality AS quality, " +
+                "e.isNormalized AS isNormalized FROM FaceEmbedding e " +
+                "INNER JOIN Student s ON e.studentId = s.id " +
+                "WHERE s.classId = ? AND e.modelVer = ?";
+        String[] args = new String[] { String.valueOf(classId), modelVer };
+        // 兼容旧版数据库：某些设备上的 FaceEmbedding 表可能没有 isActive 列
+        if (hasColumn(db, "FaceEmbedding", "isActive")) {
+            return db.rawQuery(base + " AND e.isActive = 1 ORDER BY e.quality DESC", args);
+        }
+        Log.w(TAG, "FaceEmbedding 表缺少 isActive 列，回退为不带 isActive 的查询");
+        return db.rawQuery(base + " ORDER BY e.quality DESC", args);
+    }
+
+    /**
+     * 快照用：指定模型版本的全部有效嵌入及其所属班级（id、studentId、classId、vector、quality、isNormalized），按质量降序
+     */
+    public Cursor getFaceEmbeddingSnapshotRows(String modelVer) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        String base = "SELECT e.id AS id, e.studentId AS studentId, s.classId AS classId, e.vector AS vector, " +
+                "e.quality AS quality, e.isNormalized AS isNormalized FROM FaceEmbedding e " +
+                "INNER JOIN Student s ON e.studentId = s.id WHERE e.modelVer = ?";
+        String[] args = new String[] { modelVer };
+        // 兼容旧版数据库：某些设备上的 FaceEmbedding 表可能没有 isActive 列
+        if (hasColumn(db, "FaceEmbedding", "isActive")) {
+            return db.rawQuery(base + " AND e.isActive = 1 ORDER BY e.quality DESC", args);
+        }
+        Log.w(TAG, "FaceEmbedding 表缺少 isActive 列，回退为不带 isActive 的查询");
+        return db.rawQuery(base + " ORDER BY e.quality DESC", args);
+    }
+
+    /**
+     * 指定表的变更版本号（读取不访问数据库）
+     */
+    public long getTableVersion(DatabaseChangeBus.Table table) {
+        return getChangeBus().getVersion(table);
+    }
+
+    /**
+     * 进程内共享的变更通知总线
+     */
+    public DatabaseChangeBus getChangeBus() {
+        return DatabaseChangeBus.get(context);
+    }
+
+    private void notifyChange(DatabaseChangeBus.Table table, DatabaseChangeBus.ChangeType type, long rowId) {
+        getChangeBus().publish(table, type, rowId);
+    }
+
     /**
      * 返回数据库文件的绝对路径（供 WebDAV 同步使用）
      */
@@ -967,12 +1058,22 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * 更新指定ID的人脸特征记录
      */
     public boolean updateFaceEmbeddingById(long id, byte[] vector, float quality) {
+        return updateFaceEmbeddingById(id, vector, quality, false);
+    }
+
+    /**
+     * 更新指定ID的人脸特征记录；normalized 含义同 insertFaceEmbedding
+     */
+    public boolean updateFaceEmbeddingById(long id, byte[] vector, float quality, boolean normalized) {
         SQLiteDatabase db = this.getWritableDatabase();
         android.content.ContentValues values = new android.content.ContentValues();
         values.put("vector", vector);
         values.put("quality", quality);
+        values.put("isNormalized", normalized ? 1 : 0);
         values.put("createdAt", System.currentTimeMillis());
         int result = db.update("FaceEmbedding", values, "id = ?", new String[] { String.valueOf(id) });
+        if (result > 0)
+            notifyChange(DatabaseChangeBus.Table.FACE_EMBEDDING, DatabaseChangeBus.ChangeType.UPDATE, id);
         return result > 0;
     }
 
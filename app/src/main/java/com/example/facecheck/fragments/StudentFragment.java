@@ -15,6 +15,7 @@ import androidx.recyclerview.widget.RecyclerView;
 import com.example.facecheck.R;
 import com.example.facecheck.ui.student.StudentActivity;
 import com.example.facecheck.adapters.StudentAdapter;
+import com.example.facecheck.database.DatabaseChangeBus;
 import com.example.facecheck.database.DatabaseHelper;
 import com.example.facecheck.data.model.Student;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
@@ -29,6 +30,15 @@ public class StudentFragment extends Fragment {
     private List<Student> studentList;
     private FloatingActionButton fabAddStudent;
     private long teacherId;
+    // 已加载列表对应的学生表版本号，版本未变时 onResume 不再重新查询
+    private long loadedStudentVersion = -1;
+    private final DatabaseChangeBus.Listener studentChangeListener = event -> {
+        if (getActivity() != null)
+            getActivity().runOnUiThread(() -> {
+                if (isResumed())
+                    loadStudents();
+            });
+    };
 
     @Nullable
     @Override
@@ -67,8 +77,9 @@ public class StudentFragment extends Fragment {
             startActivity(intent);
         });
         
-        // 加载数据
+        // 加载数据，并订阅学生表变更
         loadStudents();
+        dbHelper.getChangeBus().addListener(studentChangeListener, DatabaseChangeBus.Table.STUDENT);
         
         return view;
     }
@@ -76,11 +87,21 @@ public class StudentFragment extends Fragment {
     @Override
     public void onResume() {
         super.onResume();
-        // 刷新数据
-        loadStudents();
+        // 仅当学生表在离开期间发生过变更时才刷新
+        if (dbHelper.getTableVersion(DatabaseChangeBus.Table.STUDENT) != loadedStudentVersion) {
+            loadStudents();
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        dbHelper.getChangeBus().removeListener(studentChangeListener);
     }
     
     private void loadStudents() {
+        loadedStudentVersion = dbHelper.getTableVersion(DatabaseChangeBus.Table.STUDENT);
+
         // 清空列表
         studentList.clear();
         
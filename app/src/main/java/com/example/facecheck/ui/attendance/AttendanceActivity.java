@@ -69,12 +69,15 @@ public class AttendanceActivity extends AppCompatActivity {
     private Spinner spinnerModel;
     // 移除检测下拉栏，固定使用 ML Kit 进行检测
 
-    // 模型选择相关：仅保留 MobileFaceNet（FaceNet 已删除）
+    // 模型选择相关：MobileFaceNet（float32 / INT8 量化，FaceNet 已删除）
     private String[] modelOptions = {
-            "MobileFaceNet"
+            "MobileFaceNet",
+            FaceRecognitionManager.MODEL_NAME_INT8
     };
     private String selectedModel = "MobileFaceNet";
     private String attendanceType = "FACE";
+    // 分块检测时重新加载原图的最长边（像素）
+    private static final int TILED_DETECT_MAX_SIDE = 3200;
 
     private ActivityResultLauncher<Intent> takePhotoLauncher;
     private ActivityResultLauncher<String> pickImageLauncher;
@@ -137,13 +140,17 @@ public class AttendanceActivity extends AppCompatActivity {
                 android.R.layout.simple_spinner_item, modelOptions);
         adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         spinnerModel.setAdapter(adapter);
+        // 恢复上次的选择（识别管理器构造时已按它加载）
+        selectedModel = FaceRecognitionManager.getSavedModel(this);
+        spinnerModel.setSelection(Math.max(0, java.util.Arrays.asList(modelOptions).indexOf(selectedModel)));
 
         spinnerModel.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                 selectedModel = modelOptions[position];
-                // 将选择同步到识别管理器
+                // 将选择同步到识别管理器，并保存供启动预热使用
                 faceRecognitionManager.setSelectedModel(selectedModel);
+                FaceRecognitionManager.saveSelectedModel(AttendanceActivity.this, selectedModel);
                 Toast.makeText(AttendanceActivity.this,
                         "已选择模型: " + selectedModel, Toast.LENGTH_SHORT).show();
             }
@@ -383,10 +390,9 @@ public class AttendanceActivity extends AppCompatActivity {
                     return;
                 }
 
-                // 提取向量
+                // 提取向量（所有框选人脸一次批量推理）
                 List<float[]> embeddings = new ArrayList<>();
-                for (Rect r : manualRects) {
-                    float[] vec = faceRecognitionManager.extractFaceFeatures(src, r);
+                for (float[] vec : faceRecognitionManager.extractFaceFeaturesBatch(src, manualRects)) {
                     if (vec != null)
                         embeddings.add(vec);
                 }
@@ -619,9 +625,39 @@ public class AttendanceActivity extends AppCompatActivity {
                 YuNetTFLiteDetector.ModelVariant variant = singlePrecision
                         ? YuNetTFLiteDetector.ModelVariant.SINGLE_FACE
                         : YuNetTFLiteDetector.ModelVariant.MULTI_FACE;
-                YuNetTFLiteDetector detector = new YuNetTFLiteDetector(AttendanceActivity.this, 320, 0.6f, 0.5f,
-                        variant);
-                List<Rect> rects = detector.detect(src);
+                // 设置中开启分块检测时，多人脸合照按更高分辨率重新加载原图（后排小脸才有足够像素），
+                // 检测、裁剪与向量提取都在这张图上进行
+                boolean tiled = !singlePrecision && TiledFaceDetector.isEnabled(AttendanceActivity.this);
+                if (tiled && currentPhotoUri != null) {
+                    Bitmap large = ImageUtils.loadAndResizeBitmap(AttendanceActivity.this, currentPhotoUri,
+                            TILED_DETECT_MAX_SIDE, TILED_DETECT_MAX_SIDE);
+                    if (large != null)
+                        src = large;
+                }
+                // 借用进程内共享的检测器（ModelRegistry）：启动预热后首次检测无需再加载模型，
+                // 检测结束即归还租约
+                long detectStart = System.nanoTime();
+                List<YuNetTFLiteDetector.Detection> detections = new ArrayList<>();
+                if (tiled) {
+                    try (ModelRegistry.Lease<TiledFaceDetector> detector = TiledFaceDetector
+                            .acquireYuNet(AttendanceActivity.this, variant)) {
+                        if (detector != null) {
+                            detections = detector.get().detectFaces(src);
+                            ModelWarmup.markFirstResult(ModelWarmup.YUNET, detectStart);
+                        }
+                    }
+                } else {
+                    try (ModelRegistry.Lease<YuNetTFLiteDetector> detector = YuNetTFLiteDetector
+                            .acquireShared(AttendanceActivity.this, variant)) {
+                        if (detector != null) {
+                            detections = detector.get().detectFaces(src);
+                            ModelWarmup.markFirstResult(ModelWarmup.YUNET, detectStart);
+                        }
+                    }
+                }
+                List<Rect> rects = new ArrayList<>();
+                for (YuNetTFLiteDetector.Detection d : detections)
+                    rects.add(d.bbox);
 
                 if (rects == null || rects.isEmpty()) {
                     runOnUiThread(() -> {
@@ -653,10 +689,9 @@ public class AttendanceActivity extends AppCompatActivity {
                     tvStatus.setText("检测到 " + rects.size() + " 个人脸(YuNet)，正在提取向量...");
                 });
 
-                // 提取嵌入向量
+                // 提取嵌入向量（带关键点的人脸先五点对齐，所有检测框一次批量推理）
                 List<float[]> embeddings = new ArrayList<>();
-                for (Rect r : rects) {
-                    float[] vec = faceRecognitionManager.extractFaceFeatures(src, r);
+                for (float[] vec : faceRecognitionManager.extractFaceFeaturesBatchForDetections(src, detections)) {
                     if (vec != null)
                         embeddings.add(vec);
                 }
@@ -776,17 +811,19 @@ public class AttendanceActivity extends AppCompatActivity {
             try {
                 // 先提取向量用于展示与确认
                 List<float[]> embeddings = new ArrayList<>();
-                for (int i = 0; i < faces.size(); i++) {
-                    // 关键修正：用原始整图 + 检测框坐标系一致进行提取
-                    Bitmap src = originalOrientedBitmap;
-                    if (src == null) {
-                        // 保险：若缓存丢失则即时重新加载
-                        src = ImageUtils.loadAndResizeBitmap(AttendanceActivity.this, currentPhotoUri, 1600, 1600);
-                        originalOrientedBitmap = src;
-                    }
-                    float[] vec = (src != null)
-                            ? faceRecognitionManager.extractFaceFeatures(src, faces.get(i))
-                            : null;
+                // 关键修正：用原始整图 + 检测框坐标系一致进行提取
+                Bitmap src = originalOrientedBitmap;
+                if (src == null) {
+                    // 保险：若缓存丢失则即时重新加载
+                    src = ImageUtils.loadAndResizeBitmap(AttendanceActivity.this, currentPhotoUri, 1600, 1600);
+                    originalOrientedBitmap = src;
+                }
+                // 所有人脸一次批量推理，结果与 faces 按下标对应
+                List<float[]> vectors = (src != null)
+                        ? faceRecognitionManager.extractFaceFeaturesBatchForFaces(src, faces)
+                        : new ArrayList<>();
+                for (int i = 0; i < vectors.size(); i++) {
+                    float[] vec = vectors.get(i);
                     if (vec != null) {
                         // 调试日志：检查向量维度、范数与前几维采样，便于与校验页比对
                         float norm2 = 0f;
@@ -919,49 +956,11 @@ public class AttendanceActivity extends AppCompatActivity {
                 if (cursor != null) cursor.close();
             }
 
-            final java.util.HashSet<Long> classStudentSet = new java.util.HashSet<>(classStudentIds);
-            final java.util.HashMap<Long, float[]> bestEmbeddingByStudent = new java.util.HashMap<>();
-            android.database.Cursor ec = null;
-            try {
-                String currentVer = faceRecognitionManager.getCurrentModelVersion();
-                ec = dbHelper.getAllFaceEmbeddingsByModel(currentVer);
-                if (ec != null && ec.moveToFirst()) {
-                    do {
-                        long studentId = ec.getLong(ec.getColumnIndexOrThrow("studentId"));
-                        if (!classStudentSet.contains(studentId)) continue;
-                        if (bestEmbeddingByStudent.containsKey(studentId)) continue;
-                        byte[] vecBytes = ec.getBlob(ec.getColumnIndexOrThrow("vector"));
-                        float[] vec = faceRecognitionManager.byteArrayToFloatArray(vecBytes);
-                        if (vec != null && vec.length > 0) {
-                            bestEmbeddingByStudent.put(studentId, vec);
-                        }
-                    } while (ec.moveToNext());
-                }
-            } finally {
-                if (ec != null) ec.close();
-            }
-
-            final java.util.HashMap<Long, Float> bestScoreByStudent = new java.util.HashMap<>();
-            if (embeddings != null && !embeddings.isEmpty() && !bestEmbeddingByStudent.isEmpty()) {
-                for (Long sid : classStudentIds) {
-                    float[] stored = bestEmbeddingByStudent.get(sid);
-                    if (stored == null) {
-                        bestScoreByStudent.put(sid, 0f);
-                        continue;
-                    }
-                    float best = 0f;
-                    for (float[] q : embeddings) {
-                        if (q == null || q.length == 0) continue;
-                        float sim = faceRecognitionManager.calculateSimilarity(q, stored);
-                        if (sim > best) best = sim;
-                    }
-                    bestScoreByStudent.put(sid, best);
-                }
-            } else {
-                for (Long sid : classStudentIds) {
-                    bestScoreByStudent.put(sid, 0f);
-                }
-            }
+            // 与本班嵌入库比对，得到每个学生在本次照片中的最高相似度
+            EmbeddingGallery gallery = faceRecognitionManager.getClassGallery(classroomId);
+            final java.util.Map<Long, Float> bestScoreByStudent = (embeddings != null && !embeddings.isEmpty())
+                    ? gallery.bestScorePerStudent(embeddings)
+                    : new java.util.HashMap<>();
 
             for (java.util.Map.Entry<Long, Float> e : presentBestScore.entrySet()) {
                 dbHelper.insertAttendanceResult(sessionId, e.getKey(), "Present", e.getValue(), "AUTO");
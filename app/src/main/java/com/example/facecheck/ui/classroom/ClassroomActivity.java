@@ -93,9 +93,10 @@ public class ClassroomActivity extends AppCompatActivity {
     private ActivityResultLauncher<String> pickPhotoLauncher;
     private Student currentStudent;
 
-    // 特征模型选择（FaceNet 已删除）
+    // 特征模型选择（float32 / INT8 量化，FaceNet 已删除）
     private String[] modelOptions = {
-        "MobileFaceNet"
+        "MobileFaceNet",
+        FaceRecognitionManager.MODEL_NAME_INT8
     };
     private String selectedModel = "MobileFaceNet";
 
@@ -157,11 +158,15 @@ public class ClassroomActivity extends AppCompatActivity {
                 android.R.layout.simple_spinner_item, modelOptions);
             adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
             spinnerModel.setAdapter(adapter);
+            // 恢复上次的选择（识别管理器构造时已按它加载）
+            selectedModel = FaceRecognitionManager.getSavedModel(this);
+            spinnerModel.setSelection(Math.max(0, java.util.Arrays.asList(modelOptions).indexOf(selectedModel)));
             spinnerModel.setOnItemSelectedListener(new android.widget.AdapterView.OnItemSelectedListener() {
                 @Override
                 public void onItemSelected(android.widget.AdapterView<?> parent, View view, int position, long id) {
                     selectedModel = modelOptions[position];
                     faceRecognitionManager.setSelectedModel(selectedModel);
+                    FaceRecognitionManager.saveSelectedModel(ClassroomActivity.this, selectedModel);
                     Toast.makeText(ClassroomActivity.this, "已选择模型: " + selectedModel, Toast.LENGTH_SHORT).show();
                 }
 
@@ -399,8 +404,7 @@ public class ClassroomActivity extends AppCompatActivity {
                 } while (c.moveToNext());
                 c.close();
                 if (targetId != -1) {
-                    byte[] vectorBytes = faceRecognitionManager.floatArrayToByteArray(features);
-                    return dbHelper.updateFaceEmbeddingById(targetId, vectorBytes, quality);
+                    return faceRecognitionManager.updateFaceEmbedding(targetId, studentId, features, quality);
                 }
             }
             // 没有记录则插入
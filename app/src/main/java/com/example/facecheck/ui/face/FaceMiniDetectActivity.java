@@ -23,6 +23,8 @@ import com.example.facecheck.R;
 import com.example.facecheck.adapter.FaceSegmentationAdapter;
 import com.example.facecheck.database.DatabaseHelper;
 import com.example.facecheck.utils.ImageStorageManager;
+import com.example.facecheck.utils.ModelRegistry;
+import com.example.facecheck.utils.ModelWarmup;
 import com.example.facecheck.utils.PhotoStorageManager;
 import com.example.facecheck.utils.RetinaFaceTFLiteDetector;
 import com.example.facecheck.utils.YuNetTFLiteDetector;
@@ -155,13 +157,23 @@ public class FaceMiniDetectActivity extends AppCompatActivity {
             try {
                 Bitmap bitmap = com.example.facecheck.utils.ImageUtils.loadAndResizeBitmap(FaceMiniDetectActivity.this, uri, 1600, 1600);
                 List<Rect> rects = null;
-                try {
-                    RetinaFaceTFLiteDetector det = new RetinaFaceTFLiteDetector(FaceMiniDetectActivity.this, RetinaFaceTFLiteDetector.Precision.F16);
-                    rects = det.detect(bitmap);
+                long retinaStart = System.nanoTime();
+                try (ModelRegistry.Lease<RetinaFaceTFLiteDetector> det = RetinaFaceTFLiteDetector.acquireShared(
+                        FaceMiniDetectActivity.this, RetinaFaceTFLiteDetector.DEFAULT_PRECISION)) {
+                    if (det != null) {
+                        rects = det.get().detect(bitmap);
+                        ModelWarmup.markFirstResult(ModelWarmup.RETINAFACE, retinaStart);
+                    }
                 } catch (Throwable ignore) {}
                 if (rects == null || rects.isEmpty()) {
-                    YuNetTFLiteDetector y = new YuNetTFLiteDetector(FaceMiniDetectActivity.this);
-                    rects = y.detect(bitmap);
+                    long startNanos = System.nanoTime();
+                    try (ModelRegistry.Lease<YuNetTFLiteDetector> y = YuNetTFLiteDetector.acquireShared(
+                            FaceMiniDetectActivity.this, YuNetTFLiteDetector.ModelVariant.MULTI_FACE)) {
+                        if (y != null) {
+                            rects = y.get().detect(bitmap);
+                            ModelWarmup.markFirstResult(ModelWarmup.YUNET, startNanos);
+                        }
+                    }
                 }
                 if (rects == null || rects.isEmpty()) {
                     runOnUiThread(() -> {
@@ -25,6 +25,7 @@ import com.example.facecheck.sync.SyncManager;
 import com.example.facecheck.utils.AsyncExecutor;
 import com.example.facecheck.webdav.WebDavManager;
 import com.example.facecheck.utils.CacheManager;
+import com.example.facecheck.utils.TiledFaceDetector;
 
 public class SettingsActivity extends AppCompatActivity {
 
@@ -33,6 +34,7 @@ public class SettingsActivity extends AppCompatActivity {
 
     // WebDAV 与同步
     private Switch webdavSwitch;
+    private Switch tiledDetectionSwitch;
     private Button webdavConfigButton;
     private Button syncNowButton;
     private TextView webdavStatusTextView;
@@ -68,6 +70,12 @@ public class SettingsActivity extends AppCompatActivity {
         btnThemeDark.setOnClickListener(v -> applyThemeMode("dark"));
         btnThemeLight.setOnClickListener(v -> applyThemeMode("light"));
 
+        // 合照分块检测（默认关闭）
+        tiledDetectionSwitch = findViewById(R.id.switch_tiled_detection);
+        tiledDetectionSwitch.setChecked(TiledFaceDetector.isEnabled(this));
+        tiledDetectionSwitch.setOnCheckedChangeListener(
+                (buttonView, isChecked) -> TiledFaceDetector.setEnabled(this, isChecked));
+
         // WebDAV 与同步
         webdavSwitch = findViewById(R.id.switch_webdav);
         webdavConfigButton = findViewById(R.id.btn_webdav_config);
@@ -0,0 +1,130 @@
+package com.example.facecheck.utils;
+
+import java.util.List;
+
+/**
+ * 班级嵌入库的符号位哈希副本
+ * - 每行取各维度符号位组成 dim 位哈希（128 维即 2 个 long）
+ * - 粗筛：查询哈希与各行做异或 + Long.bitCount，保留汉明距离最小的 shortlistSize 行
+ * - 精排：只对入围行计算 float 余弦
+ * 库越大收益越明显；库不超过 shortlistSize 时等价于精确检索。
+ */
+public class BinaryHashGallery {
+
+    public static final int DEFAULT_SHORTLIST_SIZE = 64;
+
+    private final EmbeddingGallery gallery;
+    private final int dim;
+    private final int size;
+    private final int words;
+    private final long[] hashes;
+
+    private BinaryHashGallery(EmbeddingGallery gallery, long[] hashes, int words) {
+        this.gallery = gallery;
+        this.dim = gallery.getDim();
+        this.size = gallery.size();
+        this.words = words;
+        this.hashes = hashes;
+    }
+
+    /**
+     * 由 float 嵌入库逐行生成符号位哈希
+     */
+    public static BinaryHashGallery fromGallery(EmbeddingGallery gallery) {
+        int dim = gallery.getDim();
+        int size = gallery.size();
+        int words = (dim + 63) >>> 6;
+        float[] vectors = gallery.getVectors();
+        long[] hashes = new long[size * words];
+        for (int row = 0; row < size; row++) {
+            signHash(vectors, row * dim, dim, hashes, row * words);
+        }
+        return new BinaryHashGallery(gallery, hashes, words);
+    }
+
+    /**
+     * 将 src[srcOff, srcOff+dim) 的符号位写入 dst[dstOff, dstOff+words)，正数为 1
+     */
+    public static void signHash(float[] src, int srcOff, int dim, long[] dst, int dstOff) {
+        int words = (dim + 63) >>> 6;
+        for (int w = 0; w < words; w++) {
+            long bits = 0L;
+            int base = w << 6;
+            int end = Math.min(64, dim - base);
+            for (int b = 0; b < end; b++) {
+                if (src[srcOff + base + b] > 0f)
+                    bits |= 1L << b;
+            }
+            dst[dstOff + w] = bits;
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 哈希占用字节数
+     */
+    public long memoryBytes() {
+        return 8L * hashes.length;
+    }
+
+    /**
+     * 查找与 query 最相似的学生；库为空或维度不一致时返回 studentId = -1
+     */
+    public EmbeddingGallery.Match findBestMatch(float[] query, int shortlistSize) {
+        if (query == null || query.length != dim || size == 0)
+            return new EmbeddingGallery.Match(-1, 0f);
+        long[] q = new long[words];
+        signHash(query, 0, dim, q, 0);
+
+        // 汉明距离取值范围只有 0..dim，用直方图求出第 shortlistSize 名的距离阈值
+        int[] distances = new int[size];
+        int[] histogram = new int[dim + 1];
+        for (int row = 0; row < size; row++) {
+            int off = row * words;
+            int d = 0;
+            for (int w = 0; w < words; w++) {
+                d += Long.bitCount(q[w] ^ hashes[off + w]);
+            }
+            distances[row] = d;
+            histogram[d]++;
+        }
+        int limit = Math.max(1, Math.min(shortlistSize, size));
+        int cutoff = 0;
+        int below = 0;
+        while (below + histogram[cutoff] < limit) {
+            below += histogram[cutoff];
+            cutoff++;
+        }
+        int quotaAtCutoff = limit - below;
+
+        long bestStudentId = -1;
+        float bestScore = 0f;
+        for (int row = 0; row < size; row++) {
+            int d = distances[row];
+            if (d > cutoff)
+                continue;
+            if (d == cutoff) {
+                if (quotaAtCutoff == 0)
+                    continue;
+                quotaAtCutoff--;
+            }
+            float sim = gallery.score(query, row);
+            if (sim > bestScore) {
+                bestScore = sim;
+                bestStudentId = gallery.getStudentId(row);
+            }
+        }
+        return new EmbeddingGallery.Match(bestStudentId, bestScore);
+    }
+
+    public EmbeddingGallery.Match[] findBestMatches(List<float[]> queries, int shortlistSize) {
+        EmbeddingGallery.Match[] matches = new EmbeddingGallery.Match[queries.size()];
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = findBestMatch(queries.get(i), shortlistSize);
+        }
+        return matches;
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.facecheck.utils;
+
+import android.graphics.Rect;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 可复用的检测结果缓冲：以平铺的基本类型数组保存框（原图坐标 left/top/right/bottom）、分数与 5 点关键点
+ * - 解码直接追加到数组末尾，容量不足时按倍数扩容，稳态下不再分配
+ * - nms / softNms 在缓冲内完成：由 Nms 排序与抑制，保留的条目按分数降序写回（借助同容量的暂存数组交换）
+ * 非线程安全，由检测器在同步块内写入，调用方读取完毕前不要复用于下一次检测。
+ */
+public final class DetectionBuffer {
+
+    static final int LANDMARK_VALUES = 10;
+
+    private int size;
+    private boolean landmarks;
+    private float[] boxes;
+    private float[] scores;
+    private float[] points;
+    // nms 暂存：保留下标与压缩目标数组
+    private final Nms suppressor = new Nms();
+    private int[] order;
+    private float[] boxesTmp;
+    private float[] scoresTmp;
+    private float[] pointsTmp;
+
+    public DetectionBuffer() {
+        this(64);
+    }
+
+    public DetectionBuffer(int capacity) {
+        allocate(Math.max(1, capacity));
+    }
+
+    private void allocate(int capacity) {
+        boxes = new float[capacity * 4];
+        scores = new float[capacity];
+        points = new float[capacity * LANDMARK_VALUES];
+        order = new int[capacity];
+        boxesTmp = new float[capacity * 4];
+        scoresTmp = new float[capacity];
+        pointsTmp = new float[capacity * LANDMARK_VALUES];
+    }
+
+    /**
+     * 清空内容（保留容量）；hasLandmarks 表示本次写入的条目是否带关键点
+     */
+    public void reset(boolean hasLandmarks) {
+        size = 0;
+        landmarks = hasLandmarks;
+    }
+
+    /**
+     * 追加一个检测结果，返回其下标；关键点由调用方随后通过 setLandmark 写入
+     */
+    public int add(float left, float top, float right, float bottom, float score) {
+        if (size == scores.length)
+            grow();
+        int i = size++;
+        boxes[4 * i] = left;
+        boxes[4 * i + 1] = top;
+        boxes[4 * i + 2] = right;
+        boxes[4 * i + 3] = bottom;
+        scores[i] = score;
+        return i;
+    }
+
+    public void setLandmark(int i, int k, float x, float y) {
+        points[i * LANDMARK_VALUES + 2 * k] = x;
+        points[i * LANDMARK_VALUES + 2 * k + 1] = y;
+    }
+
+    private void grow() {
+        int n = size;
+        float[] b = boxes, s = scores, p = points;
+        allocate(scores.length * 2);
+        System.arraycopy(b, 0, boxes, 0, n * 4);
+        System.arraycopy(s, 0, scores, 0, n);
+        System.arraycopy(p, 0, points, 0, n * LANDMARK_VALUES);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return scores.length;
+    }
+
+    public boolean hasLandmarks() {
+        return landmarks;
+    }
+
+    public float left(int i) {
+        return boxes[4 * i];
+    }
+
+    public float top(int i) {
+        return boxes[4 * i + 1];
+    }
+
+    public float right(int i) {
+        return boxes[4 * i + 2];
+    }
+
+    public float bottom(int i) {
+        return boxes[4 * i + 3];
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+
+    public float landmarkX(int i, int k) {
+        return points[i * LANDMARK_VALUES + 2 * k];
+    }
+
+    public float landmarkY(int i, int k) {
+        return points[i * LANDMARK_VALUES + 2 * k + 1];
+    }
+
+    /**
+     * 贪心 NMS：按分数降序，抑制与已保留框 IoU 大于 iouThreshold 的框；结果按分数降序保存在缓冲内
+     * 排序与网格分桶由 Nms 完成，只比较空间上相邻的框
+     */
+    public void nms(float iouThreshold) {
+        if (size == 0)
+            return;
+        compact(suppressor.hard(boxes, scores, size, iouThreshold, -Float.MAX_VALUE, order));
+    }
+
+    /**
+     * 高斯 Soft-NMS：重叠框按 exp(-IoU² / sigma) 降分，低于 minScore 的丢弃；结果按衰减后分数降序保存
+     */
+    public void softNms(float sigma, float minScore) {
+        if (size == 0)
+            return;
+        compact(suppressor.soft(boxes, scores, size, sigma, minScore, order));
+    }
+
+    /**
+     * 按 order[0..kept) 的顺序把保留条目写入暂存数组后交换
+     */
+    private void compact(int kept) {
+        for (int a = 0; a < kept; a++)
+            copyRow(order[a], a);
+        float[] t = boxes;
+        boxes = boxesTmp;
+        boxesTmp = t;
+        t = scores;
+        scores = scoresTmp;
+        scoresTmp = t;
+        t = points;
+        points = pointsTmp;
+        pointsTmp = t;
+        size = kept;
+    }
+
+    private void copyRow(int from, int to) {
+        System.arraycopy(boxes, 4 * from, boxesTmp, 4 * to, 4);
+        scoresTmp[to] = scores[from];
+        if (landmarks)
+            System.arraycopy(points, from * LANDMARK_VALUES, pointsTmp, to * LANDMARK_VALUES, LANDMARK_VALUES);
+    }
+
+    float iou(int a, int b) {
+        return Nms.iou(boxes, a, b);
+    }
+
+    /**
+     * 转为 Detection 列表（每次调用都会分配对象，供非连续检测的调用方使用）
+     */
+    public List<YuNetTFLiteDetector.Detection> toDetections() {
+        List<YuNetTFLiteDetector.Detection> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            float[] lm = null;
+            if (landmarks) {
+                lm = new float[LANDMARK_VALUES];
+                System.arraycopy(points, i * LANDMARK_VALUES, lm, 0, LANDMARK_VALUES);
+            }
+            Rect r = new Rect(Math.round(left(i)), Math.round(top(i)), Math.round(right(i)), Math.round(bottom(i)));
+            out.add(new YuNetTFLiteDetector.Detection(r, scores[i], lm));
+        }
+        return out;
+    }
+}
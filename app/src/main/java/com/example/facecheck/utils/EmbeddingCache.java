@@ -0,0 +1,391 @@
+package com.example.facecheck.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 嵌入结果缓存：同一张图、同一人脸区域、同一模型版本的特征只计算一次
+ * - key = 模型版本 | 源图全像素哈希（按实例记忆）+ 尺寸 | 归一化的采样区域与仿射参数（等价于归一化检测框 + 对齐方式）
+ * - 内存层：有界 LRU；磁盘层（可选，cacheDir/embedding_cache）：跨进程复用，按文件数上限淘汰最旧条目
+ * - 命中时直接返回已归一化的向量副本，不经过推理；命中/未命中计数可供调试界面或报告读取
+ * 重试、重复“全部提取”、重新打开同一导入照片都会命中。
+ */
+public final class EmbeddingCache {
+
+    private static final String TAG = "EmbeddingCache";
+
+    static final int DEFAULT_MEMORY_ENTRIES = 512;
+    static final int DEFAULT_DISK_ENTRIES = 4096;
+    private static final String PREFS = "settings_prefs";
+    private static final String KEY_DISK_ENABLED = "embedding_disk_cache";
+    private static final int DISK_MAGIC = 0x454d4332; // "EMC2"（key 改为量化整数格式）
+
+    private static EmbeddingCache instance;
+
+    // 按 Bitmap 实例记忆的哈希 {generationId, hash}；Bitmap 未重写 equals/hashCode，
+    // WeakHashMap 即按实例区分，图被回收后条目自动清除
+    private static final WeakHashMap<Bitmap, long[]> HASH_MEMO = new WeakHashMap<>();
+    private static final ThreadLocal<int[]> ROW_BUFFER = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[0];
+        }
+    };
+
+    private final int maxMemoryEntries;
+    private final LinkedHashMap<Key, float[]> memory;
+    private final File diskDir;
+    private final int maxDiskEntries;
+    private int diskWritesSinceTrim;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    EmbeddingCache(int maxMemoryEntries, File diskDir, int maxDiskEntries) {
+        this.maxMemoryEntries = Math.max(1, maxMemoryEntries);
+        this.diskDir = diskDir;
+        this.maxDiskEntries = Math.max(1, maxDiskEntries);
+        this.memory = new LinkedHashMap<Key, float[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, float[]> eldest) {
+                return size() > EmbeddingCache.this.maxMemoryEntries;
+            }
+        };
+        if (diskDir != null && !diskDir.exists())
+            diskDir.mkdirs();
+    }
+
+    /**
+     * 进程内共享实例；磁盘层由设置项 settings_prefs / embedding_disk_cache 控制（默认关闭）
+     */
+    public static synchronized EmbeddingCache get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            boolean disk = app.getSharedPreferences(PREFS, Context.MODE_PRIVATE).getBoolean(KEY_DISK_ENABLED, false);
+            File dir = disk ? new File(app.getCacheDir(), "embedding_cache") : null;
+            instance = new EmbeddingCache(DEFAULT_MEMORY_ENTRIES, dir, DEFAULT_DISK_ENTRIES);
+        }
+        return instance;
+    }
+
+    /**
+     * 开关磁盘层（下次创建共享实例时生效，关闭时清除已有磁盘条目）
+     */
+    public static synchronized void setDiskEnabled(Context context, boolean enabled) {
+        Context app = context.getApplicationContext();
+        app.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit().putBoolean(KEY_DISK_ENABLED, enabled).apply();
+        if (!enabled) {
+            File dir = new File(app.getCacheDir(), "embedding_cache");
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files)
+                    f.delete();
+            }
+        }
+        instance = null;
+    }
+
+    /**
+     * 生成缓存 key；imageHash 由 hashBitmap 计算（同一张图的多张人脸只需计算一次）
+     */
+    static Key key(String modelVersion, long imageHash, FaceWarp warp) {
+        int w = warp.source == null ? 1 : warp.source.getWidth();
+        int h = warp.source == null ? 1 : warp.source.getHeight();
+        return key(modelVersion, imageHash, w, h, warp.clipLeft, warp.clipTop, warp.clipRight, warp.clipBottom,
+                warp.inverse);
+    }
+
+    static Key key(String modelVersion, long imageHash, int width, int height, int clipLeft, int clipTop,
+            int clipRight, int clipBottom, float[] inverse) {
+        float fw = Math.max(1, width), fh = Math.max(1, height);
+        // 区域与平移按图像尺寸归一化，线性项本身与图像尺寸成比例，同样除以宽高；统一量化到 1e-4
+        int[] q = {
+                quantizeKey(clipLeft / fw), quantizeKey(clipTop / fh), quantizeKey(clipRight / fw),
+                quantizeKey(clipBottom / fh),
+                quantizeKey(inverse[0] / fw), quantizeKey(inverse[1] / fw), quantizeKey(inverse[2] / fw),
+                quantizeKey(inverse[3] / fh), quantizeKey(inverse[4] / fh), quantizeKey(inverse[5] / fh) };
+        return new Key(modelVersion, imageHash, width, height, q);
+    }
+
+    private static int quantizeKey(float v) {
+        return Math.round(v * 10000f);
+    }
+
+    /**
+     * 缓存 key：模型版本 + 源图哈希 + 尺寸 + 量化后的采样区域/仿射参数；
+     * 查找只比较字段，字符串形式仅在读写磁盘层时生成
+     */
+    static final class Key {
+        final String modelVersion;
+        final long imageHash;
+        final int width;
+        final int height;
+        final int[] warp;
+        private final int hash;
+
+        Key(String modelVersion, long imageHash, int width, int height, int[] warp) {
+            this.modelVersion = modelVersion;
+            this.imageHash = imageHash;
+            this.width = width;
+            this.height = height;
+            this.warp = warp;
+            int h = modelVersion.hashCode();
+            h = 31 * h + (int) (imageHash ^ (imageHash >>> 32));
+            h = 31 * h + width;
+            h = 31 * h + height;
+            this.hash = 31 * h + Arrays.hashCode(warp);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return hash == k.hash && imageHash == k.imageHash && width == k.width && height == k.height
+                    && modelVersion.equals(k.modelVersion) && Arrays.equals(warp, k.warp);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(96).append(modelVersion).append('|')
+                    .append(String.format(Locale.US, "%016x", imageHash)).append('|').append(width).append('x')
+                    .append(height);
+            for (int i = 0; i < warp.length; i++)
+                sb.append(i == 0 ? '|' : ',').append(warp[i]);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * 源图全部像素的 64 位哈希（FNV-1a 按 32 位像素折叠后再做一次混合）
+     * - 按 Bitmap 实例记忆结果，generationId 变化（像素被改写）时重新计算；同一张图的多次提取只哈希一次
+     * - 每个像素都参与，同尺寸、仅局部不同的两张图不会得到相同的 key
+     * - 行缓冲按线程复用，稳态下不分配
+     */
+    public static long hashBitmap(Bitmap bitmap) {
+        int generation = bitmap.getGenerationId();
+        synchronized (HASH_MEMO) {
+            long[] memo = HASH_MEMO.get(bitmap);
+            if (memo != null && memo[0] == generation)
+                return memo[1];
+        }
+        int w = bitmap.getWidth();
+        int h = bitmap.getHeight();
+        int[] row = ROW_BUFFER.get();
+        if (row.length < w) {
+            row = new int[w];
+            ROW_BUFFER.set(row);
+        }
+        long hash = seed(w, h);
+        for (int y = 0; y < h; y++) {
+            bitmap.getPixels(row, 0, w, 0, y, w, 1);
+            hash = hashPixels(row, w, hash);
+        }
+        hash = mix(hash);
+        synchronized (HASH_MEMO) {
+            HASH_MEMO.put(bitmap, new long[] { generation, hash });
+        }
+        return hash;
+    }
+
+    static long seed(int width, int height) {
+        return (0xcbf29ce484222325L ^ (((long) width << 32) | (height & 0xffffffffL))) * 0x100000001b3L;
+    }
+
+    static long hashPixels(int[] pixels, int count, long hash) {
+        for (int i = 0; i < count; i++) {
+            hash ^= pixels[i];
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    /**
+     * 查找缓存；命中返回向量副本，未命中返回 null
+     */
+    public float[] get(Key key) {
+        float[] hit;
+        synchronized (memory) {
+            hit = memory.get(key);
+        }
+        if (hit != null) {
+            memoryHits.incrementAndGet();
+            return hit.clone();
+        }
+        if (diskDir != null) {
+            float[] fromDisk = readDisk(key.toString());
+            if (fromDisk != null) {
+                diskHits.incrementAndGet();
+                synchronized (memory) {
+                    memory.put(key, fromDisk);
+                }
+                return fromDisk.clone();
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(Key key, float[] embedding) {
+        if (key == null || embedding == null)
+            return;
+        float[] copy = embedding.clone();
+        synchronized (memory) {
+            memory.put(key, copy);
+        }
+        if (diskDir != null)
+            writeDisk(key.toString(), copy);
+    }
+
+    /**
+     * 清空内存层与磁盘层（计数保留）
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+        if (diskDir != null) {
+            File[] files = diskDir.listFiles();
+            if (files != null) {
+                for (File f : files)
+                    f.delete();
+            }
+        }
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public int memorySize() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    public void resetStats() {
+        memoryHits.set(0);
+        diskHits.set(0);
+        misses.set(0);
+    }
+
+    public String stats() {
+        long mem = memoryHits.get(), disk = diskHits.get(), miss = misses.get();
+        long total = mem + disk + miss;
+        return String.format(Locale.US, "embedding cache: memHit=%d, diskHit=%d, miss=%d, hitRate=%.1f%%, size=%d",
+                mem, disk, miss, total == 0 ? 0.0 : (mem + disk) * 100.0 / total, memorySize());
+    }
+
+    // ---- 磁盘层：每个条目一个文件，文件名为 key 的 64 位哈希，文件内保存完整 key 以排除碰撞 ----
+
+    private File diskFile(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return new File(diskDir, String.format(Locale.US, "%016x.emb", mix(h)));
+    }
+
+    private float[] readDisk(String key) {
+        File f = diskFile(key);
+        if (!f.exists())
+            return null;
+        try (DataInputStream in = new DataInputStream(new java.io.BufferedInputStream(new FileInputStream(f)))) {
+            if (in.readInt() != DISK_MAGIC || !key.equals(in.readUTF()))
+                return null;
+            int n = in.readInt();
+            if (n <= 0 || n > 4096)
+                return null;
+            float[] v = new float[n];
+            for (int i = 0; i < n; i++)
+                v[i] = in.readFloat();
+            f.setLastModified(System.currentTimeMillis());
+            return v;
+        } catch (IOException e) {
+            Log.w(TAG, "read disk entry failed: " + e.getMessage());
+            f.delete();
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, float[] v) {
+        File f = diskFile(key);
+        File tmp = new File(diskDir, f.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new java.io.BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(DISK_MAGIC);
+            out.writeUTF(key);
+            out.writeInt(v.length);
+            for (float x : v)
+                out.writeFloat(x);
+        } catch (IOException e) {
+            Log.w(TAG, "write disk entry failed: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(f))
+            tmp.delete();
+        boolean trim;
+        synchronized (this) {
+            trim = ++diskWritesSinceTrim >= 64;
+            if (trim)
+                diskWritesSinceTrim = 0;
+        }
+        if (trim)
+            trimDisk();
+    }
+
+    /**
+     * 磁盘条目超过上限时按最近访问时间删除最旧的条目
+     */
+    void trimDisk() {
+        File[] files = diskDir.listFiles((dir, name) -> name.endsWith(".emb"));
+        if (files == null || files.length <= maxDiskEntries)
+            return;
+        long[] stamps = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            stamps[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(stamps[a], stamps[b]));
+        for (int i = 0; i < files.length - maxDiskEntries; i++)
+            files[order[i]].delete();
+    }
+}
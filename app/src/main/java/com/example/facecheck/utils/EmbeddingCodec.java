@@ -0,0 +1,177 @@
+package com.example.facecheck.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 人脸嵌入 BLOB 编解码
+ * - 旧格式（FLOAT32）：无头部，dim 个小端 float32，长度 4 * dim
+ * - INT8 格式：4 字节标记 + 小端 float32 缩放系数 + dim 个 int8，长度 8 + dim
+ * 标记的 4 个字节按小端 float 解释为 NaN，而入库向量均为有限值的单位向量，
+ * 因此旧 BLOB 不会被误判为新格式，历史数据无需迁移。
+ */
+public final class EmbeddingCodec {
+
+    public static final int FORMAT_FLOAT32 = 0;
+    public static final int FORMAT_INT8 = 1;
+
+    // 'Q', 版本号, 0x88, 0xFF —— 小端解释为 0xFF880151，是一个 NaN
+    private static final byte TAG_0 = 0x51;
+    private static final byte TAG_INT8_V1 = 0x01;
+    private static final byte TAG_2 = (byte) 0x88;
+    private static final byte TAG_3 = (byte) 0xFF;
+    private static final int INT8_HEADER_BYTES = 8;
+
+    private EmbeddingCodec() {
+    }
+
+    /**
+     * 判断 BLOB 的编码格式
+     */
+    public static int formatOf(byte[] blob) {
+        if (blob != null && blob.length >= INT8_HEADER_BYTES
+                && blob[0] == TAG_0 && blob[1] == TAG_INT8_V1 && blob[2] == TAG_2 && blob[3] == TAG_3) {
+            return FORMAT_INT8;
+        }
+        return FORMAT_FLOAT32;
+    }
+
+    /**
+     * 解码 BLOB 中向量的维度；格式非法时返回 0
+     */
+    public static int dimOf(byte[] blob) {
+        if (blob == null)
+            return 0;
+        if (formatOf(blob) == FORMAT_INT8)
+            return blob.length - INT8_HEADER_BYTES;
+        return blob.length % 4 == 0 ? blob.length / 4 : 0;
+    }
+
+    /**
+     * 旧格式编码：dim 个小端 float32
+     */
+    public static byte[] encodeFloat32(float[] vector) {
+        ByteBuffer buffer = ByteBuffer.allocate(vector.length * 4);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        for (float f : vector) {
+            buffer.putFloat(f);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * INT8 编码：按向量最大绝对值对称量化到 [-127, 127]
+     */
+    public static byte[] encodeInt8(float[] vector) {
+        byte[] blob = new byte[INT8_HEADER_BYTES + vector.length];
+        blob[0] = TAG_0;
+        blob[1] = TAG_INT8_V1;
+        blob[2] = TAG_2;
+        blob[3] = TAG_3;
+        float scale = quantize(vector, 0, vector.length, blob, INT8_HEADER_BYTES);
+        ByteBuffer.wrap(blob, 4, 4).order(ByteOrder.LITTLE_ENDIAN).putFloat(scale);
+        return blob;
+    }
+
+    /**
+     * 解码任意格式为 float[]（不做归一化）；格式非法时返回空数组
+     */
+    public static float[] decode(byte[] blob) {
+        if (blob == null)
+            return new float[0];
+        if (formatOf(blob) == FORMAT_INT8) {
+            int dim = blob.length - INT8_HEADER_BYTES;
+            float scale = ByteBuffer.wrap(blob, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+            float[] out = new float[dim];
+            for (int i = 0; i < dim; i++) {
+                out[i] = blob[INT8_HEADER_BYTES + i] * scale;
+            }
+            return out;
+        }
+        if (blob.length % 4 != 0)
+            return new float[0];
+        float[] out = new float[blob.length / 4];
+        ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(out);
+        return out;
+    }
+
+    /**
+     * 解码 BLOB 直接写入 dst[dstOff, dstOff+dim)（不做归一化、不分配中间数组）
+     * float32 格式通过 asFloatBuffer().get 批量拷贝；返回写入的维度，格式非法或空间不足时返回 0
+     */
+    public static int decodeInto(byte[] blob, float[] dst, int dstOff) {
+        int dim = dimOf(blob);
+        if (dim == 0 || dstOff + dim > dst.length)
+            return 0;
+        if (formatOf(blob) == FORMAT_INT8) {
+            float scale = ByteBuffer.wrap(blob, 4, 4).order(ByteOrder.LITTLE_ENDIAN).getFloat();
+            for (int i = 0; i < dim; i++) {
+                dst[dstOff + i] = blob[INT8_HEADER_BYTES + i] * scale;
+            }
+            return dim;
+        }
+        ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(dst, dstOff, dim);
+        return dim;
+    }
+
+    /**
+     * 原地将 v[off, off+dim) 归一化为单位向量；零向量返回 false 且保持不变
+     */
+    public static boolean normalizeInPlace(float[] v, int off, int dim) {
+        float norm2 = 0f;
+        for (int i = 0; i < dim; i++)
+            norm2 += v[off + i] * v[off + i];
+        if (norm2 <= 0f)
+            return false;
+        float inv = (float) (1.0 / Math.sqrt(norm2));
+        for (int i = 0; i < dim; i++)
+            v[off + i] *= inv;
+        return true;
+    }
+
+    /**
+     * 将 src[srcOff, srcOff+dim) 量化写入 dst[dstOff, dstOff+dim)，返回缩放系数（反量化：q * scale）
+     */
+    public static float quantize(float[] src, int srcOff, int dim, byte[] dst, int dstOff) {
+        float maxAbs = 0f;
+        for (int i = 0; i < dim; i++) {
+            float a = Math.abs(src[srcOff + i]);
+            if (a > maxAbs)
+                maxAbs = a;
+        }
+        if (maxAbs == 0f) {
+            for (int i = 0; i < dim; i++)
+                dst[dstOff + i] = 0;
+            return 0f;
+        }
+        float scale = maxAbs / 127f;
+        float inv = 127f / maxAbs;
+        for (int i = 0; i < dim; i++) {
+            int q = Math.round(src[srcOff + i] * inv);
+            if (q > 127)
+                q = 127;
+            else if (q < -127)
+                q = -127;
+            dst[dstOff + i] = (byte) q;
+        }
+        return scale;
+    }
+
+    /**
+     * int8 点积（整数累加，结果乘以两侧缩放系数即为近似 float 点积）
+     */
+    public static int dotInt8(byte[] a, int aOff, byte[] b, int bOff, int dim) {
+        int s0 = 0, s1 = 0, s2 = 0, s3 = 0;
+        int i = 0;
+        for (; i + 4 <= dim; i += 4) {
+            s0 += a[aOff + i] * b[bOff + i];
+            s1 += a[aOff + i + 1] * b[bOff + i + 1];
+            s2 += a[aOff + i + 2] * b[bOff + i + 2];
+            s3 += a[aOff + i + 3] * b[bOff + i + 3];
+        }
+        for (; i < dim; i++) {
+            s0 += a[aOff + i] * b[bOff + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+}
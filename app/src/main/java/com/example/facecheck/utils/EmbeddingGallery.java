@@ -0,0 +1,215 @@
+package com.example.facecheck.utils;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 班级人脸嵌入库（内存版）
+ * - 按 (classroomId, modelVer) 一次性加载全部有效嵌入
+ * - 向量连续存放为 size×dim 的行主序 float 矩阵，均为单位向量
+ * - studentIds 与矩阵行一一对应
+ * 比对时直接在矩阵上做点积，不再逐人脸扫描数据库游标。
+ */
+public class EmbeddingGallery {
+
+    private final long classroomId;
+    private final String modelVer;
+    private final int dim;
+    private final int size;
+    private final float[] vectors;
+    private final long[] studentIds;
+    private QuantizedGallery quantized;
+    private BinaryHashGallery binaryHash;
+    private Map<Long, int[]> rowsByStudent;
+
+    EmbeddingGallery(long classroomId, String modelVer, int dim, int size, float[] vectors, long[] studentIds) {
+        this.classroomId = classroomId;
+        this.modelVer = modelVer;
+        this.dim = dim;
+        this.size = size;
+        this.vectors = vectors;
+        this.studentIds = studentIds;
+    }
+
+    public long getClassroomId() {
+        return classroomId;
+    }
+
+    public String getModelVer() {
+        return modelVer;
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getStudentId(int row) {
+        return studentIds[row];
+    }
+
+    /**
+     * 指定学生在库中的全部行号（无记录时返回空数组）
+     */
+    public synchronized int[] rowsOf(long studentId) {
+        if (rowsByStudent == null) {
+            Map<Long, int[]> map = new HashMap<>();
+            Map<Long, Integer> counts = new HashMap<>();
+            for (long sid : studentIds) {
+                Integer c = counts.get(sid);
+                counts.put(sid, c == null ? 1 : c + 1);
+            }
+            for (Map.Entry<Long, Integer> e : counts.entrySet())
+                map.put(e.getKey(), new int[e.getValue()]);
+            Map<Long, Integer> fill = new HashMap<>();
+            for (int row = 0; row < size; row++) {
+                long sid = studentIds[row];
+                Integer f = fill.get(sid);
+                int idx = f == null ? 0 : f;
+                map.get(sid)[idx] = row;
+                fill.put(sid, idx + 1);
+            }
+            rowsByStudent = map;
+        }
+        int[] rows = rowsByStudent.get(studentId);
+        return rows == null ? new int[0] : rows;
+    }
+
+    /**
+     * 底层矩阵（只读使用），第 row 行起始下标为 row * dim
+     */
+    public float[] getVectors() {
+        return vectors;
+    }
+
+    public long[] getStudentIds() {
+        return studentIds;
+    }
+
+    /**
+     * INT8 量化副本，首次使用时生成
+     */
+    public synchronized QuantizedGallery getQuantized() {
+        if (quantized == null)
+            quantized = QuantizedGallery.fromGallery(this);
+        return quantized;
+    }
+
+    /**
+     * 符号位哈希副本，首次使用时生成
+     */
+    public synchronized BinaryHashGallery getBinaryHash() {
+        if (binaryHash == null)
+            binaryHash = BinaryHashGallery.fromGallery(this);
+        return binaryHash;
+    }
+
+    /**
+     * 单位向量 query 与第 row 行的余弦相似度（即点积，夹取到 [-1,1]）
+     */
+    public float score(float[] query, int row) {
+        float dot = SimilarityKernel.dot(query, 0, vectors, row * dim, dim);
+        if (dot > 1f)
+            return 1f;
+        if (dot < -1f)
+            return -1f;
+        return dot;
+    }
+
+    /**
+     * 批量计算 n 个查询（扁平 n×dim）与全部库向量的分数矩阵 n×size
+     */
+    public float[] scoreAll(float[] packedQueries, int n) {
+        float[] out = new float[n * size];
+        SimilarityKernel.scoreMatrix(packedQueries, n, vectors, size, dim, out);
+        return out;
+    }
+
+    /**
+     * 在库中查找与 query 最相似的学生；维度不一致或库为空时返回 studentId = -1
+     */
+    public Match findBestMatch(float[] query) {
+        long bestStudentId = -1;
+        float bestScore = 0f;
+        if (query == null || query.length != dim)
+            return new Match(bestStudentId, bestScore);
+        for (int row = 0; row < size; row++) {
+            float sim = score(query, row);
+            if (sim > bestScore) {
+                bestScore = sim;
+                bestStudentId = studentIds[row];
+            }
+        }
+        return new Match(bestStudentId, bestScore);
+    }
+
+    /**
+     * 批量查找：一次计算全部查询的分数矩阵，再逐行取最大值
+     */
+    public Match[] findBestMatches(List<float[]> queries) {
+        int n = queries.size();
+        Match[] matches = new Match[n];
+        float[] scores = scoreAll(SimilarityKernel.pack(queries, dim), n);
+        int[] bestRow = new int[n];
+        float[] bestScore = new float[n];
+        SimilarityKernel.argmaxRows(scores, n, size, bestRow, bestScore);
+        for (int q = 0; q < n; q++) {
+            long sid = bestRow[q] >= 0 ? studentIds[bestRow[q]] : -1;
+            matches[q] = new Match(sid, bestScore[q]);
+        }
+        return matches;
+    }
+
+    /**
+     * 对库内每个学生，取其所有嵌入与全部 query 的最高相似度
+     */
+    public Map<Long, Float> bestScorePerStudent(List<float[]> queries) {
+        Map<Long, Float> best = new HashMap<>();
+        int n = queries == null ? 0 : queries.size();
+        float[] scores = n > 0 ? scoreAll(SimilarityKernel.pack(queries, dim), n) : new float[0];
+        for (int row = 0; row < size; row++) {
+            float rowBest = 0f;
+            for (int q = 0; q < n; q++) {
+                float sim = scores[q * size + row];
+                if (sim > rowBest)
+                    rowBest = sim;
+            }
+            if (rowBest > 1f)
+                rowBest = 1f;
+            long sid = studentIds[row];
+            Float old = best.get(sid);
+            if (old == null || rowBest > old)
+                best.put(sid, rowBest);
+        }
+        return best;
+    }
+
+    /**
+     * 单次比对结果
+     */
+    public static class Match {
+        private final long studentId;
+        private final float score;
+
+        public Match(long studentId, float score) {
+            this.studentId = studentId;
+            this.score = score;
+        }
+
+        public long getStudentId() {
+            return studentId;
+        }
+
+        public float getScore() {
+            return score;
+        }
+    }
+}
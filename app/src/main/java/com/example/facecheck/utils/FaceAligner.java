@@ -0,0 +1,167 @@
+package com.example.facecheck.utils;
+
+import android.graphics.Bitmap;
+
+/**
+ * 五点相似变换对齐：把检测到的 双眼 / 鼻尖 / 两嘴角 按最小二乘映射到 MobileFaceNet 训练时的 112×112 标准模板
+ * - 关键点顺序：图像左侧眼、图像右侧眼、鼻尖、图像左侧嘴角、图像右侧嘴角，坐标为像素下标坐标（像素中心为整数）
+ * - 求解结果直接转成 FaceWarp 的逆映射，与裁剪/缩放一样在一次采样中写入输入张量
+ * - 关键点退化（眼距过小、尺度异常）时返回 null，由调用方回退到检测框裁剪
+ * - 模板第 3 点是鼻尖；ML Kit 只给出鼻底（NOSE_BASE，位于鼻尖下方约半个鼻高），两者不是同一点，
+ *   这类检测器传 noseIsTip = false，只用双眼与两嘴角四点求解
+ */
+final class FaceAligner {
+
+    static final int TEMPLATE_SIZE = 112;
+    // ArcFace / InsightFace 112×112 标准模板
+    static final float[] TEMPLATE_112 = {
+            38.2946f, 51.6963f,
+            73.5318f, 51.5014f,
+            56.0252f, 71.7366f,
+            41.5493f, 92.3655f,
+            70.7299f, 92.2041f };
+
+    static final int POINTS = 5;
+    // 眼距小于该像素数时关键点不可靠（远处小脸），不做对齐
+    private static final float MIN_EYE_DISTANCE = 6f;
+
+    private FaceAligner() {
+    }
+
+    /**
+     * 最小二乘相似变换 dst ≈ [a -b; b a]·src + [tx, ty]，返回 {a, b, tx, ty}；点集退化时返回 null
+     * src/dst 均为交错的 x,y 坐标，点数取两者较小值
+     */
+    static float[] estimateSimilarity(float[] src, float[] dst) {
+        int n = Math.min(src.length, dst.length) / 2;
+        if (n < 2)
+            return null;
+        double sxMean = 0, syMean = 0, dxMean = 0, dyMean = 0;
+        for (int i = 0; i < n; i++) {
+            sxMean += src[2 * i];
+            syMean += src[2 * i + 1];
+            dxMean += dst[2 * i];
+            dyMean += dst[2 * i + 1];
+        }
+        sxMean /= n;
+        syMean /= n;
+        dxMean /= n;
+        dyMean /= n;
+        double norm = 0, dot = 0, cross = 0;
+        for (int i = 0; i < n; i++) {
+            double sx = src[2 * i] - sxMean, sy = src[2 * i + 1] - syMean;
+            double dx = dst[2 * i] - dxMean, dy = dst[2 * i + 1] - dyMean;
+            norm += sx * sx + sy * sy;
+            dot += sx * dx + sy * dy;
+            cross += sx * dy - sy * dx;
+        }
+        if (norm < 1e-6)
+            return null;
+        double a = dot / norm;
+        double b = cross / norm;
+        double tx = dxMean - (a * sxMean - b * syMean);
+        double ty = dyMean - (b * sxMean + a * syMean);
+        return new float[] { (float) a, (float) b, (float) tx, (float) ty };
+    }
+
+    /**
+     * 按关键点生成对齐后的 outW×outH 模型输入；模板按输出尺寸等比缩放
+     * 采样区域为输出画面在源图上的外接矩形（裁到源图范围内），区域外按黑色填充
+     */
+    static FaceWarp align(Bitmap source, int sourceWidth, int sourceHeight, float[] landmarks, int outW, int outH) {
+        return align(source, sourceWidth, sourceHeight, landmarks, true, outW, outH);
+    }
+
+    /**
+     * noseIsTip = false 时第 3 个关键点不参与求解（仍需占位，保持五点布局）
+     */
+    static FaceWarp align(Bitmap source, int sourceWidth, int sourceHeight, float[] landmarks, boolean noseIsTip,
+            int outW, int outH) {
+        if (landmarks == null || landmarks.length < POINTS * 2)
+            return null;
+        float eyeDx = landmarks[2] - landmarks[0];
+        float eyeDy = landmarks[3] - landmarks[1];
+        if (eyeDx * eyeDx + eyeDy * eyeDy < MIN_EYE_DISTANCE * MIN_EYE_DISTANCE)
+            return null;
+
+        float[] template = new float[POINTS * 2];
+        float kx = outW / (float) TEMPLATE_SIZE;
+        float ky = outH / (float) TEMPLATE_SIZE;
+        for (int i = 0; i < POINTS; i++) {
+            template[2 * i] = TEMPLATE_112[2 * i] * kx;
+            template[2 * i + 1] = TEMPLATE_112[2 * i + 1] * ky;
+        }
+        float[] t = noseIsTip ? estimateSimilarity(landmarks, template)
+                : estimateSimilarity(withoutNose(landmarks), withoutNose(template));
+        if (t == null)
+            return null;
+        double a = t[0], b = t[1];
+        double scale2 = a * a + b * b;
+        if (scale2 < 1e-8)
+            return null;
+
+        // 逆映射（下标坐标）：src = [a b; -b a]·(dst - t) / (a²+b²)
+        double ia = a / scale2, ib = b / scale2;
+        double ox = -(ia * t[2] + ib * t[3]);
+        double oy = -(-ib * t[2] + ia * t[3]);
+        // FaceWarp 以像素中心连续坐标表达：src_c = M·(dst_c - 0.5) + o + 0.5
+        float[] m = new float[6];
+        m[0] = (float) ia;
+        m[1] = (float) ib;
+        m[2] = (float) (ox + 0.5 - 0.5 * (ia + ib));
+        m[3] = (float) -ib;
+        m[4] = (float) ia;
+        m[5] = (float) (oy + 0.5 - 0.5 * (-ib + ia));
+
+        // 输出四角在源图上的外接矩形即需读取的区域，多留 1 像素给双线性邻点
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        int[][] corners = { { 0, 0 }, { outW, 0 }, { 0, outH }, { outW, outH } };
+        for (int[] c : corners) {
+            double x = m[0] * c[0] + m[1] * c[1] + m[2];
+            double y = m[3] * c[0] + m[4] * c[1] + m[5];
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        int left = Math.max(0, (int) Math.floor(minX) - 1);
+        int top = Math.max(0, (int) Math.floor(minY) - 1);
+        int right = Math.min(sourceWidth, (int) Math.ceil(maxX) + 1);
+        int bottom = Math.min(sourceHeight, (int) Math.ceil(maxY) + 1);
+        if (right <= left || bottom <= top)
+            return null;
+        return new FaceWarp(source, left, top, right, bottom, m);
+    }
+
+    static FaceWarp align(Bitmap source, float[] landmarks, boolean noseIsTip, int outW, int outH) {
+        return align(source, source.getWidth(), source.getHeight(), landmarks, noseIsTip, outW, outH);
+    }
+
+    /**
+     * 去掉第 3 点（鼻）后的四点坐标：双眼、两嘴角
+     */
+    static float[] withoutNose(float[] five) {
+        float[] four = new float[8];
+        System.arraycopy(five, 0, four, 0, 4);
+        System.arraycopy(five, 6, four, 4, 4);
+        return four;
+    }
+
+    /**
+     * 按图像横坐标整理两眼、两嘴角的左右顺序（兼容前置摄像头镜像和不同检测器的左右定义）
+     */
+    static void orderLeftToRight(float[] landmarks) {
+        swapIfReversed(landmarks, 0, 1);
+        swapIfReversed(landmarks, 3, 4);
+    }
+
+    private static void swapIfReversed(float[] p, int i, int j) {
+        if (p[2 * i] <= p[2 * j])
+            return;
+        float x = p[2 * i], y = p[2 * i + 1];
+        p[2 * i] = p[2 * j];
+        p[2 * i + 1] = p[2 * j + 1];
+        p[2 * j] = x;
+        p[2 * j + 1] = y;
+    }
+}
@@ -8,17 +8,15 @@ import android.graphics.PointF;
 import android.graphics.Rect;
 import android.util.Log;
 
+import com.example.facecheck.database.DatabaseChangeBus;
 import com.example.facecheck.database.DatabaseHelper;
 import com.example.facecheck.data.model.FaceEmbedding;
-import com.example.facecheck.data.model.Student;
 import com.google.mlkit.vision.face.Face;
 import com.google.mlkit.vision.face.FaceLandmark;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileInputStream;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
@@ -26,8 +24,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Arrays;
 import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.Tensor;
-import org.tensorflow.lite.DataType;
 
 /**
  * 人脸识别管理器
@@ -37,33 +33,108 @@ public class FaceRecognitionManager {
 
     private static final String TAG = "FaceRecognitionManager";
     private static final String MODEL_VERSION = "mfn-new-f32";
+    // INT8 量化 MobileFaceNet 的嵌入单独标记，与 float32 嵌入互不混用
+    private static final String MODEL_VERSION_INT8 = "mfn-new-int8";
+    private static final String MODEL_ASSET_F32 = "models/new/mobilefacenet_float32.tflite";
+    private static final String MODEL_ASSET_INT8 = "models/new/mobilefacenet_int8.tflite";
+    // 各模型资产的输入预处理：两者都由同一 float32 MobileFaceNet 导出（INT8 为训练后量化），
+    // 实数输入均为 (v - 127.5) / 128，而非原始像素值；更换模型资产时同步修改
+    private static final boolean MODEL_RAW_PIXEL_INPUT_F32 = false;
+    private static final boolean MODEL_RAW_PIXEL_INPUT_INT8 = false;
+    // 模型下拉框中的 INT8 选项名
+    public static final String MODEL_NAME_INT8 = "MobileFaceNet (INT8)";
+    // 上次在模型下拉框中选择的特征提取模型（settings_prefs），新建实例与启动预热都按它加载
+    private static final String PREFS = "settings_prefs";
+    private static final String KEY_SELECTED_MODEL = "embedding_model";
     private static final float SIMILARITY_THRESHOLD = 0.75f; // 传统增强特征阈值
     private static final int FEATURE_VECTOR_SIZE = 256; // 特征向量维度 - 增加特征维度以提高识别精度
-    private static final boolean DEBUG_SIMILARITY = true; // 相似度调试开关
+    // 相似度调试开关：calculateSimilarity 在每次比对中调用，编译期常量关闭时日志分支被整体移除
+    private static final boolean DEBUG_SIMILARITY = false;
 
     private final Context context;
     private final DatabaseHelper databaseHelper;
     private final ImageStorageManager imageStorageManager;
-    // MobileFaceNet 模型/维度
-    private Interpreter tflite;
+    // MobileFaceNet 模型/维度（由首个推理会话按张量规格解析）
     private int modelInputWidth = 112;
     private int modelInputHeight = 112;
     private int modelInputChannels = 3;
     private int modelOutputDim = 128; // 以模型输出为准，常见为128
+    // 推理会话池：多个 Interpreter 共享同一份只读映射的模型，每个线程借出独占的会话
+    // 模型由进程内 ModelRegistry 持有（各 Activity 各自创建 FaceRecognitionManager，但共用同一份映射与会话池），
+    // 每次提取借用一次租约并只使用租约内的会话池，内存紧张时可在两次提取之间被关闭，下次提取重新加载；
+    // 此字段记录最近一次借到的会话池，仅用于调整上限
+    private InterpreterPool<MobileFaceNetSession> embedderPool;
+    private int interpreterPoolSize = defaultInterpreterPoolSize();
+    // 大合照批量提取时并行跑各分段的工作线程（进程内共享，数量受会话池上限约束）
+    private static java.util.concurrent.ExecutorService inferenceWorkers;
 
     // 动态模型选择
     private String currentModelVersion = MODEL_VERSION; // 默认 MobileFaceNet (new/f32)
     private String selectedModelName = "MobileFaceNet"; // 仅用于特征提取模型选择
 
+    // 五点模板对齐（默认关闭）：已有嵌入均来自检测框裁剪，两种输入分布未经测量不能按同一阈值混比；
+    // 开启后嵌入以 modelVer + ALIGNED_VERSION_SUFFIX 单独入库，旧记录不参与比对，需重新录入
+    static final String ALIGNED_VERSION_SUFFIX = "+align5";
+    private boolean faceAlignment = false;
+
+    // 嵌入结果缓存（进程内共享，key = 源图像素哈希 + 归一化人脸区域 + 模型版本），命中时不经过推理
+    private boolean embeddingCacheEnabled = true;
+
+    // 班级嵌入库缓存：key = classroomId + "|" + modelVer，均由嵌入快照派生
+    private final java.util.Map<String, EmbeddingGallery> galleryCache = new java.util.HashMap<>();
+
+    // 进程内共享的嵌入快照（各 Activity 各自创建 FaceRecognitionManager，但共用同一份快照）
+    private static GallerySnapshot sharedSnapshot;
+    // 本实例的缓存所基于的快照，与 sharedSnapshot 不同时丢弃本实例缓存
+    private GallerySnapshot loadedSnapshot;
+
+    // 全校 1:N 检索的 HNSW 索引（按 modelVer 持久化到 files/face_index）
+    private HnswIndex schoolIndex;
+    private String schoolIndexModelVer;
+    private int indexEfSearch = HnswIndex.DEFAULT_EF_SEARCH;
+    // 全校 1:N 改用全库并行精确检索（不走 HNSW 近似）
+    private boolean parallelSchoolSearch = false;
+
+    // 班级内比对策略与嵌入存储格式
+    private SearchStrategy searchStrategy = SearchStrategy.EXACT;
+    private int candidateCount = 0;
+    private boolean int8Storage = false;
+
+    // 班级原型库（每个学生的质心 + 样例）：key = classroomId + "|" + modelVer，随写入增量更新
+    private final java.util.Map<String, PrototypeStore> prototypeStores = new java.util.HashMap<>();
+    // 原型粗匹配默认关闭：开启后班级内比对不再按 SearchStrategy，且真实学生排在 shortlist 之外时会漏识别，
+    // 需先用 evaluateSearchStrategiesAndExport 的 PROTOTYPE 行确认召回
+    private boolean prototypeMatching = false;
+    // 原型粗匹配后进入逐条精排的学生数
+    public static final int DEFAULT_PROTOTYPE_SHORTLIST = 3;
+    private int prototypeShortlist = DEFAULT_PROTOTYPE_SHORTLIST;
+
     public FaceRecognitionManager(Context context) {
         this.context = context;
         this.databaseHelper = new DatabaseHelper(context);
         this.imageStorageManager = new ImageStorageManager(context);
+        setSelectedModel(getSavedModel(context));
+    }
+
+    /**
+     * 上次保存的特征提取模型选项名，未保存过时为 "MobileFaceNet"
+     */
+    public static String getSavedModel(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).getString(KEY_SELECTED_MODEL,
+                "MobileFaceNet");
+    }
+
+    /**
+     * 保存模型下拉框的选择，之后新建的 FaceRecognitionManager 与下次启动的预热使用同一模型
+     */
+    public static void saveSelectedModel(Context context, String name) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit().putString(KEY_SELECTED_MODEL, name)
+                .apply();
     }
 
     /**
      * 设置当前使用的特征提取模型
-     * 可选："Google ML Kit (推荐)", "MobileFaceNet", "Google FaceNet"
+     * 可选："MobileFaceNet"、"MobileFaceNet (INT8)"；旧配置 "Google ML Kit (推荐)"、"Google FaceNet" 回退到 MobileFaceNet
      */
     public void setSelectedModel(String name) {
         if (name == null)
@@ -75,6 +146,9 @@ public class FaceRecognitionManager {
             Log.w(TAG, "ML Kit 特征提取已废弃，自动回退到 MobileFaceNet(new/f32)");
             this.selectedModelName = "MobileFaceNet";
             this.currentModelVersion = "mfn-new-f32";
+        } else if (trimmed.toUpperCase(java.util.Locale.US).contains("INT8")) {
+            this.selectedModelName = MODEL_NAME_INT8;
+            this.currentModelVersion = MODEL_VERSION_INT8;
         } else if (trimmed.equalsIgnoreCase("MobileFaceNet")) {
             this.selectedModelName = "MobileFaceNet";
             this.currentModelVersion = "mfn-new-f32";
@@ -95,76 +169,197 @@ public class FaceRecognitionManager {
      * 获取当前模型版本（用于区分库中不同模型的嵌入记录）
      */
     public String getCurrentModelVersion() {
-        return this.currentModelVersion;
+        return embeddingVersion();
     }
 
     /**
-     * 加载当前选择的特征提取模型（new 目录下的 tflite），懒加载一次。
+     * 嵌入记录的版本标签：模型版本，开启五点对齐时追加 ALIGNED_VERSION_SUFFIX，
+     * 使对齐与检测框裁剪两种输入生成的嵌入互不混比
      */
-    private void ensureInterpreterLoaded() {
-        if (tflite != null)
+    private String embeddingVersion() {
+        return faceAlignment ? currentModelVersion + ALIGNED_VERSION_SUFFIX : currentModelVersion;
+    }
+
+    /**
+     * 开关五点模板对齐（默认关闭）；开启后嵌入版本标签改变，已按检测框裁剪录入的嵌入需重新录入
+     */
+    public synchronized void setFaceAlignment(boolean enabled) {
+        if (this.faceAlignment == enabled)
             return;
-        try {
-            String assetPath;
-            if ("Google FaceNet".equals(selectedModelName)) {
-                // FaceNet 模型已删除，回退到 MobileFaceNet
-                Log.w(TAG, "FaceNet 模型已删除，自动回退到 MobileFaceNet(new/f32)");
-                assetPath = "models/new/mobilefacenet_float32.tflite";
-            } else {
-                // 默认 MobileFaceNet(new/f32)
-                assetPath = "models/new/mobilefacenet_float32.tflite";
-            }
-            MappedByteBuffer buffer = loadModelFile(assetPath);
-            tflite = new Interpreter(buffer);
-
-            // 动态解析输入（考虑 FaceNet 多输入场景，选择 4D 输入作为图像入口）
-            int inCount = tflite.getInputTensorCount();
-            int imgIndex = -1;
-            for (int i = 0; i < inCount; i++) {
-                Tensor t = tflite.getInputTensor(i);
-                int[] shape = t.shape();
-                if (shape != null && shape.length >= 4) {
-                    imgIndex = i;
-                    this.modelInputHeight = shape[1];
-                    this.modelInputWidth = shape[2];
-                    this.modelInputChannels = shape[3];
-                    break;
-                }
+        this.faceAlignment = enabled;
+        galleryCache.clear();
+    }
+
+    public boolean isFaceAlignment() {
+        return faceAlignment;
+    }
+
+    /**
+     * 已加载的 MobileFaceNet：会话池与由首个会话解析出的张量规格；
+     * modelVersion 由实际加载的模型资产决定（INT8 资产为 mfn-new-int8）。动态范围量化、仅权重量化的模型
+     * 输入输出仍是 float32，不能按张量类型推断版本；张量类型只用于缓冲配置
+     */
+    private static final class SharedEmbedder {
+        final String assetPath;
+        final InterpreterPool<MobileFaceNetSession> pool;
+        final int inputWidth;
+        final int inputHeight;
+        final int inputChannels;
+        final int outputDim;
+        final boolean quantized;
+        final String modelVersion;
+        final String tensorSpec;
+
+        SharedEmbedder(String assetPath, InterpreterPool<MobileFaceNetSession> pool, MobileFaceNetSession probe) {
+            this.assetPath = assetPath;
+            this.pool = pool;
+            this.inputWidth = probe.inputWidth;
+            this.inputHeight = probe.inputHeight;
+            this.inputChannels = probe.inputChannels;
+            this.outputDim = probe.outputDim;
+            this.quantized = probe.isQuantized();
+            this.modelVersion = modelVersionForAsset(assetPath);
+            this.tensorSpec = probe.describe();
+        }
+    }
+
+    /**
+     * 模型资产对应的嵌入版本标记
+     */
+    static String modelVersionForAsset(String assetPath) {
+        return MODEL_ASSET_INT8.equals(assetPath) ? MODEL_VERSION_INT8 : MODEL_VERSION;
+    }
+
+    /**
+     * 模型资产的实数输入是否为原始像素值（见 MODEL_RAW_PIXEL_INPUT_*）
+     */
+    static boolean rawPixelInputForAsset(String assetPath) {
+        return MODEL_ASSET_INT8.equals(assetPath) ? MODEL_RAW_PIXEL_INPUT_INT8 : MODEL_RAW_PIXEL_INPUT_F32;
+    }
+
+    /**
+     * 借用当前选择的特征提取模型（new 目录下的 tflite），进程内未加载时加载一次；加载失败返回 null
+     * 调用方在本次提取结束后关闭租约（try-with-resources），租约期间会话池不会被关闭。
+     */
+    private synchronized ModelRegistry.Lease<SharedEmbedder> acquireEmbedder() {
+        ModelRegistry.Lease<SharedEmbedder> lease;
+        if (MODEL_NAME_INT8.equals(selectedModelName)) {
+            lease = acquireEmbedder(MODEL_ASSET_INT8);
+            if (lease == null) {
+                // 未打包 INT8 模型时回退 float32；嵌入按实际加载的模型标记版本，不会与 INT8 嵌入混用
+                Log.w(TAG, "INT8 模型加载失败，回退到 MobileFaceNet(new/f32): " + MODEL_ASSET_INT8);
+                lease = acquireEmbedder(MODEL_ASSET_F32);
             }
-            if (imgIndex == -1) {
-                // 回退：默认 MobileFaceNet 尺寸
-                this.modelInputWidth = 112;
-                this.modelInputHeight = 112;
-                this.modelInputChannels = 3;
-            }
-
-            // 动态解析输出维度（选择首个二维 FLOAT32 输出作为嵌入向量）
-            int outCount = tflite.getOutputTensorCount();
-            int outDim = -1;
-            for (int i = 0; i < outCount; i++) {
-                Tensor o = tflite.getOutputTensor(i);
-                int[] os = o.shape();
-                if (o.dataType() == DataType.FLOAT32 && os != null && os.length >= 2) {
-                    outDim = os[os.length - 1];
-                    break;
-                }
+        } else {
+            // 默认 MobileFaceNet(new/f32)
+            lease = acquireEmbedder(MODEL_ASSET_F32);
+        }
+        if (lease == null) {
+            embedderPool = null;
+            return null;
+        }
+        SharedEmbedder embedder = lease.get();
+        if (!embedder.modelVersion.equals(currentModelVersion)) {
+            Log.w(TAG, "modelVer " + currentModelVersion + " -> " + embedder.modelVersion + " (" + embedder.assetPath
+                    + ")");
+            this.currentModelVersion = embedder.modelVersion;
+        }
+        this.interpreterPoolSize = embedder.pool.getMaxSize();
+        embedderPool = embedder.pool;
+        return lease;
+    }
+
+    /**
+     * 借用指定资产路径的 MobileFaceNet，并以其张量规格更新预处理尺寸；加载失败返回 null
+     */
+    private synchronized ModelRegistry.Lease<SharedEmbedder> acquireEmbedder(String assetPath) {
+        final Context app = context.getApplicationContext();
+        final int poolSize = interpreterPoolSize;
+        ModelRegistry.Lease<SharedEmbedder> lease = ModelRegistry.get().acquire("mobilefacenet:" + assetPath,
+                () -> loadEmbedder(app, assetPath, poolSize), embedder -> embedder.pool.close());
+        if (lease == null)
+            return null;
+        SharedEmbedder embedder = lease.get();
+        this.modelInputWidth = embedder.inputWidth;
+        this.modelInputHeight = embedder.inputHeight;
+        this.modelInputChannels = embedder.inputChannels;
+        this.modelOutputDim = embedder.outputDim;
+        return lease;
+    }
+
+    /**
+     * 映射模型、调优并创建首个会话以解析张量规格；由 ModelRegistry 在进程内首次借用时调用，失败返回 null
+     */
+    private static SharedEmbedder loadEmbedder(Context context, String assetPath, int poolSize) {
+        try {
+            final MappedByteBuffer buffer = loadModelFile(context, assetPath);
+            // 线程数与 XNNPACK 开关按设备自动调优（每个模型首次加载时测量一次，结果缓存）；
+            // 池内 poolSize 个会话可能同时推理，单会话线程数按 核数 / poolSize 限制
+            final InferenceConfig config = InferenceTuner.get(context).resolve(InferenceTuner.modelKey(assetPath),
+                    InferenceTuner.interpreterProbe(buffer), poolSize);
+            final boolean rawPixelInput = rawPixelInputForAsset(assetPath);
+            InterpreterPool<MobileFaceNetSession> pool = new InterpreterPool<>(poolSize,
+                    () -> new MobileFaceNetSession(new Interpreter(buffer, config.toOptions()), rawPixelInput),
+                    MobileFaceNetSession::close);
+
+            // 先建一个会话解析张量规格并确认模型可用，随后放回池中复用
+            MobileFaceNetSession probe = pool.acquire();
+            if (!probe.isUsable()) {
+                pool.invalidate(probe);
+                pool.close();
+                return null;
             }
-            this.modelOutputDim = (outDim > 0) ? outDim : 128;
+            SharedEmbedder embedder = new SharedEmbedder(assetPath, pool, probe);
+            pool.release(probe);
 
             Log.i(TAG, String.format(
-                    "Model loaded: %s, input=%dx%dx%d, outputDim=%d, inputs=%d, outputs=%d",
-                    selectedModelName, modelInputWidth, modelInputHeight, modelInputChannels,
-                    modelOutputDim, inCount, outCount));
+                    "Model loaded: %s, input=%dx%dx%d, %s, outputDim=%d, modelVer=%s, inputs=%d, outputs=%d, pool=%d, %s",
+                    assetPath, embedder.inputWidth, embedder.inputHeight, embedder.inputChannels, embedder.tensorSpec,
+                    embedder.outputDim, embedder.modelVersion, probe.interpreter.getInputTensorCount(),
+                    probe.interpreter.getOutputTensorCount(), poolSize, config));
+            return embedder;
         } catch (Exception e) {
             Log.e(TAG, "加载模型失败: " + e.getMessage(), e);
-            tflite = null;
+            return null;
+        }
+    }
+
+    /**
+     * 后台预热：加载共享模型并用空白输入跑一次推理（完成张量分配与首轮算子初始化）
+     * 供 ModelWarmup 在应用启动时调用，不计入首个识别结果耗时；返回是否成功
+     */
+    public boolean warmUp() {
+        try (ModelRegistry.Lease<SharedEmbedder> lease = acquireEmbedder()) {
+            if (lease == null)
+                return false;
+            Bitmap blank = Bitmap.createBitmap(modelInputWidth, modelInputHeight, Bitmap.Config.ARGB_8888);
+            return runMobileFaceNet(lease.get().pool, FaceWarp.cropRotateScale(blank, 0, 0, modelInputWidth, modelInputHeight, 0f,
+                    modelInputWidth, modelInputHeight)) != null;
         }
     }
 
+    private static int defaultInterpreterPoolSize() {
+        return Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * 设置推理会话池上限（即可并行推理的线程数）；已加载时立即生效（会话池进程内共享），
+     * 缩容时多余会话在归还后关闭
+     */
+    public synchronized void setInterpreterPoolSize(int size) {
+        this.interpreterPoolSize = Math.max(1, size);
+        if (embedderPool != null)
+            embedderPool.setMaxSize(this.interpreterPoolSize);
+    }
+
+    public synchronized int getInterpreterPoolSize() {
+        return interpreterPoolSize;
+    }
+
     /**
      * 从 assets 加载并映射 .tflite 模型
      */
-    private MappedByteBuffer loadModelFile(String assetPath) throws java.io.IOException {
+    private static MappedByteBuffer loadModelFile(Context context, String assetPath) throws java.io.IOException {
         AssetFileDescriptor afd = context.getAssets().openFd(assetPath);
         FileInputStream fis = new FileInputStream(afd.getFileDescriptor());
         FileChannel channel = fis.getChannel();
@@ -173,77 +368,110 @@ public class FaceRecognitionManager {
         return channel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
     }
 
+    private static InterpreterPool<MobileFaceNetSession> poolOf(ModelRegistry.Lease<SharedEmbedder> lease) {
+        return lease == null ? null : lease.get().pool;
+    }
+
     /**
-     * 运行 MobileFaceNet 推理，返回未归一化的特征向量
+     * 从会话池借出一个推理会话；模型未加载或等待被中断时返回 null
      */
-    private float[] runMobileFaceNet(Bitmap input) {
-        if (tflite == null) {
+    private MobileFaceNetSession acquireSession(InterpreterPool<MobileFaceNetSession> pool) {
+        if (pool == null) {
             Log.w(TAG, "TFLite interpreter is null, cannot run inference");
             return null;
         }
-        // 根据模型期望尺寸做缩放
-        int w = input.getWidth();
-        int h = input.getHeight();
-        if (w != modelInputWidth || h != modelInputHeight) {
-            input = Bitmap.createScaledBitmap(input, modelInputWidth, modelInputHeight, true);
-            w = modelInputWidth;
-            h = modelInputHeight;
-        }
-
-        // 打印一次输入张量规格
-        Tensor inTensor = tflite.getInputTensor(0);
-        int[] inShape = inTensor.shape();
-        DataType inType = inTensor.dataType();
-        Log.i(TAG, "MFN input shape=" + java.util.Arrays.toString(inShape) + ", dtype=" + inType);
-
-        // 根据数据类型构造输入 Buffer
-        boolean useFloat32 = (inType == DataType.FLOAT32);
-        int[] pixels = new int[w * h];
-        input.getPixels(pixels, 0, w, 0, 0, w, h);
-
-        ByteBuffer inBuffer;
-        if (useFloat32) {
-            inBuffer = ByteBuffer.allocateDirect(w * h * modelInputChannels * 4);
-            inBuffer.order(ByteOrder.nativeOrder());
-            for (int y = 0; y < h; y++) {
-                for (int x = 0; x < w; x++) {
-                    int c = pixels[y * w + x];
-                    float r = ((c >> 16) & 0xFF);
-                    float g = ((c >> 8) & 0xFF);
-                    float b = (c & 0xFF);
-                    // 常见归一化：[-1,1]
-                    inBuffer.putFloat((r - 127.5f) / 128f);
-                    inBuffer.putFloat((g - 127.5f) / 128f);
-                    inBuffer.putFloat((b - 127.5f) / 128f);
-                }
-            }
-        } else if (inType == DataType.UINT8) {
-            inBuffer = ByteBuffer.allocateDirect(w * h * modelInputChannels);
-            inBuffer.order(ByteOrder.nativeOrder());
-            for (int y = 0; y < h; y++) {
-                for (int x = 0; x < w; x++) {
-                    int c = pixels[y * w + x];
-                    int r = (c >> 16) & 0xFF;
-                    int g = (c >> 8) & 0xFF;
-                    int b = c & 0xFF;
-                    inBuffer.put((byte) r);
-                    inBuffer.put((byte) g);
-                    inBuffer.put((byte) b);
-                }
-            }
-        } else {
-            Log.e(TAG, "Unsupported input data type: " + inType);
+        try {
+            return pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            Log.e(TAG, "创建推理会话失败: " + e.getMessage(), e);
             return null;
         }
+    }
 
-        float[][] out = new float[1][modelOutputDim];
-        try {
-            tflite.run(inBuffer, out);
-        } catch (Throwable t) {
-            Log.e(TAG, "MobileFaceNet inference failed: " + t.getMessage(), t);
+    /**
+     * 运行 MobileFaceNet 推理，返回未归一化的特征向量（线程安全：每次借出独占的会话）
+     */
+    private float[] runMobileFaceNet(InterpreterPool<MobileFaceNetSession> pool, FaceWarp input) {
+        MobileFaceNetSession session = acquireSession(pool);
+        if (session == null)
             return null;
+        try {
+            float[] out = new float[session.outputDim];
+            return session.runInto(input, out) ? out : null;
+        } finally {
+            pool.release(session);
+        }
+    }
+
+    /**
+     * 批量运行 MobileFaceNet，返回数组与 inputs 一一对应（未归一化），输入为 null 或推理失败的位置为 null
+     * 人脸数超过一个 chunk 且会话池允许时，按 chunk 对齐切成若干段，各段借出独立会话并行推理，
+     * 调用线程负责第一段。
+     */
+    private float[][] runMobileFaceNetBatch(InterpreterPool<MobileFaceNetSession> pool, List<FaceWarp> inputs) {
+        float[][] features = new float[inputs.size()][];
+        if (pool == null) {
+            Log.w(TAG, "TFLite interpreter is null, cannot run inference");
+            return features;
+        }
+        int[] pending = new int[inputs.size()];
+        int count = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            if (inputs.get(i) != null)
+                pending[count++] = i;
         }
-        return out[0];
+        int chunk = MobileFaceNetSession.MAX_INFERENCE_BATCH;
+        int chunks = (count + chunk - 1) / chunk;
+        int workers = Math.min(pool.getMaxSize(), chunks);
+        if (workers <= 1) {
+            runBatchSegment(pool, inputs, pending, 0, count, features);
+            return features;
+        }
+        int perWorker = ((chunks + workers - 1) / workers) * chunk;
+        List<java.util.concurrent.Future<?>> futures = new ArrayList<>();
+        for (int from = perWorker; from < count; from += perWorker) {
+            final int segFrom = from;
+            final int segTo = Math.min(count, from + perWorker);
+            futures.add(inferenceWorkers().submit(
+                    () -> runBatchSegment(pool, inputs, pending, segFrom, segTo, features)));
+        }
+        runBatchSegment(pool, inputs, pending, 0, Math.min(count, perWorker), features);
+        for (java.util.concurrent.Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (java.util.concurrent.ExecutionException e) {
+                Log.e(TAG, "并行批量推理失败: " + e.getCause(), e.getCause());
+            }
+        }
+        return features;
+    }
+
+    private void runBatchSegment(InterpreterPool<MobileFaceNetSession> pool, List<FaceWarp> inputs, int[] indices,
+            int from, int to, float[][] features) {
+        MobileFaceNetSession session = acquireSession(pool);
+        if (session == null)
+            return;
+        try {
+            session.runBatch(inputs, indices, from, to, features);
+        } finally {
+            pool.release(session);
+        }
+    }
+
+    private static synchronized java.util.concurrent.ExecutorService inferenceWorkers() {
+        if (inferenceWorkers == null) {
+            inferenceWorkers = java.util.concurrent.Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "mfn-inference");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return inferenceWorkers;
     }
 
     /**
@@ -251,7 +479,10 @@ public class FaceRecognitionManager {
      */
     private float[] runFaceNet(Bitmap input) {
         Log.w(TAG, "FaceNet 模型已删除，回退到 MobileFaceNet");
-        return runMobileFaceNet(input);
+        try (ModelRegistry.Lease<SharedEmbedder> lease = acquireEmbedder()) {
+            return runMobileFaceNet(poolOf(lease), FaceWarp.cropRotateScale(input, 0, 0, input.getWidth(),
+                    input.getHeight(), 0f, modelInputWidth, modelInputHeight));
+        }
     }
 
     /**
@@ -263,83 +494,27 @@ public class FaceRecognitionManager {
             Log.e(TAG, "extractFaceFeatures: faceBitmap == null");
             return null;
         }
-        try {
-            Log.d(TAG, "extractFaceFeatures: bitmap w=" + faceBitmap.getWidth() + ", h=" + faceBitmap.getHeight()
-                    + ", euler=(" + face.getHeadEulerAngleX() + "," + face.getHeadEulerAngleY() + ","
-                    + face.getHeadEulerAngleZ() + ")");
-            // 针对不同模型的输入尺寸：
-            // - ML Kit 路径使用任意统一尺寸生成基础特征（此处沿用当前设置）
-            // - 其他深度模型根据 interpreter 的输入动态解析
-            final int MODEL_W = modelInputWidth;
-            final int MODEL_H = modelInputHeight;
-
-            Rect bbox = face.getBoundingBox();
-            if (bbox == null) {
-                Log.w(TAG, "no bounding box");
-                dumpBitmapForDebug(faceBitmap, "no_bbox");
-                return null;
-            }
-
-            int left = Math.max(0, bbox.left);
-            int top = Math.max(0, bbox.top);
-            int right = Math.min(faceBitmap.getWidth(), bbox.right);
-            int bottom = Math.min(faceBitmap.getHeight(), bbox.bottom);
-            int w = right - left, h = bottom - top;
-            if (w <= 0 || h <= 0) {
-                Log.w(TAG, "invalid crop box left=" + left + " top=" + top + " w=" + w + " h=" + h);
-                dumpBitmapForDebug(faceBitmap, "invalid_crop");
-                return null;
-            }
-
-            Bitmap crop = Bitmap.createBitmap(faceBitmap, left, top, w, h);
-            // 对齐：根据人脸滚转角（Z 轴）将裁剪区域旋转到水平，提高跨照片一致性
-            float roll = face.getHeadEulerAngleZ();
-            Bitmap alignedCrop = (Math.abs(roll) > 1.0f) ? rotateBitmap(crop, -roll) : crop;
-            if (alignedCrop != crop) {
-                Log.d(TAG, String.format("apply roll alignment: z=%.2f, crop=%dx%d", roll, w, h));
-            }
-            Bitmap input = Bitmap.createScaledBitmap(alignedCrop, MODEL_W, MODEL_H, true);
-
-            // 打印常见关键点状态
-            int present = 0;
-            int[] types = { FaceLandmark.LEFT_EYE, FaceLandmark.RIGHT_EYE, FaceLandmark.NOSE_BASE,
-                    FaceLandmark.MOUTH_LEFT, FaceLandmark.MOUTH_RIGHT };
-            for (int t : types) {
-                FaceLandmark lm = face.getLandmark(t);
-                if (lm != null) {
-                    present++;
-                    Log.d(TAG, "landmark " + t + " at " + lm.getPosition().x + "," + lm.getPosition().y);
-                } else {
-                    Log.w(TAG, "landmark missing " + t);
-                }
-            }
-            if (present < 2) {
-                Log.w(TAG, "too few landmarks: " + present);
-                dumpBitmapForDebug(input, "few_landmarks");
+        long startNanos = System.nanoTime();
+        try (ModelRegistry.Lease<SharedEmbedder> lease = acquireEmbedder()) {
+            // 废弃 ML Kit 嵌入，统一走深度模型（FaceNet 模型已删除，统一使用 MobileFaceNet）
+            // 预处理需要模型输入尺寸，租约在 try 头部先行借出
+            FaceWarp input = prepareFaceWarp(faceBitmap, face);
+            if (input == null)
                 return null;
-            }
+            EmbeddingCache.Key cacheKey = embeddingCacheKey(input, null);
+            float[] cached = cachedEmbedding(cacheKey);
+            if (cached != null)
+                return cached;
 
-            // 废弃 ML Kit 嵌入，统一走深度模型（MobileFaceNet / FaceNet）
-            ensureInterpreterLoaded();
-            float[] features;
-            if ("Google FaceNet".equals(selectedModelName)) {
-                // FaceNet 模型已删除，回退到 MobileFaceNet
-                Log.w(TAG, "FaceNet 模型已删除，自动回退到 MobileFaceNet");
-                features = runMobileFaceNet(input);
-            } else {
-                features = runMobileFaceNet(input);
-            }
+            float[] features = runMobileFaceNet(poolOf(lease), input);
             if (features == null) {
                 Log.e(TAG, "inference returned null");
-                dumpBitmapForDebug(input, "infer_null");
+                dumpWarpForDebug(input, "infer_null");
                 return null;
             }
             float[] normFeat = normalizeVector(features);
-            if (normFeat != null && normFeat.length > 0) {
-                int sampleCount = Math.min(5, normFeat.length);
-                Log.d(TAG, "EMB_DEBUG dim=" + normFeat.length + ", sample="
-                        + java.util.Arrays.toString(java.util.Arrays.copyOf(normFeat, sampleCount)));
-            }
+            storeEmbedding(cacheKey, normFeat);
+            ModelWarmup.markFirstResult(ModelWarmup.MOBILEFACENET, startNanos);
             return normFeat;
 
         } catch (Exception e) {
@@ -349,6 +524,104 @@ public class FaceRecognitionManager {
         }
     }
 
+    /**
+     * ML Kit 路径的预处理：五个关键点齐全时按相似变换对齐到标准模板；否则按检测框裁剪、按滚转角对齐
+     * 并缩放到模型输入尺寸。均合成一次仿射采样，推理时直接写入输入张量，不再生成中间位图；
+     * 检测框无效或关键点过少时返回 null
+     */
+    private FaceWarp prepareFaceWarp(Bitmap faceBitmap, Face face) {
+        // 针对不同模型的输入尺寸：
+        // - ML Kit 路径使用任意统一尺寸生成基础特征（此处沿用当前设置）
+        // - 其他深度模型根据 interpreter 的输入动态解析
+        final int MODEL_W = modelInputWidth;
+        final int MODEL_H = modelInputHeight;
+
+        Rect bbox = face.getBoundingBox();
+        if (bbox == null) {
+            Log.w(TAG, "no bounding box");
+            dumpBitmapForDebug(faceBitmap, "no_bbox");
+            return null;
+        }
+
+        int left = Math.max(0, bbox.left);
+        int top = Math.max(0, bbox.top);
+        int right = Math.min(faceBitmap.getWidth(), bbox.right);
+        int bottom = Math.min(faceBitmap.getHeight(), bbox.bottom);
+        int w = right - left, h = bottom - top;
+        if (w <= 0 || h <= 0) {
+            Log.w(TAG, "invalid crop box left=" + left + " top=" + top + " w=" + w + " h=" + h);
+            dumpBitmapForDebug(faceBitmap, "invalid_crop");
+            return null;
+        }
+
+        // 关键点（顺序与对齐模板一致：双眼、鼻、两嘴角）；ML Kit 只有鼻底（NOSE_BASE）而非模板的鼻尖，
+        // 对齐时鼻点不参与求解，只用双眼与两嘴角
+        int present = 0;
+        int[] types = { FaceLandmark.LEFT_EYE, FaceLandmark.RIGHT_EYE, FaceLandmark.NOSE_BASE,
+                FaceLandmark.MOUTH_LEFT, FaceLandmark.MOUTH_RIGHT };
+        float[] points = new float[types.length * 2];
+        for (int i = 0; i < types.length; i++) {
+            FaceLandmark lm = face.getLandmark(types[i]);
+            if (lm != null) {
+                present++;
+                points[2 * i] = lm.getPosition().x;
+                points[2 * i + 1] = lm.getPosition().y;
+            }
+        }
+
+        // 对齐（开启时）：五点齐全时求解到标准模板的相似变换（同时校正滚转、尺度与平移）；
+        // 否则根据人脸滚转角（Z 轴）将裁剪区域旋转到水平，提高跨照片一致性
+        FaceWarp input = (faceAlignment && present == types.length) ? alignToTemplate(faceBitmap, points, false)
+                : null;
+        if (input == null) {
+            float roll = face.getHeadEulerAngleZ();
+            boolean align = Math.abs(roll) > 1.0f;
+            if (align) {
+                Log.d(TAG, String.format("apply roll alignment: z=%.2f, crop=%dx%d", roll, w, h));
+            }
+            input = FaceWarp.cropRotateScale(faceBitmap, left, top, w, h, align ? -roll : 0f, MODEL_W, MODEL_H);
+        }
+        if (present < 2) {
+            Log.w(TAG, "too few landmarks: " + present);
+            dumpWarpForDebug(input, "few_landmarks");
+            return null;
+        }
+        return input;
+    }
+
+    /**
+     * 五点相似变换对齐到标准模板（关键点为原图坐标，顺序 双眼、鼻、两嘴角，左右不限）；
+     * noseIsTip 为 false 时（鼻点不是鼻尖）只用四点求解；关键点退化时返回 null，由调用方回退到检测框裁剪
+     */
+    private FaceWarp alignToTemplate(Bitmap source, float[] points, boolean noseIsTip) {
+        float[] ordered = points.clone();
+        FaceAligner.orderLeftToRight(ordered);
+        FaceWarp warp = FaceAligner.align(source, ordered, noseIsTip, modelInputWidth, modelInputHeight);
+        if (warp == null) {
+            Log.w(TAG, "five-point alignment degenerate, fallback to bbox crop");
+        } else {
+            Log.d(TAG, String.format("apply five-point alignment: region=%dx%d", warp.clipWidth(),
+                    warp.clipHeight()));
+        }
+        return warp;
+    }
+
+    /**
+     * YuNet 检测结果的预处理：开启对齐且带关键点（YuNet 第 3 点即鼻尖）时五点对齐，否则按检测框裁剪缩放
+     */
+    private FaceWarp prepareDetectionWarp(Bitmap sourceBitmap, YuNetTFLiteDetector.Detection detection) {
+        if (detection == null) {
+            Log.e(TAG, "prepareDetectionWarp: detection == null");
+            return null;
+        }
+        if (faceAlignment && detection.landmarks != null) {
+            FaceWarp aligned = alignToTemplate(sourceBitmap, detection.landmarks, true);
+            if (aligned != null)
+                return aligned;
+        }
+        return prepareRectWarp(sourceBitmap, detection.bbox);
+    }
+
     /**
      * 提取人脸特征向量（YuNet/其它检测输出：使用 Rect 裁剪）
      */
@@ -357,44 +630,26 @@ public class FaceRecognitionManager {
             Log.e(TAG, "extractFaceFeatures(Rect): sourceBitmap == null");
             return null;
         }
-        if (bbox == null) {
-            Log.e(TAG, "extractFaceFeatures(Rect): bbox == null");
-            dumpBitmapForDebug(sourceBitmap, "rect_null");
-            return null;
-        }
-        try {
-            // 统一裁剪并缩放到当前模型的输入尺寸
-            int left = Math.max(0, bbox.left);
-            int top = Math.max(0, bbox.top);
-            int right = Math.min(sourceBitmap.getWidth(), bbox.right);
-            int bottom = Math.min(sourceBitmap.getHeight(), bbox.bottom);
-            int w = right - left;
-            int h = bottom - top;
-            if (w <= 0 || h <= 0) {
-                Log.w(TAG, "extractFaceFeatures(Rect): invalid crop w=" + w + ", h=" + h);
-                dumpBitmapForDebug(sourceBitmap, "rect_invalid");
+        long startNanos = System.nanoTime();
+        try (ModelRegistry.Lease<SharedEmbedder> lease = acquireEmbedder()) {
+            FaceWarp input = prepareRectWarp(sourceBitmap, bbox);
+            if (input == null)
                 return null;
-            }
-
-            ensureInterpreterLoaded();
-            Bitmap crop = Bitmap.createBitmap(sourceBitmap, left, top, w, h);
-            Bitmap input = Bitmap.createScaledBitmap(crop, modelInputWidth, modelInputHeight, true);
+            EmbeddingCache.Key cacheKey = embeddingCacheKey(input, null);
+            float[] cached = cachedEmbedding(cacheKey);
+            if (cached != null)
+                return cached;
 
             // FaceNet 模型已删除，统一使用 MobileFaceNet
-            float[] features = "Google FaceNet".equals(selectedModelName)
-                    ? runMobileFaceNet(input)  // FaceNet 已删除，回退到 MobileFaceNet
-                    : runMobileFaceNet(input);
+            float[] features = runMobileFaceNet(poolOf(lease), input);
             if (features == null) {
                 Log.e(TAG, "Inference returned null (Rect)");
-                dumpBitmapForDebug(input, "infer_null_rect");
+                dumpWarpForDebug(input, "infer_null_rect");
                 return null;
             }
             float[] normFeat = normalizeVector(features);
-            if (normFeat != null && normFeat.length > 0) {
-                int sampleCount = Math.min(5, normFeat.length);
-                Log.d(TAG, "EMB_DEBUG(rect) dim=" + normFeat.length + ", sample="
-                        + java.util.Arrays.toString(java.util.Arrays.copyOf(normFeat, sampleCount)));
-            }
+            storeEmbedding(cacheKey, normFeat);
+            ModelWarmup.markFirstResult(ModelWarmup.MOBILEFACENET, startNanos);
             return normFeat;
 
         } catch (Throwable t) {
@@ -404,6 +659,206 @@ public class FaceRecognitionManager {
         }
     }
 
+    /**
+     * Rect 路径的预处理：统一裁剪并缩放到当前模型的输入尺寸（推理时一次采样写入输入张量）；
+     * 检测框为空或无效时返回 null
+     */
+    private FaceWarp prepareRectWarp(Bitmap sourceBitmap, Rect bbox) {
+        if (bbox == null) {
+            Log.e(TAG, "extractFaceFeatures(Rect): bbox == null");
+            dumpBitmapForDebug(sourceBitmap, "rect_null");
+            return null;
+        }
+        int left = Math.max(0, bbox.left);
+        int top = Math.max(0, bbox.top);
+        int right = Math.min(sourceBitmap.getWidth(), bbox.right);
+        int bottom = Math.min(sourceBitmap.getHeight(), bbox.bottom);
+        int w = right - left;
+        int h = bottom - top;
+        if (w <= 0 || h <= 0) {
+            Log.w(TAG, "extractFaceFeatures(Rect): invalid crop w=" + w + ", h=" + h);
+            dumpBitmapForDebug(sourceBitmap, "rect_invalid");
+            return null;
+        }
+        return FaceWarp.cropRotateScale(sourceBitmap, left, top, w, h, 0f, modelInputWidth, modelInputHeight);
+    }
+
+    /**
+     * 批量提取同一张照片中多个检测框的特征（YuNet / 手动框选），多张人脸合并为一次批量推理
+     * 返回列表与 boxes 一一对应，提取失败的位置为 null
+     */
+    public List<float[]> extractFaceFeaturesBatch(Bitmap sourceBitmap, List<Rect> boxes) {
+        List<FaceWarp> inputs = new ArrayList<>();
+        if (sourceBitmap == null || boxes == null) {
+            Log.e(TAG, "extractFaceFeaturesBatch: sourceBitmap/boxes == null");
+            return new ArrayList<>();
+        }
+        long startNanos = System.nanoTime();
+        try (ModelRegistry.Lease<SharedEmbedder> lease = acquireEmbedder()) {
+            for (Rect bbox : boxes) {
+                FaceWarp input = null;
+                try {
+                    input = prepareRectWarp(sourceBitmap, bbox);
+                } catch (Throwable t) {
+                    Log.e(TAG, "人脸预处理失败(Rect): " + t.getMessage(), t);
+                }
+                inputs.add(input);
+            }
+            return extractPreparedBatch(poolOf(lease), inputs, "rect", startNanos);
+        }
+    }
+
+    /**
+     * 批量提取同一张照片中多个 YuNet 检测结果的特征：带关键点的人脸先五点对齐，再合并为一次批量推理
+     * 返回列表与 detections 一一对应，提取失败的位置为 null
+     */
+    public List<float[]> extractFaceFeaturesBatchForDetections(Bitmap sourceBitmap,
+            List<YuNetTFLiteDetector.Detection> detections) {
+        List<FaceWarp> inputs = new ArrayList<>();
+        if (sourceBitmap == null || detections == null) {
+            Log.e(TAG, "extractFaceFeaturesBatchForDetections: sourceBitmap/detections == null");
+            return new ArrayList<>();
+        }
+        long startNanos = System.nanoTime();
+        try (ModelRegistry.Lease<SharedEmbedder> lease = acquireEmbedder()) {
+            for (YuNetTFLiteDetector.Detection detection : detections) {
+                FaceWarp input = null;
+                try {
+                    input = prepareDetectionWarp(sourceBitmap, detection);
+                } catch (Throwable t) {
+                    Log.e(TAG, "人脸预处理失败(YuNet): " + t.getMessage(), t);
+                }
+                inputs.add(input);
+            }
+            return extractPreparedBatch(poolOf(lease), inputs, "yunet", startNanos);
+        }
+    }
+
+    /**
+     * 批量提取同一张照片中多个 ML Kit 人脸的特征，多张人脸合并为一次批量推理
+     * 返回列表与 faces 一一对应，提取失败的位置为 null
+     */
+    public List<float[]> extractFaceFeaturesBatchForFaces(Bitmap sourceBitmap, List<Face> faces) {
+        if (sourceBitmap == null || faces == null) {
+            Log.e(TAG, "extractFaceFeaturesBatchForFaces: sourceBitmap/faces == null");
+            return new ArrayList<>();
+        }
+        List<Bitmap> sources = new ArrayList<>();
+        for (int i = 0; i < faces.size(); i++)
+            sources.add(sourceBitmap);
+        return extractFaceFeaturesBatch(sources, faces);
+    }
+
+    /**
+     * 每张人脸各自对应一张源图的批量提取（sources 与 faces 按下标配对）
+     */
+    private List<float[]> extractFaceFeaturesBatch(List<Bitmap> sources, List<Face> faces) {
+        long startNanos = System.nanoTime();
+        try (ModelRegistry.Lease<SharedEmbedder> lease = acquireEmbedder()) {
+            List<FaceWarp> inputs = new ArrayList<>();
+            int count = Math.min(sources.size(), faces.size());
+            for (int i = 0; i < count; i++) {
+                FaceWarp input = null;
+                try {
+                    if (sources.get(i) != null)
+                        input = prepareFaceWarp(sources.get(i), faces.get(i));
+                } catch (Throwable t) {
+                    Log.e(TAG, "人脸预处理失败: " + t.getMessage(), t);
+                }
+                inputs.add(input);
+            }
+            return extractPreparedBatch(poolOf(lease), inputs, "face", startNanos);
+        }
+    }
+
+    /**
+     * 先查嵌入缓存，未命中的人脸合并为一次批量推理，结果归一化后写回缓存
+     */
+    private List<float[]> extractPreparedBatch(InterpreterPool<MobileFaceNetSession> pool, List<FaceWarp> inputs,
+            String debugTag, long startNanos) {
+        java.util.Map<Bitmap, Long> imageHashes = new java.util.IdentityHashMap<>();
+        EmbeddingCache.Key[] keys = new EmbeddingCache.Key[inputs.size()];
+        float[][] cached = new float[inputs.size()][];
+        List<FaceWarp> pending = new ArrayList<>(inputs);
+        int hits = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            keys[i] = embeddingCacheKey(inputs.get(i), imageHashes);
+            cached[i] = cachedEmbedding(keys[i]);
+            if (cached[i] != null) {
+                pending.set(i, null);
+                hits++;
+            }
+        }
+        if (hits > 0)
+            Log.d(TAG, "embedding cache hits (batch " + debugTag + "): " + hits + "/" + inputs.size());
+
+        float[][] raw = hits == inputs.size() ? new float[inputs.size()][] : runMobileFaceNetBatch(pool, pending);
+        List<float[]> out = new ArrayList<>(raw.length);
+        for (int i = 0; i < raw.length; i++) {
+            if (cached[i] != null) {
+                out.add(cached[i]);
+                continue;
+            }
+            if (raw[i] == null) {
+                if (inputs.get(i) != null) {
+                    Log.e(TAG, "Inference returned null (batch " + debugTag + " #" + i + ")");
+                    dumpWarpForDebug(inputs.get(i), "infer_null_batch_" + debugTag);
+                }
+                out.add(null);
+                continue;
+            }
+            float[] normFeat = normalizeVector(raw[i]);
+            storeEmbedding(keys[i], normFeat);
+            out.add(normFeat);
+            ModelWarmup.markFirstResult(ModelWarmup.MOBILEFACENET, startNanos);
+        }
+        return out;
+    }
+
+    /**
+     * 开关嵌入结果缓存（默认开启）；关闭后每次都重新推理
+     */
+    public void setEmbeddingCacheEnabled(boolean enabled) {
+        this.embeddingCacheEnabled = enabled;
+    }
+
+    /**
+     * 进程内共享的嵌入结果缓存，可读取命中/未命中计数
+     */
+    public EmbeddingCache getEmbeddingCache() {
+        return EmbeddingCache.get(context);
+    }
+
+    /**
+     * 缓存 key：源图像素哈希 + 归一化采样区域（检测框/对齐方式）+ 当前模型版本；
+     * imageHashes 用于同一张图的多张人脸共享一次哈希计算，可为 null。缓存关闭或输入为空时返回 null
+     */
+    private EmbeddingCache.Key embeddingCacheKey(FaceWarp warp, java.util.Map<Bitmap, Long> imageHashes) {
+        if (!embeddingCacheEnabled || warp == null || warp.source == null)
+            return null;
+        try {
+            Long hash = imageHashes == null ? null : imageHashes.get(warp.source);
+            if (hash == null) {
+                hash = EmbeddingCache.hashBitmap(warp.source);
+                if (imageHashes != null)
+                    imageHashes.put(warp.source, hash);
+            }
+            return EmbeddingCache.key(embeddingVersion(), hash, warp);
+        } catch (Throwable t) {
+            Log.w(TAG, "embedding cache key failed: " + t.getMessage());
+            return null;
+        }
+    }
+
+    private float[] cachedEmbedding(EmbeddingCache.Key key) {
+        return key == null ? null : EmbeddingCache.get(context).get(key);
+    }
+
+    private void storeEmbedding(EmbeddingCache.Key key, float[] embedding) {
+        if (key != null && embedding != null)
+            EmbeddingCache.get(context).put(key, embedding);
+    }
+
     /**
      * 识别单个人脸（YuNet Rect 路径）
      */
@@ -414,25 +869,10 @@ public class FaceRecognitionManager {
                 return new RecognitionResult(-1, 0.0f, "特征提取失败(Rect)");
             }
 
-            List<Student> allStudents = databaseHelper.getAllStudents();
-            float bestSimilarity = 0.0f;
-            long bestStudentId = -1;
-
-            for (Student student : allStudents) {
-                List<FaceEmbedding> embeddings = getStudentFaceEmbeddings(student.getId());
-                for (FaceEmbedding embedding : embeddings) {
-                    if (!currentModelVersion.equals(embedding.getModelVer()))
-                        continue;
-                    float[] stored = byteArrayToFloatArray(embedding.getVector());
-                    if (stored != null && stored.length == queryFeatures.length) {
-                        float sim = calculateSimilarity(queryFeatures, stored);
-                        if (sim > bestSimilarity) {
-                            bestSimilarity = sim;
-                            bestStudentId = student.getId();
-                        }
-                    }
-                }
-            }
+            // 全校 1:N：HNSW 索引（或全库并行精确检索）top-1，替代逐学生查询嵌入
+            EmbeddingGallery.Match top = searchSchoolTop1(queryFeatures);
+            float bestSimilarity = top.getScore();
+            long bestStudentId = top.getStudentId();
 
             if (bestStudentId != -1 && bestSimilarity >= 0.6f) {
                 return new RecognitionResult(bestStudentId, bestSimilarity, "识别成功(Rect)");
@@ -445,20 +885,6 @@ public class FaceRecognitionManager {
         }
     }
 
-    // 旋转位图的辅助方法
-    private Bitmap rotateBitmap(Bitmap src, float degrees) {
-        try {
-            if (src == null)
-                return null;
-            android.graphics.Matrix m = new android.graphics.Matrix();
-            m.postRotate(degrees);
-            return Bitmap.createBitmap(src, 0, 0, src.getWidth(), src.getHeight(), m, true);
-        } catch (Throwable t) {
-            Log.w(TAG, "rotateBitmap failed: " + t.getMessage());
-            return src;
-        }
-    }
-
     // 辅助：把调试图片写到 app-specific external dir
     private void dumpBitmapForDebug(Bitmap b, String tag) {
         try {
@@ -480,6 +906,18 @@ public class FaceRecognitionManager {
         }
     }
 
+    // 辅助：预处理不再生成中间位图，只在失败时把裁剪区域导出用于排查
+    private void dumpWarpForDebug(FaceWarp warp, String tag) {
+        try {
+            if (warp == null)
+                return;
+            dumpBitmapForDebug(Bitmap.createBitmap(warp.source, warp.clipLeft, warp.clipTop, warp.clipWidth(),
+                    warp.clipHeight()), tag);
+        } catch (Throwable t) {
+            Log.w(TAG, "dumpWarpForDebug failed: " + t.getMessage());
+        }
+    }
+
     /**
      * 生成基础特征向量（无增强）：16x16 网格块灰度均值，共 256 维
      */
@@ -1162,7 +1600,7 @@ public class FaceRecognitionManager {
     }
 
     /**
-     * 计算两个特征向量的余弦相似度（鲁棒版，含调试日志）
+     * 计算两个特征向量的余弦相似度（鲁棒版；调试日志仅在 DEBUG_SIMILARITY 打开时输出）
      */
     public float calculateSimilarity(float[] vector1, float[] vector2) {
         if (vector1 == null || vector2 == null || vector1.length != vector2.length) {
@@ -1218,32 +1656,87 @@ public class FaceRecognitionManager {
      * 将特征向量转换为字节数组（用于数据库存储）
      */
     public byte[] floatArrayToByteArray(float[] floatArray) {
-        ByteBuffer buffer = ByteBuffer.allocate(floatArray.length * 4);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        for (float f : floatArray) {
-            buffer.putFloat(f);
-        }
-        return buffer.array();
+        return EmbeddingCodec.encodeFloat32(floatArray);
     }
 
     /**
-     * 将字节数组转换为特征向量
+     * 按当前存储格式编码特征向量：默认 float32，开启 INT8 存储后写入带版本标记的 int8 BLOB
      */
-    public float[] byteArrayToFloatArray(byte[] byteArray) {
-        if (byteArray.length % 4 != 0) {
-            return new float[0];
-        }
+    public byte[] encodeEmbedding(float[] floatArray) {
+        return int8Storage ? EmbeddingCodec.encodeInt8(floatArray) : EmbeddingCodec.encodeFloat32(floatArray);
+    }
 
-        float[] floatArray = new float[byteArray.length / 4];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        for (int i = 0; i < floatArray.length; i++) {
-            floatArray[i] = buffer.getFloat();
+    /**
+     * 将字节数组转换为特征向量（float32 与 INT8 两种 BLOB 均可解析）
+     */
+    public float[] byteArrayToFloatArray(byte[] byteArray) {
+        float[] floatArray = EmbeddingCodec.decode(byteArray);
+        if (floatArray.length == 0) {
+            return floatArray;
         }
         // 统一形式：读取后的向量做一次归一化，兼容历史未归一化数据
         return normalizeVector(floatArray);
     }
 
+    /**
+     * 解码库内 BLOB：已标记为单位向量（isNormalized = 1）的记录跳过再次归一化
+     */
+    private float[] decodeStoredVector(byte[] byteArray, boolean normalized) {
+        if (!normalized)
+            return byteArrayToFloatArray(byteArray);
+        return EmbeddingCodec.decode(byteArray);
+    }
+
+    /**
+     * 新写入的嵌入是否使用 INT8 编码（约为 float32 的 1/4 体积，同步载荷同步变小）
+     */
+    public void setInt8Storage(boolean enabled) {
+        this.int8Storage = enabled;
+    }
+
+    public boolean isInt8Storage() {
+        return int8Storage;
+    }
+
+    /**
+     * 设置班级内比对策略，候选数取该策略的默认值
+     */
+    public void setSearchStrategy(SearchStrategy strategy) {
+        SearchStrategy s = strategy == null ? SearchStrategy.EXACT : strategy;
+        setSearchStrategy(s, s.defaultCandidates);
+    }
+
+    /**
+     * 设置班级内比对策略；candidates 为进入 float 精排的候选数（EXACT 忽略）
+     */
+    public void setSearchStrategy(SearchStrategy strategy, int candidates) {
+        this.searchStrategy = strategy == null ? SearchStrategy.EXACT : strategy;
+        this.candidateCount = Math.max(1, candidates);
+    }
+
+    public SearchStrategy getSearchStrategy() {
+        return searchStrategy;
+    }
+
+    /**
+     * 按当前策略将一批查询与班级嵌入库比对
+     */
+    private EmbeddingGallery.Match[] matchWithinGallery(EmbeddingGallery gallery, List<float[]> queries) {
+        return matchWithinGallery(gallery, queries, searchStrategy, candidateCount);
+    }
+
+    private static EmbeddingGallery.Match[] matchWithinGallery(EmbeddingGallery gallery, List<float[]> queries,
+            SearchStrategy strategy, int candidates) {
+        switch (strategy) {
+            case INT8:
+                return gallery.getQuantized().findBestMatches(queries, candidates);
+            case BINARY:
+                return gallery.getBinaryHash().findBestMatches(queries, candidates);
+            default:
+                return gallery.findBestMatches(queries);
+        }
+    }
+
     /**
      * 保存人脸特征到数据库
      */
@@ -1252,7 +1745,7 @@ public class FaceRecognitionManager {
             // 使用当前模型的输出维度进行校验，避免与旧模型混用
             if (features == null || features.length != modelOutputDim) {
                 Log.w(TAG, "saveFaceEmbedding: invalid features length=" + (features == null ? -1 : features.length)
-                        + ", expected=" + modelOutputDim + ", modelVer=" + currentModelVersion);
+                        + ", expected=" + modelOutputDim + ", modelVer=" + embeddingVersion());
                 return false;
             }
             // 零向量保护：避免把无效向量写库
@@ -1265,8 +1758,13 @@ public class FaceRecognitionManager {
             }
             // 统一形式：保存前再次归一化，确保库内均为单位向量
             float[] normalized = normalizeVector(features);
-            byte[] vectorBytes = floatArrayToByteArray(normalized);
-            long result = databaseHelper.insertFaceEmbedding(studentId, currentModelVersion, vectorBytes, quality);
+            byte[] vectorBytes = encodeEmbedding(normalized);
+            long[] stampBefore = currentTableStamp();
+            long result = databaseHelper.insertFaceEmbedding(studentId, embeddingVersion(), vectorBytes, quality,
+                    true);
+            if (result != -1) {
+                onEmbeddingWritten(stampBefore, result, studentId, null, 0f, normalized, quality);
+            }
             return result != -1;
         } catch (Exception e) {
             Log.e(TAG, "保存人脸特征失败: " + e.getMessage(), e);
@@ -1274,6 +1772,53 @@ public class FaceRecognitionManager {
         }
     }
 
+    /**
+     * 覆盖更新一条已有的人脸特征（同一学生、当前模型版本），同步维护嵌入库、全校索引与原型
+     */
+    public boolean updateFaceEmbedding(long embeddingId, long studentId, float[] features, float quality) {
+        try {
+            if (features == null || features.length != modelOutputDim) {
+                Log.w(TAG, "updateFaceEmbedding: invalid features length=" + (features == null ? -1 : features.length)
+                        + ", expected=" + modelOutputDim);
+                return false;
+            }
+            float[] normalized = normalizeVector(features);
+            // 读取旧向量，用于从原型质心中扣除其贡献
+            float[] oldVector = null;
+            float oldQuality = 0f;
+            android.database.Cursor c = databaseHelper.getFaceEmbeddingsByStudent(studentId);
+            if (c != null) {
+                try {
+                    if (c.moveToFirst()) {
+                        int idIdx = c.getColumnIndexOrThrow("id");
+                        int vecIdx = c.getColumnIndexOrThrow("vector");
+                        int qIdx = c.getColumnIndexOrThrow("quality");
+                        do {
+                            if (c.getLong(idIdx) == embeddingId) {
+                                byte[] old = c.getBlob(vecIdx);
+                                oldVector = old == null ? null : byteArrayToFloatArray(old);
+                                oldQuality = c.getFloat(qIdx);
+                                break;
+                            }
+                        } while (c.moveToNext());
+                    }
+                } finally {
+                    c.close();
+                }
+            }
+            long[] stampBefore = currentTableStamp();
+            boolean ok = databaseHelper.updateFaceEmbeddingById(embeddingId, encodeEmbedding(normalized), quality,
+                    true);
+            if (ok) {
+                onEmbeddingWritten(stampBefore, embeddingId, studentId, oldVector, oldQuality, normalized, quality);
+            }
+            return ok;
+        } catch (Exception e) {
+            Log.e(TAG, "更新人脸特征失败: " + e.getMessage(), e);
+            return false;
+        }
+    }
+
     /**
      * 从数据库获取学生的人脸特征
      */
@@ -1283,12 +1828,17 @@ public class FaceRecognitionManager {
         try {
             android.database.Cursor cursor = databaseHelper.getFaceEmbeddingsByStudent(studentId);
             if (cursor != null && cursor.moveToFirst()) {
+                int idIdx = cursor.getColumnIndexOrThrow("id");
+                int verIdx = cursor.getColumnIndexOrThrow("modelVer");
+                int vecIdx = cursor.getColumnIndexOrThrow("vector");
+                int qIdx = cursor.getColumnIndexOrThrow("quality");
+                int timeIdx = cursor.getColumnIndexOrThrow("createdAt");
                 do {
-                    long id = cursor.getLong(cursor.getColumnIndexOrThrow("id"));
-                    String modelVer = cursor.getString(cursor.getColumnIndexOrThrow("modelVer"));
-                    byte[] vector = cursor.getBlob(cursor.getColumnIndexOrThrow("vector"));
-                    float quality = cursor.getFloat(cursor.getColumnIndexOrThrow("quality"));
-                    long createdAt = cursor.getLong(cursor.getColumnIndexOrThrow("createdAt"));
+                    long id = cursor.getLong(idIdx);
+                    String modelVer = cursor.getString(verIdx);
+                    byte[] vector = cursor.getBlob(vecIdx);
+                    float quality = cursor.getFloat(qIdx);
+                    long createdAt = cursor.getLong(timeIdx);
 
                     FaceEmbedding embedding = new FaceEmbedding(id, studentId, modelVer, vector, quality, createdAt);
                     embeddings.add(embedding);
@@ -1297,10 +1847,448 @@ public class FaceRecognitionManager {
                 cursor.close();
             }
         } catch (Exception e) {
-            Log.e(TAG, "获取学生人脸特征失败: " + e.getMessage(), e);
+            Log.e(TAG, "获取学生人脸特征失败: " + e.getMessage(), e);
+        }
+
+        return embeddings;
+    }
+
+    /**
+     * 获取指定班级在当前模型版本下的嵌入库，同一 (classroomId, modelVer) 只加载一次
+     */
+    public synchronized EmbeddingGallery getClassGallery(long classroomId) {
+        GallerySnapshot snapshot = getGallerySnapshot();
+        String key = classroomId + "|" + embeddingVersion();
+        EmbeddingGallery gallery = galleryCache.get(key);
+        if (gallery == null) {
+            gallery = snapshot.classGallery(classroomId);
+            galleryCache.put(key, gallery);
+        }
+        return gallery;
+    }
+
+    /**
+     * 获取当前模型版本的全校嵌入库（classroomId = -1），与班级库共用缓存与失效逻辑
+     */
+    public synchronized EmbeddingGallery getSchoolGallery() {
+        GallerySnapshot snapshot = getGallerySnapshot();
+        String key = "school|" + embeddingVersion();
+        EmbeddingGallery gallery = galleryCache.get(key);
+        if (gallery == null) {
+            gallery = snapshot.schoolGallery();
+            galleryCache.put(key, gallery);
+        }
+        return gallery;
+    }
+
+    private long[] currentTableStamp() {
+        return new long[] { databaseHelper.getTableVersion(DatabaseChangeBus.Table.FACE_EMBEDDING),
+                databaseHelper.getTableVersion(DatabaseChangeBus.Table.STUDENT) };
+    }
+
+    private File gallerySnapshotFile(String modelVer) {
+        return new File(new File(context.getFilesDir(), "face_index"), "gallery-" + modelVer + ".snap");
+    }
+
+    /**
+     * 当前模型版本的嵌入快照：进程内共享 -> mmap 快照文件 -> 从数据库重建并落盘
+     * 仅当表版本号变化时才会访问 SQLite；快照更换时丢弃本实例的嵌入库与原型缓存
+     */
+    private synchronized GallerySnapshot getGallerySnapshot() {
+        long[] stamp = currentTableStamp();
+        GallerySnapshot snapshot;
+        synchronized (FaceRecognitionManager.class) {
+            snapshot = sharedSnapshot;
+            if (snapshot == null || !snapshot.getModelVer().equals(embeddingVersion()) || !snapshot.matches(stamp)) {
+                snapshot = null;
+                File file = gallerySnapshotFile(embeddingVersion());
+                if (file.exists()) {
+                    try {
+                        GallerySnapshot loaded = GallerySnapshot.load(file, embeddingVersion());
+                        if (loaded.matches(stamp)) {
+                            snapshot = loaded;
+                            Log.i(TAG, "Gallery snapshot mapped: rows=" + loaded.size());
+                        } else {
+                            Log.i(TAG, "Gallery snapshot stale, rebuilding");
+                        }
+                    } catch (Exception e) {
+                        Log.w(TAG, "Gallery snapshot load failed: " + e.getMessage());
+                    }
+                }
+                if (snapshot == null) {
+                    snapshot = buildGallerySnapshot(embeddingVersion(), stamp);
+                    try {
+                        snapshot.save(file);
+                    } catch (Exception e) {
+                        Log.w(TAG, "Gallery snapshot save failed: " + e.getMessage());
+                    }
+                }
+                sharedSnapshot = snapshot;
+            }
+        }
+        if (snapshot != loadedSnapshot) {
+            galleryCache.clear();
+            prototypeStores.clear();
+            loadedSnapshot = snapshot;
+        }
+        return snapshot;
+    }
+
+    /**
+     * 从数据库构建快照：BLOB 直接解码到向量区对应行，已标记为单位向量的记录不再归一化
+     */
+    private GallerySnapshot buildGallerySnapshot(String modelVer, long[] stamp) {
+        long start = System.currentTimeMillis();
+        int dim = modelOutputDim;
+        int size = 0;
+        long[] embeddingIds = new long[0];
+        long[] studentIds = new long[0];
+        long[] classIds = new long[0];
+        float[] qualities = new float[0];
+        float[] matrix = new float[0];
+        android.database.Cursor cursor = null;
+        try {
+            cursor = databaseHelper.getFaceEmbeddingSnapshotRows(modelVer);
+            if (cursor != null && cursor.moveToFirst()) {
+                int idIdx = cursor.getColumnIndexOrThrow("id");
+                int sidIdx = cursor.getColumnIndexOrThrow("studentId");
+                int cidIdx = cursor.getColumnIndexOrThrow("classId");
+                int vecIdx = cursor.getColumnIndexOrThrow("vector");
+                int qIdx = cursor.getColumnIndexOrThrow("quality");
+                int normIdx = cursor.getColumnIndex("isNormalized");
+                int rows = cursor.getCount();
+                int firstDim = EmbeddingCodec.dimOf(cursor.getBlob(vecIdx));
+                if (firstDim > 0)
+                    dim = firstDim;
+                embeddingIds = new long[rows];
+                studentIds = new long[rows];
+                classIds = new long[rows];
+                qualities = new float[rows];
+                matrix = new float[rows * dim];
+                do {
+                    byte[] vecBytes = cursor.getBlob(vecIdx);
+                    if (EmbeddingCodec.dimOf(vecBytes) != dim) {
+                        Log.w(TAG, "buildGallerySnapshot: skip dim=" + EmbeddingCodec.dimOf(vecBytes)
+                                + ", expected=" + dim);
+                        continue;
+                    }
+                    int off = size * dim;
+                    EmbeddingCodec.decodeInto(vecBytes, matrix, off);
+                    boolean normalized = normIdx >= 0 && cursor.getInt(normIdx) == 1;
+                    if (!normalized && !EmbeddingCodec.normalizeInPlace(matrix, off, dim))
+                        continue;
+                    embeddingIds[size] = cursor.getLong(idIdx);
+                    studentIds[size] = cursor.getLong(sidIdx);
+                    classIds[size] = cursor.getLong(cidIdx);
+                    qualities[size] = cursor.getFloat(qIdx);
+                    size++;
+                } while (cursor.moveToNext());
+            }
+        } catch (Throwable t) {
+            Log.e(TAG, "构建嵌入快照失败: " + t.getMessage(), t);
+        } finally {
+            if (cursor != null)
+                cursor.close();
+        }
+
+        if (size != embeddingIds.length) {
+            embeddingIds = java.util.Arrays.copyOf(embeddingIds, size);
+            studentIds = java.util.Arrays.copyOf(studentIds, size);
+            classIds = java.util.Arrays.copyOf(classIds, size);
+            qualities = java.util.Arrays.copyOf(qualities, size);
+            matrix = java.util.Arrays.copyOf(matrix, size * dim);
+        }
+        Log.i(TAG, "Gallery snapshot built: modelVer=" + modelVer + ", rows=" + size + ", dim=" + dim
+                + ", cost=" + (System.currentTimeMillis() - start) + "ms");
+        return new GallerySnapshot(modelVer, dim, size, stamp, embeddingIds, studentIds, classIds, qualities, matrix);
+    }
+
+    /**
+     * 本实例写入/更新一条嵌入后：刷新全校索引与原型库；若共享快照恰好只落后这一次写入，
+     * 则直接修补快照并落盘，其余情况留待下次使用时整体重建
+     */
+    private synchronized void onEmbeddingWritten(long[] stampBefore, long embeddingId, long studentId,
+            float[] oldVector, float oldQuality, float[] normalized, float quality) {
+        long classId = -1;
+        android.database.Cursor c = databaseHelper.getStudentById(studentId);
+        if (c != null) {
+            if (c.moveToFirst())
+                classId = c.getLong(c.getColumnIndexOrThrow("classId"));
+            c.close();
+        }
+        invalidateGalleryCache();
+        addToSchoolIndex(embeddingId, studentId, normalized);
+        updatePrototypes(classId, studentId, embeddingId, oldVector, oldQuality, normalized, quality);
+
+        long[] stamp = currentTableStamp();
+        synchronized (FaceRecognitionManager.class) {
+            GallerySnapshot previous = sharedSnapshot;
+            GallerySnapshot snapshot = previous;
+            if (snapshot == null || classId < 0 || !snapshot.getModelVer().equals(embeddingVersion())
+                    || !snapshot.matches(stampBefore) || normalized.length != snapshot.getDim()
+                    || stamp[0] != stampBefore[0] + 1 || stamp[1] != stampBefore[1])
+                return;
+            snapshot = snapshot.upsert(embeddingId, studentId, classId, quality, normalized, stamp);
+            sharedSnapshot = snapshot;
+            if (loadedSnapshot == previous)
+                loadedSnapshot = snapshot; // 本实例的原型库已增量更新，无需丢弃
+            try {
+                snapshot.save(gallerySnapshotFile(embeddingVersion()));
+            } catch (Exception e) {
+                Log.w(TAG, "Gallery snapshot save failed: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 嵌入写入/更新后调用，丢弃已加载的嵌入库
+     */
+    public synchronized void invalidateGalleryCache() {
+        galleryCache.clear();
+    }
+
+    /**
+     * 是否先与学生原型做粗匹配（默认关闭）；开启时取代 SearchStrategy，关闭后按 SearchStrategy 与全部嵌入比对
+     */
+    public void setPrototypeMatching(boolean enabled) {
+        this.prototypeMatching = enabled;
+    }
+
+    /**
+     * 开关原型粗匹配并设置进入精排的学生数（至少 1）
+     */
+    public void setPrototypeMatching(boolean enabled, int shortlist) {
+        this.prototypeMatching = enabled;
+        this.prototypeShortlist = Math.max(1, shortlist);
+    }
+
+    public boolean isPrototypeMatching() {
+        return prototypeMatching;
+    }
+
+    public int getPrototypeShortlist() {
+        return prototypeShortlist;
+    }
+
+    /**
+     * 获取指定班级在当前模型版本下的原型库，首次使用时从数据库构建，之后随写入增量维护
+     */
+    public synchronized PrototypeStore getClassPrototypes(long classroomId) {
+        GallerySnapshot snapshot = getGallerySnapshot();
+        String key = classroomId + "|" + embeddingVersion();
+        PrototypeStore store = prototypeStores.get(key);
+        if (store == null) {
+            store = snapshot.classPrototypes(classroomId);
+            prototypeStores.put(key, store);
+            Log.d(TAG, "classPrototypes: classroomId=" + classroomId + ", students=" + store.studentCount());
+        }
+        return store;
+    }
+
+    /**
+     * 增量维护已加载的原型库（仅学生所在班级的原型库已加载时）
+     */
+    private synchronized void updatePrototypes(long classId, long studentId, long embeddingId, float[] oldVector,
+            float oldQuality, float[] newVector, float newQuality) {
+        PrototypeStore store = prototypeStores.get(classId + "|" + embeddingVersion());
+        if (store != null)
+            store.replace(studentId, embeddingId, oldVector, oldQuality, newVector, newQuality);
+    }
+
+    /**
+     * 班级内批量比对：开启原型匹配时走 matchWithPrototypes；否则按 SearchStrategy 与全部嵌入比对
+     */
+    private EmbeddingGallery.Match[] matchWithinClass(long classroomId, EmbeddingGallery gallery,
+            List<float[]> queries) {
+        if (!prototypeMatching)
+            return matchWithinGallery(gallery, queries);
+        return matchWithPrototypes(classroomId, gallery, queries, prototypeShortlist);
+    }
+
+    /**
+     * 原型匹配：先与原型粗匹配取前 shortlist 名学生，再仅在这些学生的全部嵌入上精排
+     */
+    private EmbeddingGallery.Match[] matchWithPrototypes(long classroomId, EmbeddingGallery gallery,
+            List<float[]> queries, int shortlist) {
+        EmbeddingGallery prototypes = getClassPrototypes(classroomId).asGallery();
+        int n = queries.size();
+        int rows = prototypes.size();
+        EmbeddingGallery.Match[] matches = new EmbeddingGallery.Match[n];
+        float[] scores = n > 0 && rows > 0 ? prototypes.scoreAll(SimilarityKernel.pack(queries, prototypes.getDim()), n)
+                : new float[0];
+        long[] protoIds = prototypes.getStudentIds();
+        for (int q = 0; q < n; q++) {
+            // 原型粗排：每个学生取质心/样例中的最高分，保留前 shortlist 名
+            long[] topIds = new long[shortlist];
+            float[] topScores = new float[shortlist];
+            java.util.Arrays.fill(topIds, -1);
+            java.util.Arrays.fill(topScores, -Float.MAX_VALUE);
+            int base = q * rows;
+            int row = 0;
+            while (row < rows) {
+                long sid = protoIds[row];
+                float best = scores[base + row];
+                row++;
+                while (row < rows && protoIds[row] == sid) {
+                    best = Math.max(best, scores[base + row]);
+                    row++;
+                }
+                if (best > topScores[shortlist - 1]) {
+                    int pos = shortlist - 1;
+                    while (pos > 0 && topScores[pos - 1] < best) {
+                        topScores[pos] = topScores[pos - 1];
+                        topIds[pos] = topIds[pos - 1];
+                        pos--;
+                    }
+                    topScores[pos] = best;
+                    topIds[pos] = sid;
+                }
+            }
+            // 精排：候选学生的全部嵌入
+            float[] query = queries.get(q);
+            long bestStudentId = -1;
+            float bestScore = 0f;
+            for (long sid : topIds) {
+                if (sid < 0)
+                    continue;
+                for (int r : gallery.rowsOf(sid)) {
+                    float sim = gallery.score(query, r);
+                    if (sim > bestScore) {
+                        bestScore = sim;
+                        bestStudentId = sid;
+                    }
+                }
+            }
+            matches[q] = new EmbeddingGallery.Match(bestStudentId, bestScore);
+        }
+        return matches;
+    }
+
+
+    /**
+     * 设置全校索引的查询宽度（efSearch）：越大召回越高、延迟越大，默认 50
+     */
+    public synchronized void setIndexEfSearch(int efSearch) {
+        this.indexEfSearch = Math.max(1, efSearch);
+        if (schoolIndex != null)
+            schoolIndex.setEfSearch(this.indexEfSearch);
+    }
+
+    /**
+     * 全校 top-k 余弦检索（HNSW 近似最近邻），结果按相似度降序
+     */
+    public List<HnswIndex.Result> searchSchoolIndex(float[] query, int k) {
+        HnswIndex index = getSchoolIndex();
+        if (index == null)
+            return new ArrayList<>();
+        return index.search(query, k);
+    }
+
+    /**
+     * 全校 1:N 是否使用全库并行精确检索；默认 false（使用 HNSW 索引）
+     */
+    public void setParallelSchoolSearch(boolean enabled) {
+        this.parallelSchoolSearch = enabled;
+    }
+
+    /**
+     * 全校精确 top-k：行数较多时在 ForkJoin 线程池上分块并行打分，结果按相似度降序
+     */
+    public List<EmbeddingGallery.Match> searchSchoolExact(float[] query, int k) {
+        return ParallelGallerySearch.topK(getSchoolGallery(), query, k);
+    }
+
+    private EmbeddingGallery.Match searchSchoolTop1(float[] query) {
+        if (parallelSchoolSearch) {
+            List<EmbeddingGallery.Match> top = searchSchoolExact(query, 1);
+            if (!top.isEmpty() && top.get(0).getScore() > 0f)
+                return new EmbeddingGallery.Match(top.get(0).getStudentId(), Math.min(1f, top.get(0).getScore()));
+            return new EmbeddingGallery.Match(-1, 0f);
+        }
+        List<HnswIndex.Result> top = searchSchoolIndex(query, 1);
+        if (!top.isEmpty() && top.get(0).getScore() > 0f)
+            return new EmbeddingGallery.Match(top.get(0).getStudentId(), Math.min(1f, top.get(0).getScore()));
+        return new EmbeddingGallery.Match(-1, 0f);
+    }
+
+    private File schoolIndexFile(String modelVer) {
+        return new File(new File(context.getFilesDir(), "face_index"), "hnsw-" + modelVer + ".bin");
+    }
+
+    /**
+     * 获取当前模型版本的全校索引：内存命中 -> 文件加载 -> 从数据库重建，指纹不一致时视为过期
+     */
+    private synchronized HnswIndex getSchoolIndex() {
+        String modelVer = embeddingVersion();
+        // 以表版本号作为指纹，判断是否过期无需查询 SQLite
+        long[] fingerprint = currentTableStamp();
+        if (schoolIndex != null && modelVer.equals(schoolIndexModelVer)
+                && Arrays.equals(schoolIndex.getStamp(), fingerprint)) {
+            return schoolIndex;
+        }
+        File file = schoolIndexFile(modelVer);
+        if (file.exists()) {
+            try {
+                HnswIndex loaded = HnswIndex.load(file);
+                if (Arrays.equals(loaded.getStamp(), fingerprint)) {
+                    loaded.setEfSearch(indexEfSearch);
+                    schoolIndex = loaded;
+                    schoolIndexModelVer = modelVer;
+                    Log.d(TAG, "HNSW index loaded: " + file.getAbsolutePath() + ", size=" + loaded.size());
+                    return schoolIndex;
+                }
+                Log.i(TAG, "HNSW index stale, rebuilding: " + file.getAbsolutePath());
+            } catch (Exception e) {
+                Log.w(TAG, "HNSW index load failed, rebuilding: " + e.getMessage());
+            }
+        }
+        schoolIndex = buildSchoolIndex(modelVer, fingerprint);
+        schoolIndexModelVer = modelVer;
+        saveSchoolIndex();
+        return schoolIndex;
+    }
+
+    private HnswIndex buildSchoolIndex(String modelVer, long[] fingerprint) {
+        long start = System.currentTimeMillis();
+        // 从嵌入快照构建，快照有效时不访问 SQLite
+        GallerySnapshot snapshot = getGallerySnapshot();
+        HnswIndex index = null;
+        try {
+            index = new HnswIndex(snapshot.getDim());
+            for (int row = 0; row < snapshot.size(); row++) {
+                index.add(snapshot.getEmbeddingId(row), snapshot.getStudentId(row), snapshot.getVector(row));
+            }
+        } catch (Throwable t) {
+            Log.e(TAG, "构建 HNSW 索引失败: " + t.getMessage(), t);
+        }
+        if (index == null)
+            index = new HnswIndex(modelOutputDim);
+        index.setEfSearch(indexEfSearch);
+        index.setStamp(fingerprint);
+        Log.i(TAG, "HNSW index built: modelVer=" + modelVer + ", size=" + index.size()
+                + ", cost=" + (System.currentTimeMillis() - start) + "ms");
+        return index;
+    }
+
+    /**
+     * 新嵌入入库后增量插入索引（仅在索引已加载时），并刷新指纹后落盘
+     */
+    private synchronized void addToSchoolIndex(long embeddingId, long studentId, float[] normalized) {
+        if (schoolIndex == null || !embeddingVersion().equals(schoolIndexModelVer))
+            return;
+        if (normalized.length != schoolIndex.getDim())
+            return;
+        schoolIndex.add(embeddingId, studentId, normalized);
+        schoolIndex.setStamp(currentTableStamp());
+        saveSchoolIndex();
+    }
+
+    private void saveSchoolIndex() {
+        try {
+            schoolIndex.save(schoolIndexFile(schoolIndexModelVer));
+        } catch (Exception e) {
+            Log.w(TAG, "HNSW index save failed: " + e.getMessage());
         }
-
-        return embeddings;
     }
 
     /**
@@ -1320,7 +2308,7 @@ public class FaceRecognitionManager {
             if (cursor != null && cursor.moveToFirst()) {
                 do {
                     String modelVer = cursor.getString(cursor.getColumnIndexOrThrow("modelVer"));
-                    if (!currentModelVersion.equals(modelVer))
+                    if (!embeddingVersion().equals(modelVer))
                         continue;
 
                     byte[] vecBytes = cursor.getBlob(cursor.getColumnIndexOrThrow("vector"));
@@ -1359,27 +2347,10 @@ public class FaceRecognitionManager {
                 return new RecognitionResult(-1, 0.0f, "特征提取失败");
             }
 
-            List<Student> allStudents = databaseHelper.getAllStudents();
-            float bestSimilarity = 0.0f;
-            long bestStudentId = -1;
-
-            for (Student student : allStudents) {
-                List<FaceEmbedding> embeddings = getStudentFaceEmbeddings(student.getId());
-
-                for (FaceEmbedding embedding : embeddings) {
-                    if (!currentModelVersion.equals(embedding.getModelVer()))
-                        continue;
-                    float[] storedFeatures = byteArrayToFloatArray(embedding.getVector());
-                    if (storedFeatures != null && storedFeatures.length == queryFeatures.length) {
-                        float similarity = calculateSimilarity(queryFeatures, storedFeatures);
-
-                        if (similarity > bestSimilarity) {
-                            bestSimilarity = similarity;
-                            bestStudentId = student.getId();
-                        }
-                    }
-                }
-            }
+            // 全校 1:N：HNSW 索引（或全库并行精确检索）top-1，替代逐学生查询嵌入
+            EmbeddingGallery.Match top = searchSchoolTop1(queryFeatures);
+            float bestSimilarity = top.getScore();
+            long bestStudentId = top.getStudentId();
 
             if (bestSimilarity >= SIMILARITY_THRESHOLD) {
                 return new RecognitionResult(bestStudentId, bestSimilarity, "识别成功");
@@ -1426,72 +2397,27 @@ public class FaceRecognitionManager {
         if (importedVectors == null || importedVectors.isEmpty())
             return results;
 
-        // 取本班全部学生ID
-        final java.util.HashSet<Long> allowedIds = new java.util.HashSet<>();
-        android.database.Cursor sc = null;
-        try {
-            sc = databaseHelper.getStudentsByClass(classroomId);
-            if (sc != null && sc.moveToFirst()) {
-                do {
-                    long sid = sc.getLong(sc.getColumnIndexOrThrow("id"));
-                    allowedIds.add(sid);
-                } while (sc.moveToNext());
-            }
-        } catch (Throwable t) {
-            android.util.Log.e(TAG, "获取班级学生失败: " + t.getMessage(), t);
-        } finally {
-            if (sc != null)
-                sc.close();
-        }
+        // 本班嵌入库（同一班级与模型版本只加载一次）
+        EmbeddingGallery gallery = getClassGallery(classroomId);
 
-        // 预取库中统一模型版本的嵌入，并按本班过滤
-        android.database.Cursor cursor = null;
-        final List<Long> studentIds = new ArrayList<>();
-        final List<float[]> storedEmbeddings = new ArrayList<>();
-        try {
-            cursor = databaseHelper.getAllFaceEmbeddingsByModel(currentModelVersion);
-            if (cursor != null && cursor.moveToFirst()) {
-                do {
-                    long studentId = cursor.getLong(cursor.getColumnIndexOrThrow("studentId"));
-                    if (!allowedIds.contains(studentId))
-                        continue; // 只比对本班学生
-                    byte[] vecBytes = cursor.getBlob(cursor.getColumnIndexOrThrow("vector"));
-                    float[] vec = byteArrayToFloatArray(vecBytes);
-                    if (vec != null && vec.length > 0) {
-                        studentIds.add(studentId);
-                        storedEmbeddings.add(vec);
-                    }
-                } while (cursor.moveToNext());
-            }
-        } catch (Throwable t) {
-            android.util.Log.e(TAG, "批量预取嵌入失败: " + t.getMessage(), t);
-        } finally {
-            if (cursor != null)
-                cursor.close();
+        // 归一化后一次性批量打分（避免不同来源的尺度差异）
+        List<float[]> queries = new ArrayList<>();
+        for (float[] queryVector : importedVectors) {
+            if (queryVector != null && queryVector.length > 0)
+                queries.add(normalizeVector(queryVector));
         }
+        EmbeddingGallery.Match[] matches = matchWithinClass(classroomId, gallery, queries);
 
-        // 逐个导入向量进行比对
+        int next = 0;
         for (float[] queryVector : importedVectors) {
             if (queryVector == null || queryVector.length == 0) {
                 results.add(new RecognitionResult(-1, 0f, "向量为空"));
                 continue;
             }
 
-            // 可选：归一化，避免不同来源的尺度差异（若外部已归一化，可注释）
-            float[] normalized = normalizeVector(queryVector);
-
-            float bestSim = 0f;
-            long bestStudentId = -1;
-            for (int i = 0; i < storedEmbeddings.size(); i++) {
-                float[] ref = storedEmbeddings.get(i);
-                if (ref != null && ref.length == normalized.length) {
-                    float sim = calculateSimilarity(normalized, ref);
-                    if (sim > bestSim) {
-                        bestSim = sim;
-                        bestStudentId = studentIds.get(i);
-                    }
-                }
-            }
+            EmbeddingGallery.Match match = matches[next++];
+            float bestSim = match.getScore();
+            long bestStudentId = match.getStudentId();
 
             android.util.Log.d(TAG, "Manual recognition: best student ID=" + bestStudentId + ", best sim=" + bestSim
                     + ", threshold=0.6");
@@ -1544,64 +2470,28 @@ public class FaceRecognitionManager {
             return results;
         int count = Math.min(faceBitmaps.size(), faces.size());
 
-        // 取本班全部学生ID
-        final java.util.HashSet<Long> allowedIds = new java.util.HashSet<>();
-        android.database.Cursor sc = null;
-        try {
-            sc = databaseHelper.getStudentsByClass(classroomId);
-            if (sc != null && sc.moveToFirst()) {
-                do {
-                    long sid = sc.getLong(sc.getColumnIndexOrThrow("id"));
-                    allowedIds.add(sid);
-                } while (sc.moveToNext());
-            }
-        } catch (Throwable t) {
-            android.util.Log.e(TAG, "获取班级学生失败: " + t.getMessage(), t);
-        } finally {
-            if (sc != null)
-                sc.close();
+        // 本班嵌入库（同一班级与模型版本只加载一次）
+        EmbeddingGallery gallery = getClassGallery(classroomId);
+
+        // 先提取全部人脸特征，再与本班嵌入库批量比对
+        List<float[]> features = extractFaceFeaturesBatch(faceBitmaps.subList(0, count), faces.subList(0, count));
+        List<float[]> queries = new ArrayList<>();
+        for (float[] f : features) {
+            if (f != null)
+                queries.add(f);
         }
+        EmbeddingGallery.Match[] matches = matchWithinClass(classroomId, gallery, queries);
 
-        // 逐人脸比对，仅与本班学生嵌入比对
+        int next = 0;
         for (int i = 0; i < count; i++) {
-            Bitmap b = faceBitmaps.get(i);
-            com.google.mlkit.vision.face.Face f = faces.get(i);
-
-            float[] queryFeatures = extractFaceFeatures(b, f);
-            if (queryFeatures == null) {
+            if (features.get(i) == null) {
                 results.add(new RecognitionResult(-1, 0f, "特征提取失败"));
                 continue;
             }
 
-            float bestSimilarity = 0.0f;
-            long bestStudentId = -1;
-
-            // 遍历本班学生的所有嵌入
-            android.database.Cursor cur = null;
-            try {
-                cur = databaseHelper.getAllFaceEmbeddingsByModel(currentModelVersion);
-                if (cur != null && cur.moveToFirst()) {
-                    do {
-                        long sid = cur.getLong(cur.getColumnIndexOrThrow("studentId"));
-                        if (!allowedIds.contains(sid))
-                            continue;
-                        byte[] vecBytes = cur.getBlob(cur.getColumnIndexOrThrow("vector"));
-                        float[] stored = byteArrayToFloatArray(vecBytes);
-                        if (stored != null && stored.length == queryFeatures.length) {
-                            float sim = calculateSimilarity(queryFeatures, stored);
-                            if (sim > bestSimilarity) {
-                                bestSimilarity = sim;
-                                bestStudentId = sid;
-                            }
-                        }
-                    } while (cur.moveToNext());
-                }
-            } catch (Throwable t) {
-                android.util.Log.e(TAG, "比对失败: " + t.getMessage(), t);
-            } finally {
-                if (cur != null)
-                    cur.close();
-            }
+            EmbeddingGallery.Match match = matches[next++];
+            float bestSimilarity = match.getScore();
+            long bestStudentId = match.getStudentId();
 
             if (bestSimilarity >= SIMILARITY_THRESHOLD) {
                 results.add(new RecognitionResult(bestStudentId, bestSimilarity, "识别成功"));
@@ -1620,40 +2510,46 @@ public class FaceRecognitionManager {
         android.database.Cursor cursor = null;
         StringBuilder sb = new StringBuilder();
         long total = 0, dimMismatch = 0, zeroNorm = 0, nearUnit = 0, nanOrInf = 0;
+        long int8Blobs = 0, blobBytes = 0;
+        // 收集合法向量，用于评估 INT8 量化的内存与精度
+        List<float[]> unitVectors = new ArrayList<>();
         // 以当前加载的模型输出维度为准
         final int expectedDim = modelOutputDim;
 
         sb.append("FaceEmbedding Validation Report\n")
-                .append("modelVer=").append(currentModelVersion).append('\n')
+                .append("modelVer=").append(embeddingVersion()).append('\n')
                 .append("expectedDim=").append(expectedDim).append('\n')
                 .append("time=").append(System.currentTimeMillis()).append("\n\n");
 
         try {
-            cursor = databaseHelper.getAllFaceEmbeddingsByModel(currentModelVersion);
+            cursor = databaseHelper.getAllFaceEmbeddingsByModel(embeddingVersion());
             if (cursor != null && cursor.moveToFirst()) {
+                int idIdx = cursor.getColumnIndexOrThrow("id");
+                int sidIdx = cursor.getColumnIndexOrThrow("studentId");
+                int vecIdx = cursor.getColumnIndexOrThrow("vector");
+                int qIdx = cursor.getColumnIndex("quality");
                 do {
-                    long id = cursor.getLong(cursor.getColumnIndexOrThrow("id"));
-                    long studentId = cursor.getLong(cursor.getColumnIndexOrThrow("studentId"));
-                    byte[] vecBytes = cursor.getBlob(cursor.getColumnIndexOrThrow("vector"));
+                    long id = cursor.getLong(idIdx);
+                    long studentId = cursor.getLong(sidIdx);
+                    byte[] vecBytes = cursor.getBlob(vecIdx);
                     float quality = 0f;
-                    int qIdx = cursor.getColumnIndex("quality");
                     if (qIdx >= 0)
                         quality = cursor.getFloat(qIdx);
 
-                    int dim = (vecBytes == null ? 0 : vecBytes.length / 4);
+                    int dim = EmbeddingCodec.dimOf(vecBytes);
+                    boolean isInt8 = EmbeddingCodec.formatOf(vecBytes) == EmbeddingCodec.FORMAT_INT8;
+                    if (isInt8)
+                        int8Blobs++;
+                    if (vecBytes != null)
+                        blobBytes += vecBytes.length;
 
                     // 直接解析 BLOB 为 float[]（不做归一化），用于真实库数据的范数校验
-                    float[] vec = new float[dim];
+                    float[] vec = EmbeddingCodec.decode(vecBytes);
                     boolean hasNanOrInf = false;
-                    if (vecBytes != null && vecBytes.length % 4 == 0) {
-                        java.nio.ByteBuffer buffer = java.nio.ByteBuffer.wrap(vecBytes)
-                                .order(java.nio.ByteOrder.LITTLE_ENDIAN);
-                        for (int i = 0; i < dim; i++) {
-                            float v = buffer.getFloat();
-                            vec[i] = v;
-                            if (java.lang.Float.isNaN(v) || java.lang.Float.isInfinite(v)) {
-                                hasNanOrInf = true;
-                            }
+                    for (float v : vec) {
+                        if (java.lang.Float.isNaN(v) || java.lang.Float.isInfinite(v)) {
+                            hasNanOrInf = true;
+                            break;
                         }
                     }
 
@@ -1684,9 +2580,12 @@ public class FaceRecognitionManager {
                         nearUnit++;
                     if (hasNanOrInf)
                         nanOrInf++;
+                    if (!hasNanOrInf && norm > 0f && dim == expectedDim)
+                        unitVectors.add(normalizeVector(vec));
 
                     sb.append("id=").append(id)
                             .append(", studentId=").append(studentId)
+                            .append(", format=").append(isInt8 ? "INT8" : "FLOAT32")
                             .append(", dim=").append(dim)
                             .append(", norm=").append(norm)
                             .append(", nonZero=").append(nonZero)
@@ -1704,7 +2603,7 @@ public class FaceRecognitionManager {
                     sb.append('\n');
                 } while (cursor.moveToNext());
             } else {
-                sb.append("No embeddings found for modelVer=").append(currentModelVersion).append('\n');
+                sb.append("No embeddings found for modelVer=").append(embeddingVersion()).append('\n');
             }
         } catch (Throwable t) {
             android.util.Log.e(TAG, "validateAllEmbeddingsAndExport failed: " + t.getMessage(), t);
@@ -1720,6 +2619,7 @@ public class FaceRecognitionManager {
                 .append(", nearUnit=").append(nearUnit)
                 .append(", nanOrInf=").append(nanOrInf)
                 .append('\n');
+        appendInt8Report(sb, unitVectors, expectedDim, total, int8Blobs, blobBytes);
 
         try {
             java.io.File outDir = context.getExternalFilesDir("reports");
@@ -1739,6 +2639,669 @@ public class FaceRecognitionManager {
         }
     }
 
+    /**
+     * INT8 量化评估：存储体积、逐向量重建余弦、以及留一法 top-1 与 float 精确检索的一致率
+     */
+    private void appendInt8Report(StringBuilder sb, List<float[]> unitVectors, int dim, long total,
+            long int8Blobs, long blobBytes) {
+        int n = unitVectors.size();
+        sb.append("\nINT8 Quantization\n")
+                .append("storedFormats: float32=").append(total - int8Blobs)
+                .append(", int8=").append(int8Blobs)
+                .append(", blobBytes=").append(blobBytes).append('\n')
+                .append("estimatedStorageBytes: float32=").append(total * dim * 4L)
+                .append(", int8=").append(total * (dim + 8L)).append('\n');
+        if (n == 0)
+            return;
+
+        float[] matrix = new float[n * dim];
+        long[] rowIds = new long[n];
+        double cosSum = 0;
+        float cosMin = 1f;
+        for (int i = 0; i < n; i++) {
+            float[] v = unitVectors.get(i);
+            System.arraycopy(v, 0, matrix, i * dim, dim);
+            rowIds[i] = i;
+            float cos = calculateSimilarity(v, normalizeVector(EmbeddingCodec.decode(EmbeddingCodec.encodeInt8(v))));
+            cosSum += cos;
+            if (cos < cosMin)
+                cosMin = cos;
+        }
+        EmbeddingGallery gallery = new EmbeddingGallery(-1, embeddingVersion(), dim, n, matrix, rowIds);
+        QuantizedGallery quantized = gallery.getQuantized();
+
+        // 留一法：每个向量作为查询（略加扰动避免自匹配）对比精确与 INT8 检索的 top-1
+        int agree = 0;
+        double scoreErr = 0;
+        java.util.Random rnd = new java.util.Random(7);
+        for (int i = 0; i < n; i++) {
+            float[] q = unitVectors.get(i).clone();
+            for (int d = 0; d < dim; d++)
+                q[d] += (float) (rnd.nextGaussian() * 0.05);
+            q = normalizeVector(q);
+            EmbeddingGallery.Match exact = gallery.findBestMatch(q);
+            EmbeddingGallery.Match approx = quantized.findBestMatch(q, QuantizedGallery.DEFAULT_RERANK_SIZE);
+            if (exact.getStudentId() == approx.getStudentId())
+                agree++;
+            scoreErr += Math.abs(exact.getScore() - approx.getScore());
+        }
+        // INT8 检索时 float 行仍常驻（精排用），内存按 float 行 + codes + scales 的总和报告
+        sb.append("galleryMemory: float32=").append(4L * n * dim)
+                .append(", int8Resident=").append(quantized.residentBytes())
+                .append(" (float rows ").append(4L * n * dim)
+                .append(" + codes/scales ").append(quantized.memoryBytes()).append(")\n")
+                .append("reconstructionCos: mean=").append(cosSum / n)
+                .append(", min=").append(cosMin).append('\n')
+                .append("top1Agreement=").append(agree).append('/').append(n)
+                .append(", meanScoreError=").append(scoreErr / n)
+                .append(", rerankSize=").append(QuantizedGallery.DEFAULT_RERANK_SIZE).append('\n');
+    }
+
+    /**
+     * 检索策略召回评估：在指定班级（如 assets 预置的“北约峰会”“三巨头”）的嵌入库上，
+     * 以各行加噪后作为查询，统计 INT8 / BINARY 以及原型粗匹配（不同 shortlist）的 top-1
+     * 与 EXACT 暴力检索一致的比例及耗时
+     * 返回报告文件路径，失败返回 null
+     */
+    public String evaluateSearchStrategiesAndExport(android.content.Context context, long... classroomIds) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Search Strategy Recall Report\n")
+                .append("modelVer=").append(embeddingVersion()).append('\n')
+                .append("time=").append(System.currentTimeMillis()).append("\n\n");
+        java.util.Random rnd = new java.util.Random(42);
+        SearchStrategy[] strategies = SearchStrategy.values();
+        for (long classroomId : classroomIds) {
+            EmbeddingGallery gallery = getClassGallery(classroomId);
+            int n = gallery.size();
+            int dim = gallery.getDim();
+            sb.append("classroomId=").append(classroomId).append(", rows=").append(n).append('\n');
+            if (n == 0) {
+                sb.append("  (empty)\n");
+                continue;
+            }
+            List<float[]> queries = new ArrayList<>(n);
+            float[] vectors = gallery.getVectors();
+            for (int row = 0; row < n; row++) {
+                float[] q = new float[dim];
+                for (int d = 0; d < dim; d++)
+                    q[d] = vectors[row * dim + d] + (float) (rnd.nextGaussian() * 0.05);
+                queries.add(normalizeVector(q));
+            }
+            EmbeddingGallery.Match[] truth = null;
+            for (SearchStrategy strategy : strategies) {
+                // 先预热一次（生成量化/哈希副本），再计时
+                matchWithinGallery(gallery, queries, strategy, strategy.defaultCandidates);
+                long t0 = System.nanoTime();
+                EmbeddingGallery.Match[] matches = matchWithinGallery(gallery, queries, strategy,
+                        strategy.defaultCandidates);
+                long t1 = System.nanoTime();
+                if (truth == null)
+                    truth = matches;
+                int agree = 0;
+                for (int i = 0; i < n; i++) {
+                    if (matches[i].getStudentId() == truth[i].getStudentId())
+                        agree++;
+                }
+                sb.append("  ").append(strategy.name())
+                        .append(": candidates=").append(strategy.defaultCandidates)
+                        .append(", recall@1=").append(String.format(java.util.Locale.US, "%.4f", agree / (float) n))
+                        .append(", totalMs=").append(String.format(java.util.Locale.US, "%.3f", (t1 - t0) / 1e6))
+                        .append('\n');
+            }
+            // 原型粗匹配 + 精排：不同 shortlist 下与 EXACT 的一致率
+            java.util.TreeSet<Integer> shortlists = new java.util.TreeSet<>(
+                    java.util.Arrays.asList(1, DEFAULT_PROTOTYPE_SHORTLIST, 5, 10, prototypeShortlist));
+            for (int shortlist : shortlists) {
+                matchWithPrototypes(classroomId, gallery, queries, shortlist);
+                long t0 = System.nanoTime();
+                EmbeddingGallery.Match[] matches = matchWithPrototypes(classroomId, gallery, queries, shortlist);
+                long t1 = System.nanoTime();
+                int agree = 0;
+                for (int i = 0; i < n; i++) {
+                    if (matches[i].getStudentId() == truth[i].getStudentId())
+                        agree++;
+                }
+                sb.append("  PROTOTYPE: shortlist=").append(shortlist)
+                        .append(", recall@1=").append(String.format(java.util.Locale.US, "%.4f", agree / (float) n))
+                        .append(", totalMs=").append(String.format(java.util.Locale.US, "%.3f", (t1 - t0) / 1e6))
+                        .append('\n');
+            }
+        }
+
+        try {
+            java.io.File outDir = context.getExternalFilesDir("reports");
+            if (outDir != null && !outDir.exists())
+                outDir.mkdirs();
+            java.io.File outFile = new java.io.File(outDir,
+                    "search-strategy-recall-" + System.currentTimeMillis() + ".txt");
+            java.io.FileOutputStream fos = new java.io.FileOutputStream(outFile);
+            fos.write(sb.toString().getBytes("UTF-8"));
+            fos.flush();
+            fos.close();
+            android.util.Log.i(TAG, "Search strategy report exported: " + outFile.getAbsolutePath());
+            return outFile.getAbsolutePath();
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Failed to write search strategy report: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 并行检索基准：固定种子随机单位向量构成 galleryRows 行的库，分别以并行度 1/2/4/8 执行 top-k 检索，
+     * 导出每种并行度的平均耗时与相对 1 线程的加速比；返回报告文件路径，失败返回 null
+     */
+    public String benchmarkParallelSearchAndExport(android.content.Context context, int galleryRows) {
+        final int dim = modelOutputDim;
+        final int[] parallelisms = { 1, 2, 4, 8 };
+        final int queries = 20;
+        final int k = 5;
+        java.util.Random rnd = new java.util.Random(42);
+        float[] matrix = new float[galleryRows * dim];
+        long[] ids = new long[galleryRows];
+        for (int row = 0; row < galleryRows; row++) {
+            System.arraycopy(randomUnitVector(rnd, dim), 0, matrix, row * dim, dim);
+            ids[row] = row;
+        }
+        EmbeddingGallery gallery = new EmbeddingGallery(-1, embeddingVersion(), dim, galleryRows, matrix, ids);
+        List<float[]> qs = new ArrayList<>();
+        for (int i = 0; i < queries; i++)
+            qs.add(randomUnitVector(rnd, dim));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Parallel Gallery Search Benchmark\n")
+                .append("galleryRows=").append(galleryRows)
+                .append(", dim=").append(dim)
+                .append(", k=").append(k)
+                .append(", queries=").append(queries)
+                .append(", cpus=").append(Runtime.getRuntime().availableProcessors())
+                .append(", chunkRows=").append(ParallelGallerySearch.CHUNK_ROWS)
+                .append(", sequentialThreshold=").append(ParallelGallerySearch.SEQUENTIAL_THRESHOLD)
+                .append("\n\n");
+        double baseMs = 0;
+        for (int p : parallelisms) {
+            java.util.concurrent.ForkJoinPool pool = new java.util.concurrent.ForkJoinPool(p);
+            try {
+                for (float[] q : qs)
+                    ParallelGallerySearch.topK(gallery, q, k, pool);
+                long t0 = System.nanoTime();
+                for (float[] q : qs)
+                    ParallelGallerySearch.topK(gallery, q, k, pool);
+                double ms = (System.nanoTime() - t0) / 1e6 / queries;
+                if (p == 1)
+                    baseMs = ms;
+                sb.append("parallelism=").append(p)
+                        .append(", avgMs=").append(String.format(java.util.Locale.US, "%.3f", ms))
+                        .append(", speedup=").append(String.format(java.util.Locale.US, "%.2f", baseMs / ms))
+                        .append('\n');
+            } finally {
+                pool.shutdown();
+            }
+        }
+
+        try {
+            java.io.File outDir = context.getExternalFilesDir("reports");
+            if (outDir != null && !outDir.exists())
+                outDir.mkdirs();
+            java.io.File outFile = new java.io.File(outDir,
+                    "parallel-search-benchmark-" + System.currentTimeMillis() + ".txt");
+            java.io.FileOutputStream fos = new java.io.FileOutputStream(outFile);
+            fos.write(sb.toString().getBytes("UTF-8"));
+            fos.flush();
+            fos.close();
+            android.util.Log.i(TAG, "Parallel search benchmark exported: " + outFile.getAbsolutePath());
+            return outFile.getAbsolutePath();
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Failed to write parallel search benchmark: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 量化模型对比：在 assets 预置班级（“北约峰会”“三巨头”）的头像上分别运行 float32 与 INT8 MobileFaceNet，
+     * 导出每张人脸的平均推理耗时、同一输入下两模型嵌入的余弦一致度，以及各自以水平翻转照片为查询、
+     * 原照片为库的班内 top-1 准确率；直接推理，不经过嵌入缓存。返回报告文件路径，失败返回 null
+     */
+    public String compareQuantizedModelAndExport(android.content.Context context) {
+        final String[] folders = { "北约峰会", "三巨头" };
+        final int rounds = 5;
+        StringBuilder sb = new StringBuilder();
+        sb.append("Quantized MobileFaceNet Report\n")
+                .append("float=").append(MODEL_ASSET_F32)
+                .append(", int8=").append(MODEL_ASSET_INT8)
+                .append(", rounds=").append(rounds)
+                .append(", time=").append(System.currentTimeMillis()).append("\n\n");
+
+        try (ModelRegistry.Lease<SharedEmbedder> f32 = acquireEmbedder(MODEL_ASSET_F32);
+                ModelRegistry.Lease<SharedEmbedder> int8 = acquireEmbedder(MODEL_ASSET_INT8);
+                ModelRegistry.Lease<YuNetTFLiteDetector> detector = YuNetTFLiteDetector.acquireShared(context,
+                        YuNetTFLiteDetector.ModelVariant.MULTI_FACE)) {
+            if (f32 == null || int8 == null) {
+                sb.append("model missing: float=").append(f32 != null).append(", int8=").append(int8 != null)
+                        .append('\n');
+            } else if (f32.get().inputWidth != int8.get().inputWidth
+                    || f32.get().inputHeight != int8.get().inputHeight) {
+                sb.append("input size mismatch, skipped\n");
+            } else {
+                SharedEmbedder[] models = { f32.get(), int8.get() };
+                for (SharedEmbedder m : models) {
+                    sb.append(m.modelVersion).append(": ").append(m.tensorSpec)
+                            .append(", outputDim=").append(m.outputDim).append('\n');
+                }
+                sb.append('\n');
+                for (String folder : folders)
+                    appendQuantizedFolderReport(sb, context, folder, models, detector, rounds);
+            }
+        } catch (Throwable t) {
+            android.util.Log.e(TAG, "compareQuantizedModelAndExport failed: " + t.getMessage(), t);
+            return null;
+        }
+
+        try {
+            java.io.File outDir = context.getExternalFilesDir("reports");
+            if (outDir != null && !outDir.exists())
+                outDir.mkdirs();
+            java.io.File outFile = new java.io.File(outDir,
+                    "quantized-model-" + System.currentTimeMillis() + ".txt");
+            java.io.FileOutputStream fos = new java.io.FileOutputStream(outFile);
+            fos.write(sb.toString().getBytes("UTF-8"));
+            fos.flush();
+            fos.close();
+            android.util.Log.i(TAG, "Quantized model report exported: " + outFile.getAbsolutePath());
+            return outFile.getAbsolutePath();
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Failed to write quantized model report: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 单个预置班级：原图与水平翻转图各检测一次（取最大人脸），两个模型在同一批预处理结果上推理
+     */
+    private void appendQuantizedFolderReport(StringBuilder sb, android.content.Context context, String folder,
+            SharedEmbedder[] models, ModelRegistry.Lease<YuNetTFLiteDetector> detector, int rounds)
+            throws java.io.IOException {
+        List<FaceWarp> gallery = new ArrayList<>();
+        List<FaceWarp> queries = new ArrayList<>();
+        String[] files = context.getAssets().list(folder);
+        for (String name : files == null ? new String[0] : files) {
+            String lower = name.toLowerCase(java.util.Locale.US);
+            if (!(lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png")))
+                continue;
+            Bitmap photo;
+            try (java.io.InputStream is = context.getAssets().open(folder + "/" + name)) {
+                photo = android.graphics.BitmapFactory.decodeStream(is);
+            }
+            if (photo == null)
+                continue;
+            android.graphics.Matrix mirror = new android.graphics.Matrix();
+            mirror.setScale(-1f, 1f);
+            Bitmap flipped = Bitmap.createBitmap(photo, 0, 0, photo.getWidth(), photo.getHeight(), mirror, false);
+            FaceWarp g = reportFaceWarp(detector, photo);
+            FaceWarp q = reportFaceWarp(detector, flipped);
+            if (g == null || q == null)
+                continue;
+            gallery.add(g);
+            queries.add(q);
+        }
+        int n = gallery.size();
+        sb.append("class=").append(folder).append(", faces=").append(n).append('\n');
+        if (n == 0)
+            return;
+
+        float[][][] galleryEmb = new float[models.length][][];
+        for (int mi = 0; mi < models.length; mi++) {
+            SharedEmbedder m = models[mi];
+            long[] nanos = new long[1];
+            galleryEmb[mi] = embedForReport(m.pool, gallery, rounds, nanos);
+            float[][] queryEmb = embedForReport(m.pool, queries, 1, null);
+            int correct = 0, valid = 0;
+            double genuine = 0;
+            for (int i = 0; i < n; i++) {
+                if (queryEmb[i] == null || galleryEmb[mi][i] == null)
+                    continue;
+                valid++;
+                int best = -1;
+                float bestScore = -2f;
+                for (int j = 0; j < n; j++) {
+                    if (galleryEmb[mi][j] == null)
+                        continue;
+                    float score = calculateSimilarity(queryEmb[i], galleryEmb[mi][j]);
+                    if (score > bestScore) {
+                        bestScore = score;
+                        best = j;
+                    }
+                }
+                if (best == i)
+                    correct++;
+                genuine += calculateSimilarity(queryEmb[i], galleryEmb[mi][i]);
+            }
+            sb.append("  ").append(m.modelVersion)
+                    .append(": avgMsPerFace=")
+                    .append(String.format(java.util.Locale.US, "%.3f", nanos[0] / 1e6 / (n * (double) rounds)))
+                    .append(", top1=").append(correct).append('/').append(valid)
+                    .append(", meanGenuineCos=")
+                    .append(String.format(java.util.Locale.US, "%.4f", valid == 0 ? 0 : genuine / valid))
+                    .append('\n');
+        }
+
+        // 同一输入下 INT8 与 float32 嵌入的余弦（反量化、归一化后）
+        double cosSum = 0;
+        float cosMin = 1f;
+        int pairs = 0;
+        for (int i = 0; i < n; i++) {
+            if (galleryEmb[0][i] == null || galleryEmb[1][i] == null)
+                continue;
+            float cos = calculateSimilarity(galleryEmb[0][i], galleryEmb[1][i]);
+            cosSum += cos;
+            cosMin = Math.min(cosMin, cos);
+            pairs++;
+        }
+        sb.append("  float-vs-int8 cos: mean=")
+                .append(String.format(java.util.Locale.US, "%.4f", pairs == 0 ? 0 : cosSum / pairs))
+                .append(", min=").append(String.format(java.util.Locale.US, "%.4f", pairs == 0 ? 0f : cosMin))
+                .append(", pairs=").append(pairs).append("\n\n");
+    }
+
+    /**
+     * 报告用人脸预处理：YuNet 可用时取面积最大的检测结果（有关键点则五点对齐），否则使用整张图
+     */
+    private FaceWarp reportFaceWarp(ModelRegistry.Lease<YuNetTFLiteDetector> detector, Bitmap photo) {
+        if (detector != null) {
+            YuNetTFLiteDetector.Detection largest = null;
+            for (YuNetTFLiteDetector.Detection d : detector.get().detectFaces(photo)) {
+                if (largest == null || d.bbox.width() * d.bbox.height() > largest.bbox.width()
+                        * largest.bbox.height())
+                    largest = d;
+            }
+            if (largest != null)
+                return prepareDetectionWarp(photo, largest);
+        }
+        return prepareRectWarp(photo, new Rect(0, 0, photo.getWidth(), photo.getHeight()));
+    }
+
+    /**
+     * 逐张推理并归一化；先跑一轮预热，再计时 rounds 轮，总耗时累加到 nanos[0]（可为 null）
+     */
+    private float[][] embedForReport(InterpreterPool<MobileFaceNetSession> pool, List<FaceWarp> warps, int rounds,
+            long[] nanos) {
+        float[][] out = new float[warps.size()][];
+        for (int i = 0; i < warps.size(); i++) {
+            float[] raw = runMobileFaceNet(pool, warps.get(i));
+            out[i] = raw == null ? null : normalizeVector(raw);
+        }
+        if (nanos == null)
+            return out;
+        long t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            for (FaceWarp warp : warps)
+                runMobileFaceNet(pool, warp);
+        }
+        nanos[0] += System.nanoTime() - t0;
+        return out;
+    }
+
+    /**
+     * 对齐方式对比：五点模板对齐与检测框裁剪的嵌入分布是否一致。五点对齐默认关闭，开启后以单独的
+     * modelVer 标签入库，不与检测框裁剪的旧嵌入混比；本报告用于判断能否按同一阈值混用、改为默认开启。
+     * 在 assets 预置班级（“北约峰会”“三巨头”）上对每张照片取面积最大且带关键点的人脸，导出：
+     * - 同一人脸两种预处理的嵌入余弦（均值 / 最小值）
+     * - 库 × 查询（水平翻转照片）四种组合的 top-1、真匹配平均分、最高冒名分均值与达到 SIMILARITY_THRESHOLD 的比例
+     * 直接推理，不经过嵌入缓存；返回报告文件路径，失败返回 null
+     */
+    public String compareAlignmentAndExport(android.content.Context context) {
+        final String[] folders = { "北约峰会", "三巨头" };
+        StringBuilder sb = new StringBuilder();
+        sb.append("Face Alignment Embedding Shift Report\n")
+                .append("modelVer=").append(embeddingVersion())
+                .append(", threshold=").append(SIMILARITY_THRESHOLD)
+                .append(", time=").append(System.currentTimeMillis()).append("\n\n");
+
+        try (ModelRegistry.Lease<SharedEmbedder> lease = acquireEmbedder();
+                ModelRegistry.Lease<YuNetTFLiteDetector> detector = YuNetTFLiteDetector.acquireShared(context,
+                        YuNetTFLiteDetector.ModelVariant.MULTI_FACE)) {
+            if (lease == null || detector == null) {
+                sb.append("model missing: embedder=").append(lease != null).append(", yunet=")
+                        .append(detector != null).append('\n');
+            } else {
+                for (String folder : folders)
+                    appendAlignmentFolderReport(sb, context, folder, lease.get(), detector);
+            }
+        } catch (Throwable t) {
+            android.util.Log.e(TAG, "compareAlignmentAndExport failed: " + t.getMessage(), t);
+            return null;
+        }
+
+        try {
+            java.io.File outDir = context.getExternalFilesDir("reports");
+            if (outDir != null && !outDir.exists())
+                outDir.mkdirs();
+            java.io.File outFile = new java.io.File(outDir,
+                    "alignment-shift-" + System.currentTimeMillis() + ".txt");
+            java.io.FileOutputStream fos = new java.io.FileOutputStream(outFile);
+            fos.write(sb.toString().getBytes("UTF-8"));
+            fos.flush();
+            fos.close();
+            android.util.Log.i(TAG, "Alignment shift report exported: " + outFile.getAbsolutePath());
+            return outFile.getAbsolutePath();
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Failed to write alignment shift report: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 单个预置班级：原图作库、水平翻转图作查询，每张人脸分别生成五点对齐与检测框裁剪两种输入
+     */
+    private void appendAlignmentFolderReport(StringBuilder sb, android.content.Context context, String folder,
+            SharedEmbedder model, ModelRegistry.Lease<YuNetTFLiteDetector> detector) throws java.io.IOException {
+        // [0] = 检测框裁剪（升级前的库），[1] = 五点对齐
+        List<FaceWarp> galleryCrop = new ArrayList<>(), galleryAligned = new ArrayList<>();
+        List<FaceWarp> queryCrop = new ArrayList<>(), queryAligned = new ArrayList<>();
+        String[] files = context.getAssets().list(folder);
+        for (String name : files == null ? new String[0] : files) {
+            String lower = name.toLowerCase(java.util.Locale.US);
+            if (!(lower.endsWith(".jpg") || lower.endsWith(".jpeg") || lower.endsWith(".png")))
+                continue;
+            Bitmap photo;
+            try (java.io.InputStream is = context.getAssets().open(folder + "/" + name)) {
+                photo = android.graphics.BitmapFactory.decodeStream(is);
+            }
+            if (photo == null)
+                continue;
+            android.graphics.Matrix mirror = new android.graphics.Matrix();
+            mirror.setScale(-1f, 1f);
+            Bitmap flipped = Bitmap.createBitmap(photo, 0, 0, photo.getWidth(), photo.getHeight(), mirror, false);
+            FaceWarp[] g = alignmentPair(detector, photo);
+            FaceWarp[] q = alignmentPair(detector, flipped);
+            if (g == null || q == null)
+                continue;
+            galleryCrop.add(g[0]);
+            galleryAligned.add(g[1]);
+            queryCrop.add(q[0]);
+            queryAligned.add(q[1]);
+        }
+        int n = galleryCrop.size();
+        sb.append("class=").append(folder).append(", faces=").append(n).append('\n');
+        if (n == 0)
+            return;
+
+        float[][][] gallery = { embedForReport(model.pool, galleryCrop, 1, null),
+                embedForReport(model.pool, galleryAligned, 1, null) };
+        float[][][] queries = { embedForReport(model.pool, queryCrop, 1, null),
+                embedForReport(model.pool, queryAligned, 1, null) };
+
+        double cosSum = 0;
+        float cosMin = 1f;
+        int pairs = 0;
+        for (int i = 0; i < n; i++) {
+            if (gallery[0][i] == null || gallery[1][i] == null)
+                continue;
+            float cos = calculateSimilarity(gallery[0][i], gallery[1][i]);
+            cosSum += cos;
+            cosMin = Math.min(cosMin, cos);
+            pairs++;
+        }
+        sb.append("  crop-vs-aligned cos: mean=")
+                .append(String.format(java.util.Locale.US, "%.4f", pairs == 0 ? 0 : cosSum / pairs))
+                .append(", min=").append(String.format(java.util.Locale.US, "%.4f", pairs == 0 ? 0f : cosMin))
+                .append(", pairs=").append(pairs).append('\n');
+
+        String[] names = { "crop", "aligned" };
+        for (int gi = 0; gi < 2; gi++) {
+            for (int qi = 0; qi < 2; qi++) {
+                int correct = 0, valid = 0, accepted = 0;
+                double genuine = 0, impostor = 0;
+                for (int i = 0; i < n; i++) {
+                    if (queries[qi][i] == null || gallery[gi][i] == null)
+                        continue;
+                    valid++;
+                    int best = -1;
+                    float bestScore = -2f, bestImpostor = -1f;
+                    for (int j = 0; j < n; j++) {
+                        if (gallery[gi][j] == null)
+                            continue;
+                        float score = calculateSimilarity(queries[qi][i], gallery[gi][j]);
+                        if (score > bestScore) {
+                            bestScore = score;
+                            best = j;
+                        }
+                        if (j != i)
+                            bestImpostor = Math.max(bestImpostor, score);
+                    }
+                    float g = calculateSimilarity(queries[qi][i], gallery[gi][i]);
+                    if (best == i)
+                        correct++;
+                    if (g >= SIMILARITY_THRESHOLD)
+                        accepted++;
+                    genuine += g;
+                    impostor += bestImpostor;
+                }
+                sb.append("  gallery=").append(names[gi]).append(" query=").append(names[qi])
+                        .append(": top1=").append(correct).append('/').append(valid)
+                        .append(", meanGenuine=")
+                        .append(String.format(java.util.Locale.US, "%.4f", valid == 0 ? 0 : genuine / valid))
+                        .append(", meanBestImpostor=")
+                        .append(String.format(java.util.Locale.US, "%.4f", valid == 0 ? 0 : impostor / valid))
+                        .append(", genuine>=threshold=").append(accepted).append('/').append(valid)
+                        .append('\n');
+            }
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * 面积最大且带关键点的人脸的两种预处理：[检测框裁剪, 五点对齐]；无可用人脸或对齐退化时返回 null
+     */
+    private FaceWarp[] alignmentPair(ModelRegistry.Lease<YuNetTFLiteDetector> detector, Bitmap photo) {
+        YuNetTFLiteDetector.Detection largest = null;
+        for (YuNetTFLiteDetector.Detection d : detector.get().detectFaces(photo)) {
+            if (d.landmarks == null)
+                continue;
+            if (largest == null || d.bbox.width() * d.bbox.height() > largest.bbox.width() * largest.bbox.height())
+                largest = d;
+        }
+        if (largest == null)
+            return null;
+        FaceWarp crop = prepareRectWarp(photo, largest.bbox);
+        FaceWarp aligned = alignToTemplate(photo, largest.landmarks, true);
+        if (crop == null || aligned == null)
+            return null;
+        return new FaceWarp[] { crop, aligned };
+    }
+
+    /**
+     * 相似度基准测试：对比逐对 calculateSimilarity 与批量内核在 1/10/60 张人脸下的耗时，并导出报告
+     * 使用固定种子的随机单位向量模拟 galleryRows 行的班级嵌入库；返回报告文件路径，失败返回 null
+     */
+    public String benchmarkSimilarityAndExport(android.content.Context context, int galleryRows) {
+        final int dim = modelOutputDim;
+        final int[] faceCounts = { 1, 10, 60 };
+        final int rounds = 5;
+        java.util.Random rnd = new java.util.Random(42);
+
+        List<float[]> galleryList = new ArrayList<>();
+        long[] ids = new long[galleryRows];
+        float[] matrix = new float[galleryRows * dim];
+        for (int r = 0; r < galleryRows; r++) {
+            float[] v = randomUnitVector(rnd, dim);
+            galleryList.add(v);
+            System.arraycopy(v, 0, matrix, r * dim, dim);
+            ids[r] = r;
+        }
+        EmbeddingGallery gallery = new EmbeddingGallery(-1, embeddingVersion(), dim, galleryRows, matrix, ids);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Similarity Benchmark Report\n")
+                .append("modelVer=").append(embeddingVersion()).append('\n')
+                .append("dim=").append(dim).append(", galleryRows=").append(galleryRows)
+                .append(", rounds=").append(rounds).append('\n')
+                .append("time=").append(System.currentTimeMillis()).append("\n\n");
+
+        for (int faces : faceCounts) {
+            List<float[]> queries = new ArrayList<>();
+            for (int i = 0; i < faces; i++)
+                queries.add(randomUnitVector(rnd, dim));
+
+            long perPairNs = Long.MAX_VALUE;
+            long batchNs = Long.MAX_VALUE;
+            float checksumPair = 0f, checksumBatch = 0f;
+            for (int round = 0; round < rounds; round++) {
+                long t0 = System.nanoTime();
+                float sum = 0f;
+                for (float[] q : queries) {
+                    float best = 0f;
+                    for (float[] ref : galleryList) {
+                        float sim = calculateSimilarity(q, ref);
+                        if (sim > best)
+                            best = sim;
+                    }
+                    sum += best;
+                }
+                perPairNs = Math.min(perPairNs, System.nanoTime() - t0);
+                checksumPair = sum;
+
+                t0 = System.nanoTime();
+                sum = 0f;
+                for (EmbeddingGallery.Match m : gallery.findBestMatches(queries))
+                    sum += m.getScore();
+                batchNs = Math.min(batchNs, System.nanoTime() - t0);
+                checksumBatch = sum;
+            }
+
+            sb.append("faces=").append(faces)
+                    .append(", perPairUs=").append(perPairNs / 1000)
+                    .append(", batchUs=").append(batchNs / 1000)
+                    .append(", speedup=").append(String.format(java.util.Locale.US, "%.1fx",
+                            batchNs > 0 ? (double) perPairNs / batchNs : 0.0))
+                    .append(", checksumDiff=").append(Math.abs(checksumPair - checksumBatch))
+                    .append('\n');
+        }
+
+        try {
+            java.io.File outDir = context.getExternalFilesDir("reports");
+            if (outDir != null && !outDir.exists())
+                outDir.mkdirs();
+            java.io.File outFile = new java.io.File(outDir,
+                    "similarity-benchmark-" + System.currentTimeMillis() + ".txt");
+            java.io.FileOutputStream fos = new java.io.FileOutputStream(outFile);
+            fos.write(sb.toString().getBytes("UTF-8"));
+            fos.flush();
+            fos.close();
+            android.util.Log.i(TAG, "Similarity benchmark exported: " + outFile.getAbsolutePath());
+            return outFile.getAbsolutePath();
+        } catch (Exception e) {
+            android.util.Log.e(TAG, "Failed to write similarity benchmark: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private float[] randomUnitVector(java.util.Random rnd, int dim) {
+        float[] v = new float[dim];
+        for (int i = 0; i < dim; i++)
+            v[i] = (float) rnd.nextGaussian();
+        return normalizeVector(v);
+    }
+
     /**
      * 清理资源
      */
@@ -1781,4 +3344,20 @@ public class FaceRecognitionManager {
             return studentId != -1;
         }
     }
+
+    /**
+     * 班级内比对策略
+     * EXACT：float 矩阵全量点积
+     * INT8：int8 整数点积粗排 + float 精排
+     * BINARY：符号位哈希汉明距离粗筛 + float 精排
+     */
+    public enum SearchStrategy {
+        EXACT(0), INT8(QuantizedGallery.DEFAULT_RERANK_SIZE), BINARY(BinaryHashGallery.DEFAULT_SHORTLIST_SIZE);
+
+        final int defaultCandidates;
+
+        SearchStrategy(int defaultCandidates) {
+            this.defaultCandidates = defaultCandidates;
+        }
+    }
 }
@@ -0,0 +1,125 @@
+package com.example.facecheck.utils;
+
+import android.graphics.Bitmap;
+
+/**
+ * 单次仿射采样：从源图像素直接生成模型输入，替代 裁剪 → 旋转 → 缩放 三张中间位图
+ * - inverse 为目标→源的逆映射（作用于像素中心的连续坐标）：
+ *   sx = m0*(u+0.5) + m1*(v+0.5) + m2，sy = m3*(u+0.5) + m4*(v+0.5) + m5
+ * - 只读取裁剪区域 [clipLeft, clipRight) × [clipTop, clipBottom) 内的像素，区域外按透明黑处理，
+ *   与旧流程中旋转后新增的透明边角一致
+ * - 双线性采样后按 InferenceBuffers 的规则归一化写入输入缓冲的指定 slot
+ */
+final class FaceWarp {
+
+    final Bitmap source;
+    final int clipLeft;
+    final int clipTop;
+    final int clipRight;
+    final int clipBottom;
+    final float[] inverse;
+
+    FaceWarp(Bitmap source, int clipLeft, int clipTop, int clipRight, int clipBottom, float[] inverse) {
+        this.source = source;
+        this.clipLeft = clipLeft;
+        this.clipTop = clipTop;
+        this.clipRight = clipRight;
+        this.clipBottom = clipBottom;
+        this.inverse = inverse;
+    }
+
+    int clipWidth() {
+        return clipRight - clipLeft;
+    }
+
+    int clipHeight() {
+        return clipBottom - clipTop;
+    }
+
+    /**
+     * 等价于旧流程：裁剪 [left,top,w,h] → 绕中心旋转 degrees（顺时针为正，画布扩展到旋转后外接矩形）
+     * → 拉伸到 outW×outH
+     */
+    static FaceWarp cropRotateScale(Bitmap source, int left, int top, int w, int h, float degrees, int outW,
+            int outH) {
+        double rad = Math.toRadians(degrees);
+        double cos = Math.cos(rad);
+        double sin = Math.sin(rad);
+        // 旋转后外接矩形尺寸（与 Bitmap.createBitmap(matrix) 的取整一致）；不旋转时就是裁剪尺寸
+        double rw = degrees == 0f ? w : Math.round(Math.abs(w * cos) + Math.abs(h * sin));
+        double rh = degrees == 0f ? h : Math.round(Math.abs(w * sin) + Math.abs(h * cos));
+        double sxScale = rw / outW;
+        double syScale = rh / outH;
+        // 目标 (u,v) → 旋转画布 (X,Y) = (u*sx, v*sy) → 裁剪坐标 = R(-θ)·((X,Y) - 画布中心) + 裁剪中心 → 源坐标
+        double cxR = rw / 2.0, cyR = rh / 2.0;
+        double cx = left + w / 2.0, cy = top + h / 2.0;
+        float[] m = new float[6];
+        m[0] = (float) (cos * sxScale);
+        m[1] = (float) (sin * syScale);
+        m[2] = (float) (cx - cos * cxR - sin * cyR);
+        m[3] = (float) (-sin * sxScale);
+        m[4] = (float) (cos * syScale);
+        m[5] = (float) (cy + sin * cxR - cos * cyR);
+        return new FaceWarp(source, left, top, left + w, top + h, m);
+    }
+
+    /**
+     * 从 region（裁剪区域像素，行宽 clipWidth()）采样，写入 buffers 第 slot 个位置
+     */
+    void writeTo(int[] region, InferenceBuffers buffers, int slot) {
+        final int outW = buffers.width;
+        final int outH = buffers.height;
+        final int rw = clipWidth();
+        final int rh = clipHeight();
+        final float m0 = inverse[0], m1 = inverse[1], m3 = inverse[3], m4 = inverse[4];
+        // 采样点换算到区域内的像素索引空间（减去 0.5 得到左上邻点）
+        final float m2 = inverse[2] - clipLeft - 0.5f;
+        final float m5 = inverse[5] - clipTop - 0.5f;
+        int index = 0;
+        for (int v = 0; v < outH; v++) {
+            float fy = v + 0.5f;
+            float rowX = m1 * fy + m2;
+            float rowY = m4 * fy + m5;
+            for (int u = 0; u < outW; u++) {
+                float fu = u + 0.5f;
+                float x = m0 * fu + rowX;
+                float y = m3 * fu + rowY;
+                int x0 = (int) Math.floor(x);
+                int y0 = (int) Math.floor(y);
+                float ax = x - x0;
+                float ay = y - y0;
+                float r = 0f, g = 0f, b = 0f;
+                if (x0 >= 0 && y0 >= 0 && x0 + 1 < rw && y0 + 1 < rh) {
+                    // 常见情况：四个邻点都在区域内
+                    int p = y0 * rw + x0;
+                    int c00 = region[p], c10 = region[p + 1], c01 = region[p + rw], c11 = region[p + rw + 1];
+                    float w00 = (1 - ax) * (1 - ay), w10 = ax * (1 - ay), w01 = (1 - ax) * ay, w11 = ax * ay;
+                    r = w00 * ((c00 >> 16) & 0xFF) + w10 * ((c10 >> 16) & 0xFF) + w01 * ((c01 >> 16) & 0xFF)
+                            + w11 * ((c11 >> 16) & 0xFF);
+                    g = w00 * ((c00 >> 8) & 0xFF) + w10 * ((c10 >> 8) & 0xFF) + w01 * ((c01 >> 8) & 0xFF)
+                            + w11 * ((c11 >> 8) & 0xFF);
+                    b = w00 * (c00 & 0xFF) + w10 * (c10 & 0xFF) + w01 * (c01 & 0xFF) + w11 * (c11 & 0xFF);
+                } else if (x0 >= -1 && y0 >= -1 && x0 < rw && y0 < rh) {
+                    // 区域边缘：越界邻点按透明黑计入
+                    for (int dy = 0; dy <= 1; dy++) {
+                        int yy = y0 + dy;
+                        if (yy < 0 || yy >= rh)
+                            continue;
+                        float wy = dy == 0 ? 1 - ay : ay;
+                        for (int dx = 0; dx <= 1; dx++) {
+                            int xx = x0 + dx;
+                            if (xx < 0 || xx >= rw)
+                                continue;
+                            float wgt = wy * (dx == 0 ? 1 - ax : ax);
+                            int c = region[yy * rw + xx];
+                            r += wgt * ((c >> 16) & 0xFF);
+                            g += wgt * ((c >> 8) & 0xFF);
+                            b += wgt * (c & 0xFF);
+                        }
+                    }
+                }
+                buffers.writeRgb(slot, index++, r, g, b);
+            }
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.example.facecheck.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * 某个 modelVer 下全校嵌入的二进制快照，用于冷启动时不经 SQLite 直接得到嵌入库
+ * 文件布局（小端）：
+ * - 头部 32 字节：MAGIC, FORMAT_VERSION, dim, rows (int) + stamp[0], stamp[1] (long)
+ * - id 区：embeddingIds、studentIds、classIds 各 rows 个 long，qualities rows 个 float
+ * - 向量区：rows × dim 个 float，均为单位向量
+ * stamp 为写入时 FaceEmbedding / Student 两张表的变更版本号，不一致即视为过期。
+ * 加载时以只读方式 mmap，再批量拷贝到堆内数组。
+ */
+public final class GallerySnapshot {
+
+    private static final int MAGIC = 0x47534E50; // "GSNP"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+
+    private final String modelVer;
+    private final int dim;
+    private final int rows;
+    private final long[] stamp;
+    private final long[] embeddingIds;
+    private final long[] studentIds;
+    private final long[] classIds;
+    private final float[] qualities;
+    private final float[] vectors;
+
+    GallerySnapshot(String modelVer, int dim, int rows, long[] stamp, long[] embeddingIds, long[] studentIds,
+            long[] classIds, float[] qualities, float[] vectors) {
+        this.modelVer = modelVer;
+        this.dim = dim;
+        this.rows = rows;
+        this.stamp = stamp;
+        this.embeddingIds = embeddingIds;
+        this.studentIds = studentIds;
+        this.classIds = classIds;
+        this.qualities = qualities;
+        this.vectors = vectors;
+    }
+
+    public String getModelVer() {
+        return modelVer;
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    public long getEmbeddingId(int row) {
+        return embeddingIds[row];
+    }
+
+    public long getStudentId(int row) {
+        return studentIds[row];
+    }
+
+    /**
+     * 第 row 行向量（返回副本）
+     */
+    public float[] getVector(int row) {
+        return Arrays.copyOfRange(vectors, row * dim, (row + 1) * dim);
+    }
+
+    /**
+     * 快照是否与给定的表版本号一致
+     */
+    public boolean matches(long[] expected) {
+        return expected != null && expected.length == 2 && stamp[0] == expected[0] && stamp[1] == expected[1];
+    }
+
+    /**
+     * 全校嵌入库（classroomId = -1），直接复用快照数组
+     */
+    public EmbeddingGallery schoolGallery() {
+        return new EmbeddingGallery(-1, modelVer, dim, rows, vectors, studentIds);
+    }
+
+    /**
+     * 指定班级的嵌入库（保持快照中的质量降序）
+     */
+    public EmbeddingGallery classGallery(long classroomId) {
+        int count = 0;
+        for (int i = 0; i < rows; i++) {
+            if (classIds[i] == classroomId)
+                count++;
+        }
+        float[] matrix = new float[count * dim];
+        long[] ids = new long[count];
+        int row = 0;
+        for (int i = 0; i < rows; i++) {
+            if (classIds[i] != classroomId)
+                continue;
+            System.arraycopy(vectors, i * dim, matrix, row * dim, dim);
+            ids[row++] = studentIds[i];
+        }
+        return new EmbeddingGallery(classroomId, modelVer, dim, count, matrix, ids);
+    }
+
+    /**
+     * 由快照构建指定班级的原型库
+     */
+    public PrototypeStore classPrototypes(long classroomId) {
+        PrototypeStore store = new PrototypeStore(classroomId, modelVer, dim);
+        for (int i = 0; i < rows; i++) {
+            if (classIds[i] != classroomId)
+                continue;
+            float[] v = new float[dim];
+            System.arraycopy(vectors, i * dim, v, 0, dim);
+            store.add(studentIds[i], embeddingIds[i], v, qualities[i]);
+        }
+        return store;
+    }
+
+    /**
+     * 增量修补：返回替换（embeddingId 已存在）或追加一行后的新快照，原快照保持不变
+     */
+    public GallerySnapshot upsert(long embeddingId, long studentId, long classId, float quality, float[] vector,
+            long[] newStamp) {
+        int row = -1;
+        for (int i = 0; i < rows; i++) {
+            if (embeddingIds[i] == embeddingId) {
+                row = i;
+                break;
+            }
+        }
+        int newRows = row >= 0 ? rows : rows + 1;
+        if (row < 0)
+            row = rows;
+        long[] eIds = Arrays.copyOf(embeddingIds, newRows);
+        long[] sIds = Arrays.copyOf(studentIds, newRows);
+        long[] cIds = Arrays.copyOf(classIds, newRows);
+        float[] q = Arrays.copyOf(qualities, newRows);
+        float[] vec = Arrays.copyOf(vectors, newRows * dim);
+        eIds[row] = embeddingId;
+        sIds[row] = studentId;
+        cIds[row] = classId;
+        q[row] = quality;
+        System.arraycopy(vector, 0, vec, row * dim, dim);
+        return new GallerySnapshot(modelVer, dim, newRows, newStamp.clone(), eIds, sIds, cIds, q, vec);
+    }
+
+    /**
+     * 写入文件（先写临时文件再重命名，避免读到半截快照）
+     */
+    public void save(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists())
+            dir.mkdirs();
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        ByteBuffer buf = ByteBuffer.allocate(byteSize(rows, dim)).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(dim).putInt(rows);
+        buf.putLong(stamp[0]).putLong(stamp[1]);
+        buf.asLongBuffer().put(embeddingIds, 0, rows).put(studentIds, 0, rows).put(classIds, 0, rows);
+        buf.position(HEADER_BYTES + 24 * rows);
+        buf.asFloatBuffer().put(qualities, 0, rows).put(vectors, 0, rows * dim);
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buf.array());
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("rename failed: " + tmp + " -> " + file);
+        }
+    }
+
+    /**
+     * 只读 mmap 加载；格式不符或文件截断时抛出 IOException
+     */
+    public static GallerySnapshot load(File file, String modelVer) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_BYTES)
+                throw new IOException("snapshot too short: " + file);
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt() != MAGIC)
+                throw new IOException("bad magic: " + file);
+            int version = map.getInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException("unsupported snapshot version: " + version);
+            int dim = map.getInt();
+            int rows = map.getInt();
+            long[] stamp = { map.getLong(), map.getLong() };
+            if (dim <= 0 || rows < 0 || length != byteSize(rows, dim))
+                throw new IOException("snapshot size mismatch: " + file);
+            long[] embeddingIds = new long[rows];
+            long[] studentIds = new long[rows];
+            long[] classIds = new long[rows];
+            float[] qualities = new float[rows];
+            float[] vectors = new float[rows * dim];
+            map.asLongBuffer().get(embeddingIds).get(studentIds).get(classIds);
+            map.position(HEADER_BYTES + 24 * rows);
+            map.asFloatBuffer().get(qualities).get(vectors);
+            return new GallerySnapshot(modelVer, dim, rows, stamp, embeddingIds, studentIds, classIds, qualities,
+                    vectors);
+        }
+    }
+
+    private static int byteSize(int rows, int dim) {
+        return HEADER_BYTES + 24 * rows + 4 * rows + 4 * rows * dim;
+    }
+}
@@ -0,0 +1,522 @@
+package com.example.facecheck.utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * HNSW（分层可导航小世界图）近似最近邻索引
+ * - 向量为单位向量，相似度即点积（余弦）
+ * - 每个节点记录 key（FaceEmbedding.id）与 studentId
+ * - 支持增量插入、按 key 标记删除、top-k 查询
+ * - efSearch 为召回率/延迟旋钮：越大召回越高、查询越慢
+ * - 可序列化到文件，stamp 记录构建时数据库状态，用于判断是否过期
+ */
+public class HnswIndex {
+
+    public static final int DEFAULT_M = 16;
+    public static final int DEFAULT_EF_CONSTRUCTION = 100;
+    public static final int DEFAULT_EF_SEARCH = 50;
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int FORMAT_VERSION = 1;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final int dim;
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMult;
+    private final Random random = new Random(42);
+    private int efSearch = DEFAULT_EF_SEARCH;
+
+    private int size;
+    private float[] vectors;
+    private long[] keys;
+    private long[] studentIds;
+    private boolean[] deleted;
+    private int[][][] links; // links[node][level] = [count, n1, n2, ...]
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int liveCount;
+    private final Map<Long, Integer> keyToNode = new HashMap<>();
+    private long[] stamp = new long[0];
+
+    // 访问标记：用轮次号代替每次清空
+    private int[] visited;
+    private int visitEpoch;
+
+    public HnswIndex(int dim) {
+        this(dim, DEFAULT_M, DEFAULT_EF_CONSTRUCTION);
+    }
+
+    public HnswIndex(int dim, int m, int efConstruction) {
+        this.dim = dim;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = efConstruction;
+        this.levelMult = 1.0 / Math.log(m);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    /**
+     * 有效（未删除）节点数
+     */
+    public synchronized int size() {
+        return liveCount;
+    }
+
+    public synchronized void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(1, efSearch);
+    }
+
+    public synchronized int getEfSearch() {
+        return efSearch;
+    }
+
+    public synchronized long[] getStamp() {
+        return stamp;
+    }
+
+    public synchronized void setStamp(long[] stamp) {
+        this.stamp = stamp != null ? stamp : new long[0];
+    }
+
+    /**
+     * 插入向量；若 key 已存在则先删除旧节点（用于嵌入更新）
+     */
+    public synchronized void add(long key, long studentId, float[] vector) {
+        if (vector == null || vector.length != dim)
+            throw new IllegalArgumentException("vector dim mismatch: " + (vector == null ? -1 : vector.length)
+                    + ", expected=" + dim);
+        remove(key);
+        if (size == keys.length)
+            allocate(size * 2);
+
+        int node = size++;
+        System.arraycopy(vector, 0, vectors, node * dim, dim);
+        keys[node] = key;
+        studentIds[node] = studentId;
+        int level = randomLevel();
+        links[node] = new int[level + 1][];
+        for (int l = 0; l <= level; l++)
+            links[node][l] = new int[maxM(l) + 1];
+        keyToNode.put(key, node);
+        liveCount++;
+
+        if (entryPoint == -1) {
+            entryPoint = node;
+            maxLevel = level;
+            return;
+        }
+
+        int ep = entryPoint;
+        for (int l = maxLevel; l > level; l--)
+            ep = greedyClosest(vectors, node * dim, ep, l);
+
+        for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+            long[] candidates = searchLayer(vectors, node * dim, ep, efConstruction, l);
+            int[] selected = selectNeighbors(node * dim, candidates, maxM(l));
+            int[] own = links[node][l];
+            own[0] = selected.length;
+            System.arraycopy(selected, 0, own, 1, selected.length);
+            for (int s : selected)
+                connect(s, node, l);
+            ep = nodeOf(candidates[0]);
+        }
+
+        if (level > maxLevel) {
+            maxLevel = level;
+            entryPoint = node;
+        }
+    }
+
+    /**
+     * 按 key 标记删除；节点仍参与图遍历，但不会出现在结果中
+     */
+    public synchronized boolean remove(long key) {
+        Integer node = keyToNode.remove(key);
+        if (node == null)
+            return false;
+        deleted[node] = true;
+        liveCount--;
+        return true;
+    }
+
+    /**
+     * top-k 余弦查询，结果按相似度降序
+     */
+    public synchronized List<Result> search(float[] query, int k) {
+        List<Result> out = new ArrayList<>();
+        if (query == null || query.length != dim || entryPoint == -1 || k <= 0)
+            return out;
+        int ep = entryPoint;
+        for (int l = maxLevel; l > 0; l--)
+            ep = greedyClosest(query, 0, ep, l);
+        long[] found = searchLayer(query, 0, ep, Math.max(efSearch, k), 0);
+        for (long packed : found) {
+            int node = nodeOf(packed);
+            if (deleted[node])
+                continue;
+            out.add(new Result(keys[node], studentIds[node], scoreOf(packed)));
+            if (out.size() >= k)
+                break;
+        }
+        return out;
+    }
+
+    // ===== 图构建与搜索 =====
+
+    private int maxM(int level) {
+        return level == 0 ? maxM0 : m;
+    }
+
+    private int randomLevel() {
+        double r = random.nextDouble();
+        return (int) (-Math.log(Math.max(r, 1e-12)) * levelMult);
+    }
+
+    private float dot(float[] q, int qOff, int node) {
+        return SimilarityKernel.dot(q, qOff, vectors, node * dim, dim);
+    }
+
+    private int greedyClosest(float[] q, int qOff, int ep, int level) {
+        int cur = ep;
+        float best = dot(q, qOff, cur);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[] nb = links[cur][level];
+            for (int i = 1; i <= nb[0]; i++) {
+                float s = dot(q, qOff, nb[i]);
+                if (s > best) {
+                    best = s;
+                    cur = nb[i];
+                    changed = true;
+                }
+            }
+        }
+        return cur;
+    }
+
+    /**
+     * 单层 beam search，返回按相似度降序的打包结果（高 32 位为可排序的分数，低 32 位为节点号）
+     */
+    private long[] searchLayer(float[] q, int qOff, int ep, int ef, int level) {
+        int epoch = nextEpoch();
+        LongHeap candidates = new LongHeap(ef * 2); // 存 ~packed，堆顶为最相似
+        LongHeap results = new LongHeap(ef + 1); // 存 packed，堆顶为最不相似
+
+        long start = pack(dot(q, qOff, ep), ep);
+        visited[ep] = epoch;
+        candidates.push(~start);
+        results.push(start);
+
+        while (candidates.size() > 0) {
+            long c = ~candidates.pop();
+            if (results.size() >= ef && scoreOf(c) < scoreOf(results.peek()))
+                break;
+            int[] nb = links[nodeOf(c)][level];
+            for (int i = 1; i <= nb[0]; i++) {
+                int n = nb[i];
+                if (visited[n] == epoch)
+                    continue;
+                visited[n] = epoch;
+                float s = dot(q, qOff, n);
+                if (results.size() < ef || s > scoreOf(results.peek())) {
+                    long p = pack(s, n);
+                    candidates.push(~p);
+                    results.push(p);
+                    if (results.size() > ef)
+                        results.pop();
+                }
+            }
+        }
+
+        long[] sorted = new long[results.size()];
+        for (int i = sorted.length - 1; i >= 0; i--)
+            sorted[i] = results.pop();
+        return sorted;
+    }
+
+    /**
+     * 启发式选邻：候选只有在比所有已选邻居更接近目标时才入选，保证邻居方向多样；不足时用剩余候选补齐
+     */
+    private int[] selectNeighbors(int baseOff, long[] candidatesDesc, int limit) {
+        int[] selected = new int[Math.min(limit, candidatesDesc.length)];
+        int count = 0;
+        boolean[] taken = new boolean[candidatesDesc.length];
+        for (int i = 0; i < candidatesDesc.length && count < selected.length; i++) {
+            int c = nodeOf(candidatesDesc[i]);
+            float toBase = scoreOf(candidatesDesc[i]);
+            boolean good = true;
+            for (int j = 0; j < count; j++) {
+                if (SimilarityKernel.dot(vectors, c * dim, vectors, selected[j] * dim, dim) > toBase) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) {
+                selected[count++] = c;
+                taken[i] = true;
+            }
+        }
+        for (int i = 0; i < candidatesDesc.length && count < selected.length; i++) {
+            if (!taken[i])
+                selected[count++] = nodeOf(candidatesDesc[i]);
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    private void connect(int from, int to, int level) {
+        int[] nb = links[from][level];
+        int limit = maxM(level);
+        if (nb[0] < limit) {
+            nb[++nb[0]] = to;
+            return;
+        }
+        // 邻居已满：在旧邻居与新节点中重新选邻
+        long[] cand = new long[nb[0] + 1];
+        int base = from * dim;
+        for (int i = 1; i <= nb[0]; i++)
+            cand[i - 1] = pack(SimilarityKernel.dot(vectors, base, vectors, nb[i] * dim, dim), nb[i]);
+        cand[nb[0]] = pack(SimilarityKernel.dot(vectors, base, vectors, to * dim, dim), to);
+        Arrays.sort(cand);
+        reverse(cand);
+        int[] selected = selectNeighbors(base, cand, limit);
+        nb[0] = selected.length;
+        System.arraycopy(selected, 0, nb, 1, selected.length);
+    }
+
+    private int nextEpoch() {
+        if (++visitEpoch == Integer.MAX_VALUE) {
+            Arrays.fill(visited, 0);
+            visitEpoch = 1;
+        }
+        return visitEpoch;
+    }
+
+    private void allocate(int capacity) {
+        vectors = vectors == null ? new float[capacity * dim] : Arrays.copyOf(vectors, capacity * dim);
+        keys = keys == null ? new long[capacity] : Arrays.copyOf(keys, capacity);
+        studentIds = studentIds == null ? new long[capacity] : Arrays.copyOf(studentIds, capacity);
+        deleted = deleted == null ? new boolean[capacity] : Arrays.copyOf(deleted, capacity);
+        links = links == null ? new int[capacity][][] : Arrays.copyOf(links, capacity);
+        visited = visited == null ? new int[capacity] : Arrays.copyOf(visited, capacity);
+    }
+
+    // ===== 分数与节点打包：分数转为保序整数放高位，排序即按分数排序 =====
+
+    private static long pack(float score, int node) {
+        int bits = Float.floatToIntBits(score);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | (node & 0xffffffffL);
+    }
+
+    private static float scoreOf(long packed) {
+        int bits = (int) (packed >> 32);
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return Float.intBitsToFloat(bits);
+    }
+
+    private static int nodeOf(long packed) {
+        return (int) packed;
+    }
+
+    private static void reverse(long[] a) {
+        for (int i = 0, j = a.length - 1; i < j; i++, j--) {
+            long t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+    }
+
+    // ===== 持久化 =====
+
+    /**
+     * 写入文件（先写临时文件再替换，避免中途失败留下损坏索引）
+     */
+    public synchronized void save(File file) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.exists())
+            dir.mkdirs();
+        File tmp = new File(file.getAbsolutePath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(dim);
+            out.writeInt(m);
+            out.writeInt(efConstruction);
+            out.writeInt(efSearch);
+            out.writeInt(size);
+            out.writeInt(entryPoint);
+            out.writeInt(maxLevel);
+            out.writeInt(stamp.length);
+            for (long s : stamp)
+                out.writeLong(s);
+            for (int node = 0; node < size; node++) {
+                out.writeLong(keys[node]);
+                out.writeLong(studentIds[node]);
+                out.writeBoolean(deleted[node]);
+                int base = node * dim;
+                for (int i = 0; i < dim; i++)
+                    out.writeFloat(vectors[base + i]);
+                int[][] nodeLinks = links[node];
+                out.writeInt(nodeLinks.length);
+                for (int[] nb : nodeLinks) {
+                    out.writeInt(nb[0]);
+                    for (int i = 1; i <= nb[0]; i++)
+                        out.writeInt(nb[i]);
+                }
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file))
+                throw new IOException("rename failed: " + tmp + " -> " + file);
+        }
+    }
+
+    /**
+     * 从文件加载；格式不符时抛出 IOException
+     */
+    public static HnswIndex load(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC)
+                throw new IOException("bad magic: " + file);
+            int version = in.readInt();
+            if (version != FORMAT_VERSION)
+                throw new IOException("unsupported index version: " + version);
+            int dim = in.readInt();
+            int m = in.readInt();
+            int efConstruction = in.readInt();
+            HnswIndex index = new HnswIndex(dim, m, efConstruction);
+            index.efSearch = in.readInt();
+            int size = in.readInt();
+            index.entryPoint = in.readInt();
+            index.maxLevel = in.readInt();
+            long[] stamp = new long[in.readInt()];
+            for (int i = 0; i < stamp.length; i++)
+                stamp[i] = in.readLong();
+            index.stamp = stamp;
+            index.allocate(Math.max(INITIAL_CAPACITY, size));
+            for (int node = 0; node < size; node++) {
+                index.keys[node] = in.readLong();
+                index.studentIds[node] = in.readLong();
+                index.deleted[node] = in.readBoolean();
+                int base = node * dim;
+                for (int i = 0; i < dim; i++)
+                    index.vectors[base + i] = in.readFloat();
+                int levels = in.readInt();
+                index.links[node] = new int[levels][];
+                for (int l = 0; l < levels; l++) {
+                    int[] nb = new int[index.maxM(l) + 1];
+                    nb[0] = in.readInt();
+                    for (int i = 1; i <= nb[0]; i++)
+                        nb[i] = in.readInt();
+                    index.links[node][l] = nb;
+                }
+                if (!index.deleted[node]) {
+                    index.keyToNode.put(index.keys[node], node);
+                    index.liveCount++;
+                }
+            }
+            index.size = size;
+            return index;
+        }
+    }
+
+    /**
+     * 查询结果
+     */
+    public static class Result {
+        private final long key;
+        private final long studentId;
+        private final float score;
+
+        public Result(long key, long studentId, float score) {
+            this.key = key;
+            this.studentId = studentId;
+            this.score = score;
+        }
+
+        public long getKey() {
+            return key;
+        }
+
+        public long getStudentId() {
+            return studentId;
+        }
+
+        public float getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * long 最小堆（不装箱）
+     */
+    private static final class LongHeap {
+        private long[] heap;
+        private int n;
+
+        LongHeap(int capacity) {
+            heap = new long[Math.max(4, capacity)];
+        }
+
+        int size() {
+            return n;
+        }
+
+        long peek() {
+            return heap[0];
+        }
+
+        void push(long v) {
+            if (n == heap.length)
+                heap = Arrays.copyOf(heap, n * 2);
+            int i = n++;
+            while (i > 0) {
+                int p = (i - 1) >>> 1;
+                if (heap[p] <= v)
+                    break;
+                heap[i] = heap[p];
+                i = p;
+            }
+            heap[i] = v;
+        }
+
+        long pop() {
+            long top = heap[0];
+            long last = heap[--n];
+            int i = 0;
+            int half = n >>> 1;
+            while (i < half) {
+                int c = 2 * i + 1;
+                if (c + 1 < n && heap[c + 1] < heap[c])
+                    c++;
+                if (last <= heap[c])
+                    break;
+                heap[i] = heap[c];
+                i = c;
+            }
+            heap[i] = last;
+            return top;
+        }
+    }
+}
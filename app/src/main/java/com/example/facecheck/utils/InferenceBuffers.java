@@ -0,0 +1,168 @@
+package com.example.facecheck.utils;
+
+import org.tensorflow.lite.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 特征提取模型的可复用输入/输出缓冲
+ * - 输入：batch 张人脸的 direct ByteBuffer。模型的实数输入由 rawPixelInput 指定（模型资产已知的预处理）：
+ *   false 为 (v - 127.5) / 128，true 为像素值 0..255；FLOAT32 直接写实数，UINT8/INT8 按输入张量的量化参数
+ *   由实数量化，无量化参数时 UINT8 原样、INT8 减 128
+ * - 输出：batch × outputDim 的 direct ByteBuffer（FLOAT32，或按输出张量量化参数反量化的 UINT8/INT8）
+ * - 推理参数 inputs/outputs 也预先分配，配合 Interpreter.runForMultipleInputsOutputs 使用
+ * 写入与读回都用绝对下标，稳态下不在 Java 堆上分配任何对象；模型或 batch 改变时整体重建。
+ */
+final class InferenceBuffers {
+
+    final int width;
+    final int height;
+    final int channels;
+    final int outputDim;
+    final int batch;
+    final boolean float32;
+
+    final DataType inputType;
+    final float inputScale;
+    final int inputZeroPoint;
+    final DataType outputType;
+    final float outputScale;
+    final int outputZeroPoint;
+    final int outputIndex;
+    final boolean rawPixelInput;
+
+    final ByteBuffer input;
+    final ByteBuffer output;
+    final Object[] inputs;
+    final Map<Integer, Object> outputs;
+
+    private final FloatBuffer outputFloats;
+    private final int bytesPerFace;
+    private final int bytesPerOutput;
+    // FLOAT32 输入：实数 = 像素值 * floatA + floatB
+    private final float floatA;
+    private final float floatB;
+    // 量化输入：q = 像素值 * quantA + quantB（已折算归一化与量化参数），再截断到类型范围
+    private final float quantA;
+    private final float quantB;
+    private final int quantMin;
+    private final int quantMax;
+
+    InferenceBuffers(int width, int height, int channels, int outputDim, int batch, boolean float32) {
+        this(width, height, channels, outputDim, batch, float32 ? DataType.FLOAT32 : DataType.UINT8, 0f, 0,
+                DataType.FLOAT32, 0f, 0, 0, false);
+    }
+
+    InferenceBuffers(int width, int height, int channels, int outputDim, int batch, DataType inputType,
+            float inputScale, int inputZeroPoint, DataType outputType, float outputScale, int outputZeroPoint,
+            int outputIndex, boolean rawPixelInput) {
+        this.width = width;
+        this.height = height;
+        this.channels = channels;
+        this.outputDim = outputDim;
+        this.batch = batch;
+        this.inputType = inputType;
+        this.float32 = inputType == DataType.FLOAT32;
+        this.inputScale = inputScale;
+        this.inputZeroPoint = inputZeroPoint;
+        this.outputType = outputType;
+        this.outputScale = outputScale;
+        this.outputZeroPoint = outputZeroPoint;
+        this.outputIndex = outputIndex;
+        this.rawPixelInput = rawPixelInput;
+        this.bytesPerFace = width * height * channels * (float32 ? 4 : 1);
+        this.bytesPerOutput = outputType == DataType.FLOAT32 ? 4 : 1;
+        this.input = ByteBuffer.allocateDirect(batch * bytesPerFace).order(ByteOrder.nativeOrder());
+        this.output = ByteBuffer.allocateDirect(batch * outputDim * bytesPerOutput).order(ByteOrder.nativeOrder());
+        this.outputFloats = output.asFloatBuffer();
+        this.inputs = new Object[] { input };
+        this.outputs = new HashMap<>();
+        this.outputs.put(outputIndex, output);
+
+        boolean int8 = inputType == DataType.INT8;
+        this.quantMin = int8 ? -128 : 0;
+        this.quantMax = int8 ? 127 : 255;
+        this.floatA = rawPixelInput ? 1f : 1f / 128f;
+        this.floatB = rawPixelInput ? 0f : -127.5f / 128f;
+        if (float32 || inputScale <= 0f) {
+            // 无量化参数：UINT8 原样写像素，INT8 平移到有符号范围
+            this.quantA = 1f;
+            this.quantB = int8 ? -128f : 0f;
+        } else {
+            // q = 实数 / scale + zeroPoint，实数 = 像素值 * floatA + floatB
+            this.quantA = floatA / inputScale;
+            this.quantB = inputZeroPoint + floatB / inputScale;
+        }
+    }
+
+    /**
+     * 同一张量规格、不同 batch 的缓冲
+     */
+    InferenceBuffers withBatch(int batch) {
+        return new InferenceBuffers(width, height, channels, outputDim, batch, inputType, inputScale,
+                inputZeroPoint, outputType, outputScale, outputZeroPoint, outputIndex, rawPixelInput);
+    }
+
+    boolean isQuantized() {
+        return !float32 || outputType != DataType.FLOAT32;
+    }
+
+    /**
+     * 写入第 slot 个人脸的第 pixel 个像素（r/g/b 取值 0..255，可为插值后的小数）
+     */
+    void writeRgb(int slot, int pixel, float r, float g, float b) {
+        if (float32) {
+            int pos = slot * bytesPerFace + pixel * 12;
+            input.putFloat(pos, r * floatA + floatB);
+            input.putFloat(pos + 4, g * floatA + floatB);
+            input.putFloat(pos + 8, b * floatA + floatB);
+        } else {
+            int pos = slot * bytesPerFace + pixel * 3;
+            input.put(pos, quantize(r));
+            input.put(pos + 1, quantize(g));
+            input.put(pos + 2, quantize(b));
+        }
+    }
+
+    private byte quantize(float v) {
+        int q = (int) Math.floor(v * quantA + quantB + 0.5f);
+        if (q < quantMin)
+            q = quantMin;
+        else if (q > quantMax)
+            q = quantMax;
+        return (byte) q;
+    }
+
+    /**
+     * 推理前复位缓冲位置（Interpreter 对非 direct 路径按 position 读写）
+     */
+    void rewind() {
+        input.rewind();
+        output.rewind();
+    }
+
+    /**
+     * 读回第 slot 个人脸的输出向量到 dst[dstOff, dstOff+outputDim)；量化输出按 scale * (q - zeroPoint) 反量化
+     */
+    void readEmbedding(int slot, float[] dst, int dstOff) {
+        int base = slot * outputDim;
+        if (outputType == DataType.FLOAT32) {
+            for (int i = 0; i < outputDim; i++) {
+                dst[dstOff + i] = outputFloats.get(base + i);
+            }
+            return;
+        }
+        // 无量化参数时按 scale=1 处理，归一化后不影响余弦
+        float scale = outputScale > 0f ? outputScale : 1f;
+        boolean unsigned = outputType == DataType.UINT8;
+        for (int i = 0; i < outputDim; i++) {
+            byte raw = output.get(base + i);
+            int q = unsigned ? (raw & 0xFF) : raw;
+            dst[dstOff + i] = scale * (q - outputZeroPoint);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.facecheck.utils;
+
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * 单个模型的 Interpreter 运行配置：CPU 线程数与是否启用 XNNPACK
+ * 以 "t<线程数>x<0|1>" 的紧凑字符串持久化（如 "t4x1"）
+ */
+public final class InferenceConfig {
+
+    private final int numThreads;
+    private final boolean useXnnpack;
+
+    public InferenceConfig(int numThreads, boolean useXnnpack) {
+        this.numThreads = Math.max(1, numThreads);
+        this.useXnnpack = useXnnpack;
+    }
+
+    /**
+     * 未调优时的默认值：最多 4 线程并启用 XNNPACK
+     */
+    public static InferenceConfig defaultFor(int cpuCores) {
+        return new InferenceConfig(Math.min(4, Math.max(1, cpuCores)), true);
+    }
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public boolean isUseXnnpack() {
+        return useXnnpack;
+    }
+
+    public Interpreter.Options toOptions() {
+        Interpreter.Options options = new Interpreter.Options();
+        options.setNumThreads(numThreads);
+        options.setUseXNNPACK(useXnnpack);
+        return options;
+    }
+
+    public String encode() {
+        return "t" + numThreads + "x" + (useXnnpack ? 1 : 0);
+    }
+
+    /**
+     * 解析 encode() 的结果；格式不符时返回 null
+     */
+    public static InferenceConfig decode(String value) {
+        if (value == null)
+            return null;
+        int x = value.indexOf('x');
+        if (!value.startsWith("t") || x < 2 || x != value.length() - 2)
+            return null;
+        try {
+            int threads = Integer.parseInt(value.substring(1, x));
+            char flag = value.charAt(x + 1);
+            if (threads < 1 || (flag != '0' && flag != '1'))
+                return null;
+            return new InferenceConfig(threads, flag == '1');
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof InferenceConfig))
+            return false;
+        InferenceConfig other = (InferenceConfig) o;
+        return numThreads == other.numThreads && useXnnpack == other.useXnnpack;
+    }
+
+    @Override
+    public int hashCode() {
+        return numThreads * 2 + (useXnnpack ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "threads=" + numThreads + ", xnnpack=" + useXnnpack;
+    }
+}
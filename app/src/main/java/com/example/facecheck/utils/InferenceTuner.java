@@ -0,0 +1,385 @@
+package com.example.facecheck.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 按模型自动选择 Interpreter 运行配置（线程数 × XNNPACK 开关）
+ * - 首次使用某个模型时对每个候选配置做一次微基准：创建会话、预热 WARMUP_RUNS 次、
+ *   计时 TIMED_RUNS 次取中位数，选耗时最短者
+ * - 结果按 模型 + CPU 核数 + 并发会话数 缓存到 SharedPreferences，之后直接复用，不再测量
+ * - 会话池中 concurrency 个会话可能同时推理，单会话线程数上限取 核数 / concurrency，避免线程总数超过核数
+ * - 测量期间把调用线程临时提到普通优先级：首次调用常来自后台优先级的预热线程，在那里测出的耗时
+ *   会偏向错误的线程数，而结果会被长期缓存
+ * - 创建失败或运行出错的候选（如当前平台不支持 XNNPACK）直接跳过；全部失败时用默认配置
+ * 测量只依赖 Probe 接口与 System.nanoTime，不依赖 Android API，可在普通 Linux JVM 上运行。
+ */
+public final class InferenceTuner {
+
+    private static final String TAG = "InferenceTuner";
+    private static final String PREFS_TUNING = "inference_tuning";
+    // v2：key 中加入并发会话数；v1 的结果可能是在后台优先级下测得的，一并作废重测
+    private static final String KEY_VERSION = "v2";
+
+    static final int WARMUP_RUNS = 2;
+    static final int TIMED_RUNS = 5;
+
+    /**
+     * 以某个配置打开的一次测量会话
+     */
+    public interface Trial {
+        void runOnce() throws Exception;
+
+        void close();
+    }
+
+    public interface Probe {
+        Trial open(InferenceConfig config) throws Exception;
+    }
+
+    /**
+     * 测量期间调整调用线程优先级：boost 返回调整前的值，测量结束后交给 restore
+     */
+    public interface ThreadPriority {
+        int boost();
+
+        void restore(int previous);
+    }
+
+    static final ThreadPriority NO_PRIORITY_CHANGE = new ThreadPriority() {
+        @Override
+        public int boost() {
+            return 0;
+        }
+
+        @Override
+        public void restore(int previous) {
+        }
+    };
+
+    /**
+     * 调优结果的持久化存储
+     */
+    public interface Store {
+        String get(String key);
+
+        void put(String key, String value);
+
+        void remove(String key);
+    }
+
+    public static final class Result {
+        private final InferenceConfig config;
+        private final long medianNanos;
+
+        Result(InferenceConfig config, long medianNanos) {
+            this.config = config;
+            this.medianNanos = medianNanos;
+        }
+
+        public InferenceConfig getConfig() {
+            return config;
+        }
+
+        public long getMedianNanos() {
+            return medianNanos;
+        }
+
+        @Override
+        public String toString() {
+            return config + ", median=" + String.format(java.util.Locale.US, "%.2fms", medianNanos / 1e6);
+        }
+    }
+
+    private static volatile InferenceTuner instance;
+
+    private final Store store;
+    private final int cpuCores;
+    private final LongSupplier clock;
+    private final ThreadPriority priority;
+    private final Map<String, List<Result>> lastResults = new HashMap<>();
+
+    InferenceTuner(Store store, int cpuCores, LongSupplier clock) {
+        this(store, cpuCores, clock, NO_PRIORITY_CHANGE);
+    }
+
+    InferenceTuner(Store store, int cpuCores, LongSupplier clock, ThreadPriority priority) {
+        this.store = store;
+        this.cpuCores = Math.max(1, cpuCores);
+        this.clock = clock;
+        this.priority = priority;
+    }
+
+    public static InferenceTuner get(Context context) {
+        if (instance == null) {
+            synchronized (InferenceTuner.class) {
+                if (instance == null) {
+                    instance = new InferenceTuner(preferenceStore(context), Runtime.getRuntime().availableProcessors(),
+                            System::nanoTime, processPriority());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 低于普通优先级（如 THREAD_PRIORITY_BACKGROUND）的线程在测量期间提到 THREAD_PRIORITY_DEFAULT
+     */
+    private static ThreadPriority processPriority() {
+        return new ThreadPriority() {
+            @Override
+            public int boost() {
+                int tid = android.os.Process.myTid();
+                int previous = android.os.Process.getThreadPriority(tid);
+                if (previous > android.os.Process.THREAD_PRIORITY_DEFAULT)
+                    android.os.Process.setThreadPriority(tid, android.os.Process.THREAD_PRIORITY_DEFAULT);
+                return previous;
+            }
+
+            @Override
+            public void restore(int previous) {
+                int tid = android.os.Process.myTid();
+                if (android.os.Process.getThreadPriority(tid) != previous)
+                    android.os.Process.setThreadPriority(tid, previous);
+            }
+        };
+    }
+
+    private static Store preferenceStore(Context context) {
+        final SharedPreferences prefs = context.getApplicationContext().getSharedPreferences(PREFS_TUNING,
+                Context.MODE_PRIVATE);
+        return new Store() {
+            @Override
+            public String get(String key) {
+                return prefs.getString(key, null);
+            }
+
+            @Override
+            public void put(String key, String value) {
+                prefs.edit().putString(key, value).apply();
+            }
+
+            @Override
+            public void remove(String key) {
+                prefs.edit().remove(key).apply();
+            }
+        };
+    }
+
+    /**
+     * 候选配置：线程数取 1、2、4 与核数（不超过核数），每个线程数各测 XNNPACK 开/关
+     */
+    public static List<InferenceConfig> candidates(int cpuCores) {
+        List<Integer> threads = new ArrayList<>();
+        for (int t : new int[] { 1, 2, 4, cpuCores }) {
+            if (t >= 1 && t <= cpuCores && !threads.contains(t))
+                threads.add(t);
+        }
+        Collections.sort(threads);
+        List<InferenceConfig> out = new ArrayList<>();
+        for (int t : threads) {
+            out.add(new InferenceConfig(t, true));
+            out.add(new InferenceConfig(t, false));
+        }
+        return out;
+    }
+
+    /**
+     * concurrency 个会话同时推理时的候选：单会话线程数不超过 核数 / concurrency
+     */
+    public static List<InferenceConfig> candidates(int cpuCores, int concurrency) {
+        return candidates(threadBudget(cpuCores, concurrency));
+    }
+
+    static int threadBudget(int cpuCores, int concurrency) {
+        return Math.max(1, Math.max(1, cpuCores) / Math.max(1, concurrency));
+    }
+
+    public int getCpuCores() {
+        return cpuCores;
+    }
+
+    /**
+     * 已缓存（或手动固定）的配置；未调优时返回 null
+     */
+    public InferenceConfig cached(String modelKey) {
+        return cached(modelKey, 1);
+    }
+
+    public InferenceConfig cached(String modelKey, int concurrency) {
+        return InferenceConfig.decode(store.get(storeKey(modelKey, concurrency)));
+    }
+
+    /**
+     * 返回该模型（单会话）的配置：有缓存直接用，否则现场测量一次并缓存
+     */
+    public InferenceConfig resolve(String modelKey, Probe probe) {
+        return resolve(modelKey, probe, 1);
+    }
+
+    /**
+     * 返回 concurrency 个会话同时推理时该模型的配置：有缓存直接用，否则现场测量一次并缓存
+     */
+    public synchronized InferenceConfig resolve(String modelKey, Probe probe, int concurrency) {
+        InferenceConfig config = cached(modelKey, concurrency);
+        if (config != null)
+            return config;
+        List<Result> results = tune(modelKey, probe, concurrency);
+        return results.isEmpty() ? InferenceConfig.defaultFor(threadBudget(cpuCores, concurrency))
+                : results.get(0).getConfig();
+    }
+
+    public List<Result> tune(String modelKey, Probe probe) {
+        return tune(modelKey, probe, 1);
+    }
+
+    /**
+     * 强制测量所有候选并缓存最快者；返回按耗时升序的结果（全部失败时为空列表，并缓存默认配置）
+     * 测量期间调用线程临时提到普通优先级，结束后恢复
+     */
+    public synchronized List<Result> tune(String modelKey, Probe probe, int concurrency) {
+        List<Result> results = new ArrayList<>();
+        int previousPriority = priority.boost();
+        try {
+            for (InferenceConfig config : candidates(cpuCores, concurrency)) {
+                Result r = measure(probe, config);
+                if (r != null)
+                    results.add(r);
+            }
+        } finally {
+            priority.restore(previousPriority);
+        }
+        Collections.sort(results, (a, b) -> Long.compare(a.medianNanos, b.medianNanos));
+        lastResults.put(modelKey, results);
+        String key = storeKey(modelKey, concurrency);
+        if (results.isEmpty()) {
+            // 全部失败（如输入维度为动态的模型在探测时无法分配张量）同样缓存默认配置，
+            // 否则之后每次加载都会把所有失败候选重跑一遍；需要重测时调用 clear
+            InferenceConfig fallback = InferenceConfig.defaultFor(threadBudget(cpuCores, concurrency));
+            store.put(key, fallback.encode());
+            Log.w(TAG, "all candidates failed for " + modelKey + ", caching default " + fallback);
+            return results;
+        }
+        InferenceConfig best = results.get(0).getConfig();
+        store.put(key, best.encode());
+        Log.i(TAG, "tuned " + modelKey + " -> " + best + " (" + results.size() + " candidates)");
+        return results;
+    }
+
+    /**
+     * 手动固定某模型的配置（覆盖自动调优结果）
+     */
+    public void pin(String modelKey, InferenceConfig config) {
+        pin(modelKey, 1, config);
+    }
+
+    public void pin(String modelKey, int concurrency, InferenceConfig config) {
+        store.put(storeKey(modelKey, concurrency), config.encode());
+    }
+
+    /**
+     * 清除缓存，下次 resolve 时重新测量
+     */
+    public void clear(String modelKey) {
+        clear(modelKey, 1);
+    }
+
+    public void clear(String modelKey, int concurrency) {
+        store.remove(storeKey(modelKey, concurrency));
+    }
+
+    /**
+     * 本进程内最近一次 tune 的测量结果（未测量过时为空列表）
+     */
+    public synchronized List<Result> getLastResults(String modelKey) {
+        List<Result> r = lastResults.get(modelKey);
+        return r == null ? new ArrayList<>() : new ArrayList<>(r);
+    }
+
+    private Result measure(Probe probe, InferenceConfig config) {
+        Trial trial;
+        try {
+            trial = probe.open(config);
+        } catch (Throwable t) {
+            Log.w(TAG, "open failed for " + config + ": " + t.getMessage());
+            return null;
+        }
+        try {
+            for (int i = 0; i < WARMUP_RUNS; i++)
+                trial.runOnce();
+            long[] samples = new long[TIMED_RUNS];
+            for (int i = 0; i < TIMED_RUNS; i++) {
+                long t0 = clock.getAsLong();
+                trial.runOnce();
+                samples[i] = clock.getAsLong() - t0;
+            }
+            Arrays.sort(samples);
+            return new Result(config, samples[TIMED_RUNS / 2]);
+        } catch (Throwable t) {
+            Log.w(TAG, "run failed for " + config + ": " + t.getMessage());
+            return null;
+        } finally {
+            trial.close();
+        }
+    }
+
+    /**
+     * 由资产路径得到模型键，如 "models/new/mobilefacenet_float32.tflite" -> "mobilefacenet_float32"
+     */
+    public static String modelKey(String assetPath) {
+        String name = assetPath.substring(assetPath.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    private String storeKey(String modelKey, int concurrency) {
+        return KEY_VERSION + "|" + modelKey + "|cpu" + cpuCores + "|x" + Math.max(1, concurrency);
+    }
+
+    /**
+     * 针对 TFLite 模型的探针：按配置创建 Interpreter，以全零输入跑一次完整推理
+     */
+    public static Probe interpreterProbe(final ByteBuffer model) {
+        return config -> {
+            final Interpreter interpreter = new Interpreter(model, config.toOptions());
+            final Object[] inputs = new Object[interpreter.getInputTensorCount()];
+            for (int i = 0; i < inputs.length; i++) {
+                inputs[i] = ByteBuffer.allocateDirect(interpreter.getInputTensor(i).numBytes())
+                        .order(ByteOrder.nativeOrder());
+            }
+            final Map<Integer, Object> outputs = new HashMap<>();
+            for (int i = 0; i < interpreter.getOutputTensorCount(); i++) {
+                outputs.put(i, ByteBuffer.allocateDirect(interpreter.getOutputTensor(i).numBytes())
+                        .order(ByteOrder.nativeOrder()));
+            }
+            return new Trial() {
+                @Override
+                public void runOnce() {
+                    for (Object in : inputs)
+                        ((ByteBuffer) in).rewind();
+                    for (Object out : outputs.values())
+                        ((ByteBuffer) out).rewind();
+                    interpreter.runForMultipleInputsOutputs(inputs, outputs);
+                }
+
+                @Override
+                public void close() {
+                    interpreter.close();
+                }
+            };
+        };
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.facecheck.utils;
+
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * 有界推理会话池（TFLite Interpreter 非线程安全，每个线程需独占一个实例）
+ * - acquire：有空闲会话直接取出；未达上限时新建；否则阻塞等待归还
+ * - release：归还会话，唤醒等待者；池已关闭或缩容后超出上限时直接关闭该会话
+ * 会话按需创建，同一模型的多个 Interpreter 共享同一块只读映射的模型内存。
+ */
+public final class InterpreterPool<T> {
+
+    private static final String TAG = "InterpreterPool";
+
+    public interface Factory<T> {
+        T create() throws Exception;
+    }
+
+    public interface Closer<T> {
+        void close(T session);
+    }
+
+    private final Factory<T> factory;
+    private final Closer<T> closer;
+    private final ArrayDeque<T> idle = new ArrayDeque<>();
+    private int maxSize;
+    private int created;
+    private boolean closed;
+
+    public InterpreterPool(int maxSize, Factory<T> factory, Closer<T> closer) {
+        this.maxSize = Math.max(1, maxSize);
+        this.factory = factory;
+        this.closer = closer;
+    }
+
+    /**
+     * 借出一个会话，必要时阻塞等待；创建失败时抛出原异常
+     */
+    public T acquire() throws Exception {
+        return acquire(0);
+    }
+
+    /**
+     * 借出一个会话，最多等待 timeoutMs 毫秒（0 表示一直等待），超时返回 null
+     */
+    public T acquire(long timeoutMs) throws Exception {
+        long deadline = timeoutMs > 0 ? System.currentTimeMillis() + timeoutMs : 0;
+        synchronized (this) {
+            while (true) {
+                if (closed)
+                    throw new IllegalStateException("pool closed");
+                T session = idle.pollFirst();
+                if (session != null)
+                    return session;
+                if (created < maxSize) {
+                    created++;
+                    break;
+                }
+                if (deadline == 0) {
+                    wait();
+                } else {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0)
+                        return null;
+                    wait(remaining);
+                }
+            }
+        }
+        // 在锁外创建：Interpreter 初始化较慢，不阻塞其他线程归还/借出
+        try {
+            return factory.create();
+        } catch (Exception | Error e) {
+            synchronized (this) {
+                created--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * 归还 acquire 借出的会话
+     */
+    public void release(T session) {
+        if (session == null)
+            return;
+        boolean discard;
+        synchronized (this) {
+            discard = closed || created > maxSize;
+            if (discard) {
+                created--;
+            } else {
+                idle.addFirst(session);
+            }
+            notifyAll();
+        }
+        if (discard)
+            closeQuietly(session);
+    }
+
+    /**
+     * 丢弃一个已损坏的会话（不再放回池中），腾出名额供后续新建
+     */
+    public void invalidate(T session) {
+        if (session == null)
+            return;
+        synchronized (this) {
+            created--;
+            notifyAll();
+        }
+        closeQuietly(session);
+    }
+
+    /**
+     * 调整上限；缩容时立即关闭多余的空闲会话，借出中的会话在归还时关闭
+     */
+    public void setMaxSize(int maxSize) {
+        java.util.List<T> toClose = new java.util.ArrayList<>();
+        synchronized (this) {
+            this.maxSize = Math.max(1, maxSize);
+            while (created > this.maxSize && !idle.isEmpty()) {
+                toClose.add(idle.pollLast());
+                created--;
+            }
+            notifyAll();
+        }
+        for (T session : toClose)
+            closeQuietly(session);
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * 当前已创建（含借出中）的会话数
+     */
+    public synchronized int createdCount() {
+        return created;
+    }
+
+    public synchronized int idleCount() {
+        return idle.size();
+    }
+
+    /**
+     * 关闭池：立即关闭空闲会话，借出中的会话在归还时关闭；等待中的 acquire 抛出异常
+     */
+    public void close() {
+        java.util.List<T> toClose;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            toClose = new java.util.ArrayList<>(idle);
+            created -= idle.size();
+            idle.clear();
+            notifyAll();
+        }
+        for (T session : toClose)
+            closeQuietly(session);
+    }
+
+    public synchronized boolean isClosed() {
+        return closed;
+    }
+
+    private void closeQuietly(T session) {
+        try {
+            closer.close(session);
+        } catch (Throwable t) {
+            Log.w(TAG, "close session failed: " + t.getMessage());
+        }
+    }
+}
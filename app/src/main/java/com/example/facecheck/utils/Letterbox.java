@@ -0,0 +1,144 @@
+package com.example.facecheck.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 检测模型共用的等比缩放 + 补边（letterbox）预处理
+ * - fit：按 min(宽比, 高比) 等比缩放，居中放入 width×height，其余补黑；记录缩放系数与偏移
+ * - writeRgb / write：源图绘制到复用的画布位图后，逐像素按 (通道值 - 均值) * multiplier 直接写入模型输入缓冲
+ *   （RGB 或 BGR 通道顺序，绝对下标，不分配）
+ * - toSourceX / toSourceY：把模型输入坐标系下解码出的坐标精确映射回原图
+ * 4:3、16:9 照片不再被拉伸成正方形，框不再变形。非线程安全，由检测器在同步块内使用。
+ */
+final class Letterbox {
+
+    final int width;
+    final int height;
+
+    private int srcWidth;
+    private int srcHeight;
+    private float scale = 1f;
+    private int offsetX;
+    private int offsetY;
+
+    // 画布位图、变换与像素暂存在首次写入时创建，之后复用
+    private Bitmap canvasBitmap;
+    private Canvas canvas;
+    private Matrix matrix;
+    private Paint paint;
+    private int[] pixels;
+
+    Letterbox(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 按源图尺寸计算等比缩放系数与居中偏移（偏移取整，避免补边处出现半像素过渡）
+     */
+    void fit(int srcWidth, int srcHeight) {
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        scale = Math.min((float) width / srcWidth, (float) height / srcHeight);
+        offsetX = (int) ((width - srcWidth * scale) / 2f);
+        offsetY = (int) ((height - srcHeight * scale) / 2f);
+    }
+
+    float scale() {
+        return scale;
+    }
+
+    int offsetX() {
+        return offsetX;
+    }
+
+    int offsetY() {
+        return offsetY;
+    }
+
+    int sourceWidth() {
+        return srcWidth;
+    }
+
+    int sourceHeight() {
+        return srcHeight;
+    }
+
+    float toSourceX(float x) {
+        return (x - offsetX) / scale;
+    }
+
+    float toSourceY(float y) {
+        return (y - offsetY) / scale;
+    }
+
+    /**
+     * 模型输入坐标系下的长度换算到原图
+     */
+    float toSourceLength(float length) {
+        return length / scale;
+    }
+
+    /**
+     * fit 后把源图写入 input（从下标 0 开始，NHWC、RGB、float32，值为通道值 * multiplier，补边为 0）
+     */
+    void writeRgb(Bitmap src, ByteBuffer input, float multiplier) {
+        write(src, input, false, 0f, 0f, 0f, multiplier);
+    }
+
+    /**
+     * fit 后把源图写入 input（从下标 0 开始，NHWC、float32），通道顺序由 bgr 决定，
+     * 值为 (通道值 - 该通道均值) * multiplier；补边按黑色像素处理
+     */
+    void write(Bitmap src, ByteBuffer input, boolean bgr, float meanR, float meanG, float meanB,
+            float multiplier) {
+        fit(src.getWidth(), src.getHeight());
+        if (pixels == null)
+            pixels = new int[width * height];
+        if (src.getWidth() == width && src.getHeight() == height) {
+            src.getPixels(pixels, 0, width, 0, 0, width, height);
+        } else {
+            if (canvasBitmap == null) {
+                canvasBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+                canvas = new Canvas(canvasBitmap);
+                matrix = new Matrix();
+                paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+            }
+            canvas.drawColor(Color.BLACK);
+            matrix.setScale(scale, scale);
+            matrix.postTranslate(offsetX, offsetY);
+            canvas.drawBitmap(src, matrix, paint);
+            canvasBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        }
+        writePixels(pixels, pixels.length, input, bgr, meanR, meanG, meanB, multiplier);
+    }
+
+    /**
+     * 把 ARGB 像素按 (通道值 - 均值) * multiplier 写入 input；bgr 只改变通道写入位置
+     */
+    static void writePixels(int[] pixels, int count, ByteBuffer input, boolean bgr, float meanR, float meanG,
+            float meanB, float multiplier) {
+        int rOff = bgr ? 8 : 0, bOff = bgr ? 0 : 8;
+        for (int i = 0; i < count; i++) {
+            int p = pixels[i];
+            int pos = i * 12;
+            input.putFloat(pos + rOff, (((p >> 16) & 0xFF) - meanR) * multiplier);
+            input.putFloat(pos + 4, (((p >> 8) & 0xFF) - meanG) * multiplier);
+            input.putFloat(pos + bOff, ((p & 0xFF) - meanB) * multiplier);
+        }
+    }
+
+    void recycle() {
+        if (canvasBitmap != null) {
+            canvasBitmap.recycle();
+            canvasBitmap = null;
+            canvas = null;
+        }
+    }
+}
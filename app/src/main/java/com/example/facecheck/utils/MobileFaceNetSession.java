@@ -0,0 +1,237 @@
+package com.example.facecheck.utils;
+
+import android.util.Log;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.util.List;
+
+/**
+ * 一个 MobileFaceNet Interpreter 及其专属的推理状态（输入 batch 维、复用缓冲、源像素暂存）
+ * 由 InterpreterPool 管理，同一时刻只被一个线程持有，内部不做同步。
+ */
+final class MobileFaceNetSession {
+
+    private static final String TAG = "MobileFaceNetSession";
+    // 批量推理每个 chunk 的最大人脸数
+    static final int MAX_INFERENCE_BATCH = 16;
+    // 源像素暂存的常驻上限（像素数）；更大的裁剪区域（如整张头像）临时分配，不长期占用内存
+    private static final int REGION_RETAIN_PIXELS = 512 * 512;
+
+    final Interpreter interpreter;
+    final int inputWidth;
+    final int inputHeight;
+    final int inputChannels;
+    final int outputDim;
+    final DataType inputType;
+    final DataType outputType;
+
+    // 输入张量的当前 batch 维；模型不支持 resize 时只走单张推理
+    private int inputBatch = 1;
+    private boolean batchSupported = true;
+    // 单张缓冲随会话创建，批量缓冲随 chunk 大小重建；裁剪区域的源像素暂存在两者间共用
+    private final InferenceBuffers single;
+    private InferenceBuffers batch;
+    private int[] region = new int[0];
+
+    /**
+     * rawPixelInput：模型资产的实数输入是否为原始像素值 0..255（否则为 (v - 127.5) / 128），
+     * 由调用方按模型资产给出，不从量化参数推断
+     */
+    MobileFaceNetSession(Interpreter interpreter, boolean rawPixelInput) {
+        this.interpreter = interpreter;
+
+        // 动态解析输入（考虑多输入场景，选择 4D 输入作为图像入口）；找不到时回退默认 MobileFaceNet 尺寸
+        int w = 112, h = 112, c = 3;
+        int inCount = interpreter.getInputTensorCount();
+        for (int i = 0; i < inCount; i++) {
+            int[] shape = interpreter.getInputTensor(i).shape();
+            if (shape != null && shape.length >= 4) {
+                h = shape[1];
+                w = shape[2];
+                c = shape[3];
+                break;
+            }
+        }
+        this.inputWidth = w;
+        this.inputHeight = h;
+        this.inputChannels = c;
+
+        // 动态解析输出维度（选择首个二维 FLOAT32/UINT8/INT8 输出作为嵌入向量，量化输出读回时反量化）
+        int outDim = -1;
+        int outIndex = 0;
+        Tensor outTensor = null;
+        int outCount = interpreter.getOutputTensorCount();
+        for (int i = 0; i < outCount; i++) {
+            Tensor o = interpreter.getOutputTensor(i);
+            int[] os = o.shape();
+            if (isSupportedType(o.dataType()) && os != null && os.length >= 2) {
+                outDim = os[os.length - 1];
+                outIndex = i;
+                outTensor = o;
+                break;
+            }
+        }
+        this.outputDim = (outDim > 0) ? outDim : 128;
+        this.outputType = outTensor != null ? outTensor.dataType() : DataType.FLOAT32;
+
+        // 输入/输出缓冲只在会话创建时按张量规格（含量化参数）分配一次，之后每次推理复用
+        Tensor in = interpreter.getInputTensor(0);
+        this.inputType = in.dataType();
+        if (isSupportedType(inputType)) {
+            Tensor.QuantizationParams inQ = in.quantizationParams();
+            Tensor.QuantizationParams outQ = outTensor != null ? outTensor.quantizationParams() : null;
+            this.single = new InferenceBuffers(inputWidth, inputHeight, inputChannels, outputDim, 1, inputType,
+                    inQ != null ? inQ.getScale() : 0f, inQ != null ? inQ.getZeroPoint() : 0, outputType,
+                    outQ != null ? outQ.getScale() : 0f, outQ != null ? outQ.getZeroPoint() : 0, outIndex,
+                    rawPixelInput);
+        } else {
+            Log.e(TAG, "Unsupported input data type: " + inputType);
+            this.single = null;
+        }
+    }
+
+    private static boolean isSupportedType(DataType type) {
+        return type == DataType.FLOAT32 || type == DataType.UINT8 || type == DataType.INT8;
+    }
+
+    boolean isUsable() {
+        return single != null;
+    }
+
+    /**
+     * 输入或输出为 UINT8/INT8 的量化模型
+     */
+    boolean isQuantized() {
+        return single != null && single.isQuantized();
+    }
+
+    /**
+     * 张量规格摘要（类型与量化参数），用于日志与报告
+     */
+    String describe() {
+        if (single == null)
+            return "unusable(" + inputType + ")";
+        return String.format(java.util.Locale.US, "in=%s(scale=%.6f,zp=%d), out=%s(scale=%.6f,zp=%d)",
+                single.inputType, single.inputScale, single.inputZeroPoint, single.outputType,
+                single.outputScale, single.outputZeroPoint);
+    }
+
+    void close() {
+        interpreter.close();
+    }
+
+    /**
+     * 单张推理，未归一化的特征写入 dst[0, outputDim)
+     * 源像素暂存与输入/输出缓冲均复用，采样与读回这一段稳态下不分配；Interpreter 自身以及外层
+     * extractFaceFeatures（会话租约、FaceWarp、缓存 key、返回向量）的分配不在此列
+     */
+    boolean runInto(FaceWarp input, float[] dst) {
+        if (single == null)
+            return false;
+        // 批量推理后输入张量可能仍是 [N,h,w,c]，单张推理前恢复为 batch=1
+        if (!resizeInputBatch(1))
+            return false;
+        warpInto(input, single, 0);
+        single.rewind();
+        try {
+            interpreter.runForMultipleInputsOutputs(single.inputs, single.outputs);
+        } catch (Throwable t) {
+            Log.e(TAG, "MobileFaceNet inference failed: " + t.getMessage(), t);
+            return false;
+        }
+        single.readEmbedding(0, dst, 0);
+        return true;
+    }
+
+    /**
+     * 批量推理 inputs 中下标为 indices[from, to) 的人脸，结果（未归一化）写入 features 对应位置
+     * 输入张量 resize 为 [chunk,h,w,c]，每个 chunk 填充一次、推理一次，读回 [chunk,D] 输出。
+     * chunk 固定为 min(人脸数, MAX_INFERENCE_BATCH)，末尾不足一个 chunk 时剩余行保留上一轮数据，
+     * 对应输出直接忽略，避免为尾块再次 resize。模型不支持 resize 或批量推理失败时回退为逐张推理。
+     */
+    void runBatch(List<FaceWarp> inputs, int[] indices, int from, int to, float[][] features) {
+        if (single == null)
+            return;
+        int done = from;
+        int chunk = Math.min(to - from, MAX_INFERENCE_BATCH);
+        if (chunk > 1 && batchSupported) {
+            if (resizeInputBatch(chunk)) {
+                try {
+                    InferenceBuffers buffers = batch;
+                    if (buffers == null || buffers.batch != chunk) {
+                        buffers = single.withBatch(chunk);
+                        batch = buffers;
+                    }
+                    long t0 = System.nanoTime();
+                    while (done < to) {
+                        int n = Math.min(chunk, to - done);
+                        for (int j = 0; j < n; j++) {
+                            warpInto(inputs.get(indices[done + j]), buffers, j);
+                        }
+                        buffers.rewind();
+                        interpreter.runForMultipleInputsOutputs(buffers.inputs, buffers.outputs);
+                        for (int j = 0; j < n; j++) {
+                            float[] f = new float[outputDim];
+                            buffers.readEmbedding(j, f, 0);
+                            features[indices[done + j]] = f;
+                        }
+                        done += n;
+                    }
+                    Log.d(TAG, String.format("MFN batch inference: faces=%d, chunk=%d, cost=%.1fms",
+                            to - from, chunk, (System.nanoTime() - t0) / 1e6));
+                } catch (Throwable t) {
+                    Log.w(TAG, "批量推理失败，回退逐张推理: " + t.getMessage(), t);
+                    batchSupported = false;
+                }
+            } else {
+                batchSupported = false;
+            }
+        }
+        for (int k = done; k < to; k++) {
+            int idx = indices[k];
+            float[] f = new float[outputDim];
+            if (runInto(inputs.get(idx), f))
+                features[idx] = f;
+        }
+    }
+
+    /**
+     * 将输入张量的 batch 维调整为 batch 并重新分配张量；已是该尺寸时直接返回
+     */
+    private boolean resizeInputBatch(int batch) {
+        if (inputBatch == batch)
+            return true;
+        try {
+            interpreter.resizeInput(0, new int[] { batch, inputHeight, inputWidth, inputChannels });
+            interpreter.allocateTensors();
+            inputBatch = batch;
+            return true;
+        } catch (Throwable t) {
+            Log.w(TAG, "resizeInput batch=" + batch + " failed: " + t.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 读取裁剪区域的源像素，经一次仿射采样写入 buffers 的第 slot 个位置
+     */
+    private void warpInto(FaceWarp warp, InferenceBuffers buffers, int slot) {
+        int w = warp.clipWidth();
+        int h = warp.clipHeight();
+        int[] pixels = regionScratch(w * h);
+        warp.source.getPixels(pixels, 0, w, warp.clipLeft, warp.clipTop, w, h);
+        warp.writeTo(pixels, buffers, slot);
+    }
+
+    private int[] regionScratch(int size) {
+        if (region.length >= size)
+            return region;
+        if (size > REGION_RETAIN_PIXELS)
+            return new int[size];
+        region = new int[size];
+        return region;
+    }
+}
@@ -0,0 +1,201 @@
+package com.example.facecheck.utils;
+
+import android.content.ComponentCallbacks2;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 进程内模型注册表：每个模型/变体只保留一个实例，以租约（Lease）方式借给各界面使用
+ * - acquire：已加载直接增加引用计数；未加载时由调用方提供的 Loader 加载（同一 key 并发加载只执行一次）
+ * - Lease.close：归还引用；引用归零后实例继续缓存，供下一个界面直接复用
+ * - trimMemory：内存紧张时驱逐全部实例——空闲的立即关闭，使用中的在最后一个租约归还时关闭，
+ *   之后再 acquire 会重新加载
+ */
+public final class ModelRegistry {
+
+    private static final String TAG = "ModelRegistry";
+
+    public interface Loader<T> {
+        T load() throws Exception;
+    }
+
+    public interface Closer<T> {
+        void close(T model);
+    }
+
+    private static final class Entry<T> {
+        final String key;
+        final Closer<T> closer;
+        T value;
+        int refs;
+        // 已从注册表移除，最后一个租约归还时关闭
+        boolean evicted;
+
+        Entry(String key, Closer<T> closer) {
+            this.key = key;
+            this.closer = closer;
+        }
+    }
+
+    /**
+     * 一次借用；close 可重复调用，只归还一次
+     */
+    public static final class Lease<T> implements AutoCloseable {
+        private final ModelRegistry registry;
+        private final Entry<T> entry;
+        private boolean released;
+
+        Lease(ModelRegistry registry, Entry<T> entry) {
+            this.registry = registry;
+            this.entry = entry;
+        }
+
+        public T get() {
+            return entry.value;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (released)
+                    return;
+                released = true;
+            }
+            registry.release(entry);
+        }
+    }
+
+    private static ModelRegistry instance;
+
+    private final Map<String, Entry<?>> entries = new HashMap<>();
+
+    ModelRegistry() {
+    }
+
+    public static synchronized ModelRegistry get() {
+        if (instance == null)
+            instance = new ModelRegistry();
+        return instance;
+    }
+
+    /**
+     * 借用 key 对应的模型；未加载时调用 loader 加载。加载失败（抛异常或返回 null）时返回 null，且不缓存
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Lease<T> acquire(String key, Loader<T> loader, Closer<T> closer) {
+        Entry<T> entry;
+        synchronized (this) {
+            entry = (Entry<T>) entries.get(key);
+            if (entry == null) {
+                entry = new Entry<>(key, closer);
+                entries.put(key, entry);
+            }
+            entry.refs++;
+        }
+        // 在条目锁内加载：同一模型并发请求只加载一次，不阻塞其他模型的借还
+        synchronized (entry) {
+            if (entry.value == null) {
+                try {
+                    long t0 = System.nanoTime();
+                    entry.value = loader.load();
+                    if (entry.value != null) {
+                        Log.i(TAG, String.format("loaded %s, cost=%.1fms", key, (System.nanoTime() - t0) / 1e6));
+                    }
+                } catch (Throwable t) {
+                    Log.e(TAG, "load " + key + " failed: " + t.getMessage(), t);
+                }
+                if (entry.value == null) {
+                    synchronized (this) {
+                        entry.refs--;
+                        if (entry.refs == 0 && entries.get(key) == entry)
+                            entries.remove(key);
+                    }
+                    return null;
+                }
+            }
+        }
+        return new Lease<>(this, entry);
+    }
+
+    private <T> void release(Entry<T> entry) {
+        boolean close;
+        synchronized (this) {
+            entry.refs--;
+            close = entry.refs == 0 && entry.evicted;
+        }
+        if (close)
+            closeEntry(entry);
+    }
+
+    /**
+     * 内存回调：运行中内存不足（RUNNING_LOW/CRITICAL）或进程已进入后台 LRU（BACKGROUND 及以上）时驱逐全部模型；
+     * 仅界面隐藏（UI_HIDDEN）或 RUNNING_MODERATE 时保留，回到前台无需重新加载
+     */
+    public void trimMemory(int level) {
+        if (!shouldEvict(level))
+            return;
+        Log.i(TAG, "trimMemory level=" + level + ", evicting " + size() + " model(s)");
+        evictAll();
+    }
+
+    static boolean shouldEvict(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+            return true;
+        return level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW
+                && level <= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL;
+    }
+
+    /**
+     * 驱逐全部模型：空闲的立即关闭，使用中的在最后一个租约归还时关闭
+     */
+    public void evictAll() {
+        List<Entry<?>> toClose = new ArrayList<>();
+        synchronized (this) {
+            for (Entry<?> entry : entries.values()) {
+                entry.evicted = true;
+                if (entry.refs == 0)
+                    toClose.add(entry);
+            }
+            entries.clear();
+        }
+        for (Entry<?> entry : toClose)
+            closeEntry(entry);
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * 当前借出的租约数；未加载返回 0
+     */
+    public synchronized int refCount(String key) {
+        Entry<?> entry = entries.get(key);
+        return entry == null ? 0 : entry.refs;
+    }
+
+    public synchronized boolean isLoaded(String key) {
+        Entry<?> entry = entries.get(key);
+        return entry != null && entry.value != null;
+    }
+
+    private <T> void closeEntry(Entry<T> entry) {
+        T value;
+        synchronized (entry) {
+            value = entry.value;
+            entry.value = null;
+        }
+        if (value == null)
+            return;
+        try {
+            entry.closer.close(value);
+            Log.i(TAG, "closed " + entry.key);
+        } catch (Throwable t) {
+            Log.w(TAG, "close " + entry.key + " failed: " + t.getMessage());
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.facecheck.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 应用启动时的模型后台预热，以及首个识别结果耗时（time-to-first-result）统计
+ * - 预热：低优先级后台线程依次加载 MobileFaceNet、YuNet 与 RetinaFace（ModelRegistry 中的共享实例）并各跑一次
+ *   空白输入推理，把模型映射、Interpreter 创建、张量分配与首轮算子初始化从首次识别中移走；不阻塞主线程。
+ *   与运行时取同一套选择：特征模型按保存的下拉框选项（float32 / INT8），YuNet 在开启分块检测时预热分块检测器，
+ *   RetinaFace 按检测页使用的精度
+ * - 统计：各模型首个真实结果记录一次“调用方等待耗时”与“距进程启动耗时”，以及是否已完成预热，
+ *   可在设置中关闭预热后对比（settings_prefs / model_warmup_enabled）
+ */
+public final class ModelWarmup {
+
+    private static final String TAG = "ModelWarmup";
+
+    public static final String MOBILEFACENET = "mobilefacenet";
+    public static final String YUNET = "yunet";
+    public static final String RETINAFACE = "retinaface";
+
+    private static final String PREFS = "settings_prefs";
+    private static final String KEY_ENABLED = "model_warmup_enabled";
+
+    // 各模型预热耗时（ms），预热失败记为 -1
+    private static final Map<String, Long> warmupMs = new ConcurrentHashMap<>();
+    // 各模型首个真实结果
+    private static final Map<String, FirstResult> firstResults = new ConcurrentHashMap<>();
+    private static boolean scheduled;
+
+    /**
+     * 首个真实结果：waitMs 为调用方从发起到拿到结果的耗时（含其触发的模型加载），
+     * sinceStartMs 为距进程启动的耗时，warmedUp 表示此时该模型是否已预热完成
+     */
+    public static final class FirstResult {
+        private final long waitMs;
+        private final long sinceStartMs;
+        private final boolean warmedUp;
+
+        FirstResult(long waitMs, long sinceStartMs, boolean warmedUp) {
+            this.waitMs = waitMs;
+            this.sinceStartMs = sinceStartMs;
+            this.warmedUp = warmedUp;
+        }
+
+        public long getWaitMs() {
+            return waitMs;
+        }
+
+        public long getSinceStartMs() {
+            return sinceStartMs;
+        }
+
+        public boolean isWarmedUp() {
+            return warmedUp;
+        }
+    }
+
+    private ModelWarmup() {
+    }
+
+    public static boolean isEnabled(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).getBoolean(KEY_ENABLED, true);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(KEY_ENABLED, enabled).apply();
+    }
+
+    /**
+     * 在后台低优先级线程中预热模型；每个进程只调度一次，关闭预热时直接返回
+     */
+    public static synchronized void schedule(Context context) {
+        if (scheduled)
+            return;
+        final Context app = context.getApplicationContext();
+        if (!isEnabled(app)) {
+            Log.i(TAG, "模型预热已关闭");
+            return;
+        }
+        scheduled = true;
+        Thread t = new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            // 构造时按保存的模型选项加载，与各页面新建的 FaceRecognitionManager 一致
+            warm(MOBILEFACENET, () -> new FaceRecognitionManager(app).warmUp());
+            // 与考勤页多人脸检测同一路径：开启分块检测时用分块检测器池（独立于共享 YuNet 实例）
+            warm(YUNET, () -> {
+                if (TiledFaceDetector.isEnabled(app)) {
+                    try (ModelRegistry.Lease<TiledFaceDetector> lease = TiledFaceDetector.acquireYuNet(app,
+                            YuNetTFLiteDetector.ModelVariant.MULTI_FACE)) {
+                        return lease != null && lease.get().warmUp();
+                    }
+                }
+                try (ModelRegistry.Lease<YuNetTFLiteDetector> lease = YuNetTFLiteDetector.acquireShared(app,
+                        YuNetTFLiteDetector.ModelVariant.MULTI_FACE)) {
+                    return lease != null && lease.get().warmUp();
+                }
+            });
+            warm(RETINAFACE, () -> {
+                try (ModelRegistry.Lease<RetinaFaceTFLiteDetector> lease = RetinaFaceTFLiteDetector.acquireShared(app,
+                        RetinaFaceTFLiteDetector.DEFAULT_PRECISION)) {
+                    return lease != null && lease.get().warmUp();
+                }
+            });
+        }, "model-warmup");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private interface Step {
+        boolean run() throws Exception;
+    }
+
+    private static void warm(String model, Step step) {
+        long t0 = SystemClock.elapsedRealtime();
+        try {
+            boolean ok = step.run();
+            long cost = SystemClock.elapsedRealtime() - t0;
+            warmupMs.put(model, ok ? cost : -1L);
+            Log.i(TAG, String.format("warm-up %s: %s, cost=%dms", model, ok ? "ok" : "failed", cost));
+        } catch (Throwable t) {
+            warmupMs.put(model, -1L);
+            Log.w(TAG, "warm-up " + model + " failed: " + t.getMessage(), t);
+        }
+    }
+
+    /**
+     * 记录模型的首个真实结果（只有第一次调用生效）；startNanos 为调用方发起时的 System.nanoTime()
+     */
+    public static void markFirstResult(String model, long startNanos) {
+        if (firstResults.containsKey(model))
+            return;
+        long waitMs = (System.nanoTime() - startNanos) / 1_000_000L;
+        long sinceStartMs = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        Long warm = warmupMs.get(model);
+        FirstResult result = new FirstResult(waitMs, sinceStartMs, warm != null && warm >= 0);
+        if (firstResults.putIfAbsent(model, result) == null) {
+            Log.i(TAG, String.format("time-to-first-result %s: wait=%dms, sinceStart=%dms, warmedUp=%b", model,
+                    waitMs, sinceStartMs, result.warmedUp));
+        }
+    }
+
+    /**
+     * 模型预热耗时（ms）；未预热返回 null，预热失败返回 -1
+     */
+    public static Long getWarmupMs(String model) {
+        return warmupMs.get(model);
+    }
+
+    /**
+     * 模型首个真实结果；尚未产生时返回 null
+     */
+    public static FirstResult getFirstResult(String model) {
+        return firstResults.get(model);
+    }
+
+    /**
+     * 汇总文本，便于日志或调试界面展示
+     */
+    public static String report() {
+        StringBuilder sb = new StringBuilder();
+        for (String model : new String[] { MOBILEFACENET, YUNET, RETINAFACE }) {
+            Long warm = warmupMs.get(model);
+            FirstResult first = firstResults.get(model);
+            sb.append(model).append(": warmup=").append(warm == null ? "-" : warm + "ms");
+            if (first != null) {
+                sb.append(", firstResult wait=").append(first.waitMs).append("ms, sinceStart=")
+                        .append(first.sinceStartMs).append("ms, warmedUp=").append(first.warmedUp);
+            } else {
+                sb.append(", firstResult=-");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
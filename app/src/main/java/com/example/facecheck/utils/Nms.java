@@ -0,0 +1,516 @@
+package com.example.facecheck.utils;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * 基于平铺基本类型数组的非极大值抑制（框为 [left, top, right, bottom] × n，分数为 float × n）
+ * - 排序：把（分数的可比较位表示, 下标）打包成 long 后原地快速排序，无装箱、无比较器；
+ *   不用 Arrays.sort，其在部分输入上会分配合并缓冲
+ * - 提前截断：分数低于 scoreCutoff 的候选不参与排序；保留数达到 maxKeep 即停止
+ * - 网格分桶：按候选框平均边长划分网格（最多 GRID_MAX × GRID_MAX 格），每个框登记到其覆盖的格子，
+ *   只与共享格子的框计算 IoU；互不重叠的框永远不会被比较，数万候选时避免 O(n²)
+ * - Soft-NMS（高斯衰减）：被选中框覆盖的候选按 exp(-IoU² / sigma) 降分而不是直接删除，
+ *   以下标最大堆维护当前最高分，降到 minScore 以下的候选出堆
+ * 暂存数组按需扩容后复用，稳态下不分配。非线程安全，每个使用方持有自己的实例。
+ */
+public final class Nms {
+
+    private static final String TAG = "Nms";
+
+    // 网格每边最多格数，限制单个大框登记的格子数与网格内存
+    static final int GRID_MAX = 64;
+
+    private long[] keys = new long[0];
+    private int[] candidates = new int[0];
+    // 网格：每格一条单链表（cellHead → nodeNext），节点保存框下标
+    private int[] cellHead = new int[0];
+    private int[] nodeNext = new int[0];
+    private int[] nodeBox = new int[0];
+    private int nodeCount;
+    // 每个框覆盖的格子范围 [cx0, cy0, cx1, cy1]
+    private int[] cellRange = new int[0];
+    // 去重标记：同一框在多个共享格子中只比较一次
+    private int[] stamp = new int[0];
+    private int stampValue;
+    // soft-NMS 下标堆与反向位置（-1 表示已出堆）
+    private int[] heap = new int[0];
+    private int[] heapPos = new int[0];
+    private int heapSize;
+
+    private float gridX0;
+    private float gridY0;
+    private float invCell;
+    private int gridCols;
+    private int gridRows;
+
+    /**
+     * 贪心 NMS：按分数降序依次保留与已保留框 IoU 都不大于 iouThreshold 的框
+     * keep 收到保留框的下标（分数降序），返回保留个数；keep 长度不足 n 时最多保留 keep.length 个
+     */
+    public int hard(float[] boxes, float[] scores, int n, float iouThreshold, float scoreCutoff, int[] keep) {
+        int m = sortCandidates(scores, n, scoreCutoff);
+        if (m == 0)
+            return 0;
+        buildGrid(boxes, m);
+        int maxKeep = Math.min(keep.length, m);
+        int kept = 0;
+        for (int a = 0; a < m && kept < maxKeep; a++) {
+            int i = candidates[a];
+            if (overlapsKept(boxes, i, iouThreshold))
+                continue;
+            keep[kept++] = i;
+            insert(i);
+        }
+        return kept;
+    }
+
+    /**
+     * 高斯 Soft-NMS：每轮取当前最高分的候选保留，与其共享格子的剩余候选按 exp(-IoU² / sigma) 降分，
+     * 降到 minScore 以下的候选丢弃；scores 被就地改写为衰减后的分数
+     * keep 收到保留框的下标（按选中顺序，即衰减后分数降序），返回保留个数
+     */
+    public int soft(float[] boxes, float[] scores, int n, float sigma, float minScore, int[] keep) {
+        int m = sortCandidates(scores, n, minScore);
+        if (m == 0)
+            return 0;
+        buildGrid(boxes, m);
+        heapSize = m;
+        for (int a = 0; a < m; a++) {
+            int i = candidates[a];
+            heap[a] = i;
+            heapPos[i] = a;
+            insert(i);
+        }
+        // 已按分数降序排列，天然满足最大堆性质
+        float invSigma = 1f / Math.max(sigma, 1e-6f);
+        int maxKeep = Math.min(keep.length, m);
+        int kept = 0;
+        while (heapSize > 0 && kept < maxKeep) {
+            int best = heap[0];
+            removeAt(0, scores);
+            keep[kept++] = best;
+            int r = 4 * best;
+            nextStamp();
+            for (int cy = cellRange[r + 1]; cy <= cellRange[r + 3]; cy++) {
+                for (int cx = cellRange[r]; cx <= cellRange[r + 2]; cx++) {
+                    for (int node = cellHead[cy * gridCols + cx]; node >= 0; node = nodeNext[node]) {
+                        int j = nodeBox[node];
+                        if (stamp[j] == stampValue || heapPos[j] < 0)
+                            continue;
+                        stamp[j] = stampValue;
+                        float o = iou(boxes, best, j);
+                        if (o <= 0f)
+                            continue;
+                        scores[j] *= (float) Math.exp(-o * o * invSigma);
+                        if (scores[j] < minScore)
+                            removeAt(heapPos[j], scores);
+                        else
+                            siftDown(heapPos[j], scores);
+                    }
+                }
+            }
+        }
+        for (int a = 0; a < heapSize; a++)
+            heapPos[heap[a]] = -1;
+        heapSize = 0;
+        return kept;
+    }
+
+    /**
+     * 过滤并按分数降序排列候选，结果写入 candidates[0..m)；分数相同按下标升序，NaN 丢弃
+     */
+    private int sortCandidates(float[] scores, int n, float scoreCutoff) {
+        if (keys.length < n) {
+            keys = new long[n];
+            candidates = new int[n];
+        }
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            float s = scores[i];
+            if (!(s >= scoreCutoff))
+                continue;
+            keys[m++] = ((long) ~sortableBits(s) << 32) | i;
+        }
+        sortKeys(keys, 0, m);
+        for (int a = 0; a < m; a++)
+            candidates[a] = (int) keys[a];
+        return m;
+    }
+
+    /**
+     * 原地升序排序 a[lo, hi)：三数取中快速排序，先递归较短一侧（栈深不超过 log n），小区间插入排序；不分配
+     * 键的低 32 位是互不相同的下标，不存在重复键
+     */
+    static void sortKeys(long[] a, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            long x = a[lo], y = a[mid], z = a[hi - 1];
+            long pivot = x < y ? (y < z ? y : (x < z ? z : x)) : (x < z ? x : (y < z ? z : y));
+            int i = lo, j = hi - 1;
+            while (i <= j) {
+                while (a[i] < pivot)
+                    i++;
+                while (a[j] > pivot)
+                    j--;
+                if (i <= j) {
+                    long t = a[i];
+                    a[i] = a[j];
+                    a[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            // [lo, j] ≤ pivot ≤ [i, hi)
+            if (j + 1 - lo < hi - i) {
+                sortKeys(a, lo, j + 1);
+                lo = i;
+            } else {
+                sortKeys(a, i, hi);
+                hi = j + 1;
+            }
+        }
+        for (int i = lo + 1; i < hi; i++) {
+            long v = a[i];
+            int j = i - 1;
+            while (j >= lo && a[j] > v) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+
+    /**
+     * float 位表示转为与数值同序的有符号 int（负数翻转低 31 位）
+     */
+    static int sortableBits(float v) {
+        int bits = Float.floatToIntBits(v);
+        return bits ^ ((bits >> 31) & 0x7fffffff);
+    }
+
+    /**
+     * 以候选框的外接范围与平均边长确定网格，清空格子链表并记录每个候选覆盖的格子范围
+     */
+    private void buildGrid(float[] boxes, int m) {
+        float x0 = Float.MAX_VALUE, y0 = Float.MAX_VALUE, x1 = -Float.MAX_VALUE, y1 = -Float.MAX_VALUE;
+        double sizeSum = 0;
+        for (int a = 0; a < m; a++) {
+            int b = 4 * candidates[a];
+            x0 = Math.min(x0, boxes[b]);
+            y0 = Math.min(y0, boxes[b + 1]);
+            x1 = Math.max(x1, boxes[b + 2]);
+            y1 = Math.max(y1, boxes[b + 3]);
+            sizeSum += Math.max(0f, boxes[b + 2] - boxes[b]) + Math.max(0f, boxes[b + 3] - boxes[b + 1]);
+        }
+        float extent = Math.max(x1 - x0, y1 - y0);
+        float cell = Math.max((float) (sizeSum / (2.0 * m)), extent / GRID_MAX);
+        if (!(cell > 0f))
+            cell = 1f;
+        gridX0 = x0;
+        gridY0 = y0;
+        invCell = 1f / cell;
+        gridCols = Math.min(GRID_MAX, (int) ((x1 - x0) * invCell) + 1);
+        gridRows = Math.min(GRID_MAX, (int) ((y1 - y0) * invCell) + 1);
+        int cells = gridCols * gridRows;
+        if (cellHead.length < cells)
+            cellHead = new int[GRID_MAX * GRID_MAX];
+        Arrays.fill(cellHead, 0, cells, -1);
+        nodeCount = 0;
+
+        int maxIndex = 0;
+        for (int a = 0; a < m; a++)
+            maxIndex = Math.max(maxIndex, candidates[a]);
+        ensureBoxes(maxIndex + 1);
+        for (int a = 0; a < m; a++) {
+            int i = candidates[a];
+            int b = 4 * i;
+            cellRange[b] = cellX(boxes[b]);
+            cellRange[b + 1] = cellY(boxes[b + 1]);
+            cellRange[b + 2] = cellX(boxes[b + 2]);
+            cellRange[b + 3] = cellY(boxes[b + 3]);
+        }
+    }
+
+    private int cellX(float x) {
+        return Math.max(0, Math.min(gridCols - 1, (int) ((x - gridX0) * invCell)));
+    }
+
+    private int cellY(float y) {
+        return Math.max(0, Math.min(gridRows - 1, (int) ((y - gridY0) * invCell)));
+    }
+
+    private void ensureBoxes(int n) {
+        if (stamp.length >= n)
+            return;
+        int cap = Math.max(n, stamp.length * 2);
+        cellRange = new int[cap * 4];
+        stamp = new int[cap];
+        heap = new int[cap];
+        heapPos = new int[cap];
+        Arrays.fill(heapPos, -1);
+        stampValue = 0;
+    }
+
+    private void nextStamp() {
+        if (++stampValue == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            stampValue = 1;
+        }
+    }
+
+    /**
+     * 把框 i 登记到其覆盖的所有格子
+     */
+    private void insert(int i) {
+        int r = 4 * i;
+        for (int cy = cellRange[r + 1]; cy <= cellRange[r + 3]; cy++) {
+            for (int cx = cellRange[r]; cx <= cellRange[r + 2]; cx++) {
+                if (nodeCount == nodeBox.length) {
+                    int cap = Math.max(64, nodeBox.length * 2);
+                    nodeBox = Arrays.copyOf(nodeBox, cap);
+                    nodeNext = Arrays.copyOf(nodeNext, cap);
+                }
+                int cell = cy * gridCols + cx;
+                nodeBox[nodeCount] = i;
+                nodeNext[nodeCount] = cellHead[cell];
+                cellHead[cell] = nodeCount++;
+            }
+        }
+    }
+
+    /**
+     * 框 i 是否与某个已登记（已保留）的框 IoU 大于阈值
+     */
+    private boolean overlapsKept(float[] boxes, int i, float iouThreshold) {
+        int r = 4 * i;
+        nextStamp();
+        for (int cy = cellRange[r + 1]; cy <= cellRange[r + 3]; cy++) {
+            for (int cx = cellRange[r]; cx <= cellRange[r + 2]; cx++) {
+                for (int node = cellHead[cy * gridCols + cx]; node >= 0; node = nodeNext[node]) {
+                    int j = nodeBox[node];
+                    if (stamp[j] == stampValue)
+                        continue;
+                    stamp[j] = stampValue;
+                    if (iou(boxes, i, j) > iouThreshold)
+                        return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static float iou(float[] boxes, int a, int b) {
+        int pa = 4 * a, pb = 4 * b;
+        float x1 = Math.max(boxes[pa], boxes[pb]);
+        float y1 = Math.max(boxes[pa + 1], boxes[pb + 1]);
+        float x2 = Math.min(boxes[pa + 2], boxes[pb + 2]);
+        float y2 = Math.min(boxes[pa + 3], boxes[pb + 3]);
+        if (x2 <= x1 || y2 <= y1)
+            return 0f;
+        float inter = (x2 - x1) * (y2 - y1);
+        float areaA = Math.max(0f, boxes[pa + 2] - boxes[pa]) * Math.max(0f, boxes[pa + 3] - boxes[pa + 1]);
+        float areaB = Math.max(0f, boxes[pb + 2] - boxes[pb]) * Math.max(0f, boxes[pb + 3] - boxes[pb + 1]);
+        float union = areaA + areaB - inter;
+        return union > 0f ? inter / union : 0f;
+    }
+
+    // ---- 下标最大堆（按当前分数，分数相同时下标小者优先，与排序规则一致） ----
+
+    private static boolean before(float[] scores, int a, int b) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    private void removeAt(int pos, float[] scores) {
+        int removed = heap[pos];
+        heapPos[removed] = -1;
+        heapSize--;
+        if (pos == heapSize)
+            return;
+        int moved = heap[heapSize];
+        heap[pos] = moved;
+        heapPos[moved] = pos;
+        siftDown(pos, scores);
+        if (heapPos[moved] == pos)
+            siftUp(pos, scores);
+    }
+
+    private void siftDown(int pos, float[] scores) {
+        int item = heap[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= heapSize)
+                break;
+            if (child + 1 < heapSize && before(scores, heap[child + 1], heap[child]))
+                child++;
+            if (!before(scores, heap[child], item))
+                break;
+            heap[pos] = heap[child];
+            heapPos[heap[pos]] = pos;
+            pos = child;
+        }
+        heap[pos] = item;
+        heapPos[item] = pos;
+    }
+
+    private void siftUp(int pos, float[] scores) {
+        int item = heap[pos];
+        while (pos > 0) {
+            int parent = (pos - 1) / 2;
+            if (!before(scores, item, heap[parent]))
+                break;
+            heap[pos] = heap[parent];
+            heapPos[heap[pos]] = pos;
+            pos = parent;
+        }
+        heap[pos] = item;
+        heapPos[item] = pos;
+    }
+
+    // ---- 基准 ----
+
+    /**
+     * 参照实现：全量排序后两两比较的 O(n²) 贪心 NMS，用于基准对比与结果校验
+     */
+    static int naive(float[] boxes, float[] scores, int n, float iouThreshold, float scoreCutoff, int[] keep) {
+        Integer[] order = new Integer[n];
+        int m = 0;
+        for (int i = 0; i < n; i++) {
+            if (scores[i] >= scoreCutoff)
+                order[m++] = i;
+        }
+        Arrays.sort(order, 0, m, (a, b) -> scores[a] != scores[b] ? Float.compare(scores[b], scores[a]) : a - b);
+        boolean[] removed = new boolean[m];
+        int kept = 0;
+        for (int a = 0; a < m && kept < keep.length; a++) {
+            if (removed[a])
+                continue;
+            keep[kept++] = order[a];
+            for (int b = a + 1; b < m; b++) {
+                if (!removed[b] && iou(boxes, order[a], order[b]) > iouThreshold)
+                    removed[b] = true;
+            }
+        }
+        return kept;
+    }
+
+    /**
+     * 合成候选：在 width×height 范围内放置若干“人脸”，每张脸周围生成带抖动的重复候选（模拟检测器输出）
+     */
+    static void synthesize(float[] boxes, float[] scores, int n, float width, float height, long seed) {
+        Random rnd = new Random(seed);
+        int faces = Math.max(1, n / 20);
+        float[] centers = new float[faces * 3];
+        for (int f = 0; f < faces; f++) {
+            centers[3 * f + 2] = 12f + rnd.nextFloat() * 120f;
+            centers[3 * f] = rnd.nextFloat() * width;
+            centers[3 * f + 1] = rnd.nextFloat() * height;
+        }
+        for (int i = 0; i < n; i++) {
+            int f = rnd.nextInt(faces);
+            float size = centers[3 * f + 2] * (0.85f + rnd.nextFloat() * 0.3f);
+            float cx = centers[3 * f] + (rnd.nextFloat() - 0.5f) * size * 0.3f;
+            float cy = centers[3 * f + 1] + (rnd.nextFloat() - 0.5f) * size * 0.3f;
+            boxes[4 * i] = cx - size / 2f;
+            boxes[4 * i + 1] = cy - size / 2f;
+            boxes[4 * i + 2] = cx + size / 2f;
+            boxes[4 * i + 3] = cy + size / 2f;
+            scores[i] = rnd.nextFloat();
+        }
+    }
+
+    /**
+     * 在 1k / 10k / 50k 合成候选上对比参照实现、网格 NMS（无截断 / 截断 0.5）与 Soft-NMS 的中位耗时，
+     * 并校验网格 NMS 的保留结果与参照实现一致
+     */
+    static String benchmark(int[] sizes, int rounds) {
+        StringBuilder sb = new StringBuilder();
+        Nms nms = new Nms();
+        for (int n : sizes) {
+            float[] boxes = new float[n * 4];
+            float[] scores = new float[n];
+            float[] softScores = new float[n];
+            int[] keep = new int[n];
+            int[] expected = new int[n];
+            synthesize(boxes, scores, n, 4000f, 3000f, n);
+
+            int expectedCount = naive(boxes, scores, n, 0.5f, 0f, expected);
+            int count = nms.hard(boxes, scores, n, 0.5f, 0f, keep);
+            boolean same = count == expectedCount;
+            for (int i = 0; same && i < count; i++)
+                same = keep[i] == expected[i];
+
+            long[] naiveNs = new long[rounds], gridNs = new long[rounds], cutoffNs = new long[rounds],
+                    softNs = new long[rounds];
+            int cutoffCount = 0, softCount = 0;
+            for (int r = 0; r < rounds; r++) {
+                long t0 = System.nanoTime();
+                naive(boxes, scores, n, 0.5f, 0f, expected);
+                long t1 = System.nanoTime();
+                nms.hard(boxes, scores, n, 0.5f, 0f, keep);
+                long t2 = System.nanoTime();
+                cutoffCount = nms.hard(boxes, scores, n, 0.5f, 0.5f, keep);
+                long t3 = System.nanoTime();
+                System.arraycopy(scores, 0, softScores, 0, n);
+                long t4 = System.nanoTime();
+                softCount = nms.soft(boxes, softScores, n, 0.5f, 0.05f, keep);
+                long t5 = System.nanoTime();
+                naiveNs[r] = t1 - t0;
+                gridNs[r] = t2 - t1;
+                cutoffNs[r] = t3 - t2;
+                softNs[r] = t5 - t4;
+            }
+            sb.append(String.format(Locale.US,
+                    "n=%d: naive=%.2fms grid=%.2fms grid+cutoff0.5=%.2fms soft=%.2fms, kept=%d/%d/%d, match=%s%n",
+                    n, median(naiveNs) / 1e6, median(gridNs) / 1e6, median(cutoffNs) / 1e6, median(softNs) / 1e6,
+                    count, cutoffCount, softCount, same));
+        }
+        return sb.toString();
+    }
+
+    private static long median(long[] values) {
+        long[] copy = values.clone();
+        Arrays.sort(copy);
+        return copy[copy.length / 2];
+    }
+
+    /**
+     * 运行 benchmark（1k / 10k / 50k 候选，各 5 轮）并导出报告；返回报告文件路径，失败返回 null
+     */
+    public static String benchmarkAndExport(Context context) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("NMS Benchmark Report\n")
+                .append("time=").append(System.currentTimeMillis())
+                .append(", iou=0.5, softSigma=0.5, softMinScore=0.05, rounds=5\n\n");
+        try {
+            // 先跑一轮小规模预热 JIT
+            benchmark(new int[] { 1000 }, 2);
+            sb.append(benchmark(new int[] { 1000, 10000, 50000 }, 5));
+        } catch (Throwable t) {
+            Log.e(TAG, "benchmarkAndExport failed: " + t.getMessage(), t);
+            return null;
+        }
+
+        try {
+            File outDir = context.getExternalFilesDir("reports");
+            if (outDir != null && !outDir.exists())
+                outDir.mkdirs();
+            File outFile = new File(outDir, "nms-benchmark-" + System.currentTimeMillis() + ".txt");
+            FileOutputStream fos = new FileOutputStream(outFile);
+            fos.write(sb.toString().getBytes("UTF-8"));
+            fos.flush();
+            fos.close();
+            Log.i(TAG, "NMS benchmark report exported: " + outFile.getAbsolutePath());
+            return outFile.getAbsolutePath();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write NMS benchmark report: " + e.getMessage(), e);
+            return null;
+        }
+    }
+}
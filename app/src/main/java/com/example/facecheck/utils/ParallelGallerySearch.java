@@ -0,0 +1,139 @@
+package com.example.facecheck.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * 嵌入库并行精确 top-k 检索（ForkJoin）
+ * - 将库按 CHUNK_ROWS 行切块（128 维时每块 512×512B = 256KB，约为移动端 L2 大小），
+ *   每块在一个任务内顺序打分并维护块内 top-k，最后两两归并
+ * - 行数低于 SEQUENTIAL_THRESHOLD 时直接在调用线程顺序执行，避免任务调度开销
+ * 扩展性：打分是受内存带宽限制的点积，1→2→4 核预期接近线性；8 核 big.LITTLE 设备上
+ * 小核拖慢尾部分块且与大核共享带宽，收益明显递减。各设备的 1/2/4/8 并行度实测耗时
+ * 由 FaceRecognitionManager.benchmarkParallelSearchAndExport 导出。
+ */
+public final class ParallelGallerySearch {
+
+    public static final int CHUNK_ROWS = 512;
+    public static final int SEQUENTIAL_THRESHOLD = 4096;
+
+    private static volatile ForkJoinPool sharedPool;
+
+    private ParallelGallerySearch() {
+    }
+
+    /**
+     * 进程内共享的检索线程池，并行度为 CPU 核数
+     */
+    public static ForkJoinPool sharedPool() {
+        if (sharedPool == null) {
+            synchronized (ParallelGallerySearch.class) {
+                if (sharedPool == null)
+                    sharedPool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+            }
+        }
+        return sharedPool;
+    }
+
+    public static List<EmbeddingGallery.Match> topK(EmbeddingGallery gallery, float[] query, int k) {
+        return topK(gallery, query, k, sharedPool());
+    }
+
+    /**
+     * 返回与 query 最相似的 k 行（按相似度降序，同一学生可能出现多次）；维度不一致时返回空列表
+     */
+    public static List<EmbeddingGallery.Match> topK(EmbeddingGallery gallery, float[] query, int k,
+            ForkJoinPool pool) {
+        List<EmbeddingGallery.Match> out = new ArrayList<>();
+        if (query == null || query.length != gallery.getDim() || gallery.isEmpty() || k <= 0)
+            return out;
+        int size = gallery.size();
+        TopK top;
+        if (size < SEQUENTIAL_THRESHOLD || pool.getParallelism() <= 1) {
+            top = scan(gallery, query, k, 0, size);
+        } else {
+            top = pool.invoke(new ChunkTask(gallery, query, k, 0, size));
+        }
+        for (int i = 0; i < top.count; i++) {
+            out.add(new EmbeddingGallery.Match(gallery.getStudentId(top.rows[i]), top.scores[i]));
+        }
+        return out;
+    }
+
+    private static TopK scan(EmbeddingGallery gallery, float[] query, int k, int from, int to) {
+        TopK top = new TopK(k);
+        for (int row = from; row < to; row++) {
+            top.offer(row, gallery.score(query, row));
+        }
+        return top;
+    }
+
+    private static final class ChunkTask extends RecursiveTask<TopK> {
+        private static final long serialVersionUID = 1L;
+
+        private final EmbeddingGallery gallery;
+        private final float[] query;
+        private final int k;
+        private final int from;
+        private final int to;
+
+        ChunkTask(EmbeddingGallery gallery, float[] query, int k, int from, int to) {
+            this.gallery = gallery;
+            this.query = query;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from <= CHUNK_ROWS)
+                return scan(gallery, query, k, from, to);
+            int mid = from + (((to - from) / CHUNK_ROWS) >>> 1) * CHUNK_ROWS;
+            if (mid == from)
+                mid = from + CHUNK_ROWS;
+            ChunkTask left = new ChunkTask(gallery, query, k, from, mid);
+            ChunkTask right = new ChunkTask(gallery, query, k, mid, to);
+            left.fork();
+            TopK r = right.compute();
+            TopK l = left.join();
+            l.merge(r);
+            return l;
+        }
+    }
+
+    /**
+     * 定长 top-k（按分数降序的有序数组，k 通常很小，插入排序即可）
+     */
+    private static final class TopK {
+        final int[] rows;
+        final float[] scores;
+        int count;
+
+        TopK(int k) {
+            rows = new int[k];
+            scores = new float[k];
+        }
+
+        void offer(int row, float score) {
+            int k = rows.length;
+            if (count == k && score <= scores[k - 1])
+                return;
+            int pos = count < k ? count++ : k - 1;
+            while (pos > 0 && scores[pos - 1] < score) {
+                scores[pos] = scores[pos - 1];
+                rows[pos] = rows[pos - 1];
+                pos--;
+            }
+            scores[pos] = score;
+            rows[pos] = row;
+        }
+
+        void merge(TopK other) {
+            for (int i = 0; i < other.count; i++)
+                offer(other.rows[i], other.scores[i]);
+        }
+    }
+}
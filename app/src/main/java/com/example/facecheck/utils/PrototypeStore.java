@@ -0,0 +1,184 @@
+package com.example.facecheck.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 班级内每个学生的原型嵌入
+ * - 质心：按 quality 加权求和后归一化，写入/更新嵌入时增量维护
+ * - 样例：最多 MAX_EXEMPLARS 条彼此差异最大的原始嵌入（不同角度/光照）
+ * 粗匹配只与原型比对，代价与学生数成正比，而与注册照片数量无关。
+ */
+public class PrototypeStore {
+
+    public static final int MAX_EXEMPLARS = 3;
+    // quality 为 0 或缺失时的最小权重，避免该条嵌入完全不参与质心
+    private static final float MIN_WEIGHT = 0.05f;
+
+    private final long classroomId;
+    private final String modelVer;
+    private final int dim;
+    private final Map<Long, Prototype> prototypes = new LinkedHashMap<>();
+    private EmbeddingGallery gallery;
+
+    public PrototypeStore(long classroomId, String modelVer, int dim) {
+        this.classroomId = classroomId;
+        this.modelVer = modelVer;
+        this.dim = dim;
+    }
+
+    public int getDim() {
+        return dim;
+    }
+
+    public synchronized boolean contains(long studentId) {
+        return prototypes.containsKey(studentId);
+    }
+
+    public synchronized int studentCount() {
+        return prototypes.size();
+    }
+
+    /**
+     * 新增一条单位向量嵌入
+     */
+    public synchronized void add(long studentId, long embeddingId, float[] vector, float quality) {
+        if (vector == null || vector.length != dim)
+            return;
+        Prototype p = prototypes.get(studentId);
+        if (p == null) {
+            p = new Prototype(dim);
+            prototypes.put(studentId, p);
+        }
+        p.accumulate(vector, weightOf(quality));
+        p.offerExemplar(embeddingId, vector);
+        gallery = null;
+    }
+
+    /**
+     * 替换一条已有嵌入：先减去旧向量的贡献（旧向量未知时跳过），再加入新向量
+     */
+    public synchronized void replace(long studentId, long embeddingId, float[] oldVector, float oldQuality,
+            float[] newVector, float newQuality) {
+        if (newVector == null || newVector.length != dim)
+            return;
+        Prototype p = prototypes.get(studentId);
+        if (p == null) {
+            add(studentId, embeddingId, newVector, newQuality);
+            return;
+        }
+        if (oldVector != null && oldVector.length == dim)
+            p.accumulate(oldVector, -weightOf(oldQuality));
+        p.accumulate(newVector, weightOf(newQuality));
+        if (!p.replaceExemplar(embeddingId, newVector))
+            p.offerExemplar(embeddingId, newVector);
+        gallery = null;
+    }
+
+    public synchronized void remove(long studentId) {
+        if (prototypes.remove(studentId) != null)
+            gallery = null;
+    }
+
+    /**
+     * 以原型构成的嵌入库：每个学生一行质心 + 若干行样例，studentIds 重复对应
+     */
+    public synchronized EmbeddingGallery asGallery() {
+        if (gallery != null)
+            return gallery;
+        int rows = 0;
+        for (Prototype p : prototypes.values())
+            rows += 1 + p.exemplarCount;
+        float[] matrix = new float[rows * dim];
+        long[] ids = new long[rows];
+        int row = 0;
+        for (Map.Entry<Long, Prototype> e : prototypes.entrySet()) {
+            Prototype p = e.getValue();
+            System.arraycopy(p.centroid, 0, matrix, row * dim, dim);
+            ids[row++] = e.getKey();
+            for (int i = 0; i < p.exemplarCount; i++) {
+                System.arraycopy(p.exemplars[i], 0, matrix, row * dim, dim);
+                ids[row++] = e.getKey();
+            }
+        }
+        gallery = new EmbeddingGallery(classroomId, modelVer, dim, rows, matrix, ids);
+        return gallery;
+    }
+
+    private static float weightOf(float quality) {
+        return Math.max(MIN_WEIGHT, quality);
+    }
+
+    private static float dot(float[] a, float[] b) {
+        return SimilarityKernel.dot(a, 0, b, 0, a.length);
+    }
+
+    private static final class Prototype {
+        final float[] weightedSum;
+        final float[] centroid;
+        float totalWeight;
+        final float[][] exemplars = new float[MAX_EXEMPLARS][];
+        final long[] exemplarIds = new long[MAX_EXEMPLARS];
+        int exemplarCount;
+
+        Prototype(int dim) {
+            weightedSum = new float[dim];
+            centroid = new float[dim];
+        }
+
+        void accumulate(float[] vector, float weight) {
+            for (int i = 0; i < vector.length; i++)
+                weightedSum[i] += weight * vector[i];
+            totalWeight += weight;
+            float norm2 = 0f;
+            for (float v : weightedSum)
+                norm2 += v * v;
+            if (norm2 <= 0f)
+                return;
+            float inv = (float) (1.0 / Math.sqrt(norm2));
+            for (int i = 0; i < centroid.length; i++)
+                centroid[i] = weightedSum[i] * inv;
+        }
+
+        boolean replaceExemplar(long embeddingId, float[] vector) {
+            for (int i = 0; i < exemplarCount; i++) {
+                if (exemplarIds[i] == embeddingId) {
+                    exemplars[i] = vector.clone();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * 未满直接加入；已满时若新向量与现有样例的最大相似度低于现有最相近的一对，
+         * 则替换该对中的一条，使样例集合保持尽量分散
+         */
+        void offerExemplar(long embeddingId, float[] vector) {
+            if (exemplarCount < MAX_EXEMPLARS) {
+                exemplars[exemplarCount] = vector.clone();
+                exemplarIds[exemplarCount] = embeddingId;
+                exemplarCount++;
+                return;
+            }
+            float newMax = -1f;
+            for (int i = 0; i < exemplarCount; i++)
+                newMax = Math.max(newMax, dot(vector, exemplars[i]));
+            int victim = -1;
+            float pairMax = -1f;
+            for (int i = 0; i < exemplarCount; i++) {
+                for (int j = i + 1; j < exemplarCount; j++) {
+                    float s = dot(exemplars[i], exemplars[j]);
+                    if (s > pairMax) {
+                        pairMax = s;
+                        victim = j;
+                    }
+                }
+            }
+            if (victim >= 0 && newMax < pairMax) {
+                exemplars[victim] = vector.clone();
+                exemplarIds[victim] = embeddingId;
+            }
+        }
+    }
+}
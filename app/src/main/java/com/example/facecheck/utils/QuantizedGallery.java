@@ -0,0 +1,122 @@
+package com.example.facecheck.utils;
+
+import java.util.List;
+
+/**
+ * 班级嵌入库的 INT8 量化副本
+ * - 每行 dim 个 int8 + 一个 float 缩放系数；精排仍需源嵌入库的 float 行常驻，
+ *   因此内存是 float32 矩阵之外再加约 1/4，换来的是粗排的整数点积，而不是省内存
+ * - 粗排：查询同样量化为 int8，整数点积乘以两侧缩放系数得到近似分数
+ * - 精排：只对粗排前 rerankSize 名用 float 查询与源嵌入库中的 float 行精确计算余弦分数
+ *   （float 行由源 EmbeddingGallery 持有，这里只保留引用，不额外占用内存）
+ */
+public class QuantizedGallery {
+
+    public static final int DEFAULT_RERANK_SIZE = 8;
+
+    private final int dim;
+    private final int size;
+    private final byte[] codes;
+    private final float[] scales;
+    private final long[] studentIds;
+    private final EmbeddingGallery source;
+
+    private QuantizedGallery(EmbeddingGallery source, int dim, int size, byte[] codes, float[] scales,
+            long[] studentIds) {
+        this.source = source;
+        this.dim = dim;
+        this.size = size;
+        this.codes = codes;
+        this.scales = scales;
+        this.studentIds = studentIds;
+    }
+
+    /**
+     * 由 float 嵌入库逐行量化生成
+     */
+    public static QuantizedGallery fromGallery(EmbeddingGallery gallery) {
+        int dim = gallery.getDim();
+        int size = gallery.size();
+        float[] vectors = gallery.getVectors();
+        byte[] codes = new byte[size * dim];
+        float[] scales = new float[size];
+        for (int row = 0; row < size; row++) {
+            scales[row] = EmbeddingCodec.quantize(vectors, row * dim, dim, codes, row * dim);
+        }
+        return new QuantizedGallery(gallery, dim, size, codes, scales, gallery.getStudentIds());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 量化数据占用字节数（codes + scales，不含源嵌入库的 float 行）
+     */
+    public long memoryBytes() {
+        return (long) codes.length + 4L * scales.length;
+    }
+
+    /**
+     * 检索时常驻的总字节数：源嵌入库的 float 行（精排用）+ 量化 codes + scales
+     */
+    public long residentBytes() {
+        return 4L * size * dim + memoryBytes();
+    }
+
+    /**
+     * 查找与 query 最相似的学生；库为空或维度不一致时返回 studentId = -1
+     */
+    public EmbeddingGallery.Match findBestMatch(float[] query, int rerankSize) {
+        if (query == null || query.length != dim || size == 0)
+            return new EmbeddingGallery.Match(-1, 0f);
+        byte[] q = new byte[dim];
+        float qScale = EmbeddingCodec.quantize(query, 0, dim, q, 0);
+
+        int r = Math.max(1, Math.min(rerankSize, size));
+        int[] topRows = new int[r];
+        float[] topScores = new float[r];
+        int count = 0;
+        for (int row = 0; row < size; row++) {
+            float approx = EmbeddingCodec.dotInt8(q, 0, codes, row * dim, dim) * qScale * scales[row];
+            if (count < r) {
+                int pos = count++;
+                while (pos > 0 && topScores[pos - 1] < approx) {
+                    topScores[pos] = topScores[pos - 1];
+                    topRows[pos] = topRows[pos - 1];
+                    pos--;
+                }
+                topScores[pos] = approx;
+                topRows[pos] = row;
+            } else if (approx > topScores[r - 1]) {
+                int pos = r - 1;
+                while (pos > 0 && topScores[pos - 1] < approx) {
+                    topScores[pos] = topScores[pos - 1];
+                    topRows[pos] = topRows[pos - 1];
+                    pos--;
+                }
+                topScores[pos] = approx;
+                topRows[pos] = row;
+            }
+        }
+
+        long bestStudentId = -1;
+        float bestScore = 0f;
+        for (int i = 0; i < count; i++) {
+            float sim = source.score(query, topRows[i]);
+            if (sim > bestScore) {
+                bestScore = sim;
+                bestStudentId = studentIds[topRows[i]];
+            }
+        }
+        return new EmbeddingGallery.Match(bestStudentId, bestScore);
+    }
+
+    public EmbeddingGallery.Match[] findBestMatches(List<float[]> queries, int rerankSize) {
+        EmbeddingGallery.Match[] matches = new EmbeddingGallery.Match[queries.size()];
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = findBestMatch(queries.get(i), rerankSize);
+        }
+        return matches;
+    }
+}
@@ -9,111 +9,346 @@ import org.tensorflow.lite.Interpreter;
 
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class RetinaFaceTFLiteDetector {
+/**
+ * RetinaFace TFLite 人脸检测（mobilenet0.25 结构的导出模型）
+ * - 模型文件位于 assets/models/retinaface 下，假定为 Pytorch_Retinaface（biubug6）mobilenet0.25 在 test 阶段的导出：
+ *   输入 [1, H, W, 3]，BGR 通道顺序减去均值 (104, 117, 123)、不做 /255 缩放（经 Letterbox 等比缩放补边）；
+ *   conf 已经过 softmax。换用其他导出时修改下方的预处理与 MODEL_CONF_LOGITS_* 常量
+ * - 输出按最后一维识别：loc [1, N, 4]、conf [1, N, 2]、landms [1, N, 10]（可缺省），N 为先验框个数
+ * - 先验框（min_sizes 16/32、64/128、256/512，步长 8/16/32）按输入尺寸只计算一次并缓存；
+ *   解码在平铺数组上进行：先按分数过滤，再对保留的候选做方差解码（variance 0.1 / 0.2）
+ * - 结果写入 DetectionBuffer，与 YuNet 共用缓冲内 NMS；输入、输出缓冲跨调用复用
+ * conf 是否为未经 softmax 的 logits 由各模型资产的常量显式给出，logits 时按 logit 差值比较阈值。
+ */
+public class RetinaFaceTFLiteDetector implements TiledFaceDetector.TileDetector {
     private static final String TAG = "RetinaFaceTFLite";
     private static final String MODEL_F16 = "models/retinaface/FaceDetector_float16.tflite";
     private static final String MODEL_F32 = "models/retinaface/FaceDetector_float32.tflite";
+    // 输入预处理：与训练时一致的 BGR 均值（按 R、G、B 列出），不缩放
+    static final float MEAN_R = 123f;
+    static final float MEAN_G = 117f;
+    static final float MEAN_B = 104f;
+    // 各模型资产的 conf 输出是否为 logits：两个精度来自同一次导出（test 阶段，含 softmax）；更换资产时同步修改
+    private static final boolean MODEL_CONF_LOGITS_F16 = false;
+    private static final boolean MODEL_CONF_LOGITS_F32 = false;
+
+    static final int DEFAULT_INPUT_SIZE = 320;
+    static final float[][] MIN_SIZES = { { 16, 32 }, { 64, 128 }, { 256, 512 } };
+    static final int[] STEPS = { 8, 16, 32 };
+    static final float VARIANCE_CENTER = 0.1f;
+    static final float VARIANCE_SIZE = 0.2f;
+
+    // 按输入尺寸缓存的先验框（平铺 [cx, cy, w, h]，均为相对输入的归一化值）
+    private static final Map<Long, float[]> PRIORS = new HashMap<>();
+
+    public enum Precision { F16, F32 }
+
+    // 检测页与启动预热使用的精度
+    public static final Precision DEFAULT_PRECISION = Precision.F16;
 
     private final Context context;
     private Interpreter interpreter;
+    private final float scoreThreshold;
+    private final float nmsThreshold;
 
-    public enum Precision { F16, F32 }
+    // 跨调用复用的推理状态（由 prepareTensors 按张量规格创建）
+    private int inputWidth;
+    private int inputHeight;
+    private Letterbox letterbox;
+    private ByteBuffer inputBuffer;
+    private Object[] runInputs;
+    private Map<Integer, Object> runOutputs;
+    private ByteBuffer[] outputBuffers;
+    private FloatBuffer locOut;
+    private FloatBuffer confOut;
+    private FloatBuffer landmOut;
+    private float[] loc;
+    private float[] conf;
+    private float[] landms;
+    private float[] priors;
+    private int anchors;
+    // conf 是否为 logits（由模型资产决定）
+    private final boolean confLogits;
+    private final DetectionBuffer results = new DetectionBuffer();
 
     public RetinaFaceTFLiteDetector(Context ctx, Precision p) {
+        this(ctx, p, 0.6f, 0.4f);
+    }
+
+    public RetinaFaceTFLiteDetector(Context ctx, Precision p, float scoreThreshold, float nmsThreshold) {
         this.context = ctx.getApplicationContext();
+        this.scoreThreshold = scoreThreshold;
+        this.nmsThreshold = nmsThreshold;
+        this.confLogits = p == Precision.F32 ? MODEL_CONF_LOGITS_F32 : MODEL_CONF_LOGITS_F16;
         try {
             String assetPath = p == Precision.F32 ? MODEL_F32 : MODEL_F16;
             MappedByteBuffer buf = loadModelFile(assetPath);
-            interpreter = new Interpreter(buf);
+            InferenceConfig config = InferenceTuner.get(this.context).resolve(InferenceTuner.modelKey(assetPath),
+                    InferenceTuner.interpreterProbe(buf));
+            interpreter = new Interpreter(buf, config.toOptions());
+            if (!prepareTensors()) {
+                interpreter.close();
+                interpreter = null;
+                return;
+            }
+            Log.d(TAG, "RetinaFace interpreter initialized: " + config + ", input=" + inputWidth + "x" + inputHeight
+                    + ", anchors=" + anchors + ", confLogits=" + confLogits);
         } catch (Throwable t) {
             Log.e(TAG, "load model failed: " + t.getMessage());
             interpreter = null;
         }
     }
 
-    public List<Rect> detect(Bitmap src) {
-        if (interpreter == null || src == null) return null;
-        try {
-            int w = 320, h = 320;
-            Bitmap input = Bitmap.createScaledBitmap(src, w, h, true);
-            int tensorCount = interpreter.getOutputTensorCount();
-            Object[] outputs = new Object[tensorCount];
-            for (int i = 0; i < tensorCount; i++) {
-                int[] shape = interpreter.getOutputTensor(i).shape();
-                int total = 1;
-                for (int s : shape) total *= s;
-                outputs[i] = new float[total];
+    /**
+     * 借用进程内共享的检测器（score 0.6、NMS 0.4，按精度各一个，由 ModelRegistry 持有）；
+     * 模型缺失或输出结构不符时返回 null（不缓存，下次重试）
+     */
+    public static ModelRegistry.Lease<RetinaFaceTFLiteDetector> acquireShared(Context context, Precision precision) {
+        final Context app = context.getApplicationContext();
+        return ModelRegistry.get().acquire("retinaface:" + precision, () -> {
+            RetinaFaceTFLiteDetector detector = new RetinaFaceTFLiteDetector(app, precision);
+            return detector.isReady() ? detector : null;
+        }, RetinaFaceTFLiteDetector::close);
+    }
+
+    /**
+     * 分配一次张量，按输出最后一维识别 loc/conf/landms，创建复用缓冲并取得对应输入尺寸的先验框
+     * 输入尺寸为动态（-1）时固定为 320；输出结构不符返回 false
+     */
+    private boolean prepareTensors() {
+        int[] inShape = interpreter.getInputTensor(0).shape();
+        inputHeight = inShape.length == 4 && inShape[1] > 0 ? inShape[1] : DEFAULT_INPUT_SIZE;
+        inputWidth = inShape.length == 4 && inShape[2] > 0 ? inShape[2] : DEFAULT_INPUT_SIZE;
+        if (inShape.length != 4 || inShape[1] != inputHeight || inShape[2] != inputWidth)
+            interpreter.resizeInput(0, new int[] { 1, inputHeight, inputWidth, 3 });
+        interpreter.allocateTensors();
+
+        priors = priors(inputWidth, inputHeight);
+        anchors = priors.length / 4;
+        runOutputs = new HashMap<>();
+        outputBuffers = new ByteBuffer[interpreter.getOutputTensorCount()];
+        for (int i = 0; i < outputBuffers.length; i++) {
+            int[] shape = interpreter.getOutputTensor(i).shape();
+            int last = shape[shape.length - 1];
+            int rows = interpreter.getOutputTensor(i).numElements() / Math.max(1, last);
+            ByteBuffer out = ByteBuffer.allocateDirect(interpreter.getOutputTensor(i).numBytes())
+                    .order(ByteOrder.nativeOrder());
+            runOutputs.put(i, out);
+            outputBuffers[i] = out;
+            if (rows != anchors) {
+                Log.w(TAG, "Skip output " + i + " with " + rows + " rows, expected " + anchors);
+                continue;
             }
+            if (last == 4) {
+                locOut = out.asFloatBuffer();
+                loc = new float[anchors * 4];
+            } else if (last == 2) {
+                confOut = out.asFloatBuffer();
+                conf = new float[anchors * 2];
+            } else if (last == DetectionBuffer.LANDMARK_VALUES) {
+                landmOut = out.asFloatBuffer();
+                landms = new float[anchors * DetectionBuffer.LANDMARK_VALUES];
+            }
+        }
+        if (locOut == null || confOut == null) {
+            Log.e(TAG, "Unexpected RetinaFace outputs, loc/conf with " + anchors + " anchors not found");
+            return false;
+        }
+        inputBuffer = ByteBuffer.allocateDirect(inputWidth * inputHeight * 3 * 4).order(ByteOrder.nativeOrder());
+        runInputs = new Object[] { inputBuffer };
+        letterbox = new Letterbox(inputWidth, inputHeight);
+        return true;
+    }
 
-            int[] pixels = new int[w * h];
-            input.getPixels(pixels, 0, w, 0, 0, w, h);
-            float[][][][] in = new float[1][h][w][3];
-            for (int y = 0; y < h; y++) {
-                for (int x = 0; x < w; x++) {
-                    int c = pixels[y * w + x];
-                    float r = ((c >> 16) & 0xFF) / 255f;
-                    float g = ((c >> 8) & 0xFF) / 255f;
-                    float b = (c & 0xFF) / 255f;
-                    in[0][y][x][0] = r;
-                    in[0][y][x][1] = g;
-                    in[0][y][x][2] = b;
+    /**
+     * 计算（或取缓存的）先验框：每个特征图位置按 min_sizes 生成方形先验，顺序与模型输出一致
+     */
+    static float[] priors(int width, int height) {
+        long key = ((long) width << 32) | height;
+        synchronized (PRIORS) {
+            float[] cached = PRIORS.get(key);
+            if (cached != null)
+                return cached;
+            int count = 0;
+            for (int k = 0; k < STEPS.length; k++)
+                count += ceilDiv(height, STEPS[k]) * ceilDiv(width, STEPS[k]) * MIN_SIZES[k].length;
+            float[] out = new float[count * 4];
+            int p = 0;
+            for (int k = 0; k < STEPS.length; k++) {
+                int step = STEPS[k];
+                int rows = ceilDiv(height, step);
+                int cols = ceilDiv(width, step);
+                for (int i = 0; i < rows; i++) {
+                    for (int j = 0; j < cols; j++) {
+                        for (float size : MIN_SIZES[k]) {
+                            out[p++] = (j + 0.5f) * step / width;
+                            out[p++] = (i + 0.5f) * step / height;
+                            out[p++] = size / width;
+                            out[p++] = size / height;
+                        }
+                    }
                 }
             }
+            PRIORS.put(key, out);
+            return out;
+        }
+    }
 
-            interpreter.runForMultipleInputsOutputs(new Object[]{in}, buildOutputMap(outputs));
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
 
-            List<Rect> rects = tryDecode(outputs, src.getWidth(), src.getHeight(), w, h);
-            if (rects == null || rects.isEmpty()) return null;
+    /**
+     * 运行检测并返回原图坐标下的人脸框（已做 NMS，按分数降序）
+     */
+    public synchronized List<Rect> detect(Bitmap src) {
+        List<Rect> rects = new ArrayList<>();
+        if (src == null)
             return rects;
-        } catch (Throwable t) {
-            Log.e(TAG, "detect error: " + t.getMessage());
-            return null;
-        }
+        for (YuNetTFLiteDetector.Detection d : detectFaces(src))
+            rects.add(d.bbox);
+        return rects;
     }
 
-    private java.util.Map<Integer, Object> buildOutputMap(Object[] outputs) {
-        java.util.HashMap<Integer, Object> map = new java.util.HashMap<>();
-        for (int i = 0; i < outputs.length; i++) map.put(i, outputs[i]);
-        return map;
+    /**
+     * 运行检测并返回原图坐标下的检测结果（含分数与关键点）
+     */
+    public synchronized List<YuNetTFLiteDetector.Detection> detectFaces(Bitmap src) {
+        detectInto(src, results);
+        return results.toDetections();
+    }
+
+    /**
+     * 运行检测，把 NMS 后的结果（原图坐标，按分数降序）写入 out 并返回个数；稳态下不分配对象
+     */
+    @Override
+    public synchronized int detectInto(Bitmap src, DetectionBuffer out) {
+        out.reset(false);
+        if (interpreter == null) {
+            Log.w(TAG, "RetinaFace interpreter not initialized; returning empty detections");
+            return 0;
+        }
+        try {
+            letterbox.write(src, inputBuffer, true, MEAN_R, MEAN_G, MEAN_B, 1f);
+            inputBuffer.rewind();
+            for (ByteBuffer o : outputBuffers)
+                o.rewind();
+            interpreter.runForMultipleInputsOutputs(runInputs, runOutputs);
+            locOut.rewind();
+            locOut.get(loc);
+            confOut.rewind();
+            confOut.get(conf);
+            if (landmOut != null) {
+                landmOut.rewind();
+                landmOut.get(landms);
+            }
+            decode(loc, conf, landmOut != null ? landms : null, priors, anchors, confLogits, scoreThreshold,
+                    letterbox, out);
+            out.nms(nmsThreshold);
+            return out.size();
+        } catch (Throwable t) {
+            Log.e(TAG, "detect error: " + t.getMessage(), t);
+            out.reset(false);
+            return 0;
+        }
     }
 
-    private List<Rect> tryDecode(Object[] outs, int srcW, int srcH, int inW, int inH) {
-        for (Object o : outs) {
-            if (o instanceof float[]) {
-                float[] arr = (float[]) o;
-                List<Rect> rects = new ArrayList<>();
-                int stride = 5;
-                if (arr.length % stride != 0) continue;
-                for (int i = 0; i + 4 < arr.length; i += stride) {
-                    float x = arr[i];
-                    float y = arr[i + 1];
-                    float w = arr[i + 2];
-                    float h = arr[i + 3];
-                    float s = arr[i + 4];
-                    if (s < 0.6f) continue;
-                    int rx = Math.round(x / inW * srcW);
-                    int ry = Math.round(y / inH * srcH);
-                    int rw = Math.round(w / inW * srcW);
-                    int rh = Math.round(h / inH * srcH);
-                    rects.add(new Rect(rx, ry, rx + rw, ry + rh));
+    /**
+     * 方差解码：score 达到阈值的先验框按
+     * cx = pcx + dx * 0.1 * pw，w = pw * exp(dw * 0.2)（关键点同中心偏移）
+     * 还原为输入坐标，再经 letterbox 映射回原图并裁剪后追加到 dst
+     * logits 时把概率阈值换算成 logit 差值阈值，逐行只做一次减法比较
+     */
+    static void decode(float[] loc, float[] conf, float[] landms, float[] priors, int anchors, boolean logits,
+            float scoreThreshold, Letterbox letterbox, DetectionBuffer dst) {
+        boolean withLandmarks = landms != null;
+        dst.reset(withLandmarks);
+        float inW = letterbox.width;
+        float inH = letterbox.height;
+        float srcWidth = letterbox.sourceWidth();
+        float srcHeight = letterbox.sourceHeight();
+        float t = Math.min(Math.max(scoreThreshold, 1e-6f), 1f - 1e-6f);
+        float logitThreshold = (float) Math.log(t / (1f - t));
+        for (int i = 0; i < anchors; i++) {
+            float score;
+            if (logits) {
+                float margin = conf[2 * i + 1] - conf[2 * i];
+                if (margin < logitThreshold)
+                    continue;
+                score = (float) (1.0 / (1.0 + Math.exp(-margin)));
+            } else {
+                score = conf[2 * i + 1];
+                if (score < scoreThreshold)
+                    continue;
+            }
+            int p = 4 * i;
+            float pcx = priors[p], pcy = priors[p + 1], pw = priors[p + 2], ph = priors[p + 3];
+            float cx = pcx + loc[p] * VARIANCE_CENTER * pw;
+            float cy = pcy + loc[p + 1] * VARIANCE_CENTER * ph;
+            float hw = pw * (float) Math.exp(loc[p + 2] * VARIANCE_SIZE) * 0.5f;
+            float hh = ph * (float) Math.exp(loc[p + 3] * VARIANCE_SIZE) * 0.5f;
+            float left = Math.max(0f, letterbox.toSourceX((cx - hw) * inW));
+            float top = Math.max(0f, letterbox.toSourceY((cy - hh) * inH));
+            float right = Math.min(srcWidth, letterbox.toSourceX((cx + hw) * inW));
+            float bottom = Math.min(srcHeight, letterbox.toSourceY((cy + hh) * inH));
+            if (right <= left || bottom <= top)
+                continue;
+            int idx = dst.add(left, top, right, bottom, score);
+            if (withLandmarks) {
+                int l = i * DetectionBuffer.LANDMARK_VALUES;
+                for (int k = 0; k < 5; k++) {
+                    float x = pcx + landms[l + 2 * k] * VARIANCE_CENTER * pw;
+                    float y = pcy + landms[l + 2 * k + 1] * VARIANCE_CENTER * ph;
+                    dst.setLandmark(idx, k, letterbox.toSourceX(x * inW), letterbox.toSourceY(y * inH));
                 }
-                return rects;
             }
         }
-        return null;
+    }
+
+    public boolean isReady() {
+        return interpreter != null;
+    }
+
+    /**
+     * 用空白输入跑一次推理，完成首轮算子初始化；未加载时返回 false
+     */
+    public boolean warmUp() {
+        if (interpreter == null)
+            return false;
+        detectInto(Bitmap.createBitmap(inputWidth, inputHeight, Bitmap.Config.ARGB_8888), results);
+        return true;
+    }
+
+    /**
+     * 释放 Interpreter 与 letterbox 画布；之后 detect 返回空结果
+     */
+    @Override
+    public synchronized void close() {
+        if (interpreter != null) {
+            interpreter.close();
+            interpreter = null;
+        }
+        if (letterbox != null)
+            letterbox.recycle();
     }
 
     private MappedByteBuffer loadModelFile(String assetPath) throws IOException {
         android.content.res.AssetFileDescriptor afd = context.getAssets().openFd(assetPath);
-        FileInputStream fis = new FileInputStream(afd.getFileDescriptor());
-        FileChannel channel = fis.getChannel();
-        long start = afd.getStartOffset();
-        long declaredLength = afd.getDeclaredLength();
-        return channel.map(FileChannel.MapMode.READ_ONLY, start, declaredLength);
+        try (FileInputStream fis = new FileInputStream(afd.getFileDescriptor());
+             FileChannel channel = fis.getChannel()) {
+            long start = afd.getStartOffset();
+            long declaredLength = afd.getDeclaredLength();
+            return channel.map(FileChannel.MapMode.READ_ONLY, start, declaredLength);
+        }
     }
 }
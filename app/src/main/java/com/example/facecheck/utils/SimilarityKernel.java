@@ -0,0 +1,118 @@
+package com.example.facecheck.utils;
+
+/**
+ * 批量相似度计算内核
+ * - 输入均为已归一化的单位向量，余弦相似度即点积
+ * - 查询与库均为行主序的扁平 float 数组：queries 为 n×dim，gallery 为 m×dim
+ * - 输出 n×m 的分数矩阵：out[q * m + r]
+ * 库按行分块（块大小约等于 L1 缓存），块内每次同时计算 4 个查询，
+ * 库向量每个元素只读取一次；计算过程无对象分配、无日志。
+ */
+public final class SimilarityKernel {
+
+    // 64 行 × 128 维 × 4 字节 = 32KB，约为移动端 L1 数据缓存大小
+    private static final int ROW_BLOCK = 64;
+    private static final int QUERY_BLOCK = 4;
+
+    private SimilarityKernel() {
+    }
+
+    /**
+     * 计算 n 个查询与 m 行库向量的点积矩阵，结果写入 out（长度至少 n * m）
+     */
+    public static void scoreMatrix(float[] queries, int n, float[] gallery, int m, int dim, float[] out) {
+        for (int rowStart = 0; rowStart < m; rowStart += ROW_BLOCK) {
+            int rowEnd = Math.min(m, rowStart + ROW_BLOCK);
+            int q = 0;
+            for (; q + QUERY_BLOCK <= n; q += QUERY_BLOCK) {
+                scoreBlock4(queries, q, gallery, rowStart, rowEnd, m, dim, out);
+            }
+            for (; q < n; q++) {
+                int qOff = q * dim;
+                int outOff = q * m;
+                for (int r = rowStart; r < rowEnd; r++) {
+                    out[outOff + r] = dot(queries, qOff, gallery, r * dim, dim);
+                }
+            }
+        }
+    }
+
+    /**
+     * 4 个查询同时与 [rowStart, rowEnd) 行比对，库元素读取一次复用 4 次
+     */
+    private static void scoreBlock4(float[] queries, int q, float[] gallery, int rowStart, int rowEnd,
+            int m, int dim, float[] out) {
+        int q0 = q * dim;
+        int q1 = q0 + dim;
+        int q2 = q1 + dim;
+        int q3 = q2 + dim;
+        for (int r = rowStart; r < rowEnd; r++) {
+            int g = r * dim;
+            float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+            for (int i = 0; i < dim; i++) {
+                float v = gallery[g + i];
+                s0 += queries[q0 + i] * v;
+                s1 += queries[q1 + i] * v;
+                s2 += queries[q2 + i] * v;
+                s3 += queries[q3 + i] * v;
+            }
+            out[q * m + r] = s0;
+            out[(q + 1) * m + r] = s1;
+            out[(q + 2) * m + r] = s2;
+            out[(q + 3) * m + r] = s3;
+        }
+    }
+
+    /**
+     * 两段向量的点积，4 路展开以减少循环开销与累加依赖
+     */
+    public static float dot(float[] a, int aOff, float[] b, int bOff, int dim) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        for (; i + 4 <= dim; i += 4) {
+            s0 += a[aOff + i] * b[bOff + i];
+            s1 += a[aOff + i + 1] * b[bOff + i + 1];
+            s2 += a[aOff + i + 2] * b[bOff + i + 2];
+            s3 += a[aOff + i + 3] * b[bOff + i + 3];
+        }
+        for (; i < dim; i++) {
+            s0 += a[aOff + i] * b[bOff + i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    /**
+     * 对分数矩阵每一行取最大值；bestRow 为 -1 表示该行没有大于 0 的分数
+     */
+    public static void argmaxRows(float[] scores, int n, int m, int[] bestRow, float[] bestScore) {
+        for (int q = 0; q < n; q++) {
+            int off = q * m;
+            int best = -1;
+            float bestVal = 0f;
+            for (int r = 0; r < m; r++) {
+                float v = scores[off + r];
+                if (v > bestVal) {
+                    bestVal = v;
+                    best = r;
+                }
+            }
+            bestRow[q] = best;
+            bestScore[q] = bestVal > 1f ? 1f : bestVal;
+        }
+    }
+
+    /**
+     * 将多个查询向量按行拷贝为扁平数组；维度不符的查询填零（得分恒为 0）
+     */
+    public static float[] pack(java.util.List<float[]> vectors, int dim) {
+        int n = vectors.size();
+        float[] packed = new float[n * dim];
+        for (int i = 0; i < n; i++) {
+            float[] v = vectors.get(i);
+            if (v != null && v.length == dim) {
+                System.arraycopy(v, 0, packed, i * dim, dim);
+            }
+        }
+        return packed;
+    }
+}
@@ -0,0 +1,552 @@
+package com.example.facecheck.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 大合照分块检测：检测模型把整图压到 320×320，4000 px 教室照片后排学生只剩几个像素而漏检
+ * - 按 tileSize（源图像素）与重叠比例把原图切成相互重叠的瓦片，另加一次整图缩小的全局检测（兜住跨瓦片的大脸）
+ * - 瓦片与全局检测作为独立任务并行执行，每个任务从检测器池借出独占的检测器
+ * - 瓦片内的框平移回原图坐标；贴着瓦片内侧边界（非图像边界）且截断方向上小于重叠宽度的框丢弃，
+ *   这样的脸完整落在相邻瓦片的重叠区内，由相邻瓦片给出；比重叠宽度大的截断框保留，
+ *   否则关闭全局检测时宽于重叠区的人脸会在两侧瓦片都被丢掉。最后跨瓦片做一次 NMS 合并
+ * 图像长边不超过 tileSize 的 1.25 倍时退化为单次整图检测。
+ */
+public final class TiledFaceDetector {
+
+    private static final String TAG = "TiledFaceDetector";
+
+    public static final int DEFAULT_TILE_SIZE = 640;
+    public static final float DEFAULT_OVERLAP = 0.25f;
+    // 跨瓦片合并的 IoU 阈值：同一张脸在相邻瓦片中的框略有偏差，比单次检测的 NMS 阈值更宽松
+    static final float MERGE_IOU = 0.4f;
+    // 距瓦片内侧边界不足该像素数的框视为被截断
+    static final int EDGE_MARGIN = 2;
+
+    private static final String PREFS = "settings_prefs";
+    private static final String KEY_ENABLED = "tiled_detection_enabled";
+    private static final String KEY_TILE_SIZE = "tiled_detection_tile_size";
+    private static final String KEY_OVERLAP = "tiled_detection_overlap";
+
+    /**
+     * 单张图（瓦片或整图）检测器；同一时刻只被一个线程使用
+     */
+    public interface TileDetector {
+        int detectInto(Bitmap image, DetectionBuffer out);
+
+        void close();
+    }
+
+    /**
+     * 在原图 (x, y, w, h) 区域上检测，结果写入 out（区域内坐标）；区域为整图时即全局检测
+     */
+    interface RegionDetector {
+        void detect(int x, int y, int w, int h, DetectionBuffer out);
+    }
+
+    private static ExecutorService tileWorkers;
+
+    private final InterpreterPool<TileDetector> pool;
+    private volatile int tileSize = DEFAULT_TILE_SIZE;
+    private volatile float overlap = DEFAULT_OVERLAP;
+    private volatile boolean globalPass = true;
+
+    public TiledFaceDetector(InterpreterPool<TileDetector> pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * 借用进程内共享的 YuNet 分块检测器（workers 个独立检测器实例，由 ModelRegistry 持有），
+     * 瓦片大小与重叠比例取设置项；模型加载失败返回 null
+     */
+    public static ModelRegistry.Lease<TiledFaceDetector> acquireYuNet(Context context,
+            YuNetTFLiteDetector.ModelVariant variant) {
+        final Context app = context.getApplicationContext();
+        final int workers = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        ModelRegistry.Lease<TiledFaceDetector> lease = ModelRegistry.get().acquire("yunet-tiled:" + variant, () -> {
+            InterpreterPool<TileDetector> pool = new InterpreterPool<>(workers, () -> {
+                YuNetTFLiteDetector detector = new YuNetTFLiteDetector(app, 320, 0.6f, 0.5f, variant, workers);
+                if (!detector.isReady())
+                    throw new IllegalStateException("YuNet model unavailable");
+                return detector;
+            }, TileDetector::close);
+            // 先建一个实例确认模型可用，失败时不缓存
+            TileDetector probe = pool.acquire();
+            pool.release(probe);
+            return new TiledFaceDetector(pool);
+        }, tiled -> tiled.pool.close());
+        if (lease != null) {
+            SharedPreferences prefs = app.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+            lease.get().setTileSize(prefs.getInt(KEY_TILE_SIZE, DEFAULT_TILE_SIZE));
+            lease.get().setOverlap(prefs.getFloat(KEY_OVERLAP, DEFAULT_OVERLAP));
+        }
+        return lease;
+    }
+
+    /**
+     * 默认关闭：3200px 原图在 640/25% 默认参数下约 8×6 个瓦片加一次整图检测，耗时远高于单次检测，
+     * 需在设置页手动开启
+     */
+    public static boolean isEnabled(Context context) {
+        return context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).getBoolean(KEY_ENABLED, false);
+    }
+
+    public static void setEnabled(Context context, boolean enabled) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit().putBoolean(KEY_ENABLED, enabled).apply();
+    }
+
+    /**
+     * 保存分块检测设置：是否启用、瓦片边长（源图像素）与重叠比例（0~0.5）
+     */
+    public static void saveSettings(Context context, boolean enabled, int tileSize, float overlap) {
+        context.getSharedPreferences(PREFS, Context.MODE_PRIVATE).edit()
+                .putBoolean(KEY_ENABLED, enabled)
+                .putInt(KEY_TILE_SIZE, tileSize)
+                .putFloat(KEY_OVERLAP, overlap)
+                .apply();
+    }
+
+    public void setTileSize(int tileSize) {
+        this.tileSize = Math.max(160, tileSize);
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public void setOverlap(float overlap) {
+        this.overlap = Math.max(0f, Math.min(0.5f, overlap));
+    }
+
+    public float getOverlap() {
+        return overlap;
+    }
+
+    public void setGlobalPass(boolean globalPass) {
+        this.globalPass = globalPass;
+    }
+
+    /**
+     * 分块检测，返回原图坐标下合并后的检测结果
+     */
+    public List<YuNetTFLiteDetector.Detection> detectFaces(Bitmap source) {
+        DetectionBuffer out = new DetectionBuffer();
+        detectInto(source, out);
+        return out.toDetections();
+    }
+
+    /**
+     * 分块检测，合并结果（原图坐标，按分数降序）写入 out 并返回个数
+     */
+    public int detectInto(Bitmap source, DetectionBuffer out) {
+        final int w = source.getWidth();
+        final int h = source.getHeight();
+        out.reset(false);
+        if (Math.max(w, h) <= tileSize * 1.25f)
+            return detectWhole(source, out);
+        return detectTiled(w, h, (x, y, tw, th, buf) -> detectRegion(source, x, y, tw, th, buf), out);
+    }
+
+    /**
+     * 按当前瓦片设置把 w×h 的图切块，经 regions 并行检测各瓦片（及整图），合并结果写入 out
+     */
+    int detectTiled(int w, int h, RegionDetector regions, DetectionBuffer out) {
+        final int tile = tileSize;
+        final int overlapPx = Math.round(tile * overlap);
+        final int[] tiles = layoutTiles(w, h, tile, overlapPx);
+        final int tileCount = tiles.length / 4;
+        // 任务 0..tileCount-1 为瓦片，最后一个为全局检测
+        final int taskCount = tileCount + (globalPass ? 1 : 0);
+        final DetectionBuffer[] results = new DetectionBuffer[taskCount];
+        long t0 = System.nanoTime();
+
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 1; i < taskCount; i++) {
+            final int task = i;
+            futures.add(tileWorkers().submit(() -> results[task] = runTask(regions, tiles, task, tileCount, w, h)));
+        }
+        results[0] = runTask(regions, tiles, 0, tileCount, w, h);
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "tile detection failed: " + e.getCause(), e.getCause());
+            }
+        }
+
+        boolean landmarks = false;
+        for (DetectionBuffer r : results) {
+            if (r != null && r.size() > 0) {
+                landmarks = r.hasLandmarks();
+                break;
+            }
+        }
+        out.reset(landmarks);
+        for (int task = 0; task < taskCount; task++) {
+            if (results[task] == null)
+                continue;
+            if (task < tileCount) {
+                mergeTile(results[task], tiles[4 * task], tiles[4 * task + 1], tiles[4 * task + 2],
+                        tiles[4 * task + 3], w, h, overlapPx, out);
+            } else {
+                mergeTile(results[task], 0, 0, w, h, w, h, overlapPx, out);
+            }
+        }
+        int candidates = out.size();
+        out.nms(MERGE_IOU);
+        Log.d(TAG, String.format(Locale.US, "tiled detect: %dx%d, tiles=%d, tile=%d, overlap=%d, global=%b, "
+                + "candidates=%d, faces=%d, cost=%.1fms", w, h, tileCount, tile, overlapPx, globalPass, candidates,
+                out.size(), (System.nanoTime() - t0) / 1e6));
+        return out.size();
+    }
+
+    /**
+     * 用池内检测器对空白输入跑一次检测，完成首轮算子初始化；检测器不可用时返回 false
+     */
+    public boolean warmUp() {
+        TileDetector detector = acquireDetector();
+        if (detector == null)
+            return false;
+        try {
+            detector.detectInto(Bitmap.createBitmap(320, 320, Bitmap.Config.ARGB_8888), new DetectionBuffer());
+            return true;
+        } finally {
+            pool.release(detector);
+        }
+    }
+
+    /**
+     * 单次整图检测（与分块检测共用检测器池），用于小图与对比
+     */
+    public int detectWhole(Bitmap source, DetectionBuffer out) {
+        TileDetector detector = acquireDetector();
+        if (detector == null) {
+            out.reset(false);
+            return 0;
+        }
+        try {
+            return detector.detectInto(source, out);
+        } finally {
+            pool.release(detector);
+        }
+    }
+
+    private static DetectionBuffer runTask(RegionDetector regions, int[] tiles, int task, int tileCount, int w,
+            int h) {
+        DetectionBuffer buf = new DetectionBuffer();
+        if (task >= tileCount)
+            regions.detect(0, 0, w, h, buf);
+        else
+            regions.detect(tiles[4 * task], tiles[4 * task + 1], tiles[4 * task + 2], tiles[4 * task + 3], buf);
+        return buf;
+    }
+
+    private void detectRegion(Bitmap source, int x, int y, int tw, int th, DetectionBuffer buf) {
+        if (x == 0 && y == 0 && tw == source.getWidth() && th == source.getHeight()) {
+            detectWhole(source, buf);
+            return;
+        }
+        Bitmap crop = Bitmap.createBitmap(source, x, y, tw, th);
+        try {
+            detectWhole(crop, buf);
+        } finally {
+            if (crop != source)
+                crop.recycle();
+        }
+    }
+
+    private TileDetector acquireDetector() {
+        try {
+            return pool.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            Log.e(TAG, "acquire detector failed: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    private static synchronized ExecutorService tileWorkers() {
+        if (tileWorkers == null) {
+            tileWorkers = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "face-tiles");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return tileWorkers;
+    }
+
+    /**
+     * 瓦片布局：返回 [x, y, w, h] 平铺数组。每个轴按步长 tile - overlap 排列，最后一块对齐到图像末端；
+     * 轴长不超过 tile 时整轴一块
+     */
+    static int[] layoutTiles(int width, int height, int tile, int overlap) {
+        int[] xs = axisStarts(width, tile, overlap);
+        int[] ys = axisStarts(height, tile, overlap);
+        int[] out = new int[xs.length * ys.length * 4];
+        int k = 0;
+        for (int y : ys) {
+            for (int x : xs) {
+                out[k++] = x;
+                out[k++] = y;
+                out[k++] = Math.min(tile, width - x);
+                out[k++] = Math.min(tile, height - y);
+            }
+        }
+        return out;
+    }
+
+    private static int[] axisStarts(int length, int tile, int overlap) {
+        if (length <= tile)
+            return new int[] { 0 };
+        int step = Math.max(1, tile - overlap);
+        int n = (length - tile + step - 1) / step + 1;
+        int[] starts = new int[n];
+        for (int i = 0; i < n; i++)
+            starts[i] = Math.min(i * step, length - tile);
+        return starts;
+    }
+
+    /**
+     * 把瓦片 (tx, ty, tw, th) 内的检测结果平移到原图坐标并追加到 out。
+     * 贴着瓦片内侧边界（不是图像边界）的框是被截断的人脸：截断方向上的尺寸小于 overlap 时，
+     * 整张脸落在相邻瓦片的重叠区内，丢弃；否则相邻瓦片同样只能看到一部分，保留给跨瓦片 NMS 合并
+     */
+    static void mergeTile(DetectionBuffer tileResult, int tx, int ty, int tw, int th, int imageWidth,
+            int imageHeight, int overlap, DetectionBuffer out) {
+        boolean innerLeft = tx > 0, innerTop = ty > 0;
+        boolean innerRight = tx + tw < imageWidth, innerBottom = ty + th < imageHeight;
+        boolean landmarks = tileResult.hasLandmarks() && out.hasLandmarks();
+        for (int i = 0; i < tileResult.size(); i++) {
+            float l = tileResult.left(i), t = tileResult.top(i), r = tileResult.right(i), b = tileResult.bottom(i);
+            boolean cutX = (innerLeft && l <= EDGE_MARGIN) || (innerRight && r >= tw - EDGE_MARGIN);
+            boolean cutY = (innerTop && t <= EDGE_MARGIN) || (innerBottom && b >= th - EDGE_MARGIN);
+            if ((cutX && r - l < overlap) || (cutY && b - t < overlap))
+                continue;
+            int idx = out.add(l + tx, t + ty, r + tx, b + ty, tileResult.score(i));
+            if (landmarks) {
+                for (int k = 0; k < 5; k++)
+                    out.setLandmark(idx, k, tileResult.landmarkX(i, k) + tx, tileResult.landmarkY(i, k) + ty);
+            }
+        }
+    }
+
+    // ---- 召回/耗时报告 ----
+
+    /**
+     * 合成大合照基准：把 assets 预置班级的头像按 24~160 px 的人脸宽度铺到 4000×3000 画布上（已知真值框），
+     * 对比单次整图检测与若干瓦片配置的召回率（IoU ≥ 0.4，按人脸尺寸分档）、误检数与平均耗时；
+     * 返回报告文件路径，失败返回 null
+     */
+    public static String benchmarkAndExport(Context context) {
+        final int[] faceSizes = { 24, 32, 48, 64, 96, 160 };
+        final int[][] configs = { { 640, 25 }, { 960, 25 }, { 640, 10 } };
+        final int rounds = 3;
+        StringBuilder sb = new StringBuilder();
+        sb.append("Tiled Face Detection Report\n")
+                .append("time=").append(System.currentTimeMillis())
+                .append(", cpus=").append(Runtime.getRuntime().availableProcessors())
+                .append(", rounds=").append(rounds).append("\n\n");
+
+        try (ModelRegistry.Lease<TiledFaceDetector> lease = acquireYuNet(context,
+                YuNetTFLiteDetector.ModelVariant.MULTI_FACE)) {
+            if (lease == null) {
+                sb.append("YuNet model unavailable\n");
+            } else {
+                TiledFaceDetector tiled = lease.get();
+                List<float[]> truth = new ArrayList<>();
+                Bitmap scene = buildScene(context, tiled, faceSizes, truth);
+                sb.append("scene=").append(scene.getWidth()).append('x').append(scene.getHeight())
+                        .append(", faces=").append(truth.size()).append("\n\n");
+
+                int savedTile = tiled.getTileSize();
+                float savedOverlap = tiled.getOverlap();
+                try {
+                    appendRun(sb, "single-pass", tiled, scene, truth, faceSizes, rounds, true);
+                    for (int[] c : configs) {
+                        tiled.setTileSize(c[0]);
+                        tiled.setOverlap(c[1] / 100f);
+                        appendRun(sb, "tiled tile=" + c[0] + " overlap=" + c[1] + "%", tiled, scene, truth,
+                                faceSizes, rounds, false);
+                    }
+                } finally {
+                    tiled.setTileSize(savedTile);
+                    tiled.setOverlap(savedOverlap);
+                    scene.recycle();
+                }
+            }
+        } catch (Throwable t) {
+            Log.e(TAG, "benchmarkAndExport failed: " + t.getMessage(), t);
+            return null;
+        }
+
+        try {
+            File outDir = context.getExternalFilesDir("reports");
+            if (outDir != null && !outDir.exists())
+                outDir.mkdirs();
+            File outFile = new File(outDir, "tiled-detection-" + System.currentTimeMillis() + ".txt");
+            FileOutputStream fos = new FileOutputStream(outFile);
+            fos.write(sb.toString().getBytes("UTF-8"));
+            fos.flush();
+            fos.close();
+            Log.i(TAG, "Tiled detection report exported: " + outFile.getAbsolutePath());
+            return outFile.getAbsolutePath();
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write tiled detection report: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * 生成合成场景：每行一种人脸尺寸，循环使用预置头像；truth 收到 [left, top, right, bottom, faceSize]
+     */
+    private static Bitmap buildScene(Context context, TiledFaceDetector detector, int[] faceSizes,
+            List<float[]> truth) throws java.io.IOException {
+        final int sceneW = 4000, sceneH = 3000, gap = 16;
+        List<Bitmap> avatars = new ArrayList<>();
+        List<float[]> faceBoxes = new ArrayList<>();
+        for (String folder : new String[] { "北约峰会", "三巨头" }) {
+            String[] files = context.getAssets().list(folder);
+            for (String name : files == null ? new String[0] : files) {
+                Bitmap photo;
+                try (java.io.InputStream is = context.getAssets().open(folder + "/" + name)) {
+                    photo = android.graphics.BitmapFactory.decodeStream(is);
+                }
+                if (photo == null)
+                    continue;
+                DetectionBuffer buf = new DetectionBuffer();
+                if (detector.detectWhole(photo, buf) == 0) {
+                    photo.recycle();
+                    continue;
+                }
+                avatars.add(photo);
+                faceBoxes.add(new float[] { buf.left(0), buf.top(0), buf.right(0), buf.bottom(0) });
+            }
+        }
+
+        Bitmap scene = Bitmap.createBitmap(sceneW, sceneH, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(scene);
+        canvas.drawColor(Color.rgb(120, 120, 120));
+        if (avatars.isEmpty())
+            return scene;
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Matrix m = new Matrix();
+        int y = gap, next = 0;
+        for (int size : faceSizes) {
+            int x = gap, rowH = 0;
+            while (true) {
+                Bitmap a = avatars.get(next % avatars.size());
+                float[] box = faceBoxes.get(next % avatars.size());
+                float s = size / Math.max(1f, box[2] - box[0]);
+                int aw = Math.round(a.getWidth() * s), ah = Math.round(a.getHeight() * s);
+                if (x + aw > sceneW)
+                    break;
+                if (y + ah > sceneH)
+                    return scene;
+                m.setScale(s, s);
+                m.postTranslate(x, y);
+                canvas.drawBitmap(a, m, paint);
+                truth.add(new float[] { x + box[0] * s, y + box[1] * s, x + box[2] * s, y + box[3] * s, size });
+                x += aw + gap;
+                rowH = Math.max(rowH, ah);
+                next++;
+            }
+            y += rowH + gap;
+        }
+        for (Bitmap a : avatars)
+            a.recycle();
+        return scene;
+    }
+
+    private static void appendRun(StringBuilder sb, String label, TiledFaceDetector detector, Bitmap scene,
+            List<float[]> truth, int[] faceSizes, int rounds, boolean singlePass) {
+        DetectionBuffer out = new DetectionBuffer();
+        // 预热一次（创建池内检测器），再计时
+        if (singlePass)
+            detector.detectWhole(scene, out);
+        else
+            detector.detectInto(scene, out);
+        long t0 = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            if (singlePass)
+                detector.detectWhole(scene, out);
+            else
+                detector.detectInto(scene, out);
+        }
+        double ms = (System.nanoTime() - t0) / 1e6 / rounds;
+
+        boolean[] matched = matchTruth(out, truth, 0.4f);
+        int hit = 0;
+        for (boolean b : matched)
+            if (b)
+                hit++;
+        sb.append(label).append(": avgMs=").append(String.format(Locale.US, "%.1f", ms))
+                .append(", detections=").append(out.size())
+                .append(", recall=").append(hit).append('/').append(truth.size())
+                .append(", falsePositives=").append(Math.max(0, out.size() - hit)).append('\n');
+        for (int size : faceSizes) {
+            int total = 0, found = 0;
+            for (int i = 0; i < truth.size(); i++) {
+                if ((int) truth.get(i)[4] != size)
+                    continue;
+                total++;
+                if (matched[i])
+                    found++;
+            }
+            sb.append("  face=").append(size).append("px: ").append(found).append('/').append(total).append('\n');
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * 贪心匹配：每个真值框取 IoU 最大且未被占用的检测结果，IoU 达到阈值视为召回
+     */
+    static boolean[] matchTruth(DetectionBuffer dets, List<float[]> truth, float iouThreshold) {
+        boolean[] matched = new boolean[truth.size()];
+        boolean[] used = new boolean[dets.size()];
+        for (int i = 0; i < truth.size(); i++) {
+            float[] g = truth.get(i);
+            int best = -1;
+            float bestIou = iouThreshold;
+            for (int j = 0; j < dets.size(); j++) {
+                if (used[j])
+                    continue;
+                float x1 = Math.max(g[0], dets.left(j)), y1 = Math.max(g[1], dets.top(j));
+                float x2 = Math.min(g[2], dets.right(j)), y2 = Math.min(g[3], dets.bottom(j));
+                float inter = Math.max(0f, x2 - x1) * Math.max(0f, y2 - y1);
+                float union = (g[2] - g[0]) * (g[3] - g[1])
+                        + (dets.right(j) - dets.left(j)) * (dets.bottom(j) - dets.top(j)) - inter;
+                float iou = union > 0f ? inter / union : 0f;
+                if (iou >= bestIou) {
+                    bestIou = iou;
+                    best = j;
+                }
+            }
+            if (best >= 0) {
+                used[best] = true;
+                matched[i] = true;
+            }
+        }
+        return matched;
+    }
+}
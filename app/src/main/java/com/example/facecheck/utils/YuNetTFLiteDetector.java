@@ -11,12 +11,13 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * YuNet TFLite 人脸检测（简化版）
@@ -24,9 +25,13 @@ import java.util.List;
  *   - yunet_fp16_multi.tflite  多人脸（考勤/群体）优先使用 fp16 以提升速度
  *   - yunet_fp32_single.tflite 单人脸（精细检测）优先使用 fp32 以提升精度
  * - 输入默认 320x320，输出解析为 [x, y, w, h, score, ...]
+ *   列数 ≥ 15 时第 5~14 列为 5 个关键点（右眼、左眼、鼻尖、右嘴角、左嘴角，x/y 交错），供对齐使用
+ * - 输入按 Letterbox 等比缩放补边（不拉伸），解码出的框与关键点按记录的缩放/偏移精确映射回原图
+ * - 输入尺寸固定，张量只在创建时分配一次；输入缓冲、letterbox 画布、平铺输出数组与检测结果缓冲
+ *   均跨调用复用，detectInto 在稳态下不分配对象，可用于连续的相机帧检测
  * 注意：不同 YuNet 转换版本的输出格式存在差异，必要时按实际模型调整 decode。
  */
-public class YuNetTFLiteDetector {
+public class YuNetTFLiteDetector implements TiledFaceDetector.TileDetector {
     private static final String TAG = "YuNetTFLiteDetector";
 
     public enum ModelVariant { SINGLE_FACE, MULTI_FACE }
@@ -41,6 +46,18 @@ public class YuNetTFLiteDetector {
     private final float nmsThreshold;
     private final ModelVariant variant;
 
+    // 跨调用复用的推理状态（由 prepareTensors 按张量规格创建）
+    private ByteBuffer inputBuffer;
+    private ByteBuffer outputBuffer;
+    private FloatBuffer outputFloats;
+    private float[] outputFlat;
+    private int outputRows;
+    private int outputCols;
+    private Object[] runInputs;
+    private Map<Integer, Object> runOutputs;
+    private Letterbox letterbox;
+    private final DetectionBuffer results = new DetectionBuffer();
+
     public YuNetTFLiteDetector(Context context) {
         this(context, 320, 0.6f, 0.5f, ModelVariant.MULTI_FACE);
     }
@@ -50,6 +67,14 @@ public class YuNetTFLiteDetector {
     }
 
     public YuNetTFLiteDetector(Context context, int inputSize, float scoreThreshold, float nmsThreshold, ModelVariant variant) {
+        this(context, inputSize, scoreThreshold, nmsThreshold, variant, 1);
+    }
+
+    /**
+     * concurrency：同时运行的检测器实例数（如分块检测的工作线程数），调优时按此限制单实例线程数
+     */
+    public YuNetTFLiteDetector(Context context, int inputSize, float scoreThreshold, float nmsThreshold,
+            ModelVariant variant, int concurrency) {
         this.context = context.getApplicationContext();
         this.inputSize = inputSize;
         this.scoreThreshold = scoreThreshold;
@@ -58,8 +83,13 @@ public class YuNetTFLiteDetector {
         try {
             String assetPath = (variant == ModelVariant.SINGLE_FACE) ? ASSET_YUNET_SINGLE : ASSET_YUNET_MULTI;
             MappedByteBuffer model = loadModelFile(assetPath);
-            interpreter = new Interpreter(model);
-            Log.d(TAG, "YuNet TFLite interpreter initialized");
+            // 线程数与 XNNPACK 开关按设备自动调优（每个变体首次加载时测量一次，结果缓存）
+            InferenceConfig config = InferenceTuner.get(this.context).resolve(InferenceTuner.modelKey(assetPath),
+                    InferenceTuner.interpreterProbe(model), concurrency);
+            interpreter = new Interpreter(model, config.toOptions());
+            prepareTensors();
+            Log.d(TAG, "YuNet TFLite interpreter initialized: " + config + ", output=" + outputRows + "x"
+                    + outputCols);
         } catch (IOException e) {
             Log.e(TAG, "YuNet model load failed: " + e.getMessage());
             interpreter = null;
@@ -69,6 +99,29 @@ public class YuNetTFLiteDetector {
         }
     }
 
+    /**
+     * 借用进程内共享的检测器（输入 320、score 0.6、NMS 0.5，按变体各一个，由 ModelRegistry 持有），
+     * 避免每次检测重新映射模型、创建 Interpreter；模型加载失败返回 null（不缓存，下次重试）
+     * 用完关闭租约；内存紧张时注册表会在无人借用时关闭检测器
+     */
+    public static ModelRegistry.Lease<YuNetTFLiteDetector> acquireShared(Context context, ModelVariant variant) {
+        final Context app = context.getApplicationContext();
+        return ModelRegistry.get().acquire("yunet:" + variant, () -> {
+            YuNetTFLiteDetector detector = new YuNetTFLiteDetector(app, 320, 0.6f, 0.5f, variant);
+            return detector.isReady() ? detector : null;
+        }, YuNetTFLiteDetector::close);
+    }
+
+    /**
+     * 用空白输入跑一次检测，完成张量分配与首轮算子初始化；返回模型是否可用
+     */
+    public boolean warmUp() {
+        if (interpreter == null)
+            return false;
+        detectFaces(Bitmap.createBitmap(inputSize, inputSize, Bitmap.Config.ARGB_8888));
+        return true;
+    }
+
     private MappedByteBuffer loadModelFile(String assetPath) throws IOException {
         // 优先使用内存映射（要求资产未压缩），失败则回退到复制到缓存文件
         try {
@@ -95,121 +148,137 @@ public class YuNetTFLiteDetector {
         }
     }
 
-    private ByteBuffer preprocess(Bitmap src) {
-        Bitmap resized = Bitmap.createScaledBitmap(src, inputSize, inputSize, true);
-        ByteBuffer buffer = ByteBuffer.allocateDirect(inputSize * inputSize * 3 * 4);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
-        int[] pixels = new int[inputSize * inputSize];
-        resized.getPixels(pixels, 0, inputSize, 0, 0, inputSize, inputSize);
-        for (int i = 0; i < pixels.length; i++) {
-            int p = pixels[i];
-            float r = ((p >> 16) & 0xFF) / 255.0f;
-            float g = ((p >> 8) & 0xFF) / 255.0f;
-            float b = (p & 0xFF) / 255.0f;
-            buffer.putFloat(r);
-            buffer.putFloat(g);
-            buffer.putFloat(b);
-        }
-        buffer.rewind();
-        return buffer;
+    /**
+     * 分配一次张量并按输入/输出规格创建复用缓冲；之后的检测不再调用 allocateTensors
+     */
+    private void prepareTensors() {
+        interpreter.allocateTensors();
+        int[] outShape = interpreter.getOutputTensor(0).shape(); // e.g., [1, N, 15]
+        outputRows = outShape.length >= 2 ? outShape[1] : 0;
+        outputCols = outShape.length >= 3 ? outShape[2] : 0;
+        inputBuffer = ByteBuffer.allocateDirect(inputSize * inputSize * 3 * 4).order(ByteOrder.nativeOrder());
+        outputBuffer = ByteBuffer.allocateDirect(Math.max(1, outputRows * outputCols) * 4)
+                .order(ByteOrder.nativeOrder());
+        outputFloats = outputBuffer.asFloatBuffer();
+        outputFlat = new float[Math.max(0, outputRows * outputCols)];
+        runInputs = new Object[] { inputBuffer };
+        runOutputs = new HashMap<>();
+        runOutputs.put(0, outputBuffer);
+        letterbox = new Letterbox(inputSize, inputSize);
     }
 
     public static class Detection {
         public final Rect bbox;
         public final float score;
-        public Detection(Rect bbox, float score) { this.bbox = bbox; this.score = score; }
+        // 原图坐标下的 5 个关键点（x/y 交错，共 10 个值）；模型不输出关键点时为 null
+        public final float[] landmarks;
+        public Detection(Rect bbox, float score) { this(bbox, score, null); }
+        public Detection(Rect bbox, float score, float[] landmarks) {
+            this.bbox = bbox;
+            this.score = score;
+            this.landmarks = landmarks;
+        }
     }
 
     /**
      * 运行检测并返回原图坐标下的候选框
      */
     public List<Rect> detect(Bitmap source) {
+        List<Rect> rects = new ArrayList<>();
+        for (Detection d : detectFaces(source)) rects.add(d.bbox);
+        return rects;
+    }
+
+    /**
+     * 运行检测并返回原图坐标下的检测结果（含分数与关键点），已做 NMS
+     * 共享实例可能被多个线程使用，Interpreter 非线程安全，检测串行执行
+     */
+    public synchronized List<Detection> detectFaces(Bitmap source) {
+        detectInto(source, results);
+        return results.toDetections();
+    }
+
+    /**
+     * 运行检测，把 NMS 后的结果（原图坐标，按分数降序）写入 out 并返回个数
+     * 输入尺寸固定时稳态下不分配对象，适合连续帧检测；out 由调用方持有并在下一帧复用
+     */
+    @Override
+    public synchronized int detectInto(Bitmap source, DetectionBuffer out) {
+        out.reset(false);
         if (interpreter == null) {
             Log.w(TAG, "YuNet interpreter not initialized; returning empty detections");
-            return new ArrayList<>();
+            return 0;
+        }
+        if (outputRows <= 0 || outputCols < 5) {
+            Log.e(TAG, "Unexpected YuNet output shape: " + outputRows + "x" + outputCols);
+            return 0;
         }
         try {
-            ByteBuffer input = preprocess(source);
-            interpreter.allocateTensors();
-            int[] outShape = interpreter.getOutputTensor(0).shape(); // e.g., [1, N, 15]
-            int n = outShape.length >= 2 ? outShape[1] : 0;
-            int m = outShape.length >= 3 ? outShape[2] : 0;
-            if (n <= 0 || m < 5) {
-                Log.e(TAG, "Unexpected YuNet output shape: " + java.util.Arrays.toString(outShape));
-                return new ArrayList<>();
-            }
+            letterbox.writeRgb(source, inputBuffer, 1f / 255f);
+            inputBuffer.rewind();
+            outputBuffer.rewind();
+            // 单输入、单输出；张量已在创建时分配
+            interpreter.runForMultipleInputsOutputs(runInputs, runOutputs);
+            outputFloats.rewind();
+            outputFloats.get(outputFlat);
 
-            float[][][] output = new float[1][n][m];
-            // 单输入、单输出
-            interpreter.run(input, output);
-
-            // 解析候选框（假设 [x, y, w, h, score, ...] 都为输入尺寸尺度）
-            List<Detection> dets = new ArrayList<>();
-            float sx = (float) source.getWidth() / inputSize;
-            float sy = (float) source.getHeight() / inputSize;
-
-            for (int i = 0; i < n; i++) {
-                float[] row = output[0][i];
-                float score = row[4];
-                if (score < scoreThreshold) continue;
-                float x = row[0];
-                float y = row[1];
-                float w = row[2];
-                float h = row[3];
-                int left = Math.max(0, Math.round(x * sx));
-                int top = Math.max(0, Math.round(y * sy));
-                int right = Math.min(source.getWidth(), Math.round((x + w) * sx));
-                int bottom = Math.min(source.getHeight(), Math.round((y + h) * sy));
-                if (right > left && bottom > top) {
-                    dets.add(new Detection(new Rect(left, top, right, bottom), score));
-                }
-            }
-
-            // NMS
-            List<Detection> nmsDets = nonMaxSuppression(dets, nmsThreshold);
-            List<Rect> rects = new ArrayList<>();
-            for (Detection d : nmsDets) rects.add(d.bbox);
-            return rects;
+            decode(outputFlat, outputRows, outputCols, scoreThreshold, letterbox, out);
+            out.nms(nmsThreshold);
+            return out.size();
         } catch (Throwable t) {
             Log.e(TAG, "YuNet detect failed: " + t.getMessage(), t);
-            return new ArrayList<>();
+            out.reset(false);
+            return 0;
         }
     }
 
-    private List<Detection> nonMaxSuppression(List<Detection> dets, float iouThresh) {
-        if (dets.isEmpty()) return dets;
-        List<Detection> res = new ArrayList<>();
-        List<Detection> sorted = new ArrayList<>(dets);
-        Collections.sort(sorted, Comparator.comparingDouble(d -> -d.score));
-        boolean[] removed = new boolean[sorted.size()];
-        for (int i = 0; i < sorted.size(); i++) {
-            if (removed[i]) continue;
-            Detection a = sorted.get(i);
-            res.add(a);
-            for (int j = i + 1; j < sorted.size(); j++) {
-                if (removed[j]) continue;
-                Detection b = sorted.get(j);
-                if (iou(a.bbox, b.bbox) > iouThresh) {
-                    removed[j] = true;
-                }
+    /**
+     * 解析平铺的 [n, m] 输出（假设 [x, y, w, h, score, ...] 都为输入尺寸尺度），
+     * 分数达到阈值的候选经 letterbox 映射回原图并裁剪到图像范围后追加到 dst
+     */
+    static void decode(float[] out, int n, int m, float scoreThreshold, Letterbox letterbox, DetectionBuffer dst) {
+        int srcWidth = letterbox.sourceWidth();
+        int srcHeight = letterbox.sourceHeight();
+        boolean withLandmarks = m >= 15;
+        dst.reset(withLandmarks);
+        for (int i = 0; i < n; i++) {
+            int row = i * m;
+            float score = out[row + 4];
+            if (score < scoreThreshold)
+                continue;
+            float x = out[row];
+            float y = out[row + 1];
+            float w = out[row + 2];
+            float h = out[row + 3];
+            float left = Math.max(0f, letterbox.toSourceX(x));
+            float top = Math.max(0f, letterbox.toSourceY(y));
+            float right = Math.min(srcWidth, letterbox.toSourceX(x + w));
+            float bottom = Math.min(srcHeight, letterbox.toSourceY(y + h));
+            if (right <= left || bottom <= top)
+                continue;
+            int idx = dst.add(left, top, right, bottom, score);
+            if (withLandmarks) {
+                for (int k = 0; k < 5; k++)
+                    dst.setLandmark(idx, k, letterbox.toSourceX(out[row + 5 + 2 * k]),
+                            letterbox.toSourceY(out[row + 6 + 2 * k]));
             }
         }
-        return res;
-    }
-
-    private float iou(Rect a, Rect b) {
-        int x1 = Math.max(a.left, b.left);
-        int y1 = Math.max(a.top, b.top);
-        int x2 = Math.min(a.right, b.right);
-        int y2 = Math.min(a.bottom, b.bottom);
-        int inter = Math.max(0, x2 - x1) * Math.max(0, y2 - y1);
-        int areaA = Math.max(0, a.right - a.left) * Math.max(0, a.bottom - a.top);
-        int areaB = Math.max(0, b.right - b.left) * Math.max(0, b.bottom - b.top);
-        int union = areaA + areaB - inter;
-        return union > 0 ? ((float) inter / union) : 0f;
     }
 
     public boolean isReady() {
         return interpreter != null;
     }
+
+    /**
+     * 释放 Interpreter；之后 detect 返回空结果
+     */
+    @Override
+    public synchronized void close() {
+        if (interpreter != null) {
+            interpreter.close();
+            interpreter = null;
+        }
+        if (letterbox != null)
+            letterbox.recycle();
+    }
 }
\ No newline at end of file
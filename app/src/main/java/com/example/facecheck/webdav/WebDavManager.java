@@ -3,6 +3,7 @@ package com.example.facecheck.webdav;
 import android.content.Context;
 import android.util.Log;
 
+import com.example.facecheck.database.DatabaseChangeBus;
 import com.thegrizzlylabs.sardineandroid.Sardine;
 import com.thegrizzlylabs.sardineandroid.DavResource;
 import com.thegrizzlylabs.sardineandroid.impl.OkHttpSardine;
@@ -276,7 +277,12 @@ public class WebDavManager {
     // 获取数据库文件
     public boolean fetchDatabase(String localDbPath) {
         String remoteDbPath = ROOT_DIR + "/database7.db";
-        return downloadFile(remoteDbPath, localDbPath);
+        boolean ok = downloadFile(remoteDbPath, localDbPath);
+        if (ok) {
+            // 本地数据库已被整体覆盖：通知所有基于数据库的缓存失效
+            DatabaseChangeBus.get(context).publishDatabaseReplaced();
+        }
+        return ok;
     }
 
     /**
@@ -0,0 +1,237 @@
+package com.example.facecheck.database;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.SharedPreferences;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+
+/**
+ * 变更总线：表版本号单调递增并持久化、按表过滤订阅、监听器异常隔离（主机 JVM，内存版 SharedPreferences）
+ */
+public class DatabaseChangeBusTest {
+
+    @Test
+    public void publish_advancesOnlyThatTableAndPersists() {
+        MemoryPrefs prefs = new MemoryPrefs();
+        DatabaseChangeBus bus = new DatabaseChangeBus(prefs);
+        assertEquals(0, bus.getVersion(DatabaseChangeBus.Table.FACE_EMBEDDING));
+
+        bus.publish(DatabaseChangeBus.Table.FACE_EMBEDDING, DatabaseChangeBus.ChangeType.INSERT, 1);
+        bus.publish(DatabaseChangeBus.Table.FACE_EMBEDDING, DatabaseChangeBus.ChangeType.UPDATE, 1);
+        assertEquals(2, bus.getVersion(DatabaseChangeBus.Table.FACE_EMBEDDING));
+        assertEquals(0, bus.getVersion(DatabaseChangeBus.Table.STUDENT));
+
+        // 进程重启：新实例从同一份存储读到相同版本号，并在其基础上继续前进
+        DatabaseChangeBus restarted = new DatabaseChangeBus(prefs);
+        assertEquals(2, restarted.getVersion(DatabaseChangeBus.Table.FACE_EMBEDDING));
+        restarted.publish(DatabaseChangeBus.Table.FACE_EMBEDDING, DatabaseChangeBus.ChangeType.DELETE, -1);
+        assertEquals(3, restarted.getVersion(DatabaseChangeBus.Table.FACE_EMBEDDING));
+        assertEquals(3, prefs.commits);
+    }
+
+    @Test
+    public void listeners_receiveOnlySubscribedTables() {
+        DatabaseChangeBus bus = new DatabaseChangeBus(new MemoryPrefs());
+        List<DatabaseChangeBus.ChangeEvent> embeddings = new ArrayList<>();
+        List<DatabaseChangeBus.ChangeEvent> all = new ArrayList<>();
+        bus.addListener(embeddings::add, DatabaseChangeBus.Table.FACE_EMBEDDING);
+        bus.addListener(all::add);
+
+        bus.publish(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.INSERT, 7);
+        bus.publish(DatabaseChangeBus.Table.FACE_EMBEDDING, DatabaseChangeBus.ChangeType.UPDATE, 42);
+
+        assertEquals(1, embeddings.size());
+        DatabaseChangeBus.ChangeEvent e = embeddings.get(0);
+        assertEquals(DatabaseChangeBus.Table.FACE_EMBEDDING, e.getTable());
+        assertEquals(DatabaseChangeBus.ChangeType.UPDATE, e.getType());
+        assertEquals(42, e.getRowId());
+        assertEquals(1, e.getVersion());
+        assertEquals(2, all.size());
+        assertEquals(DatabaseChangeBus.Table.STUDENT, all.get(0).getTable());
+    }
+
+    @Test
+    public void databaseReplaced_advancesEveryTable() {
+        DatabaseChangeBus bus = new DatabaseChangeBus(new MemoryPrefs());
+        bus.publish(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.INSERT, 1);
+        List<DatabaseChangeBus.ChangeEvent> events = new ArrayList<>();
+        bus.addListener(events::add);
+
+        bus.publishDatabaseReplaced();
+
+        assertEquals(DatabaseChangeBus.Table.values().length, events.size());
+        for (DatabaseChangeBus.ChangeEvent e : events) {
+            assertEquals(DatabaseChangeBus.ChangeType.REPLACED, e.getType());
+            assertEquals(-1, e.getRowId());
+        }
+        assertEquals(1, bus.getVersion(DatabaseChangeBus.Table.FACE_EMBEDDING));
+        assertEquals(2, bus.getVersion(DatabaseChangeBus.Table.STUDENT));
+    }
+
+    @Test
+    public void failingListener_doesNotBlockOthersAndRemoveStopsDelivery() {
+        DatabaseChangeBus bus = new DatabaseChangeBus(new MemoryPrefs());
+        List<DatabaseChangeBus.ChangeEvent> received = new ArrayList<>();
+        bus.addListener(event -> {
+            throw new IllegalStateException("boom");
+        });
+        DatabaseChangeBus.Listener listener = received::add;
+        bus.addListener(listener);
+
+        bus.publish(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.INSERT, 1);
+        assertEquals(1, received.size());
+
+        bus.removeListener(listener);
+        bus.publish(DatabaseChangeBus.Table.STUDENT, DatabaseChangeBus.ChangeType.INSERT, 2);
+        assertEquals(1, received.size());
+    }
+
+    @Test
+    public void concurrentPublishers_neverLoseAVersion() throws Exception {
+        DatabaseChangeBus bus = new DatabaseChangeBus(new MemoryPrefs());
+        final int threads = 4, perThread = 250;
+        CyclicBarrier start = new CyclicBarrier(threads);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++)
+                        bus.publish(DatabaseChangeBus.Table.FACE_EMBEDDING, DatabaseChangeBus.ChangeType.INSERT, i);
+                } catch (Exception ignored) {
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        done.await();
+        assertEquals(threads * perThread, bus.getVersion(DatabaseChangeBus.Table.FACE_EMBEDDING));
+    }
+
+    /**
+     * 只支持 long 值的内存版 SharedPreferences，记录 commit 次数
+     */
+    private static final class MemoryPrefs implements SharedPreferences {
+        private final Map<String, Object> values = new HashMap<>();
+        int commits;
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            Object v = values.get(key);
+            return v == null ? defValue : (Long) v;
+        }
+
+        @Override
+        public Editor edit() {
+            final Map<String, Object> pending = new HashMap<>();
+            return new Editor() {
+                @Override
+                public Editor putLong(String key, long value) {
+                    pending.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public boolean commit() {
+                    synchronized (MemoryPrefs.this) {
+                        values.putAll(pending);
+                        commits++;
+                    }
+                    return true;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+
+                @Override
+                public Editor putString(String key, String value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putStringSet(String key, Set<String> values) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putInt(String key, int value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putFloat(String key, float value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor putBoolean(String key, boolean value) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public Editor clear() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+
+        @Override
+        public synchronized Map<String, ?> getAll() {
+            return new HashMap<>(values);
+        }
+
+        @Override
+        public synchronized boolean contains(String key) {
+            return values.containsKey(key);
+        }
+
+        @Override
+        public String getString(String key, String defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<String> getStringSet(String key, Set<String> defValues) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int getInt(String key, int defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public float getFloat(String key, float defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean getBoolean(String key, boolean defValue) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+
+        @Override
+        public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * YuNet 平铺输出经 letterbox 的解码、缓冲内 NMS 与稳态零分配（主机 JVM）
+ */
+public class DetectionBufferTest {
+
+    private static final int COLS = 15;
+
+    /**
+     * 写入一行 [x, y, w, h, score, 5 个关键点]，关键点取框内固定位置
+     */
+    private static void putRow(float[] out, int row, float x, float y, float w, float h, float score) {
+        int base = row * COLS;
+        out[base] = x;
+        out[base + 1] = y;
+        out[base + 2] = w;
+        out[base + 3] = h;
+        out[base + 4] = score;
+        for (int k = 0; k < 5; k++) {
+            out[base + 5 + 2 * k] = x + w * (k + 1) / 6f;
+            out[base + 6 + 2 * k] = y + h / 2f;
+        }
+    }
+
+    @Test
+    public void decode_filtersScoresAndMapsThroughLetterbox() {
+        // 640×480 放入 320×320：缩放 0.5，上下各补 40
+        Letterbox letterbox = new Letterbox(320, 320);
+        letterbox.fit(640, 480);
+        float[] out = new float[4 * COLS];
+        putRow(out, 0, 10, 60, 40, 40, 0.9f);
+        putRow(out, 1, 100, 100, 30, 30, 0.3f); // 低于阈值
+        putRow(out, 2, 300, 250, 40, 40, 0.8f); // 超出右下边界，被裁剪
+        putRow(out, 3, 50, 50, 0, 10, 0.95f); // 宽度为 0，丢弃
+        DetectionBuffer buf = new DetectionBuffer(1);
+        YuNetTFLiteDetector.decode(out, 4, COLS, 0.6f, letterbox, buf);
+
+        assertEquals(2, buf.size());
+        assertTrue(buf.hasLandmarks());
+        assertEquals(20f, buf.left(0), 1e-4f);
+        assertEquals(40f, buf.top(0), 1e-4f);
+        assertEquals(100f, buf.right(0), 1e-4f);
+        assertEquals(120f, buf.bottom(0), 1e-4f);
+        assertEquals((10 + 40 / 6f) * 2f, buf.landmarkX(0, 0), 1e-4f);
+        assertEquals(80f, buf.landmarkY(0, 0), 1e-4f);
+        assertEquals(640f, buf.right(1), 0f);
+        assertEquals(480f, buf.bottom(1), 0f);
+
+        // 不足 15 列时不带关键点
+        letterbox.fit(10, 10);
+        YuNetTFLiteDetector.decode(new float[] { 32, 32, 160, 160, 0.9f }, 1, 5, 0.6f, letterbox, buf);
+        assertEquals(1, buf.size());
+        assertFalse(buf.hasLandmarks());
+    }
+
+    @Test
+    public void nms_keepsHighestScoresInOrder() {
+        DetectionBuffer buf = new DetectionBuffer(2);
+        buf.reset(false);
+        buf.add(0, 0, 100, 100, 0.7f);
+        buf.add(5, 5, 105, 105, 0.9f); // 与第一个重叠，分数更高
+        buf.add(200, 200, 260, 260, 0.8f);
+        buf.add(210, 210, 260, 260, 0.6f); // 被第三个抑制
+        buf.add(400, 0, 450, 50, 0.65f);
+        buf.nms(0.5f);
+
+        assertEquals(3, buf.size());
+        assertEquals(0.9f, buf.score(0), 0f);
+        assertEquals(5f, buf.left(0), 0f);
+        assertEquals(0.8f, buf.score(1), 0f);
+        assertEquals(0.65f, buf.score(2), 0f);
+    }
+
+    @Test
+    public void decodeAndNms_allocateNothingInSteadyState() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        int rows = 4200;
+        float[] out = new float[rows * COLS];
+        for (int i = 0; i < rows; i++)
+            putRow(out, i, (i * 37) % 300, (i * 53) % 300, 20 + i % 30, 20 + i % 30, (i % 97) / 96f);
+        DetectionBuffer buf = new DetectionBuffer();
+        Letterbox letterbox = new Letterbox(320, 320);
+        letterbox.fit(640, 640);
+        long tid = Thread.currentThread().getId();
+
+        for (int i = 0; i < 200; i++) {
+            YuNetTFLiteDetector.decode(out, rows, COLS, 0.95f, letterbox, buf);
+            buf.nms(0.5f);
+        }
+        threads.getThreadAllocatedBytes(tid);
+
+        long before = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < 100; i++) {
+            YuNetTFLiteDetector.decode(out, rows, COLS, 0.95f, letterbox, buf);
+            buf.nms(0.5f);
+        }
+        long after = threads.getThreadAllocatedBytes(tid);
+
+        assertEquals("steady-state allocation (bytes)", 0L, after - before);
+        assertTrue(buf.size() > 0);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+/**
+ * EmbeddingCache 的 key 归一化、LRU 淘汰、命中计数与磁盘层（主机 JVM）
+ */
+public class EmbeddingCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final float[] IDENTITY_HALF = { 0.5f, 0f, 10f, 0f, 0.5f, 20f };
+
+    private static EmbeddingCache.Key k(String name) {
+        return EmbeddingCache.key(name, 0L, 1, 1, 0, 0, 1, 1, IDENTITY_HALF);
+    }
+
+    @Test
+    public void key_sameRelativeRegionAndModelMatches() {
+        EmbeddingCache.Key a = EmbeddingCache.key("mfn-new-f32", 42L, 640, 480, 64, 48, 320, 240, IDENTITY_HALF);
+        EmbeddingCache.Key b = EmbeddingCache.key("mfn-new-f32", 42L, 640, 480, 64, 48, 320, 240, IDENTITY_HALF.clone());
+        assertEquals(a, b);
+        // 模型版本、图像哈希或人脸区域不同都应区分
+        assertNotEquals(a, EmbeddingCache.key("mfn-new-int8", 42L, 640, 480, 64, 48, 320, 240, IDENTITY_HALF));
+        assertNotEquals(a, EmbeddingCache.key("mfn-new-f32", 43L, 640, 480, 64, 48, 320, 240, IDENTITY_HALF));
+        assertNotEquals(a, EmbeddingCache.key("mfn-new-f32", 42L, 640, 480, 80, 48, 320, 240, IDENTITY_HALF));
+        float[] shifted = IDENTITY_HALF.clone();
+        shifted[2] += 8f;
+        assertNotEquals(a, EmbeddingCache.key("mfn-new-f32", 42L, 640, 480, 64, 48, 320, 240, shifted));
+    }
+
+    @Test
+    public void hashPixels_sensitiveToSinglePixel() {
+        int[] pixels = new int[64 * 64];
+        for (int i = 0; i < pixels.length; i++)
+            pixels[i] = 0xff000000 | (i * 0x9e3779b1 >>> 8);
+        long seed = EmbeddingCache.seed(64, 64);
+        long h1 = EmbeddingCache.mix(EmbeddingCache.hashPixels(pixels, pixels.length, seed));
+        pixels[1234] ^= 1;
+        long h2 = EmbeddingCache.mix(EmbeddingCache.hashPixels(pixels, pixels.length, seed));
+        assertNotEquals(h1, h2);
+        // 尺寸不同、像素相同也不应相同
+        assertNotEquals(EmbeddingCache.seed(64, 64), EmbeddingCache.seed(32, 128));
+    }
+
+    @Test
+    public void key_toleratesSubQuantumJitterAndHasStableDiskForm() {
+        EmbeddingCache.Key a = EmbeddingCache.key("mfn-new-f32", 42L, 640, 480, 64, 48, 320, 240, IDENTITY_HALF);
+        float[] jitter = IDENTITY_HALF.clone();
+        jitter[2] += 1e-4f; // 归一化后远小于 1e-4 的量化步长
+        EmbeddingCache.Key b = EmbeddingCache.key("mfn-new-f32", 42L, 640, 480, 64, 48, 320, 240, jitter);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertEquals(a.toString(), b.toString());
+        assertEquals("mfn-new-f32|000000000000002a|640x480|1000,1000,5000,5000,8,0,156,0,10,417", a.toString());
+    }
+
+    @Test
+    public void memory_lruEvictsLeastRecentlyUsed() {
+        EmbeddingCache cache = new EmbeddingCache(2, null, 1);
+        cache.put(k("a"), new float[] { 1f });
+        cache.put(k("b"), new float[] { 2f });
+        assertNotNull(cache.get(k("a"))); // a 变为最近使用
+        cache.put(k("c"), new float[] { 3f });
+        assertNull(cache.get(k("b")));
+        assertNotNull(cache.get(k("a")));
+        assertNotNull(cache.get(k("c")));
+        assertEquals(2, cache.memorySize());
+    }
+
+    @Test
+    public void get_countsHitsAndMissesAndReturnsCopies() {
+        EmbeddingCache cache = new EmbeddingCache(8, null, 1);
+        float[] v = { 0.6f, 0.8f };
+        assertNull(cache.get(k("k")));
+        cache.put(k("k"), v);
+        v[0] = 0f; // 调用方修改原数组不影响缓存
+        float[] hit = cache.get(k("k"));
+        assertArrayEquals(new float[] { 0.6f, 0.8f }, hit, 0f);
+        hit[1] = 0f; // 修改返回值同样不影响缓存
+        assertArrayEquals(new float[] { 0.6f, 0.8f }, cache.get(k("k")), 0f);
+        assertEquals(2, cache.getMemoryHits());
+        assertEquals(1, cache.getMisses());
+        cache.resetStats();
+        assertEquals(0, cache.getMemoryHits() + cache.getMisses());
+    }
+
+    @Test
+    public void disk_survivesNewInstance() throws Exception {
+        File dir = tmp.newFolder("embedding_cache");
+        float[] v = { 0.1f, -0.2f, 0.3f };
+        new EmbeddingCache(4, dir, 16).put(k("mfn|abc"), v);
+
+        EmbeddingCache reopened = new EmbeddingCache(4, dir, 16);
+        assertArrayEquals(v, reopened.get(k("mfn|abc")), 0f);
+        assertEquals(1, reopened.getDiskHits());
+        // 读回后进入内存层
+        assertArrayEquals(v, reopened.get(k("mfn|abc")), 0f);
+        assertEquals(1, reopened.getMemoryHits());
+        assertNull(reopened.get(k("mfn|other")));
+        assertEquals(1, reopened.getMisses());
+
+        reopened.clear();
+        assertNull(new EmbeddingCache(4, dir, 16).get(k("mfn|abc")));
+    }
+
+    @Test
+    public void trimDisk_keepsNewestEntries() throws Exception {
+        File dir = tmp.newFolder("embedding_cache");
+        EmbeddingCache cache = new EmbeddingCache(1, dir, 3);
+        for (int i = 0; i < 6; i++) {
+            cache.put(k("k" + i), new float[] { i });
+            // 把刚写入的文件时间戳改成递增的旧时间，模拟依次写入
+            freshEntry(dir).setLastModified(1_000_000_000L + i * 10_000L);
+        }
+        cache.trimDisk();
+        File[] left = dir.listFiles((d, name) -> name.endsWith(".emb"));
+        assertEquals(3, left.length);
+        EmbeddingCache reopened = new EmbeddingCache(1, dir, 3);
+        assertNull(reopened.get(k("k0")));
+        assertNotNull(reopened.get(k("k5")));
+    }
+
+    /**
+     * 尚未改过时间戳的那个条目（即刚写入的文件）
+     */
+    private static File freshEntry(File dir) {
+        for (File f : dir.listFiles((d, name) -> name.endsWith(".emb"))) {
+            if (f.lastModified() > 10_000_000_000L)
+                return f;
+        }
+        throw new AssertionError("no fresh entry");
+    }
+}
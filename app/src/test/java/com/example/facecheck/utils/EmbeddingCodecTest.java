@@ -0,0 +1,118 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+/**
+ * 嵌入 BLOB 编解码：INT8 标记识别、量化往返误差，以及旧版无头部 float32 BLOB 的兼容读取（主机 JVM）
+ */
+public class EmbeddingCodecTest {
+
+    private static float[] unit(Random rnd, int dim) {
+        float[] v = new float[dim];
+        float norm = 0f;
+        for (int i = 0; i < dim; i++) {
+            v[i] = (float) rnd.nextGaussian();
+            norm += v[i] * v[i];
+        }
+        norm = (float) Math.sqrt(norm);
+        for (int i = 0; i < dim; i++)
+            v[i] /= norm;
+        return v;
+    }
+
+    /**
+     * 按升级前 DatabaseHelper 的写法构造旧 BLOB：dim 个小端 float32，无头部
+     */
+    private static byte[] legacyBlob(float[] v) {
+        ByteBuffer buffer = ByteBuffer.allocate(v.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (float f : v)
+            buffer.putFloat(f);
+        return buffer.array();
+    }
+
+    @Test
+    public void legacyFloatBlob_decodesUnchanged() {
+        float[] v = unit(new Random(1), 192);
+        byte[] blob = legacyBlob(v);
+        assertEquals(EmbeddingCodec.FORMAT_FLOAT32, EmbeddingCodec.formatOf(blob));
+        assertEquals(192, EmbeddingCodec.dimOf(blob));
+        assertArrayEquals(v, EmbeddingCodec.decode(blob), 0f);
+
+        float[] dst = new float[3 + 192];
+        assertEquals(192, EmbeddingCodec.decodeInto(blob, dst, 3));
+        for (int i = 0; i < 192; i++)
+            assertEquals(v[i], dst[3 + i], 0f);
+        // 新写入的 float32 BLOB 与旧格式逐字节一致
+        assertArrayEquals(blob, EmbeddingCodec.encodeFloat32(v));
+    }
+
+    @Test
+    public void legacyFloatBlobs_neverMistakenForInt8() {
+        // 单位向量的每个分量都是有限值，首 4 字节不可能等于 NaN 标记
+        Random rnd = new Random(2);
+        for (int t = 0; t < 1000; t++) {
+            byte[] blob = legacyBlob(unit(rnd, 8 + rnd.nextInt(512)));
+            assertEquals(EmbeddingCodec.FORMAT_FLOAT32, EmbeddingCodec.formatOf(blob));
+        }
+        float head = ByteBuffer.wrap(EmbeddingCodec.encodeInt8(new float[] { 1f })).order(ByteOrder.LITTLE_ENDIAN)
+                .getFloat();
+        assertTrue(Float.isNaN(head));
+    }
+
+    @Test
+    public void int8_roundTripWithinHalfStep() {
+        float[] v = unit(new Random(3), 192);
+        byte[] blob = EmbeddingCodec.encodeInt8(v);
+        assertEquals(EmbeddingCodec.FORMAT_INT8, EmbeddingCodec.formatOf(blob));
+        assertEquals(8 + 192, blob.length);
+        assertEquals(192, EmbeddingCodec.dimOf(blob));
+
+        float maxAbs = 0f;
+        for (float x : v)
+            maxAbs = Math.max(maxAbs, Math.abs(x));
+        float step = maxAbs / 127f;
+        float[] decoded = EmbeddingCodec.decode(blob);
+        assertEquals(192, decoded.length);
+        for (int i = 0; i < v.length; i++)
+            assertEquals(v[i], decoded[i], step / 2 + 1e-6f);
+
+        float[] dst = new float[192];
+        assertEquals(192, EmbeddingCodec.decodeInto(blob, dst, 0));
+        assertArrayEquals(decoded, dst, 0f);
+    }
+
+    @Test
+    public void int8_dotMatchesFloatDot() {
+        Random rnd = new Random(4);
+        int dim = 128;
+        float[] a = unit(rnd, dim), b = unit(rnd, dim);
+        byte[] qa = new byte[dim], qb = new byte[dim];
+        float sa = EmbeddingCodec.quantize(a, 0, dim, qa, 0);
+        float sb = EmbeddingCodec.quantize(b, 0, dim, qb, 0);
+        float exact = 0f;
+        for (int i = 0; i < dim; i++)
+            exact += a[i] * b[i];
+        float approx = EmbeddingCodec.dotInt8(qa, 0, qb, 0, dim) * sa * sb;
+        assertEquals(exact, approx, 0.02f);
+    }
+
+    @Test
+    public void malformedBlobs_decodeEmpty() {
+        assertEquals(0, EmbeddingCodec.decode(null).length);
+        assertEquals(0, EmbeddingCodec.decode(new byte[] { 1, 2, 3 }).length);
+        assertEquals(0, EmbeddingCodec.dimOf(new byte[] { 1, 2, 3, 4, 5 }));
+        assertEquals(0, EmbeddingCodec.decodeInto(new byte[] { 1, 2, 3 }, new float[4], 0));
+        // 目标空间不足
+        assertEquals(0, EmbeddingCodec.decodeInto(legacyBlob(new float[8]), new float[8], 1));
+        // 零向量量化后缩放系数为 0，解码仍是零向量
+        assertArrayEquals(new float[4], EmbeddingCodec.decode(EmbeddingCodec.encodeInt8(new float[4])), 0f);
+    }
+}
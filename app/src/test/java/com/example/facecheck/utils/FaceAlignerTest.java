@@ -0,0 +1,119 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * FaceAligner 的相似变换求解与逆映射（主机 JVM）
+ */
+public class FaceAlignerTest {
+
+    /**
+     * 把模板按 缩放 s、旋转 deg、平移 (tx,ty) 放到源图上，作为“检测到的”关键点
+     */
+    private static float[] placeTemplate(double s, double deg, double tx, double ty) {
+        double rad = Math.toRadians(deg);
+        double a = s * Math.cos(rad), b = s * Math.sin(rad);
+        float[] p = new float[10];
+        for (int i = 0; i < 5; i++) {
+            double x = FaceAligner.TEMPLATE_112[2 * i], y = FaceAligner.TEMPLATE_112[2 * i + 1];
+            p[2 * i] = (float) (a * x - b * y + tx);
+            p[2 * i + 1] = (float) (b * x + a * y + ty);
+        }
+        return p;
+    }
+
+    @Test
+    public void estimateSimilarity_recoversExactTransform() {
+        float[] src = placeTemplate(2.5, 12, 300, 140);
+        float[] t = FaceAligner.estimateSimilarity(src, FaceAligner.TEMPLATE_112);
+        assertNotNull(t);
+        // 逆变换：缩放 1/2.5、旋转 -12°
+        double scale = Math.hypot(t[0], t[1]);
+        assertEquals(1 / 2.5, scale, 1e-4);
+        assertEquals(-12, Math.toDegrees(Math.atan2(t[1], t[0])), 1e-3);
+        for (int i = 0; i < 5; i++) {
+            float x = src[2 * i], y = src[2 * i + 1];
+            assertEquals(FaceAligner.TEMPLATE_112[2 * i], t[0] * x - t[1] * y + t[2], 1e-3);
+            assertEquals(FaceAligner.TEMPLATE_112[2 * i + 1], t[1] * x + t[0] * y + t[3], 1e-3);
+        }
+    }
+
+    @Test
+    public void estimateSimilarity_rejectsDegeneratePoints() {
+        float[] same = { 10, 10, 10, 10, 10, 10, 10, 10, 10, 10 };
+        assertNull(FaceAligner.estimateSimilarity(same, FaceAligner.TEMPLATE_112));
+        assertNull(FaceAligner.estimateSimilarity(new float[] { 1, 2 }, FaceAligner.TEMPLATE_112));
+    }
+
+    @Test
+    public void align_inverseMapsTemplateOntoLandmarks() {
+        float[] landmarks = placeTemplate(1.8, -25, 120, 200);
+        FaceWarp warp = FaceAligner.align(null, 640, 480, landmarks, 112, 112);
+        assertNotNull(warp);
+        float[] m = warp.inverse;
+        for (int i = 0; i < 5; i++) {
+            // 模板点为下标坐标，换成像素中心连续坐标后映射，再减 0.5 回到源图下标坐标
+            float u = FaceAligner.TEMPLATE_112[2 * i] + 0.5f, v = FaceAligner.TEMPLATE_112[2 * i + 1] + 0.5f;
+            assertEquals(landmarks[2 * i], m[0] * u + m[1] * v + m[2] - 0.5f, 1e-2);
+            assertEquals(landmarks[2 * i + 1], m[3] * u + m[4] * v + m[5] - 0.5f, 1e-2);
+        }
+        // 采样区域覆盖所有关键点且不超出源图
+        assertTrue(warp.clipLeft >= 0 && warp.clipTop >= 0 && warp.clipRight <= 640 && warp.clipBottom <= 480);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(landmarks[2 * i] >= warp.clipLeft && landmarks[2 * i] < warp.clipRight);
+            assertTrue(landmarks[2 * i + 1] >= warp.clipTop && landmarks[2 * i + 1] < warp.clipBottom);
+        }
+    }
+
+    @Test
+    public void align_withoutNoseTipIgnoresNoseBaseOffset() {
+        // ML Kit 的 NOSE_BASE 在鼻尖下方：把第 3 点下移 12 像素模拟
+        float[] landmarks = placeTemplate(1.5, 8, 200, 100);
+        landmarks[5] += 12f;
+        FaceWarp four = FaceAligner.align(null, 640, 480, landmarks, false, 112, 112);
+        assertNotNull(four);
+        float[] m = four.inverse;
+        // 四点求解不受鼻点影响：双眼与嘴角仍精确落在模板上
+        for (int i : new int[] { 0, 1, 3, 4 }) {
+            float u = FaceAligner.TEMPLATE_112[2 * i] + 0.5f, v = FaceAligner.TEMPLATE_112[2 * i + 1] + 0.5f;
+            assertEquals(landmarks[2 * i], m[0] * u + m[1] * v + m[2] - 0.5f, 1e-2);
+            assertEquals(landmarks[2 * i + 1], m[3] * u + m[4] * v + m[5] - 0.5f, 1e-2);
+        }
+        // 五点求解会被偏移的鼻点拉偏
+        FaceWarp five = FaceAligner.align(null, 640, 480, landmarks, true, 112, 112);
+        float u = FaceAligner.TEMPLATE_112[0] + 0.5f, v = FaceAligner.TEMPLATE_112[1] + 0.5f;
+        float eyeY = five.inverse[3] * u + five.inverse[4] * v + five.inverse[5] - 0.5f;
+        assertTrue(Math.abs(eyeY - landmarks[1]) > 0.5f);
+    }
+
+    @Test
+    public void align_scalesTemplateToModelInput() {
+        float[] landmarks = placeTemplate(1, 0, 0, 0);
+        FaceWarp warp = FaceAligner.align(null, 112, 112, landmarks, 224, 224);
+        assertNotNull(warp);
+        assertEquals(0.5f, warp.inverse[0], 1e-5f);
+        assertEquals(0f, warp.inverse[1], 1e-5f);
+    }
+
+    @Test
+    public void align_rejectsTinyFaces() {
+        assertNull(FaceAligner.align(null, 640, 480, placeTemplate(0.1, 0, 50, 50), 112, 112));
+        assertNull(FaceAligner.align(null, 640, 480, new float[] { 1, 2, 3 }, 112, 112));
+    }
+
+    @Test
+    public void orderLeftToRight_swapsMirroredEyesAndMouth() {
+        float[] p = { 70, 50, 40, 50, 55, 70, 68, 90, 42, 90 };
+        FaceAligner.orderLeftToRight(p);
+        assertEquals(40, p[0], 0f);
+        assertEquals(70, p[2], 0f);
+        assertEquals(55, p[4], 0f);
+        assertEquals(42, p[6], 0f);
+        assertEquals(68, p[8], 0f);
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * FaceWarp 单次采样与旧的 裁剪 → 旋转 → 缩放 三段流程的一致性（主机 JVM 上用参考实现模拟旧流程）
+ */
+public class FaceWarpTest {
+
+    private static final int OUT = 112;
+
+    @Test
+    public void noRotation_matchesCropAndScale() {
+        assertCloseToReference(200, 180, 30, 20, 120, 140, 0f, 0.01);
+    }
+
+    @Test
+    public void rollCorrection_matchesCropRotateScale() {
+        assertCloseToReference(240, 220, 40, 25, 150, 160, -17.5f, 0.02);
+        assertCloseToReference(240, 220, 10, 30, 170, 150, 32f, 0.02);
+    }
+
+    @Test
+    public void identitySize_copiesPixelsExactly() {
+        int[] region = smoothImage(OUT, OUT);
+        FaceWarp warp = FaceWarp.cropRotateScale(null, 0, 0, OUT, OUT, 0f, OUT, OUT);
+        InferenceBuffers buffers = new InferenceBuffers(OUT, OUT, 3, 128, 1, false);
+        warp.writeTo(region, buffers, 0);
+        for (int i = 0; i < region.length; i++) {
+            assertEquals((region[i] >> 16) & 0xFF, buffers.input.get(i * 3) & 0xFF);
+            assertEquals((region[i] >> 8) & 0xFF, buffers.input.get(i * 3 + 1) & 0xFF);
+            assertEquals(region[i] & 0xFF, buffers.input.get(i * 3 + 2) & 0xFF);
+        }
+    }
+
+    /**
+     * 在 srcW×srcH 的平滑图上裁剪 [left,top,w,h]、旋转 degrees 后缩放到 112×112，
+     * 比较两条路径写入 FLOAT32 输入缓冲的结果，平均绝对误差需小于 tolerance（归一化后的 [-1,1] 尺度）
+     */
+    private static void assertCloseToReference(int srcW, int srcH, int left, int top, int w, int h, float degrees,
+            double tolerance) {
+        int[] source = smoothImage(srcW, srcH);
+        int[] region = new int[w * h];
+        for (int y = 0; y < h; y++)
+            System.arraycopy(source, (top + y) * srcW + left, region, y * w, w);
+
+        FaceWarp warp = FaceWarp.cropRotateScale(null, left, top, w, h, degrees, OUT, OUT);
+        InferenceBuffers buffers = new InferenceBuffers(OUT, OUT, 3, 128, 1, true);
+        warp.writeTo(region, buffers, 0);
+
+        float[][] reference = scaleBilinear(rotate(new Image(toChannels(region, w, h), w, h), degrees), OUT, OUT);
+        double sum = 0;
+        int n = OUT * OUT * 3;
+        for (int i = 0; i < n; i++) {
+            float expected = (reference[i % 3][i / 3] - 127.5f) / 128f;
+            sum += Math.abs(expected - buffers.input.getFloat(i * 4));
+        }
+        double mae = sum / n;
+        assertTrue("mean abs diff " + mae, mae < tolerance);
+    }
+
+    private static int[] smoothImage(int w, int h) {
+        int[] pixels = new int[w * h];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int r = (int) (128 + 100 * Math.sin(x / 13.0));
+                int g = (int) (128 + 100 * Math.cos(y / 17.0));
+                int b = (int) (128 + 60 * Math.sin((x + y) / 23.0));
+                pixels[y * w + x] = 0xFF000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return pixels;
+    }
+
+    private static float[][] toChannels(int[] pixels, int w, int h) {
+        float[][] c = new float[3][w * h];
+        for (int i = 0; i < w * h; i++) {
+            c[0][i] = (pixels[i] >> 16) & 0xFF;
+            c[1][i] = (pixels[i] >> 8) & 0xFF;
+            c[2][i] = pixels[i] & 0xFF;
+        }
+        return c;
+    }
+
+    private static final class Image {
+        final float[][] channels;
+        final int w;
+        final int h;
+
+        Image(float[][] channels, int w, int h) {
+            this.channels = channels;
+            this.w = w;
+            this.h = h;
+        }
+    }
+
+    /**
+     * 模拟 Bitmap.createBitmap(src, matrix.postRotate(degrees), filter=true)：
+     * 画布为旋转后外接矩形（宽高四舍五入），原点平移到外接矩形左上角，画布外透明（按黑底合成记为 0）
+     */
+    private static Image rotate(Image src, float degrees) {
+        if (degrees == 0f)
+            return src;
+        int w = src.w, h = src.h;
+        double rad = Math.toRadians(degrees);
+        double cos = Math.cos(rad), sin = Math.sin(rad);
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        double[][] corners = { { 0, 0 }, { w, 0 }, { 0, h }, { w, h } };
+        for (double[] p : corners) {
+            double x = p[0] * cos - p[1] * sin;
+            double y = p[0] * sin + p[1] * cos;
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        int ow = (int) Math.round(maxX - minX);
+        int oh = (int) Math.round(maxY - minY);
+        float[][] dst = new float[3][ow * oh];
+        for (int y = 0; y < oh; y++) {
+            for (int x = 0; x < ow; x++) {
+                double px = x + 0.5 + minX, py = y + 0.5 + minY;
+                double sx = px * cos + py * sin - 0.5;
+                double sy = -px * sin + py * cos - 0.5;
+                sample(src.channels, w, h, sx, sy, false, dst, y * ow + x);
+            }
+        }
+        return new Image(dst, ow, oh);
+    }
+
+    /**
+     * 模拟 Bitmap.createScaledBitmap(filter=true)：像素中心对齐的双线性缩放，边缘钳位
+     */
+    private static float[][] scaleBilinear(Image src, int outW, int outH) {
+        int w = src.w, h = src.h;
+        float[][] dst = new float[3][outW * outH];
+        for (int v = 0; v < outH; v++) {
+            for (int u = 0; u < outW; u++) {
+                double sx = (u + 0.5) * w / outW - 0.5;
+                double sy = (v + 0.5) * h / outH - 0.5;
+                sample(src.channels, w, h, sx, sy, true, dst, v * outW + u);
+            }
+        }
+        return dst;
+    }
+
+    private static void sample(float[][] src, int w, int h, double x, double y, boolean clamp, float[][] dst,
+            int di) {
+        int x0 = (int) Math.floor(x), y0 = (int) Math.floor(y);
+        double ax = x - x0, ay = y - y0;
+        for (int c = 0; c < 3; c++) {
+            double acc = 0;
+            for (int dy = 0; dy <= 1; dy++) {
+                for (int dx = 0; dx <= 1; dx++) {
+                    int xx = x0 + dx, yy = y0 + dy;
+                    if (clamp) {
+                        xx = Math.max(0, Math.min(w - 1, xx));
+                        yy = Math.max(0, Math.min(h - 1, yy));
+                    } else if (xx < 0 || yy < 0 || xx >= w || yy >= h) {
+                        continue;
+                    }
+                    double wgt = (dx == 0 ? 1 - ax : ax) * (dy == 0 ? 1 - ay : ay);
+                    acc += wgt * src[c][yy * w + xx];
+                }
+            }
+            dst[c][di] = (float) acc;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * 嵌入库快照：保存/加载往返、版本号比对、增量修补与损坏文件的拒绝（主机 JVM）
+ */
+public class GallerySnapshotTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final int DIM = 4;
+
+    private static GallerySnapshot sample() {
+        long[] embeddingIds = { 11, 12, 13 };
+        long[] studentIds = { 101, 102, 103 };
+        long[] classIds = { 1, 2, 1 };
+        float[] qualities = { 0.9f, 0.8f, 0.7f };
+        float[] vectors = {
+                1, 0, 0, 0,
+                0, 1, 0, 0,
+                0, 0, 0.6f, 0.8f };
+        return new GallerySnapshot("mfn-new-f32", DIM, 3, new long[] { 5, 7 }, embeddingIds, studentIds, classIds,
+                qualities, vectors);
+    }
+
+    @Test
+    public void saveLoad_roundTrip() throws IOException {
+        File file = new File(tmp.getRoot(), "snap/gallery.bin");
+        sample().save(file);
+        assertFalse(new File(file.getAbsolutePath() + ".tmp").exists());
+
+        GallerySnapshot loaded = GallerySnapshot.load(file, "mfn-new-f32");
+        assertEquals("mfn-new-f32", loaded.getModelVer());
+        assertEquals(3, loaded.size());
+        assertEquals(DIM, loaded.getDim());
+        for (int row = 0; row < 3; row++) {
+            assertEquals(11 + row, loaded.getEmbeddingId(row));
+            assertEquals(101 + row, loaded.getStudentId(row));
+            assertArrayEquals(sample().getVector(row), loaded.getVector(row), 0f);
+        }
+        EmbeddingGallery class1 = loaded.classGallery(1);
+        assertEquals(2, class1.size());
+        assertEquals(103, class1.findBestMatch(new float[] { 0, 0, 0.6f, 0.8f }).getStudentId());
+        assertEquals(3, loaded.schoolGallery().size());
+    }
+
+    @Test
+    public void matches_comparesBothTableStamps() throws IOException {
+        File file = tmp.newFile("gallery.bin");
+        sample().save(file);
+        GallerySnapshot loaded = GallerySnapshot.load(file, "mfn-new-f32");
+        assertTrue(loaded.matches(new long[] { 5, 7 }));
+        assertFalse(loaded.matches(new long[] { 6, 7 }));
+        assertFalse(loaded.matches(new long[] { 5, 8 }));
+        assertFalse(loaded.matches(null));
+        assertFalse(loaded.matches(new long[] { 5 }));
+    }
+
+    @Test
+    public void upsert_replacesOrAppendsWithoutTouchingOriginal() {
+        GallerySnapshot base = sample();
+        float[] replacement = { 0, 0, 1, 0 };
+        GallerySnapshot replaced = base.upsert(12, 102, 2, 0.95f, replacement, new long[] { 6, 7 });
+        assertEquals(3, replaced.size());
+        assertArrayEquals(replacement, replaced.getVector(1), 0f);
+        assertTrue(replaced.matches(new long[] { 6, 7 }));
+        // 原快照不变
+        assertArrayEquals(new float[] { 0, 1, 0, 0 }, base.getVector(1), 0f);
+        assertTrue(base.matches(new long[] { 5, 7 }));
+
+        float[] added = { 0, 0, 0, 1 };
+        GallerySnapshot appended = replaced.upsert(14, 104, 1, 0.5f, added, new long[] { 7, 7 });
+        assertEquals(4, appended.size());
+        assertEquals(14, appended.getEmbeddingId(3));
+        assertEquals(104, appended.getStudentId(3));
+        assertArrayEquals(added, appended.getVector(3), 0f);
+        assertEquals(3, appended.classGallery(1).size());
+    }
+
+    @Test
+    public void load_rejectsTruncatedAndForeignFiles() throws IOException {
+        File file = tmp.newFile("gallery.bin");
+        sample().save(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 4);
+        }
+        assertLoadFails(file);
+
+        File tiny = tmp.newFile("tiny.bin");
+        try (RandomAccessFile raf = new RandomAccessFile(tiny, "rw")) {
+            raf.setLength(16);
+        }
+        assertLoadFails(tiny);
+
+        File foreign = tmp.newFile("foreign.bin");
+        sample().save(foreign);
+        try (RandomAccessFile raf = new RandomAccessFile(foreign, "rw")) {
+            raf.seek(0);
+            raf.writeInt(0x12345678);
+        }
+        assertLoadFails(foreign);
+    }
+
+    private static void assertLoadFails(File file) {
+        try {
+            GallerySnapshot.load(file, "mfn-new-f32");
+            fail("expected IOException for " + file.getName());
+        } catch (IOException expected) {
+            // 调用方据此回退到 SQLite 重建
+        }
+    }
+}
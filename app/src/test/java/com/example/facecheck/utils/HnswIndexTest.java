@@ -0,0 +1,189 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * HNSW 索引：随机单位向量上与暴力检索对比召回率，删除/更新语义与文件往返（主机 JVM）
+ */
+public class HnswIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final int DIM = 32;
+    private static final int SIZE = 2000;
+    private static final int K = 10;
+
+    private static float[] unit(Random rnd, int dim) {
+        float[] v = new float[dim];
+        float norm = 0f;
+        for (int i = 0; i < dim; i++) {
+            v[i] = (float) rnd.nextGaussian();
+            norm += v[i] * v[i];
+        }
+        norm = (float) Math.sqrt(norm);
+        for (int i = 0; i < dim; i++)
+            v[i] /= norm;
+        return v;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float s = 0f;
+        for (int i = 0; i < a.length; i++)
+            s += a[i] * b[i];
+        return s;
+    }
+
+    /**
+     * 暴力 top-k 的 key 集合
+     */
+    private static Set<Long> bruteForce(float[][] data, float[] query, int k) {
+        Integer[] order = new Integer[data.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+        Arrays.sort(order, (a, b) -> Float.compare(dot(data[b], query), dot(data[a], query)));
+        Set<Long> keys = new HashSet<>();
+        for (int i = 0; i < k; i++)
+            keys.add((long) order[i]);
+        return keys;
+    }
+
+    private static float[][] build(HnswIndex index, Random rnd) {
+        float[][] data = new float[SIZE][];
+        for (int i = 0; i < SIZE; i++) {
+            data[i] = unit(rnd, DIM);
+            index.add(i, 10_000 + i, data[i]);
+        }
+        return data;
+    }
+
+    private static double recall(HnswIndex index, float[][] data, float[][] queries) {
+        int found = 0;
+        for (float[] q : queries) {
+            Set<Long> truth = bruteForce(data, q, K);
+            List<HnswIndex.Result> results = index.search(q, K);
+            for (HnswIndex.Result r : results) {
+                if (truth.contains(r.getKey()))
+                    found++;
+            }
+        }
+        return found / (double) (queries.length * K);
+    }
+
+    @Test
+    public void search_recallAgainstBruteForce() {
+        Random rnd = new Random(7);
+        HnswIndex index = new HnswIndex(DIM);
+        float[][] data = build(index, rnd);
+        assertEquals(SIZE, index.size());
+        float[][] queries = new float[100][];
+        for (int i = 0; i < queries.length; i++)
+            queries[i] = unit(rnd, DIM);
+
+        index.setEfSearch(100);
+        double recall = recall(index, data, queries);
+        assertTrue("recall@10=" + recall, recall >= 0.9);
+
+        // 结果按相似度降序，studentId 与插入时一致，分数即精确点积
+        List<HnswIndex.Result> results = index.search(queries[0], K);
+        assertEquals(K, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            HnswIndex.Result r = results.get(i);
+            assertEquals(10_000 + r.getKey(), r.getStudentId());
+            assertEquals(dot(data[(int) r.getKey()], queries[0]), r.getScore(), 1e-5f);
+            if (i > 0)
+                assertTrue(results.get(i - 1).getScore() >= r.getScore());
+        }
+
+        // 库内向量查询自身应排第一
+        int self = 0;
+        for (int i = 0; i < 100; i++) {
+            List<HnswIndex.Result> top = index.search(data[i], 1);
+            if (!top.isEmpty() && top.get(0).getKey() == i)
+                self++;
+        }
+        assertTrue("self top1=" + self, self >= 98);
+    }
+
+    @Test
+    public void removeAndUpdate_hideOldNodes() {
+        Random rnd = new Random(8);
+        HnswIndex index = new HnswIndex(DIM);
+        float[][] data = build(index, rnd);
+
+        assertTrue(index.remove(5));
+        assertFalse(index.remove(5));
+        assertEquals(SIZE - 1, index.size());
+        for (HnswIndex.Result r : index.search(data[5], K))
+            assertTrue(r.getKey() != 5);
+
+        // 同 key 再次插入视为更新：旧向量不再返回，新向量可被检索到
+        float[] replacement = unit(rnd, DIM);
+        index.add(7, 10_007, replacement);
+        assertEquals(SIZE - 1, index.size());
+        List<HnswIndex.Result> top = index.search(replacement, 1);
+        assertEquals(7, top.get(0).getKey());
+        assertEquals(1f, top.get(0).getScore(), 1e-5f);
+        for (HnswIndex.Result r : index.search(data[7], K)) {
+            if (r.getKey() == 7)
+                assertEquals(dot(replacement, data[7]), r.getScore(), 1e-5f);
+        }
+    }
+
+    @Test
+    public void saveLoad_roundTripKeepsGraphAndStamp() throws IOException {
+        Random rnd = new Random(9);
+        HnswIndex index = new HnswIndex(DIM);
+        build(index, rnd);
+        index.remove(3);
+        index.setEfSearch(80);
+        index.setStamp(new long[] { 4, 2 });
+
+        File file = new File(tmp.getRoot(), "index/hnsw.bin");
+        index.save(file);
+        assertFalse(new File(file.getAbsolutePath() + ".tmp").exists());
+        HnswIndex loaded = HnswIndex.load(file);
+
+        assertEquals(DIM, loaded.getDim());
+        assertEquals(index.size(), loaded.size());
+        assertEquals(80, loaded.getEfSearch());
+        assertArrayEquals(new long[] { 4, 2 }, loaded.getStamp());
+        for (int t = 0; t < 50; t++) {
+            float[] q = unit(rnd, DIM);
+            List<HnswIndex.Result> expected = index.search(q, K);
+            List<HnswIndex.Result> actual = loaded.search(q, K);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getKey(), actual.get(i).getKey());
+                assertEquals(expected.get(i).getStudentId(), actual.get(i).getStudentId());
+                assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), 0f);
+            }
+        }
+        // 加载后的索引可继续增量插入
+        float[] extra = unit(rnd, DIM);
+        loaded.add(SIZE, 10_000 + SIZE, extra);
+        assertEquals(SIZE, loaded.search(extra, 1).get(0).getKey());
+    }
+
+    @Test(expected = IOException.class)
+    public void load_rejectsForeignFile() throws IOException {
+        File file = tmp.newFile("not-an-index.bin");
+        java.nio.file.Files.write(file.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+        HnswIndex.load(file);
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.tensorflow.lite.DataType;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * InferenceBuffers 的转换正确性，以及 FaceWarp 采样 → 输入缓冲 → 读回这一段的稳态零分配（在主机 JVM 上运行）
+ * 零分配只覆盖该缓冲路径：Interpreter 调用与 extractFaceFeatures 外层（租约、FaceWarp 构造、缓存 key、
+ * 返回向量）不在测试范围内，也并非零分配
+ */
+public class InferenceBuffersTest {
+
+    private static final int W = 112;
+    private static final int H = 112;
+    private static final int DIM = 128;
+
+    @Test
+    public void writeRgb_normalizesFloat32Pixels() {
+        InferenceBuffers buffers = new InferenceBuffers(W, H, 3, DIM, 2, true);
+        buffers.writeRgb(1, 0, 0f, 128f, 127f);
+        int base = W * H * 3 * 4;
+        assertEquals((0 - 127.5f) / 128f, buffers.input.getFloat(base), 1e-6f);
+        assertEquals((128 - 127.5f) / 128f, buffers.input.getFloat(base + 4), 1e-6f);
+        assertEquals((127 - 127.5f) / 128f, buffers.input.getFloat(base + 8), 1e-6f);
+        assertEquals(0f, buffers.input.getFloat(0), 0f);
+    }
+
+    @Test
+    public void writeRgb_roundsUint8Pixels() {
+        InferenceBuffers buffers = new InferenceBuffers(W, H, 3, DIM, 1, false);
+        buffers.writeRgb(0, 1, 199.6f, 30f, 5.2f);
+        assertEquals(W * H * 3, buffers.input.capacity());
+        assertEquals((byte) 200, buffers.input.get(3));
+        assertEquals((byte) 30, buffers.input.get(4));
+        assertEquals((byte) 5, buffers.input.get(5));
+    }
+
+    @Test
+    public void writeRgb_quantizesWithTensorParams() {
+        // INT8 输入，实数区间 [-1,1]：scale = 1/128，zeroPoint = 0
+        InferenceBuffers int8 = new InferenceBuffers(W, H, 3, DIM, 1, DataType.INT8, 1f / 128f, 0,
+                DataType.FLOAT32, 0f, 0, 0, false);
+        int8.writeRgb(0, 0, 0f, 127.5f, 255f);
+        assertEquals(-127, int8.input.get(0)); // -127.5 四舍五入
+        assertEquals(0, int8.input.get(1));
+        assertEquals(127, int8.input.get(2)); // 128 截断到类型上限
+        // UINT8 输入，同一实数区间：zeroPoint = 128
+        InferenceBuffers uint8 = new InferenceBuffers(W, H, 3, DIM, 1, DataType.UINT8, 1f / 128f, 128,
+                DataType.FLOAT32, 0f, 0, 0, false);
+        uint8.writeRgb(0, 0, 0f, 127.5f, 199.5f);
+        assertEquals(1, uint8.input.get(0) & 0xFF);
+        assertEquals(128, uint8.input.get(1) & 0xFF);
+        assertEquals(200, uint8.input.get(2) & 0xFF);
+        // 无量化参数的 INT8 输入平移到有符号范围
+        InferenceBuffers raw = new InferenceBuffers(W, H, 3, DIM, 1, DataType.INT8, 0f, 0, DataType.FLOAT32, 0f, 0,
+                0, false);
+        raw.writeRgb(0, 0, 0f, 128f, 255f);
+        assertEquals(-128, raw.input.get(0));
+        assertEquals(0, raw.input.get(1));
+        assertEquals(127, raw.input.get(2));
+    }
+
+    @Test
+    public void writeRgb_rawPixelInputFollowsModelNotScale() {
+        // 实数输入为像素值的模型，量化 scale 即便小于 0.5 也不能按 [-1,1] 归一化
+        InferenceBuffers raw = new InferenceBuffers(W, H, 3, DIM, 1, DataType.UINT8, 0.45f, 10,
+                DataType.FLOAT32, 0f, 0, 0, true);
+        raw.writeRgb(0, 0, 0f, 45f, 90f);
+        assertEquals(10, raw.input.get(0) & 0xFF);
+        assertEquals(110, raw.input.get(1) & 0xFF);
+        assertEquals(210, raw.input.get(2) & 0xFF);
+        // 反过来，scale 较大但实数输入为 (v - 127.5) / 128 的模型仍按归一化值量化
+        InferenceBuffers norm = new InferenceBuffers(W, H, 3, DIM, 1, DataType.INT8, 0.5f, 0,
+                DataType.FLOAT32, 0f, 0, 0, false);
+        norm.writeRgb(0, 0, 0f, 127.5f, 255f);
+        assertEquals(-2, norm.input.get(0));
+        assertEquals(0, norm.input.get(1));
+        assertEquals(2, norm.input.get(2));
+        // FLOAT32 的像素值输入
+        InferenceBuffers f32 = new InferenceBuffers(W, H, 3, DIM, 1, DataType.FLOAT32, 0f, 0,
+                DataType.FLOAT32, 0f, 0, 0, true);
+        f32.writeRgb(0, 0, 12f, 0f, 255f);
+        assertEquals(12f, f32.input.getFloat(0), 0f);
+        assertEquals(255f, f32.input.getFloat(8), 0f);
+    }
+
+    @Test
+    public void readEmbedding_dequantizesQuantizedOutput() {
+        InferenceBuffers int8 = new InferenceBuffers(W, H, 3, DIM, 2, DataType.INT8, 1f / 128f, 0, DataType.INT8,
+                0.05f, -3, 0, false);
+        assertEquals(2 * DIM, int8.output.capacity());
+        int8.output.put(DIM, (byte) 17);
+        int8.output.put(DIM + 1, (byte) -128);
+        float[] dst = new float[DIM];
+        int8.readEmbedding(1, dst, 0);
+        assertEquals(0.05f * 20, dst[0], 1e-6f);
+        assertEquals(0.05f * -125, dst[1], 1e-6f);
+        assertEquals(0.05f * 3, dst[2], 1e-6f);
+
+        InferenceBuffers uint8 = new InferenceBuffers(W, H, 3, DIM, 1, DataType.UINT8, 0f, 0, DataType.UINT8,
+                0.1f, 128, 0, false);
+        uint8.output.put(0, (byte) 250);
+        uint8.readEmbedding(0, dst, 0);
+        assertEquals(0.1f * 122, dst[0], 1e-5f);
+        // 换 batch 保留张量规格
+        assertEquals(DataType.UINT8, uint8.withBatch(4).outputType);
+        assertEquals(4 * DIM, uint8.withBatch(4).output.capacity());
+    }
+
+    @Test
+    public void readEmbedding_readsRequestedSlot() {
+        InferenceBuffers buffers = new InferenceBuffers(W, H, 3, DIM, 2, true);
+        for (int i = 0; i < 2 * DIM; i++)
+            buffers.output.putFloat(i * 4, i);
+        float[] dst = new float[DIM + 1];
+        buffers.readEmbedding(1, dst, 1);
+        assertEquals(DIM, dst[1], 0f);
+        assertEquals(2 * DIM - 1, dst[DIM], 0f);
+    }
+
+    @Test
+    public void steadyStateBufferPath_allocatesNothing() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        InferenceBuffers buffers = new InferenceBuffers(W, H, 3, DIM, 1, true);
+        // 160×160 的裁剪区域带 15° 滚转，覆盖内部与边缘两种采样分支；源位图只在 getPixels 时使用，这里直接填区域
+        FaceWarp warp = FaceWarp.cropRotateScale(null, 20, 10, 160, 160, 15f, W, H);
+        int[] region = new int[160 * 160];
+        float[] embedding = new float[DIM];
+        long tid = Thread.currentThread().getId();
+
+        // 预热：让 JIT 完成编译、计量接口完成自身的首次初始化
+        for (int i = 0; i < 50; i++)
+            extractOnce(warp, region, buffers, embedding, i);
+        threads.getThreadAllocatedBytes(tid);
+
+        long before = threads.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < 200; i++)
+            extractOnce(warp, region, buffers, embedding, i);
+        long after = threads.getThreadAllocatedBytes(tid);
+
+        assertEquals("steady-state allocation (bytes)", 0L, after - before);
+        assertTrue(embedding[DIM - 1] != 0f);
+    }
+
+    /**
+     * 模拟缓冲路径：写入区域像素暂存 → 仿射采样到输入缓冲 → 复位 → “推理”写输出 → 读回向量
+     */
+    private static void extractOnce(FaceWarp warp, int[] region, InferenceBuffers buffers, float[] embedding,
+            int seed) {
+        for (int i = 0; i < region.length; i++)
+            region[i] = 0xFF000000 | ((i * 31 + seed) & 0xFFFFFF);
+        warp.writeTo(region, buffers, 0);
+        buffers.rewind();
+        for (int i = 0; i < DIM; i++)
+            buffers.output.putFloat(i * 4, buffers.input.getFloat(i * 4) + 1f);
+        buffers.readEmbedding(0, embedding, 0);
+    }
+}
@@ -0,0 +1,290 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * InferenceTuner 的选择、缓存与容错逻辑（主机 JVM，虚拟时钟 + 真实 CPU 负载两种探针）
+ */
+public class InferenceTunerTest {
+
+    private static final class MapStore implements InferenceTuner.Store {
+        final Map<String, String> values = new HashMap<>();
+
+        @Override
+        public String get(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        public void put(String key, String value) {
+            values.put(key, value);
+        }
+
+        @Override
+        public void remove(String key) {
+            values.remove(key);
+        }
+    }
+
+    /**
+     * 每次运行把虚拟时钟推进 cost(config) 纳秒；cost 为负表示该配置打开失败
+     */
+    private static final class FakeProbe implements InferenceTuner.Probe {
+        final long[] clock;
+        final ToLongFunction<InferenceConfig> cost;
+        final List<InferenceConfig> opened = new ArrayList<>();
+        int closed;
+
+        FakeProbe(long[] clock, ToLongFunction<InferenceConfig> cost) {
+            this.clock = clock;
+            this.cost = cost;
+        }
+
+        @Override
+        public InferenceTuner.Trial open(InferenceConfig config) throws Exception {
+            long c = cost.applyAsLong(config);
+            if (c < 0)
+                throw new IllegalStateException("unsupported " + config);
+            opened.add(config);
+            return new InferenceTuner.Trial() {
+                @Override
+                public void runOnce() {
+                    clock[0] += c;
+                }
+
+                @Override
+                public void close() {
+                    closed++;
+                }
+            };
+        }
+    }
+
+    @Test
+    public void candidates_stayWithinCoreCount() {
+        assertEquals(2, InferenceTuner.candidates(1).size());
+        List<InferenceConfig> eight = InferenceTuner.candidates(8);
+        assertEquals(8, eight.size());
+        for (InferenceConfig c : eight)
+            assertTrue(c.getNumThreads() <= 8);
+        assertTrue(eight.contains(new InferenceConfig(8, false)));
+        assertEquals(6, InferenceTuner.candidates(3).size());
+    }
+
+    @Test
+    public void resolve_picksFastestAndCachesIt() {
+        long[] clock = { 0 };
+        MapStore store = new MapStore();
+        InferenceTuner tuner = new InferenceTuner(store, 4, () -> clock[0]);
+        // 2 线程 + XNNPACK 最快
+        FakeProbe probe = new FakeProbe(clock,
+                c -> 1000 + Math.abs(c.getNumThreads() - 2) * 300 + (c.isUseXnnpack() ? 0 : 200));
+
+        InferenceConfig best = tuner.resolve("mfn", probe);
+        assertEquals(new InferenceConfig(2, true), best);
+        assertEquals(InferenceTuner.candidates(4).size(), probe.opened.size());
+        assertEquals(probe.opened.size(), probe.closed);
+        assertEquals(best, tuner.cached("mfn"));
+        assertEquals(InferenceTuner.candidates(4).size(), tuner.getLastResults("mfn").size());
+
+        // 第二次直接命中缓存，不再测量；新建的调优器也能从存储中读到结果
+        FakeProbe second = new FakeProbe(clock, c -> 1);
+        assertEquals(best, tuner.resolve("mfn", second));
+        assertTrue(second.opened.isEmpty());
+        assertEquals(best, new InferenceTuner(store, 4, () -> clock[0]).resolve("mfn", second));
+        assertTrue(second.opened.isEmpty());
+
+        // 核数不同视为不同设备配置，需要重新测量
+        assertNull(new InferenceTuner(store, 8, () -> clock[0]).cached("mfn"));
+    }
+
+    @Test
+    public void resolve_skipsFailingCandidates() {
+        long[] clock = { 0 };
+        InferenceTuner tuner = new InferenceTuner(new MapStore(), 2, () -> clock[0]);
+        // XNNPACK 不可用；1 线程比 2 线程快
+        FakeProbe probe = new FakeProbe(clock, c -> c.isUseXnnpack() ? -1 : 500L * c.getNumThreads());
+        assertEquals(new InferenceConfig(1, false), tuner.resolve("yunet", probe));
+        assertEquals(2, tuner.getLastResults("yunet").size());
+    }
+
+    @Test
+    public void resolve_fallsBackToDefaultWhenEverythingFails() {
+        long[] clock = { 0 };
+        MapStore store = new MapStore();
+        InferenceTuner tuner = new InferenceTuner(store, 6, () -> clock[0]);
+        int[] attempts = { 0 };
+        FakeProbe probe = new FakeProbe(clock, c -> {
+            attempts[0]++;
+            return -1;
+        });
+        InferenceConfig config = tuner.resolve("broken", probe);
+        assertEquals(InferenceConfig.defaultFor(6), config);
+        assertEquals(InferenceTuner.candidates(6).size(), attempts[0]);
+        // 默认配置被缓存，之后的加载不再重跑失败的候选
+        assertEquals(InferenceConfig.defaultFor(6), tuner.cached("broken"));
+        assertEquals(InferenceConfig.defaultFor(6), tuner.resolve("broken", probe));
+        assertEquals(InferenceTuner.candidates(6).size(), attempts[0]);
+    }
+
+    @Test
+    public void candidates_respectPoolConcurrency() {
+        // 4 个会话同时推理时，8 核上每个会话最多 2 线程
+        List<InferenceConfig> shared = InferenceTuner.candidates(8, 4);
+        assertEquals(4, shared.size());
+        for (InferenceConfig c : shared)
+            assertTrue(c.getNumThreads() <= 2);
+        assertEquals(2, InferenceTuner.candidates(2, 8).size());
+        assertEquals(InferenceTuner.candidates(8), InferenceTuner.candidates(8, 1));
+    }
+
+    @Test
+    public void resolve_cachesPerConcurrencyAndFallsBackWithinBudget() {
+        long[] clock = { 0 };
+        MapStore store = new MapStore();
+        InferenceTuner tuner = new InferenceTuner(store, 8, () -> clock[0]);
+        // 线程越多越快：单会话会选满 8 线程，4 个会话共享时只能选到 2 线程
+        FakeProbe probe = new FakeProbe(clock, c -> 10_000 / c.getNumThreads());
+        assertEquals(new InferenceConfig(8, true), tuner.resolve("mfn", probe));
+        assertEquals(new InferenceConfig(2, true), tuner.resolve("mfn", probe, 4));
+        assertEquals(new InferenceConfig(8, true), tuner.cached("mfn"));
+        assertEquals(new InferenceConfig(2, true), tuner.cached("mfn", 4));
+        assertNull(tuner.cached("mfn", 2));
+
+        InferenceTuner broken = new InferenceTuner(new MapStore(), 8, () -> clock[0]);
+        assertEquals(InferenceConfig.defaultFor(2), broken.resolve("x", c -> {
+            throw new IllegalStateException("unsupported");
+        }, 4));
+    }
+
+    @Test
+    public void tune_raisesPriorityAndRestoresEvenOnFailure() {
+        long[] clock = { 0 };
+        List<String> calls = new ArrayList<>();
+        InferenceTuner.ThreadPriority priority = new InferenceTuner.ThreadPriority() {
+            @Override
+            public int boost() {
+                calls.add("boost");
+                return 10;
+            }
+
+            @Override
+            public void restore(int previous) {
+                calls.add("restore " + previous);
+            }
+        };
+        InferenceTuner tuner = new InferenceTuner(new MapStore(), 2, () -> clock[0], priority);
+        FakeProbe probe = new FakeProbe(clock, c -> {
+            assertEquals(1, calls.size());
+            return 100;
+        });
+        tuner.resolve("mfn", probe);
+        assertEquals(2, calls.size());
+        assertEquals("restore 10", calls.get(1));
+        // 命中缓存时不再调整优先级
+        tuner.resolve("mfn", probe);
+        assertEquals(2, calls.size());
+
+        calls.clear();
+        try {
+            tuner.tune("boom", config -> {
+                throw new Error("probe crashed");
+            });
+        } catch (Error expected) {
+            // 异常透传，但优先级已恢复
+        }
+        assertEquals(2, calls.size());
+        assertEquals("restore 10", calls.get(1));
+    }
+
+    @Test
+    public void pinAndClear_overrideCachedChoice() {
+        long[] clock = { 0 };
+        InferenceTuner tuner = new InferenceTuner(new MapStore(), 4, () -> clock[0]);
+        InferenceConfig pinned = new InferenceConfig(3, false);
+        tuner.pin("mfn", pinned);
+        FakeProbe probe = new FakeProbe(clock, c -> 10);
+        assertEquals(pinned, tuner.resolve("mfn", probe));
+        assertTrue(probe.opened.isEmpty());
+        tuner.clear("mfn");
+        assertNull(tuner.cached("mfn"));
+        assertNotNull(tuner.resolve("mfn", probe));
+        assertFalse(probe.opened.isEmpty());
+    }
+
+    @Test
+    public void configEncoding_roundTrips() {
+        for (InferenceConfig c : InferenceTuner.candidates(8))
+            assertEquals(c, InferenceConfig.decode(c.encode()));
+        assertNull(InferenceConfig.decode(null));
+        assertNull(InferenceConfig.decode("t0x1"));
+        assertNull(InferenceConfig.decode("t4x2"));
+        assertNull(InferenceConfig.decode("4x1"));
+        assertNull(InferenceConfig.decode("tx1"));
+    }
+
+    @Test
+    public void modelKey_stripsDirectoryAndExtension() {
+        assertEquals("mobilefacenet_float32", InferenceTuner.modelKey("models/new/mobilefacenet_float32.tflite"));
+        assertEquals("yunet_fp16_multi", InferenceTuner.modelKey("yunet_fp16_multi.tflite"));
+    }
+
+    /**
+     * 用真实时钟与真实 CPU 负载跑一遍：线程数越多、工作量按线程切分越快，
+     * 只校验流程在普通 Linux CPU 上可用且返回的是候选之一
+     */
+    @Test
+    public void resolve_runsWithRealClockOnHostCpu() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        InferenceTuner tuner = new InferenceTuner(new MapStore(), cores, System::nanoTime);
+        final float[] data = new float[1 << 16];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (i % 97) * 0.01f;
+        InferenceTuner.Probe probe = config -> new InferenceTuner.Trial() {
+            float sink;
+
+            @Override
+            public void runOnce() throws Exception {
+                int threads = config.getNumThreads();
+                Thread[] workers = new Thread[threads];
+                float[] partial = new float[threads];
+                int span = data.length / threads;
+                for (int t = 0; t < threads; t++) {
+                    final int id = t;
+                    workers[t] = new Thread(() -> {
+                        float acc = 0f;
+                        for (int i = id * span; i < (id + 1) * span; i++)
+                            acc += data[i] * data[i];
+                        partial[id] = acc;
+                    });
+                    workers[t].start();
+                }
+                for (Thread w : workers)
+                    w.join();
+                for (float p : partial)
+                    sink += p;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        InferenceConfig best = tuner.resolve("host", probe);
+        assertTrue(InferenceTuner.candidates(cores).contains(best));
+        assertEquals(best, tuner.cached("host"));
+        for (InferenceTuner.Result r : tuner.getLastResults("host"))
+            assertTrue(r.getMedianNanos() > 0);
+    }
+}
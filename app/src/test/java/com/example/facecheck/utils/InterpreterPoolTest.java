@@ -0,0 +1,245 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 推理会话池：上限内按需创建、满时阻塞、失效/缩容/关闭时的计数与会话关闭，以及多线程下的独占性（主机 JVM）
+ */
+public class InterpreterPoolTest {
+
+    /**
+     * 伪会话：记录是否已关闭
+     */
+    private static final class Session {
+        final int id;
+        volatile boolean closed;
+
+        Session(int id) {
+            this.id = id;
+        }
+    }
+
+    private final AtomicInteger nextId = new AtomicInteger();
+    private final List<Session> closedSessions = Collections.synchronizedList(new ArrayList<>());
+
+    private InterpreterPool<Session> pool(int maxSize) {
+        return new InterpreterPool<>(maxSize, () -> new Session(nextId.getAndIncrement()), s -> {
+            s.closed = true;
+            closedSessions.add(s);
+        });
+    }
+
+    @Test
+    public void acquire_reusesIdleSessionsAndTimesOutWhenFull() throws Exception {
+        InterpreterPool<Session> pool = pool(2);
+        Session a = pool.acquire();
+        pool.release(a);
+        assertSame(a, pool.acquire());
+        Session b = pool.acquire();
+        assertEquals(2, pool.createdCount());
+
+        long start = System.nanoTime();
+        assertNull(pool.acquire(50));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(2, pool.createdCount());
+
+        pool.release(a);
+        pool.release(b);
+        assertEquals(2, pool.idleCount());
+    }
+
+    @Test
+    public void acquire_blocksUntilRelease() throws Exception {
+        InterpreterPool<Session> pool = pool(1);
+        Session held = pool.acquire();
+        AtomicReference<Session> got = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                got.set(pool.acquire());
+            } catch (Exception ignored) {
+            } finally {
+                done.countDown();
+            }
+        });
+        waiter.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        pool.release(held);
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertSame(held, got.get());
+        assertEquals(1, pool.createdCount());
+    }
+
+    @Test
+    public void invalidate_freesSlotForNewSession() throws Exception {
+        InterpreterPool<Session> pool = pool(1);
+        Session broken = pool.acquire();
+        pool.invalidate(broken);
+        assertTrue(broken.closed);
+        assertEquals(0, pool.createdCount());
+
+        Session fresh = pool.acquire(100);
+        assertNotNull(fresh);
+        assertTrue(fresh != broken);
+    }
+
+    @Test
+    public void factoryFailure_releasesReservedSlot() throws Exception {
+        AtomicBoolean fail = new AtomicBoolean(true);
+        InterpreterPool<Session> pool = new InterpreterPool<>(1, () -> {
+            if (fail.get())
+                throw new IllegalStateException("model unavailable");
+            return new Session(nextId.getAndIncrement());
+        }, s -> s.closed = true);
+        try {
+            pool.acquire();
+            fail("expected factory failure");
+        } catch (IllegalStateException expected) {
+            // 原异常透传给调用方
+        }
+        assertEquals(0, pool.createdCount());
+        fail.set(false);
+        assertNotNull(pool.acquire(100));
+    }
+
+    @Test
+    public void setMaxSize_shrinksIdleNowAndBorrowedOnRelease() throws Exception {
+        InterpreterPool<Session> pool = pool(3);
+        Session a = pool.acquire(), b = pool.acquire(), c = pool.acquire();
+        pool.release(a);
+        pool.release(b);
+
+        pool.setMaxSize(1);
+        assertEquals(1, pool.getMaxSize());
+        // 两个空闲会话立即关闭，借出中的 c 保留到归还
+        assertEquals(1, pool.createdCount());
+        assertEquals(0, pool.idleCount());
+        assertTrue(a.closed && b.closed);
+        assertFalse(c.closed);
+
+        pool.release(c);
+        assertFalse(c.closed);
+        assertEquals(1, pool.idleCount());
+
+        pool.setMaxSize(0);
+        assertEquals(1, pool.getMaxSize());
+    }
+
+    @Test
+    public void setMaxSize_closesBorrowedOverflowOnRelease() throws Exception {
+        InterpreterPool<Session> pool = pool(2);
+        Session a = pool.acquire(), b = pool.acquire();
+        pool.setMaxSize(1);
+        assertEquals(2, pool.createdCount());
+        pool.release(a);
+        assertTrue(a.closed);
+        assertEquals(1, pool.createdCount());
+        pool.release(b);
+        assertFalse(b.closed);
+        assertEquals(1, pool.idleCount());
+    }
+
+    @Test
+    public void close_closesIdleWakesWaitersAndDiscardsReturns() throws Exception {
+        InterpreterPool<Session> pool = pool(2);
+        Session idle = pool.acquire(), borrowed = pool.acquire();
+        pool.release(idle);
+        // 占满后再借一个，使等待者阻塞
+        Session second = pool.acquire();
+        assertSame(idle, second);
+
+        AtomicReference<Throwable> waiterError = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread waiter = new Thread(() -> {
+            try {
+                pool.acquire();
+            } catch (Throwable t) {
+                waiterError.set(t);
+            } finally {
+                done.countDown();
+            }
+        });
+        waiter.start();
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+
+        pool.close();
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertTrue(waiterError.get() instanceof IllegalStateException);
+        assertTrue(pool.isClosed());
+
+        pool.release(second);
+        pool.release(borrowed);
+        assertTrue(second.closed && borrowed.closed);
+        assertEquals(0, pool.createdCount());
+        try {
+            pool.acquire();
+            fail("acquire after close");
+        } catch (IllegalStateException expected) {
+            // 关闭后不再借出
+        }
+        pool.close(); // 重复关闭无副作用
+    }
+
+    @Test
+    public void concurrentBorrowers_neverShareASessionOrExceedLimit() throws Exception {
+        final int maxSize = 3, threads = 8, rounds = 200;
+        InterpreterPool<Session> pool = pool(maxSize);
+        Set<Integer> inUse = ConcurrentHashMap.newKeySet();
+        AtomicInteger peak = new AtomicInteger();
+        AtomicReference<String> error = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            new Thread(() -> {
+                try {
+                    for (int i = 0; i < rounds; i++) {
+                        Session s = pool.acquire();
+                        if (!inUse.add(s.id))
+                            error.set("session " + s.id + " lent twice");
+                        peak.accumulateAndGet(inUse.size(), Math::max);
+                        if (s.closed)
+                            error.set("closed session lent out");
+                        Thread.yield();
+                        inUse.remove(s.id);
+                        // 偶尔丢弃会话，模拟推理失败后的重建
+                        if (i % 50 == 49)
+                            pool.invalidate(s);
+                        else
+                            pool.release(s);
+                    }
+                } catch (Exception e) {
+                    error.set(e.toString());
+                } finally {
+                    done.countDown();
+                }
+            }).start();
+        }
+        assertTrue(done.await(20, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertTrue("peak=" + peak.get(), peak.get() <= maxSize);
+        assertTrue(pool.createdCount() <= maxSize);
+        assertEquals(pool.createdCount(), pool.idleCount());
+
+        pool.close();
+        assertEquals(0, pool.createdCount());
+        assertEquals(nextId.get(), closedSessions.size());
+    }
+}
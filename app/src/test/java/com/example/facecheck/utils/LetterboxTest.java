@@ -0,0 +1,78 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Letterbox 的等比缩放、居中补边与坐标回映射（主机 JVM）
+ */
+public class LetterboxTest {
+
+    @Test
+    public void fit_landscapePadsTopAndBottom() {
+        Letterbox lb = new Letterbox(320, 320);
+        lb.fit(4000, 3000);
+        assertEquals(0.08f, lb.scale(), 1e-6f);
+        assertEquals(0, lb.offsetX());
+        assertEquals(40, lb.offsetY());
+        lb.fit(1920, 1080);
+        assertEquals(320f / 1920f, lb.scale(), 1e-6f);
+        assertEquals(70, lb.offsetY());
+    }
+
+    @Test
+    public void writePixels_bgrMeanMatchesRetinaFaceExport() {
+        int[] pixels = { 0xFF_C8_64_0A, 0xFF_000000 };
+        java.nio.ByteBuffer input = java.nio.ByteBuffer.allocate(2 * 12).order(java.nio.ByteOrder.nativeOrder());
+        Letterbox.writePixels(pixels, 2, input, true, RetinaFaceTFLiteDetector.MEAN_R,
+                RetinaFaceTFLiteDetector.MEAN_G, RetinaFaceTFLiteDetector.MEAN_B, 1f);
+        // R=200, G=100, B=10 按 B、G、R 顺序写入并减去 (104, 117, 123)
+        assertEquals(10f - 104f, input.getFloat(0), 0f);
+        assertEquals(100f - 117f, input.getFloat(4), 0f);
+        assertEquals(200f - 123f, input.getFloat(8), 0f);
+        // 补边的黑色像素为负均值
+        assertEquals(-104f, input.getFloat(12), 0f);
+        assertEquals(-123f, input.getFloat(20), 0f);
+
+        Letterbox.writePixels(pixels, 1, input, false, 0f, 0f, 0f, 1f / 255f);
+        assertEquals(200f / 255f, input.getFloat(0), 1e-6f);
+        assertEquals(10f / 255f, input.getFloat(8), 1e-6f);
+    }
+
+    @Test
+    public void fit_portraitPadsLeftAndRight() {
+        Letterbox lb = new Letterbox(320, 320);
+        lb.fit(900, 1600);
+        assertEquals(0.2f, lb.scale(), 1e-6f);
+        assertEquals(70, lb.offsetX());
+        assertEquals(0, lb.offsetY());
+    }
+
+    @Test
+    public void toSource_invertsForwardMappingWithoutSkew() {
+        Letterbox lb = new Letterbox(320, 320);
+        lb.fit(1600, 900);
+        // 原图中的正方形人脸框，映射到输入后再映射回来应保持正方形且坐标不变
+        float l = 812, t = 301, size = 64;
+        float inL = l * lb.scale() + lb.offsetX(), inT = t * lb.scale() + lb.offsetY();
+        float inSize = size * lb.scale();
+        assertEquals(l, lb.toSourceX(inL), 1e-3f);
+        assertEquals(t, lb.toSourceY(inT), 1e-3f);
+        float w = lb.toSourceX(inL + inSize) - lb.toSourceX(inL);
+        float h = lb.toSourceY(inT + inSize) - lb.toSourceY(inT);
+        assertEquals(size, w, 1e-3f);
+        assertEquals(w, h, 1e-3f);
+        assertEquals(size, lb.toSourceLength(inSize), 1e-3f);
+    }
+
+    @Test
+    public void fit_exactInputSizeIsIdentity() {
+        Letterbox lb = new Letterbox(320, 320);
+        lb.fit(320, 320);
+        assertEquals(1f, lb.scale(), 0f);
+        assertEquals(0, lb.offsetX());
+        assertEquals(0, lb.offsetY());
+        assertEquals(123.5f, lb.toSourceX(123.5f), 0f);
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentCallbacks2;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ModelRegistry 的引用计数、驱逐与并发加载（主机 JVM）
+ */
+public class ModelRegistryTest {
+
+    private static final class FakeModel {
+        boolean closed;
+    }
+
+    private final AtomicInteger loads = new AtomicInteger();
+    private final List<FakeModel> closed = new ArrayList<>();
+
+    private ModelRegistry.Lease<FakeModel> acquire(ModelRegistry registry, String key) {
+        return registry.acquire(key, () -> {
+            loads.incrementAndGet();
+            return new FakeModel();
+        }, m -> {
+            m.closed = true;
+            synchronized (closed) {
+                closed.add(m);
+            }
+        });
+    }
+
+    @Test
+    public void acquire_sharesOneInstancePerKey() {
+        ModelRegistry registry = new ModelRegistry();
+        ModelRegistry.Lease<FakeModel> a = acquire(registry, "mfn");
+        ModelRegistry.Lease<FakeModel> b = acquire(registry, "mfn");
+        ModelRegistry.Lease<FakeModel> c = acquire(registry, "yunet:MULTI_FACE");
+        assertSame(a.get(), b.get());
+        assertNotSame(a.get(), c.get());
+        assertEquals(2, loads.get());
+        assertEquals(2, registry.refCount("mfn"));
+
+        a.close();
+        a.close(); // 重复关闭只归还一次
+        assertEquals(1, registry.refCount("mfn"));
+        b.close();
+        c.close();
+        // 引用归零后仍缓存，下一个界面直接复用
+        assertTrue(registry.isLoaded("mfn"));
+        assertSame(b.get(), acquire(registry, "mfn").get());
+        assertEquals(2, loads.get());
+        assertTrue(closed.isEmpty());
+    }
+
+    @Test
+    public void trimMemory_closesIdleNowAndBusyOnRelease() {
+        ModelRegistry registry = new ModelRegistry();
+        ModelRegistry.Lease<FakeModel> idle = acquire(registry, "idle");
+        idle.close();
+        ModelRegistry.Lease<FakeModel> busy = acquire(registry, "busy");
+        FakeModel busyModel = busy.get();
+
+        registry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, registry.size());
+        assertEquals(1, closed.size());
+        assertFalse(busyModel.closed);
+
+        // 驱逐后再借用会重新加载新实例，旧实例在最后一个租约归还时关闭
+        ModelRegistry.Lease<FakeModel> fresh = acquire(registry, "busy");
+        assertNotSame(busyModel, fresh.get());
+        busy.close();
+        assertTrue(busyModel.closed);
+        assertFalse(fresh.get().closed);
+        assertEquals(3, loads.get());
+    }
+
+    @Test
+    public void trimMemory_keepsModelsWhenOnlyUiHidden() {
+        ModelRegistry registry = new ModelRegistry();
+        acquire(registry, "mfn").close();
+        registry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        registry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE);
+        assertTrue(registry.isLoaded("mfn"));
+        registry.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertFalse(registry.isLoaded("mfn"));
+        assertEquals(1, closed.size());
+    }
+
+    @Test
+    public void failedLoad_returnsNullAndIsNotCached() {
+        ModelRegistry registry = new ModelRegistry();
+        assertNull(registry.acquire("broken", () -> null, m -> {
+        }));
+        assertNull(registry.acquire("broken", () -> {
+            throw new IllegalStateException("missing asset");
+        }, m -> {
+        }));
+        assertEquals(0, registry.size());
+        assertEquals(0, registry.refCount("broken"));
+    }
+
+    @Test
+    public void concurrentAcquire_loadsOnce() throws Exception {
+        ModelRegistry registry = new ModelRegistry();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+        List<FakeModel> seen = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                ModelRegistry.Lease<FakeModel> lease = registry.acquire("mfn", () -> {
+                    loads.incrementAndGet();
+                    Thread.sleep(20);
+                    return new FakeModel();
+                }, m -> m.closed = true);
+                synchronized (seen) {
+                    seen.add(lease.get());
+                }
+                lease.close();
+            });
+            workers.add(t);
+            t.start();
+        }
+        start.countDown();
+        for (Thread t : workers)
+            t.join();
+        assertEquals(1, loads.get());
+        assertEquals(threads, seen.size());
+        for (FakeModel m : seen)
+            assertSame(seen.get(0), m);
+        assertEquals(0, registry.refCount("mfn"));
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+/**
+ * 网格分桶 NMS 与参照实现的一致性、提前截断、Soft-NMS 衰减（主机 JVM）
+ */
+public class NmsTest {
+
+    @Test
+    public void hard_matchesNaiveReference() {
+        Nms nms = new Nms();
+        for (int n : new int[] { 1, 50, 2000, 8000 }) {
+            float[] boxes = new float[n * 4];
+            float[] scores = new float[n];
+            Nms.synthesize(boxes, scores, n, 4000f, 3000f, 31L * n);
+            for (float cutoff : new float[] { 0f, 0.5f }) {
+                int[] expected = new int[n];
+                int[] keep = new int[n];
+                int e = Nms.naive(boxes, scores, n, 0.45f, cutoff, expected);
+                int k = nms.hard(boxes, scores, n, 0.45f, cutoff, keep);
+                assertEquals("n=" + n + " cutoff=" + cutoff, e, k);
+                assertArrayEquals(Arrays.copyOf(expected, e), Arrays.copyOf(keep, k));
+            }
+        }
+    }
+
+    @Test
+    public void hard_respectsCutoffAndKeepLimit() {
+        float[] boxes = { 0, 0, 10, 10, 100, 100, 110, 110, 200, 200, 210, 210, 300, 300, 310, 310 };
+        float[] scores = { 0.2f, 0.9f, Float.NaN, 0.7f };
+        int[] keep = new int[4];
+        Nms nms = new Nms();
+        assertEquals(2, nms.hard(boxes, scores, 4, 0.5f, 0.5f, keep));
+        assertEquals(1, keep[0]);
+        assertEquals(3, keep[1]);
+        assertEquals(1, nms.hard(boxes, scores, 4, 0.5f, 0f, new int[1]));
+    }
+
+    @Test
+    public void sortKeys_matchesArraysSort() {
+        java.util.Random rnd = new java.util.Random(7);
+        for (int n : new int[] { 0, 1, 15, 17, 100, 5000 }) {
+            long[] keys = new long[n + 2];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = ((long) rnd.nextInt(n / 3 + 1) << 32) | i;
+            long[] expected = keys.clone();
+            Arrays.sort(expected, 1, n + 1);
+            Nms.sortKeys(keys, 1, n + 1);
+            assertArrayEquals(expected, keys);
+        }
+    }
+
+    @Test
+    public void sortableBits_ordersNegativeAndPositiveScores() {
+        float[] values = { -3f, -0.5f, 0f, 1e-6f, 0.5f, 2f };
+        for (int i = 1; i < values.length; i++)
+            assertTrue(Nms.sortableBits(values[i - 1]) < Nms.sortableBits(values[i]));
+    }
+
+    @Test
+    public void soft_decaysOverlapsInsteadOfRemoving() {
+        float[] boxes = {
+                0, 0, 100, 100,
+                10, 0, 110, 100, // 与第一个 IoU = 90/110
+                500, 500, 560, 560 // 不重叠，分数不变
+        };
+        float[] scores = { 0.9f, 0.8f, 0.7f };
+        int[] keep = new int[3];
+        int k = new Nms().soft(boxes, scores, 3, 0.5f, 0.01f, keep);
+        assertEquals(3, k);
+        float iou = 90f / 110f;
+        float decayed = 0.8f * (float) Math.exp(-iou * iou / 0.5f);
+        assertEquals(0, keep[0]);
+        assertEquals(2, keep[1]);
+        assertEquals(1, keep[2]);
+        assertEquals(decayed, scores[1], 1e-6f);
+        assertEquals(0.7f, scores[2], 0f);
+
+        // 衰减后低于 minScore 的候选被丢弃
+        float[] again = { 0.9f, 0.8f, 0.7f };
+        assertEquals(2, new Nms().soft(boxes, again, 3, 0.5f, 0.5f, keep));
+    }
+
+    @Test
+    public void detectionBuffer_softNmsKeepsDecayedScoresInOrder() {
+        DetectionBuffer buf = new DetectionBuffer(2);
+        buf.reset(false);
+        buf.add(0, 0, 100, 100, 0.9f);
+        buf.add(5, 5, 105, 105, 0.85f);
+        buf.add(300, 300, 340, 340, 0.6f);
+        buf.softNms(0.5f, 0.05f);
+        assertEquals(3, buf.size());
+        assertEquals(0.9f, buf.score(0), 0f);
+        assertEquals(0.6f, buf.score(1), 0f);
+        assertTrue(buf.score(2) < 0.6f);
+        assertEquals(5f, buf.left(2), 0f);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+/**
+ * INT8 粗排 + float 精排：返回的分数应与 float 嵌入库的精确余弦一致（主机 JVM）
+ */
+public class QuantizedGalleryTest {
+
+    private static float[] unit(Random rnd, int dim) {
+        float[] v = new float[dim];
+        float norm = 0f;
+        for (int i = 0; i < dim; i++) {
+            v[i] = (float) rnd.nextGaussian();
+            norm += v[i] * v[i];
+        }
+        norm = (float) Math.sqrt(norm);
+        for (int i = 0; i < dim; i++)
+            v[i] /= norm;
+        return v;
+    }
+
+    @Test
+    public void findBestMatch_reranksWithExactFloatScores() {
+        int dim = 128, size = 200;
+        Random rnd = new Random(3);
+        float[] matrix = new float[size * dim];
+        long[] ids = new long[size];
+        for (int row = 0; row < size; row++) {
+            System.arraycopy(unit(rnd, dim), 0, matrix, row * dim, dim);
+            ids[row] = 1000 + row;
+        }
+        EmbeddingGallery gallery = new EmbeddingGallery(1, "test", dim, size, matrix, ids);
+        QuantizedGallery quantized = QuantizedGallery.fromGallery(gallery);
+
+        for (int t = 0; t < 20; t++) {
+            int target = rnd.nextInt(size);
+            float[] q = new float[dim];
+            for (int i = 0; i < dim; i++)
+                q[i] = matrix[target * dim + i] + (float) rnd.nextGaussian() * 0.02f;
+            float norm = 0f;
+            for (float v : q)
+                norm += v * v;
+            norm = (float) Math.sqrt(norm);
+            for (int i = 0; i < dim; i++)
+                q[i] /= norm;
+
+            EmbeddingGallery.Match approx = quantized.findBestMatch(q, QuantizedGallery.DEFAULT_RERANK_SIZE);
+            EmbeddingGallery.Match exact = gallery.findBestMatch(q);
+            assertEquals(exact.getStudentId(), approx.getStudentId());
+            // 精排分数来自 float 行，与暴力检索完全相同，而非量化近似
+            assertEquals(exact.getScore(), approx.getScore(), 0f);
+            assertEquals(gallery.score(q, target), approx.getScore(), 0f);
+        }
+    }
+
+    @Test
+    public void residentBytes_includeFloatRowsKeptForRerank() {
+        int dim = 64, size = 10;
+        EmbeddingGallery gallery = new EmbeddingGallery(1, "test", dim, size, new float[size * dim], new long[size]);
+        QuantizedGallery quantized = QuantizedGallery.fromGallery(gallery);
+        assertEquals(size * dim + 4L * size, quantized.memoryBytes());
+        assertEquals(4L * size * dim + quantized.memoryBytes(), quantized.residentBytes());
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * RetinaFace 先验框生成、方差解码、logits 阈值换算与 letterbox 回映射（主机 JVM）
+ */
+public class RetinaFaceDecodeTest {
+
+    @Test
+    public void priors_matchFeatureMapLayoutAndAreCached() {
+        float[] p = RetinaFaceTFLiteDetector.priors(320, 320);
+        // 40×40×2 + 20×20×2 + 10×10×2
+        assertEquals(4200 * 4, p.length);
+        assertEquals(4f / 320f, p[0], 1e-6f);
+        assertEquals(16f / 320f, p[2], 1e-6f);
+        assertEquals(32f / 320f, p[6], 1e-6f);
+        // 第二层第一个先验：步长 16，min_size 64
+        int second = 40 * 40 * 2 * 4;
+        assertEquals(8f / 320f, p[second], 1e-6f);
+        assertEquals(64f / 320f, p[second + 2], 1e-6f);
+        assertSame(p, RetinaFaceTFLiteDetector.priors(320, 320));
+        // 非方形输入向上取整
+        assertEquals((30 * 40 * 2 + 15 * 20 * 2 + 8 * 10 * 2) * 4, RetinaFaceTFLiteDetector.priors(320, 240).length);
+    }
+
+    @Test
+    public void decode_appliesVarianceAndMapsThroughLetterbox() {
+        float[] priors = { 0.5f, 0.5f, 0.1f, 0.1f, 0.25f, 0.25f, 0.05f, 0.05f };
+        float[] loc = { 1f, -1f, (float) (Math.log(2) / 0.2), 0f, 0f, 0f, 0f, 0f };
+        float[] conf = { 0.1f, 0.9f, 0.7f, 0.3f };
+        float[] landms = new float[20];
+        landms[0] = 2f; // 第 0 个关键点 x 偏移 2 * 0.1 * pw
+        Letterbox lb = new Letterbox(320, 320);
+        lb.fit(640, 480); // 缩放 0.5，上下补 40
+        DetectionBuffer out = new DetectionBuffer();
+        RetinaFaceTFLiteDetector.decode(loc, conf, landms, priors, 2, false, 0.6f, lb, out);
+
+        assertEquals(1, out.size());
+        assertTrue(out.hasLandmarks());
+        // 输入坐标：cx = 0.5 + 0.01 = 0.51，w = 0.2；cy = 0.49，h = 0.1
+        assertEquals((0.41f * 320f) * 2f, out.left(0), 1e-2f);
+        assertEquals((0.61f * 320f) * 2f, out.right(0), 1e-2f);
+        assertEquals((0.44f * 320f - 40f) * 2f, out.top(0), 1e-2f);
+        assertEquals((0.54f * 320f - 40f) * 2f, out.bottom(0), 1e-2f);
+        assertEquals(0.9f, out.score(0), 0f);
+        assertEquals((0.52f * 320f) * 2f, out.landmarkX(0, 0), 1e-2f);
+        assertEquals((0.5f * 320f - 40f) * 2f, out.landmarkY(0, 0), 1e-2f);
+    }
+
+    @Test
+    public void decode_logitsCompareMarginAgainstThreshold() {
+        float[] priors = { 0.5f, 0.5f, 0.1f, 0.1f, 0.5f, 0.5f, 0.1f, 0.1f };
+        float[] loc = new float[8];
+        // sigmoid(0.5) ≈ 0.62 保留；sigmoid(0.3) ≈ 0.57 丢弃
+        float[] conf = { -0.25f, 0.25f, 0.1f, 0.4f };
+
+        Letterbox lb = new Letterbox(320, 320);
+        lb.fit(320, 320);
+        DetectionBuffer out = new DetectionBuffer();
+        RetinaFaceTFLiteDetector.decode(loc, conf, null, priors, 2, true, 0.6f, lb, out);
+        assertEquals(1, out.size());
+        assertFalse(out.hasLandmarks());
+        assertEquals(1f / (1f + (float) Math.exp(-0.5)), out.score(0), 1e-6f);
+        assertEquals(144f, out.left(0), 1e-3f);
+        assertEquals(176f, out.bottom(0), 1e-3f);
+    }
+}
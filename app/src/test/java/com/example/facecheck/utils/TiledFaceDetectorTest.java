@@ -0,0 +1,159 @@
+package com.example.facecheck.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分块检测的瓦片布局、坐标回映射、截断框过滤与跨瓦片合并（主机 JVM）
+ */
+public class TiledFaceDetectorTest {
+
+    @Test
+    public void layoutTiles_coversImageWithOverlapAndAlignsLastTile() {
+        int[] tiles = TiledFaceDetector.layoutTiles(2000, 700, 640, 160);
+        // x: 0, 480, 960, 1360(对齐末端)；y: 0, 60(对齐末端)
+        assertEquals(8 * 4, tiles.length);
+        assertArrayEquals(new int[] { 0, 0, 640, 640 }, java.util.Arrays.copyOfRange(tiles, 0, 4));
+        assertArrayEquals(new int[] { 1360, 0, 640, 640 }, java.util.Arrays.copyOfRange(tiles, 12, 16));
+        assertArrayEquals(new int[] { 1360, 60, 640, 640 }, java.util.Arrays.copyOfRange(tiles, 28, 32));
+        for (int i = 0; i < tiles.length; i += 4) {
+            assertTrue(tiles[i] + tiles[i + 2] <= 2000);
+            assertTrue(tiles[i + 1] + tiles[i + 3] <= 700);
+        }
+        // 相邻瓦片的重叠不小于设定值
+        assertTrue(tiles[0] + tiles[2] - tiles[4] >= 160);
+    }
+
+    @Test
+    public void layoutTiles_shortAxisIsOneTile() {
+        int[] tiles = TiledFaceDetector.layoutTiles(1500, 400, 640, 0);
+        assertEquals(3 * 4, tiles.length);
+        assertEquals(400, tiles[3]);
+        assertEquals(640, tiles[4]);
+        assertEquals(860, tiles[8]);
+    }
+
+    @Test
+    public void mergeTile_offsetsBoxesAndDropsTruncatedAtInnerEdges() {
+        DetectionBuffer tile = new DetectionBuffer();
+        tile.reset(true);
+        int a = tile.add(100, 100, 140, 150, 0.9f); // 完整人脸
+        tile.setLandmark(a, 0, 110, 120);
+        tile.add(0, 200, 30, 240, 0.8f); // 贴左边界且窄于重叠区：左侧瓦片能看到整张脸，丢弃
+        tile.add(600, 300, 640, 340, 0.7f); // 贴右边界：该瓦片右侧就是图像边界，保留
+
+        DetectionBuffer out = new DetectionBuffer();
+        out.reset(true);
+        TiledFaceDetector.mergeTile(tile, 1360, 480, 640, 640, 2000, 1500, 160, out);
+        assertEquals(2, out.size());
+        assertEquals(1460f, out.left(0), 0f);
+        assertEquals(580f, out.top(0), 0f);
+        assertEquals(1470f, out.landmarkX(0, 0), 0f);
+        assertEquals(600f, out.landmarkY(0, 0), 0f);
+        assertEquals(2000f, out.right(1), 0f);
+    }
+
+    @Test
+    public void mergeTile_keepsTruncatedFacesWiderThanOverlap() {
+        DetectionBuffer tile = new DetectionBuffer();
+        tile.reset(false);
+        tile.add(0, 100, 200, 300, 0.8f); // 贴左边界，但可见部分已宽于重叠区
+        tile.add(300, 0, 400, 170, 0.7f); // 贴上边界，可见高度宽于重叠区
+        tile.add(300, 600, 400, 640, 0.6f); // 贴下边界，只露出 40 px，丢弃
+
+        DetectionBuffer out = new DetectionBuffer();
+        out.reset(false);
+        TiledFaceDetector.mergeTile(tile, 480, 480, 640, 640, 2000, 1500, 160, out);
+        assertEquals(2, out.size());
+        assertEquals(480f, out.left(0), 0f);
+        assertEquals(480f, out.top(1), 0f);
+    }
+
+    /**
+     * 关闭全局检测时，宽于重叠区（160 px）的人脸在两侧瓦片里都被截断，仍应检出；
+     * 窄于重叠区的截断框照旧丢弃，由看到完整人脸的瓦片给出
+     */
+    @Test
+    public void detectTiled_findsFaceWiderThanOverlapWithoutGlobalPass() {
+        // 1120×640：瓦片 x=0 与 x=480，重叠区 480..640
+        float[][] faces = { { 400, 200, 700, 500 }, { 600, 50, 700, 150 } };
+        TiledFaceDetector tiled = new TiledFaceDetector(null);
+        tiled.setTileSize(640);
+        tiled.setOverlap(0.25f);
+        tiled.setGlobalPass(false);
+        List<int[]> regions = java.util.Collections.synchronizedList(new ArrayList<>());
+        // 伪检测器：把真值框裁到区域内，按区域内坐标输出
+        TiledFaceDetector.RegionDetector detector = (x, y, w, h, buf) -> {
+            regions.add(new int[] { x, y, w, h });
+            buf.reset(false);
+            for (float[] f : faces) {
+                float l = Math.max(f[0], x) - x, t = Math.max(f[1], y) - y;
+                float r = Math.min(f[2], x + w) - x, b = Math.min(f[3], y + h) - y;
+                if (r > l && b > t)
+                    buf.add(l, t, r, b, 0.5f + 0.4f * (r - l) * (b - t) / ((f[2] - f[0]) * (f[3] - f[1])));
+            }
+        };
+
+        DetectionBuffer out = new DetectionBuffer();
+        assertEquals(2, tiled.detectTiled(1120, 640, detector, out));
+        assertEquals(2, regions.size());
+        for (int[] r : regions)
+            assertFalse(r[0] == 0 && r[2] == 1120);
+
+        List<float[]> truth = new ArrayList<>();
+        truth.add(new float[] { 400, 200, 700, 500, 300 });
+        truth.add(new float[] { 600, 50, 700, 150, 100 });
+        boolean[] matched = TiledFaceDetector.matchTruth(out, truth, 0.5f);
+        assertTrue(matched[0]);
+        assertTrue(matched[1]);
+        // 小脸取自看到完整人脸的右侧瓦片，而不是左侧瓦片里 40 px 宽的截断框
+        boolean exact = false;
+        for (int i = 0; i < out.size(); i++)
+            exact |= out.left(i) == 600f && out.right(i) == 700f;
+        assertTrue(exact);
+    }
+
+    @Test
+    public void crossTileNms_mergesDuplicatesFromOverlap() {
+        // 同一张脸出现在两块重叠瓦片里，坐标略有偏差
+        DetectionBuffer left = new DetectionBuffer();
+        left.reset(false);
+        left.add(500, 100, 560, 170, 0.85f);
+        DetectionBuffer right = new DetectionBuffer();
+        right.reset(false);
+        right.add(22, 102, 81, 171, 0.9f);
+
+        DetectionBuffer out = new DetectionBuffer();
+        out.reset(false);
+        TiledFaceDetector.mergeTile(left, 0, 0, 640, 640, 1200, 640, 160, out);
+        TiledFaceDetector.mergeTile(right, 480, 0, 640, 640, 1200, 640, 160, out);
+        assertEquals(2, out.size());
+        out.nms(TiledFaceDetector.MERGE_IOU);
+        assertEquals(1, out.size());
+        assertEquals(0.9f, out.score(0), 0f);
+        assertEquals(502f, out.left(0), 0f);
+    }
+
+    @Test
+    public void matchTruth_isOneToOne() {
+        DetectionBuffer dets = new DetectionBuffer();
+        dets.reset(false);
+        dets.add(10, 10, 50, 50, 0.9f);
+        dets.add(300, 300, 320, 320, 0.8f);
+        List<float[]> truth = new ArrayList<>();
+        truth.add(new float[] { 12, 12, 50, 52, 40 });
+        truth.add(new float[] { 10, 10, 50, 50, 40 }); // 与第一个真值重叠，但检测框只能用一次
+        truth.add(new float[] { 600, 600, 640, 640, 40 });
+        boolean[] matched = TiledFaceDetector.matchTruth(dets, truth, 0.4f);
+        assertTrue(matched[0]);
+        assertFalse(matched[1]);
+        assertFalse(matched[2]);
+    }
+}